@@ -0,0 +1,109 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ChatService;
+import server.ClientConnection;
+import server.Frame;
+import server.Handshake;
+import server.OutboundQueue;
+import server.ServerConfig;
+import server.ServerLog;
+import server.LogLevel;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Difusión de un mensaje global (lo que hace Server.broadcast) a 10, 1.000 y 10.000
+ * clientes en memoria, con varios emisores a la vez.
+ * Cada cliente encola la trama en una OutboundQueue real y la extrae enseguida, como
+ * si su hilo de escritura fuera al día; así se mide el coste de las colas sin red.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class BroadcastBenchmark {
+    @Param({"10", "1000", "10000"})
+    private int clients;
+
+    private ScheduledExecutorService scheduler;
+    private ChatService chatService;
+
+    /**
+     * Cliente en memoria: la trama pasa por su cola de salida y se suelta enseguida.
+     */
+    static final class MemoryClient implements ClientConnection {
+        private final String name;
+        private final OutboundQueue queue;
+
+        MemoryClient(String name, ServerConfig config) {
+            this.name = name;
+            this.queue = config.newOutboundQueue();
+        }
+
+        @Override
+        public String getClientName() {
+            return name;
+        }
+
+        @Override
+        public void enqueue(Frame frame) {
+            queue.offer(frame);
+            Frame written = queue.poll();
+            if (written != null) {
+                written.release();
+            }
+        }
+
+        @Override
+        public OutboundQueue getOutboundQueue() {
+            return queue;
+        }
+
+        @Override
+        public void closeConnection() {
+            queue.close();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        ServerLog.setLevel(LogLevel.WARN);
+        ServerConfig config = new ServerConfig();
+        config.setLogDirectory(null); // Sin disco: solo el camino de difusión
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        chatService = new ChatService(scheduler, config);
+        for (int i = 0; i < clients; i++) {
+            String name = "c" + i;
+            chatService.onNameReceived(new MemoryClient(name, config), Handshake.parse(name));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        chatService.close();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        chatService.broadcast("mensaje de prueba para todos los clientes");
+    }
+}
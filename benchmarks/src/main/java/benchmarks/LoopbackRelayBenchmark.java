@@ -0,0 +1,139 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.LogLevel;
+import server.NioServer;
+import server.Server;
+import server.ServerConfig;
+import server.ServerEngine;
+import server.ServerLog;
+import server.SocketProcess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia de ida y vuelta de un mensaje de chat por loopback: el cliente lo envía y
+ * espera a recibir su propia difusión ("bench: mensaje"). Los demás oyentes reciben
+ * la misma difusión y la descartan en sus hilos.
+ * El servidor se crea directamente (sin ServerInitializer, que termina la JVM al parar).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackRelayBenchmark {
+    @Param({"BLOCKING", "NIO"})
+    private ServerEngine engine;
+
+    @Param({"1", "16"})
+    private int listeners;
+
+    @Param({"16", "1024"})
+    private int size;
+
+    private SocketProcess server;
+    private Socket sender;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private String message;
+    private String expected;
+    private final List<Socket> others = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        ServerLog.setLevel(LogLevel.WARN);
+        ServerConfig config = new ServerConfig();
+        config.setLogDirectory(null);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        int port;
+        if (engine == ServerEngine.NIO) {
+            ServerSocketChannel channel = ServerSocketChannel.open().bind(address);
+            port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            server = new NioServer(channel, Runtime.getRuntime().availableProcessors(), config);
+        } else {
+            ServerSocket serverSocket = new ServerSocket();
+            serverSocket.bind(address);
+            port = serverSocket.getLocalPort();
+            server = new Server(serverSocket, Thread::new, config);
+        }
+        Thread acceptor = new Thread(server::bind, "bench-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        sender = connect(port, "bench");
+        out = new DataOutputStream(new BufferedOutputStream(sender.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(sender.getInputStream()));
+        for (int i = 1; i < listeners; i++) {
+            Socket listener = connect(port, "oyente" + i);
+            others.add(listener);
+            InputStream stream = listener.getInputStream();
+            Thread drain = new Thread(() -> {
+                try {
+                    stream.transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    // El socket se cerró al terminar
+                }
+            }, "bench-listener-" + i);
+            drain.setDaemon(true);
+            drain.start();
+        }
+        message = "x".repeat(size);
+        expected = "bench: " + message;
+    }
+
+    private static Socket connect(int port, String name) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        new DataOutputStream(socket.getOutputStream()).writeUTF(name);
+        return socket;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sender.close();
+        for (Socket socket : others) {
+            socket.close();
+        }
+        others.clear();
+        server.close();
+    }
+
+    @Benchmark
+    public String roundTrip() throws IOException {
+        out.writeUTF(message);
+        out.flush();
+        while (true) {
+            String received = in.readUTF();
+            if (received.equals(expected)) {
+                return received; // Se ignoran las listas de clientes y otras tramas de control
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Socket en memoria para medir Session sin red: lee y escribe en los streams indicados.
+ */
+class MemorySocket extends Socket {
+    private final InputStream input;
+    private final OutputStream output;
+    private boolean closed;
+
+    MemorySocket(InputStream input, OutputStream output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * Stream que repite indefinidamente los mismos bytes (una trama ya codificada).
+     */
+    static final class RepeatingInputStream extends InputStream {
+        private final byte[] data;
+        private int position;
+
+        RepeatingInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            int b = data[position] & 0xFF;
+            position = (position + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            int n = Math.min(length, data.length - position);
+            System.arraycopy(data, position, target, offset, n);
+            position = (position + n) % data.length;
+            return n;
+        }
+    }
+}
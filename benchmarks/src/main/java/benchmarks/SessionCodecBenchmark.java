@@ -0,0 +1,101 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import server.Frame;
+import server.FrameCodec;
+import server.FramePool;
+import server.Session;
+import server.WireProtocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codificación y decodificación de tramas en Session, sin red, para varios tamaños
+ * de mensaje y los dos protocolos.
+ *   writeShared  escribe una trama ya codificada (difusión: una codificación para todos)
+ *   writeNew     codifica un String nuevo en cada escritura
+ *   read         lee y decodifica a String
+ *   readRelay    lee a una trama del pool con el prefijo del remitente (sin String)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionCodecBenchmark {
+    @Param({"16", "256", "4096", "32768"})
+    private int size;
+
+    @Param({"LEGACY", "V2"})
+    private WireProtocol protocol;
+
+    private String text;
+    private Frame frame;
+    private Session writer;
+    private Session reader;
+    private Session relayReader;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append(i % 16 == 15 ? 'ñ' : (char) ('a' + i % 26)); // Algún carácter de dos bytes
+        }
+        text = builder.toString();
+        frame = Frame.of(text);
+        writer = new Session(new MemorySocket(InputStream.nullInputStream(), OutputStream.nullOutputStream()));
+        writer.setProtocol(protocol);
+
+        // La trama codificada en el protocolo elegido se lee una y otra vez
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        Session encoder = new Session(new MemorySocket(InputStream.nullInputStream(), encoded));
+        encoder.setProtocol(protocol);
+        encoder.write(frame);
+        byte[] bytes = encoded.toByteArray();
+        reader = new Session(new MemorySocket(new MemorySocket.RepeatingInputStream(bytes), OutputStream.nullOutputStream()));
+        reader.setProtocol(protocol);
+        relayReader = new Session(new MemorySocket(new MemorySocket.RepeatingInputStream(bytes), OutputStream.nullOutputStream()));
+        relayReader.setProtocol(protocol);
+        relayReader.setRelay(new FramePool(16, size * 3 + 64, false), FrameCodec.relayPrefix("bench"));
+    }
+
+    @Benchmark
+    public boolean writeShared() throws IOException {
+        return writer.write(frame);
+    }
+
+    @Benchmark
+    public boolean writeNew() throws IOException {
+        return writer.write(text);
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        Frame read = reader.readFrame();
+        blackhole.consume(read.text());
+        read.release();
+    }
+
+    @Benchmark
+    public void readRelay(Blackhole blackhole) throws IOException {
+        Frame read = relayReader.readFrame();
+        blackhole.consume(read.length());
+        read.release();
+    }
+}
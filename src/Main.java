@@ -1,16 +1,82 @@
 import interfaz.ServerControlGUI;
 import server.ServerInitializer;
+import server.ServerLog;
+import server.ServerOptions;
+import server.TrainingRun;
+
+import java.awt.GraphicsEnvironment;
 
 /**
  * Clase principal del programa.
+ * Arranca el servidor sin interfaz gráfica con las opciones de ServerOptions (fichero de
+ * configuración, variables CHAT_*, propiedades chat.* y línea de órdenes), por ejemplo:
+ *
+ *   java -jar target/server-chat-1.0-SNAPSHOT.jar --config chat-server.properties --engine nio --port 2001
+ *
+ * Con --gui abre además la ventana de control, si hay entorno gráfico; sin ella no se
+ * carga AWT. El servidor se detiene ordenadamente al recibir SIGTERM o SIGINT: deja de
+ * aceptar conexiones, vacía las colas de salida y escribe el registro a disco.
+ *
+ * El arranque se puede acelerar con un archivo de clases (AppCDS): se genera una vez con
+ * una ejecución de entrenamiento y se usa en los arranques siguientes:
+ *
+ *   java -XX:ArchiveClassesAtExit=chat.jsa -jar target/server-chat-1.0-SNAPSHOT.jar --trainingRun
+ *   java -XX:SharedArchiveFile=chat.jsa -jar target/server-chat-1.0-SNAPSHOT.jar
+ *
+ * El archivo solo es válido para la misma JVM y el mismo jar con que se generó (CDS no
+ * admite directorios de clases en el classpath).
  */
 public class Main {
     public static void main(String[] args) {
-        int port = 2000;
-        int maxClients = 100;
+        long start = System.nanoTime();
+        ServerOptions options;
+        try {
+            options = ServerOptions.load(args, System.getenv(), System.getProperties());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(ServerOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        ServerInitializer serverInitializer = options.newInitializer();
+        // Detiene el servidor ordenadamente al terminar la JVM (señal, cierre de la ventana)
+        Runtime.getRuntime().addShutdownHook(new Thread(serverInitializer::stopServer, "shutdown"));
+
+        if (options.isGui()) {
+            if (!GraphicsEnvironment.isHeadless()) {
+                openGui(serverInitializer);
+                return;
+            }
+            ServerLog.warn("No hay entorno gráfico: el servidor arranca sin interfaz");
+        }
+
+        serverInitializer.startServer();
+        if (!serverInitializer.isRunning()) {
+            System.exit(1); // No se pudo abrir el puerto
+        }
+        logStartup(start);
 
-        ServerInitializer serverInitializer = new ServerInitializer(port, maxClients);
+        if (options.isTrainingRun()) {
+            TrainingRun.run(serverInitializer.getPort());
+            serverInitializer.stopServer(); // Sin más hilos vivos la JVM termina y vuelca el archivo de clases
+        }
+    }
+
+    /**
+     * Abre la ventana de control; el servidor se arranca desde ella.
+     * Está en un método aparte para que las clases de Swing solo se carguen con --gui.
+     */
+    private static void openGui(ServerInitializer serverInitializer) {
         ServerControlGUI serverControlGUI = new ServerControlGUI(serverInitializer);
         serverControlGUI.setVisible(true);
     }
-}
\ No newline at end of file
+
+    /**
+     * Registra el tiempo de arranque del servidor desde la entrada en main. El de la JVM
+     * hasta main se ve con -Xlog:startuptime; el del proceso completo, con time.
+     */
+    private static void logStartup(long start) {
+        ServerLog.info("Servidor listo en " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
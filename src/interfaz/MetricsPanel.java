@@ -0,0 +1,124 @@
+package interfaz;
+
+import server.LatencyHistogram;
+import server.OutboundQueue;
+import server.ServerMetrics;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Panel con las métricas del servidor en vivo.
+ * Cada segundo lee los contadores acumulados y muestra la diferencia con la lectura
+ * anterior como tasa por segundo, junto con los percentiles de latencia del último
+ * intervalo y la profundidad de las colas de salida.
+ */
+public class MetricsPanel extends JPanel {
+    // Intervalo de actualización del panel
+    private static final int REFRESH_MILLIS = 1000;
+
+    private final ServerMetrics metrics; // Métricas que se muestran
+    private final Timer timer; // Temporizador de Swing: actualiza en el hilo de eventos
+    private final JLabel connections = new JLabel("0");
+    private final JLabel messagesIn = new JLabel("0");
+    private final JLabel messagesOut = new JLabel("0");
+    private final JLabel bytesIn = new JLabel("0");
+    private final JLabel bytesOut = new JLabel("0");
+    private final JLabel accepts = new JLabel("0");
+    private final JLabel rejects = new JLabel("0");
+    private final JLabel fanOut = new JLabel("-");
+    private final JLabel queueLatency = new JLabel("-");
+    private final JLabel queueDepth = new JLabel("0");
+    private final JLabel dropped = new JLabel("0");
+    private final JLabel tlsHandshakes = new JLabel("0");
+    private final JLabel tlsResumed = new JLabel("-");
+    private long[] previous; // Contadores de la lectura anterior
+    private long previousNanos; // Instante de la lectura anterior
+    private LatencyHistogram.Snapshot previousFanOut; // Histogramas de la lectura anterior
+    private LatencyHistogram.Snapshot previousQueueLatency;
+
+    public MetricsPanel(ServerMetrics metrics) {
+        this.metrics = metrics;
+        setLayout(new GridLayout(0, 2, 8, 2));
+        setBorder(BorderFactory.createTitledBorder("Metrics"));
+        addRow("Active connections", connections);
+        addRow("Messages in/s", messagesIn);
+        addRow("Messages out/s", messagesOut);
+        addRow("Bytes in/s", bytesIn);
+        addRow("Bytes out/s", bytesOut);
+        addRow("Accepts/s", accepts);
+        addRow("Rejects/s", rejects);
+        addRow("Fan-out p50/p99", fanOut);
+        addRow("Queue wait p50/p99", queueLatency);
+        addRow("Queued (total/max)", queueDepth);
+        addRow("Dropped frames", dropped);
+        addRow("TLS handshakes/s", tlsHandshakes);
+        addRow("TLS resumed", tlsResumed);
+        this.timer = new Timer(REFRESH_MILLIS, e -> refresh());
+    }
+
+    private void addRow(String name, JLabel value) {
+        add(new JLabel(name));
+        add(value);
+    }
+
+    /**
+     * Empieza a actualizar el panel.
+     */
+    public void start() {
+        refresh();
+        timer.start();
+    }
+
+    /**
+     * Deja de actualizar el panel.
+     */
+    public void stop() {
+        timer.stop();
+    }
+
+    private void refresh() {
+        long now = System.nanoTime();
+        long[] current = {
+                metrics.getMessagesIn(), metrics.getMessagesOut(), metrics.getBytesIn(),
+                metrics.getBytesOut(), metrics.getAccepted(), metrics.getRejected(),
+                metrics.getTlsHandshakes(), metrics.getTlsResumed()
+        };
+        if (previous != null) {
+            double seconds = Math.max(1e-3, (now - previousNanos) / 1e9);
+            JLabel[] rates = {messagesIn, messagesOut, bytesIn, bytesOut, accepts, rejects, tlsHandshakes};
+            for (int i = 0; i < rates.length; i++) {
+                rates[i].setText(String.format("%,.0f", (current[i] - previous[i]) / seconds));
+            }
+            // Proporción de saludos del intervalo que reanudaron una sesión
+            long handshakes = current[6] - previous[6];
+            tlsResumed.setText(handshakes == 0 ? "-"
+                    : String.format("%.0f %%", 100.0 * (current[7] - previous[7]) / handshakes));
+        }
+        previous = current;
+        previousNanos = now;
+        connections.setText(String.valueOf(metrics.getActiveConnections()));
+        LatencyHistogram.Snapshot currentFanOut = metrics.getFanOut().snapshot();
+        LatencyHistogram.Snapshot currentQueueLatency = metrics.getQueueLatency().snapshot();
+        if (previousFanOut != null) {
+            fanOut.setText(percentiles(currentFanOut.since(previousFanOut)));
+            queueLatency.setText(percentiles(currentQueueLatency.since(previousQueueLatency)));
+        }
+        previousFanOut = currentFanOut;
+        previousQueueLatency = currentQueueLatency;
+        long[] depth = metrics.getQueueDepth();
+        queueDepth.setText(depth[0] + " / " + depth[1]);
+        dropped.setText(String.valueOf(OutboundQueue.totalDroppedFrames()));
+    }
+
+    private static String percentiles(LatencyHistogram.Snapshot snapshot) {
+        if (snapshot.getCount() == 0) {
+            return "-";
+        }
+        return micros(snapshot.percentile(0.5)) + " / " + micros(snapshot.percentile(0.99));
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f µs", nanos / 1000.0);
+    }
+}
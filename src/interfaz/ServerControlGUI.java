@@ -6,11 +6,13 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutionException;
 
 public class ServerControlGUI extends JFrame {
     private ServerInitializer serverInitializer;
     private JButton startButton;
     private JButton stopButton;
+    private MetricsPanel metricsPanel;
 
     public ServerControlGUI(ServerInitializer serverInitializer) {
         this.serverInitializer = serverInitializer;
@@ -19,15 +21,22 @@ public class ServerControlGUI extends JFrame {
 
     private void initialize() {
         setTitle("Server Control Panel");
-        setSize(300, 150);
+        setSize(420, 380);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setLayout(new FlowLayout());
+        setLayout(new BorderLayout());
 
         startButton = new JButton("Start Server");
         stopButton = new JButton("Stop Server");
 
-        add(startButton);
-        add(stopButton);
+        JPanel buttons = new JPanel(new FlowLayout());
+        buttons.add(startButton);
+        buttons.add(stopButton);
+        add(buttons, BorderLayout.NORTH);
+
+        // Panel de métricas en vivo; se actualiza mientras la ventana existe
+        metricsPanel = new MetricsPanel(serverInitializer.getMetrics());
+        add(metricsPanel, BorderLayout.CENTER);
+        metricsPanel.start();
 
         startButton.addActionListener(new ActionListener() {
             @Override
@@ -59,15 +68,35 @@ public class ServerControlGUI extends JFrame {
     }
 
     private void stopServer() {
-        SwingUtilities.invokeLater(() -> {
-            if (serverInitializer.isRunning()) {
+        if (!serverInitializer.isRunning()) {
+            JOptionPane.showMessageDialog(this, "Server is not running.");
+            updateButtonState();
+            return;
+        }
+        // La parada espera a vaciar las colas de los clientes y a que terminen sus hilos:
+        // se hace fuera del hilo de eventos para no congelar la ventana
+        startButton.setEnabled(false);
+        stopButton.setEnabled(false);
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
                 serverInitializer.stopServer();
-                JOptionPane.showMessageDialog(this, "Server stopped.");
-            } else {
-                JOptionPane.showMessageDialog(this, "Server is not running.");
+                return null;
             }
-            updateButtonState();
-        });
+
+            @Override
+            protected void done() {
+                updateButtonState();
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(ServerControlGUI.this, "Server stopped.");
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(ServerControlGUI.this, "Error stopping server: " + cause.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 
     private void updateButtonState() {
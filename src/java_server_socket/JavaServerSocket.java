@@ -1,7 +1,10 @@
 package java_server_socket;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +17,12 @@ public class JavaServerSocket {
     private int port;
     // Número máximo de clientes que el servidor puede manejar simultáneamente.
     private int amountClients;
+    // Si es verdadero se activa SO_REUSEPORT (cuando el sistema lo admite) para que otros
+    // aceptadores del mismo servidor puedan escuchar en el mismo puerto.
+    private boolean reusePort;
+    // SO_RCVBUF del socket de escucha (0 = valor del sistema). Se fija antes de enlazarlo para
+    // que los sockets aceptados lo hereden con la escala de ventana TCP correspondiente.
+    private int receiveBufferSize;
 
     /**
      * Constructor de JavaServerSocket.
@@ -24,6 +33,20 @@ public class JavaServerSocket {
         this.amountClients = amountClients;
     }
 
+    /**
+     * Activa SO_REUSEPORT en los sockets que se creen (servidor con varios aceptadores).
+     */
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    /**
+     * Fija el tamaño del buffer de recepción de los sockets que se creen (0 = valor del sistema).
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
     /**
      * Intenta crear y devolver un nuevo ServerSocket.
      * Si ocurre un error durante la creación, se registra una advertencia y se devuelve null.
@@ -32,7 +55,20 @@ public class JavaServerSocket {
         try {
             // Crea una nueva instancia de ServerSocket en el puerto especificado
             // con el número máximo de clientes que puede manejar.
-            return new ServerSocket(this.port, this.amountClients);
+            ServerSocket serverSocket = new ServerSocket();
+            try {
+                if (reusePort && serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                if (receiveBufferSize > 0) {
+                    serverSocket.setReceiveBufferSize(receiveBufferSize);
+                }
+                serverSocket.bind(new InetSocketAddress(this.port), this.amountClients);
+            } catch (IOException e) {
+                serverSocket.close();
+                throw e;
+            }
+            return serverSocket;
         } catch (IOException e) {
             // Registra un mensaje de advertencia en caso de que ocurra una excepción
             // durante la creación del ServerSocket.
@@ -41,4 +77,26 @@ public class JavaServerSocket {
             return null;
         }
     }
+
+    /**
+     * Intenta crear y devolver un nuevo ServerSocketChannel enlazado al puerto.
+     * Lo utiliza el servidor NIO; el canal se deja en modo bloqueante para el hilo aceptador.
+     * Si ocurre un error durante la creación, se registra una advertencia y se devuelve null.
+     */
+    public ServerSocketChannel getChannel() {
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            if (reusePort && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            channel.bind(new InetSocketAddress(this.port), this.amountClients);
+            return channel;
+        } catch (IOException e) {
+            Logger.getLogger(this.getClass().getName()).log(Level.WARNING, e.getMessage(), e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,278 @@
+package loadgen;
+
+import server.LatencyHistogram;
+import server.LogLevel;
+import server.NioServer;
+import server.Server;
+import server.ServerConfig;
+import server.ServerEngine;
+import server.ServerLog;
+import server.ServerMetrics;
+import server.SocketProcess;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generador de carga sin interfaz para pruebas de resistencia y de latencia por loopback.
+ * Conecta miles de clientes simulados a un servidor local, cada uno envía mensajes a
+ * un ritmo fijo y todos leen las difusiones. Cada segundo escribe el progreso y al
+ * terminar un informe con el caudal, los percentiles de latencia de extremo a extremo
+ * (p50, p99, p99.9), el coste de las listas de clientes y las desconexiones.
+ *
+ * Solo se conecta a la interfaz local. Con --engine arranca además el servidor en el
+ * mismo proceso, de modo que se puede comparar un motor con otro sin más preparación.
+ *
+ * Uso: java loadgen.LoadGenerator [--port 2000] [--clients 1000] [--rate 1] [--duration 30]
+ *      [--warmup 5] [--size 64] [--protocol legacy|v2] [--engine blocking|nio] [--acceptors 1]
+ */
+public class LoadGenerator {
+    // Espera máxima tras el envío para recibir las difusiones pendientes
+    private static final long DRAIN_MILLIS = 2000;
+    // Cuantiles del informe
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private int port = 2000; // Puerto del servidor (0 con --engine: uno libre)
+    private int clients = 1000; // Clientes simulados
+    private double rate = 1; // Mensajes por segundo de cada cliente
+    private int durationSeconds = 30; // Duración de la medida
+    private int warmupSeconds = 5; // Calentamiento previo, sin registrar latencias
+    private int size = 64; // Tamaño aproximado de cada mensaje en caracteres
+    private boolean v2; // Protocolo V2 (si no, LEGACY)
+    private ServerEngine engine; // Motor del servidor que se arranca en el proceso, null si es externo
+    private int acceptors = 1; // Aceptadores del servidor interno
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Uso: java loadgen.LoadGenerator [--port 2000] [--clients 1000] [--rate 1]"
+                    + " [--duration 30] [--warmup 5] [--size 64] [--protocol legacy|v2] [--engine blocking|nio]"
+                    + " [--acceptors 1]");
+            System.exit(2);
+        }
+        System.exit(generator.run() ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Falta el valor de " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--port" -> port = Integer.parseInt(value);
+                case "--clients" -> clients = Integer.parseInt(value);
+                case "--rate" -> rate = Double.parseDouble(value);
+                case "--duration" -> durationSeconds = Integer.parseInt(value);
+                case "--warmup" -> warmupSeconds = Integer.parseInt(value);
+                case "--size" -> size = Integer.parseInt(value);
+                case "--protocol" -> v2 = switch (value.toLowerCase(Locale.ROOT)) {
+                    case "legacy" -> false;
+                    case "v2" -> true;
+                    default -> throw new IllegalArgumentException("Protocolo desconocido: " + value);
+                };
+                case "--engine" -> engine = ServerEngine.valueOf(value.toUpperCase(Locale.ROOT));
+                case "--acceptors" -> acceptors = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Opción desconocida: " + option);
+            }
+        }
+        if (clients <= 0 || rate <= 0 || durationSeconds <= 0 || warmupSeconds < 0 || size < 0) {
+            throw new IllegalArgumentException("Los clientes, el ritmo y la duración deben ser positivos");
+        }
+    }
+
+    /**
+     * Ejecuta la prueba completa.
+     * @return verdadero si ningún cliente se desconectó inesperadamente
+     */
+    private boolean run() throws IOException {
+        ServerMetrics serverMetrics = null;
+        if (engine != null) {
+            serverMetrics = new ServerMetrics();
+            startServer(serverMetrics);
+        }
+
+        LoadStats stats = new LoadStats();
+        LatencyHistogram latency = new LatencyHistogram();
+        List<SimulatedClient> connected = new ArrayList<>(clients);
+        List<Thread> threads = new ArrayList<>(2 * clients);
+        String padding = "x".repeat(size);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+
+        System.out.printf("Conectando %d clientes a 127.0.0.1:%d (%s)...%n", clients, port, v2 ? "V2" : "LEGACY");
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            SimulatedClient client = new SimulatedClient("lg" + i, stats, v2);
+            try {
+                client.connect(port);
+            } catch (IOException e) {
+                System.err.println("No se pudo conectar el cliente " + i + ": " + e.getMessage());
+                break;
+            }
+            connected.add(client);
+            // El lector arranca enseguida para vaciar las listas de clientes de las conexiones siguientes
+            threads.add(Thread.ofVirtual().name("lg-read-" + i).start(() -> client.readLoop(latency)));
+        }
+        System.out.printf("%d clientes conectados en %d ms%n", connected.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart));
+        if (connected.isEmpty()) {
+            return false;
+        }
+        long[] afterConnect = stats.read();
+
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (int i = 0; i < connected.size(); i++) {
+            SimulatedClient client = connected.get(i);
+            threads.add(Thread.ofVirtual().name("lg-send-" + i)
+                    .start(() -> client.sendLoop(intervalNanos, end, padding)));
+        }
+
+        // Progreso cada segundo; al acabar el calentamiento empieza la medida
+        long[] previous = stats.read();
+        long[] atMeasureStart = null;
+        LatencyHistogram.Snapshot previousLatency = latency.snapshot();
+        long next = start;
+        while (System.nanoTime() < end) {
+            next += TimeUnit.SECONDS.toNanos(1);
+            SimulatedClient.pause(Math.max(0, TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime())));
+            boolean warmup = atMeasureStart == null;
+            if (atMeasureStart == null && next >= measureStart) {
+                atMeasureStart = stats.read();
+                stats.setMeasuring(true);
+            }
+            long[] current = stats.read();
+            LatencyHistogram.Snapshot currentLatency = latency.snapshot();
+            LatencyHistogram.Snapshot interval = currentLatency.since(previousLatency);
+            System.out.printf("%s enviados/s=%,d recibidos/s=%,d lista/s=%,d p50=%s p99=%s desconexiones=%d%n",
+                    warmup ? "[calentamiento]" : "[medida]",
+                    current[0] - previous[0], current[2] - previous[2], current[4] - previous[4],
+                    micros(interval.percentile(0.5)), micros(interval.percentile(0.99)), stats.getDisconnects());
+            previous = current;
+            previousLatency = currentLatency;
+        }
+        if (atMeasureStart == null) {
+            atMeasureStart = afterConnect;
+        }
+
+        // Espera a que lleguen las difusiones de los últimos mensajes
+        long[] sentAtEnd = stats.read();
+        long drainEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+        long[] last = sentAtEnd;
+        while (System.nanoTime() < drainEnd) {
+            SimulatedClient.pause(200);
+            long[] current = stats.read();
+            if (current[2] == last[2]) {
+                break;
+            }
+            last = current;
+        }
+        stats.setMeasuring(false);
+        long[] finalStats = stats.read();
+
+        report(connected.size(), atMeasureStart, sentAtEnd, finalStats, latency.snapshot(), stats);
+        if (serverMetrics != null) {
+            reportServer(serverMetrics);
+            ServerLog.flush();
+            ServerLog.setLevel(LogLevel.OFF); // Los errores de escritura al cerrar los clientes son esperados
+        }
+        for (SimulatedClient client : connected) {
+            client.stop();
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        // El proceso termina al volver: el servidor interno no se cierra para no competir con las desconexiones
+        return stats.getDisconnects() == 0;
+    }
+
+    /**
+     * Arranca el servidor en este proceso en la interfaz local, sin la consola de
+     * administración ni la interfaz gráfica.
+     */
+    private void startServer(ServerMetrics metrics) throws IOException {
+        ServerLog.setLevel(LogLevel.WARN);
+        ServerConfig config = new ServerConfig();
+        config.setLogDirectory(null);
+        config.setAcceptors(acceptors);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        SocketProcess server;
+        if (engine == ServerEngine.NIO) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            if (acceptors > 1 && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(address, clients);
+            port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            server = new NioServer(channel, Runtime.getRuntime().availableProcessors(), config, metrics);
+        } else {
+            ServerSocket serverSocket = new ServerSocket();
+            if (acceptors > 1 && serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            serverSocket.bind(address, clients);
+            port = serverSocket.getLocalPort();
+            server = new Server(serverSocket, Thread.ofVirtual().name("client-", 0).factory(), config, metrics);
+        }
+        Thread acceptor = new Thread(server::bind, "loadgen-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.printf("Servidor %s arrancado en el puerto %d%n", engine, port);
+    }
+
+    private void report(int connected, long[] measureStart, long[] measureEnd,
+                        long[] finished, LatencyHistogram.Snapshot latency, LoadStats stats) {
+        long sent = measureEnd[0] - measureStart[0];
+        long received = finished[2] - measureStart[2];
+        long rosterFrames = finished[4];
+        long rosterBytes = finished[5];
+        long chatBytes = finished[3];
+        System.out.println();
+        System.out.println("=== Informe ===");
+        System.out.printf("Clientes: %d, ritmo: %s msg/s por cliente, tamaño: %d, protocolo: %s%n",
+                connected, rate, size, v2 ? "V2" : "LEGACY");
+        System.out.printf("Enviados: %,d (%,.0f msg/s)%n", sent, sent / (double) durationSeconds);
+        System.out.printf("Difusiones recibidas: %,d (%,.0f msg/s), %.2f %% de las esperadas%n",
+                received, received / (double) durationSeconds,
+                sent == 0 ? 0 : 100.0 * received / ((double) sent * connected));
+        System.out.printf("Latencia de extremo a extremo (%,d muestras):", latency.getCount());
+        for (double quantile : QUANTILES) {
+            System.out.printf(Locale.ROOT, " p%s=%s", trim(quantile * 100), micros(latency.percentile(quantile)));
+        }
+        System.out.printf(" media=%s%n", micros((long) latency.getMean()));
+        System.out.printf("Listas de clientes: %,d tramas, %,d bytes, %.1f %% de los bytes recibidos%n",
+                rosterFrames, rosterBytes,
+                100.0 * rosterBytes / Math.max(1, rosterBytes + chatBytes + finished[7]));
+        System.out.printf("Otras tramas: %,d%n", finished[6]);
+        System.out.printf("Desconexiones inesperadas: %d%n", stats.getDisconnects());
+    }
+
+    private static void reportServer(ServerMetrics metrics) {
+        LatencyHistogram.Snapshot fanOut = metrics.getFanOut().snapshot();
+        LatencyHistogram.Snapshot queue = metrics.getQueueLatency().snapshot();
+        System.out.printf("Servidor: tramas in/out %,d/%,d, rechazos %d, reparto p99=%s, espera en cola p99=%s%n",
+                metrics.getMessagesIn(), metrics.getMessagesOut(), metrics.getRejected(),
+                micros(fanOut.percentile(0.99)), micros(queue.percentile(0.99)));
+    }
+
+    private static String trim(double percent) {
+        return percent == Math.rint(percent) ? String.valueOf((long) percent) : String.valueOf(percent);
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1fµs", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,73 @@
+package loadgen;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores compartidos por todos los clientes simulados.
+ * Son LongAdder para que miles de hilos lectores no compitan por la misma línea de caché.
+ */
+class LoadStats {
+    // Desconexiones que se detallan en la salida (las demás solo se cuentan)
+    private static final int MAX_REPORTED_DISCONNECTS = 10;
+
+    private final LongAdder sent = new LongAdder(); // Mensajes enviados
+    private final LongAdder sentBytes = new LongAdder(); // Bytes de texto enviados
+    private final LongAdder received = new LongAdder(); // Difusiones de mensajes del generador recibidas
+    private final LongAdder receivedBytes = new LongAdder(); // Bytes de esas difusiones
+    private final LongAdder roster = new LongAdder(); // Tramas de la lista de clientes recibidas
+    private final LongAdder rosterBytes = new LongAdder(); // Bytes de esas tramas
+    private final LongAdder other = new LongAdder(); // Otras tramas (control, mensajes ajenos)
+    private final LongAdder otherBytes = new LongAdder();
+    private final AtomicInteger disconnects = new AtomicInteger(); // Desconexiones inesperadas
+    private volatile boolean measuring; // Fuera del calentamiento: se registran las latencias
+
+    void sent(int bytes) {
+        sent.increment();
+        sentBytes.add(bytes);
+    }
+
+    void received(int bytes) {
+        received.increment();
+        receivedBytes.add(bytes);
+    }
+
+    void roster(int bytes) {
+        roster.increment();
+        rosterBytes.add(bytes);
+    }
+
+    void other(int bytes) {
+        other.increment();
+        otherBytes.add(bytes);
+    }
+
+    void disconnected(String detail) {
+        if (disconnects.incrementAndGet() <= MAX_REPORTED_DISCONNECTS) {
+            System.err.println("Desconexión inesperada de " + detail);
+        }
+    }
+
+    void setMeasuring(boolean measuring) {
+        this.measuring = measuring;
+    }
+
+    boolean isMeasuring() {
+        return measuring;
+    }
+
+    /**
+     * Devuelve los contadores en este instante, para calcular tasas por diferencia.
+     * @return {enviados, bytes enviados, recibidos, bytes recibidos, lista, bytes de lista, otras, bytes de otras}
+     */
+    long[] read() {
+        return new long[] {
+                sent.sum(), sentBytes.sum(), received.sum(), receivedBytes.sum(),
+                roster.sum(), rosterBytes.sum(), other.sum(), otherBytes.sum()
+        };
+    }
+
+    int getDisconnects() {
+        return disconnects.get();
+    }
+}
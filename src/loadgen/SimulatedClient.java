@@ -0,0 +1,204 @@
+package loadgen;
+
+import server.FrameType;
+import server.Handshake;
+import server.LatencyHistogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Cliente de chat simulado del generador de carga.
+ * Hace el mismo saludo que un cliente real (el nombre en LEGACY, o "HELLO:2:nombre"
+ * en V2), envía mensajes a ritmo constante con el instante de envío incrustado y lee
+ * todas las difusiones. La latencia de extremo a extremo se calcula al recibir cada
+ * mensaje del generador a partir de ese instante: todos los clientes están en el mismo
+ * proceso, así que comparten el reloj de System.nanoTime.
+ *
+ * Formato de los mensajes: "lg <instante> <relleno>".
+ */
+class SimulatedClient {
+    // Marca de los mensajes del generador dentro de la difusión "nombre: lg ..."
+    static final String MARKER = ": lg ";
+    // Prefijo de las tramas de la lista de clientes en LEGACY
+    private static final String ROSTER_PREFIX = "Lista_";
+
+    private final String name; // Nombre con el que se registra el cliente
+    private final LoadStats stats; // Contadores compartidos del generador
+    private final boolean v2; // Protocolo V2 (si no, LEGACY)
+    private Socket socket;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private volatile boolean stopped; // El generador terminó: los errores ya no son desconexiones
+
+    SimulatedClient(String name, LoadStats stats, boolean v2) {
+        this.name = name;
+        this.stats = stats;
+        this.v2 = v2;
+    }
+
+    /**
+     * Conecta con el servidor local y hace el saludo.
+     */
+    void connect(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        if (v2) {
+            out.writeUTF(Handshake.HELLO_PREFIX + "2:" + name);
+            out.flush();
+            String reply = in.readUTF();
+            if (!reply.startsWith(Handshake.HELLO_OK_PREFIX + "2")) {
+                throw new IOException("El servidor no aceptó el protocolo V2: " + reply);
+            }
+        } else {
+            out.writeUTF(name);
+            out.flush();
+        }
+    }
+
+    /**
+     * Bucle de envío: un mensaje cada intervalo hasta el instante final.
+     * Si el envío se retrasa no se recupera el ritmo acumulando mensajes; se mide con
+     * el instante real de envío.
+     */
+    void sendLoop(long intervalNanos, long endNanos, String padding) {
+        long next = System.nanoTime() + (long) (Math.random() * intervalNanos); // Reparte los envíos
+        try {
+            while (!stopped) {
+                long now = System.nanoTime();
+                if (now >= endNanos) {
+                    break;
+                }
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+                String message = "lg " + System.nanoTime() + " " + padding;
+                write(message);
+                stats.sent(message.length());
+                next = Math.max(next + intervalNanos, now);
+            }
+        } catch (IOException e) {
+            disconnected(e);
+        }
+    }
+
+    private void write(String message) throws IOException {
+        if (v2) {
+            byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+            writeVarint(payload.length);
+            out.write(FrameType.CHAT.code());
+            out.write(payload);
+        } else {
+            out.writeUTF(message);
+        }
+        out.flush();
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Bucle de lectura: clasifica cada trama y registra la latencia de los mensajes del generador.
+     */
+    void readLoop(LatencyHistogram latency) {
+        try {
+            while (!stopped) {
+                FrameType type;
+                String text;
+                int bytes;
+                if (v2) {
+                    int length = readVarint();
+                    type = FrameType.fromCode(in.readUnsignedByte());
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    text = new String(payload, StandardCharsets.UTF_8);
+                    bytes = length + 2;
+                } else {
+                    text = in.readUTF();
+                    type = text.startsWith(ROSTER_PREFIX) ? FrameType.ROSTER : FrameType.CHAT;
+                    bytes = text.length() + 2;
+                }
+                if (type == FrameType.ROSTER) {
+                    stats.roster(bytes);
+                    continue;
+                }
+                int marker = text.indexOf(MARKER);
+                if (marker < 0) {
+                    stats.other(bytes);
+                    continue;
+                }
+                long receivedAt = System.nanoTime();
+                int start = marker + MARKER.length();
+                int end = text.indexOf(' ', start);
+                long sentAt = Long.parseLong(text, start, end < 0 ? text.length() : end, 10);
+                stats.received(bytes);
+                if (stats.isMeasuring()) {
+                    latency.record(receivedAt - sentAt);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            disconnected(e);
+        }
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Longitud varint no válida");
+    }
+
+    private void disconnected(Exception e) {
+        if (!stopped) {
+            stopped = true;
+            stats.disconnected(name + ": " + e);
+        }
+        close();
+    }
+
+    /**
+     * Detiene el cliente al terminar la prueba (no cuenta como desconexión).
+     */
+    void stop() {
+        stopped = true;
+        close();
+    }
+
+    private void close() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // El socket ya estaba cerrado
+        }
+    }
+
+    /**
+     * Espera el tiempo indicado sin lanzar InterruptedException.
+     */
+    static void pause(long millis) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
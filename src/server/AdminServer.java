@@ -0,0 +1,76 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Consola de administración HTTP en la interfaz local (127.0.0.1).
+ * Publica las métricas del servidor en GET /metrics con el formato de texto de
+ * Prometheus. Atiende las peticiones en un único hilo propio, fuera de los hilos
+ * que manejan a los clientes.
+ */
+public class AdminServer {
+    private final HttpServer httpServer; // Servidor HTTP del JDK (com.sun.net.httpserver)
+    private final ExecutorService executor; // Hilo que atiende las peticiones
+
+    /**
+     * Constructor de AdminServer. Abre el puerto pero no empieza a atender peticiones.
+     */
+    public AdminServer(int port, ServerMetrics metrics) throws IOException {
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "admin-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/metrics", exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Método no permitido\n");
+                return;
+            }
+            respond(exchange, 200, metrics.toPrometheus());
+        });
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Empieza a atender peticiones.
+     */
+    public void start() {
+        httpServer.start();
+        ServerLog.info("Métricas disponibles en http://" + InetAddress.getLoopbackAddress().getHostAddress()
+                + ":" + getPort() + "/metrics");
+    }
+
+    /**
+     * Devuelve el puerto en el que escucha (útil si se configuró el puerto 0).
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Deja de atender peticiones y cierra el puerto.
+     */
+    public void stop() {
+        httpServer.stop(0);
+        executor.shutdown();
+    }
+}
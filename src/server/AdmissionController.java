@@ -0,0 +1,193 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Control de admisión de conexiones, compartido por los aceptadores de los dos motores.
+ * Antes de crear la conexión de un socket aceptado comprueba, en este orden:
+ * - Que el servidor no esté descartando conexiones por sobrecarga: cuando la suma de
+ *   las colas de salida o el p99 del reparto de mensajes superan sus umbrales se
+ *   rechazan las conexiones nuevas hasta que bajan de las tres cuartas partes, de modo
+ *   que una avalancha de conexiones no degrada el servicio de los clientes ya conectados.
+ * - El ritmo de aceptación (cubo de fichas).
+ * - El límite de conexiones abiertas, contando también las que aún no completaron el saludo.
+ * - El límite de conexiones por dirección IP.
+ * Las conexiones rechazadas reciben una trama LEGACY "Error:..." con el motivo (la
+ * primera que lee cualquier cliente, antiguo o V2) y se cierran sin crear hilos ni
+ * buffers. Los límites a 0 están desactivados.
+ */
+public class AdmissionController {
+    // Fracción de los umbrales por debajo de la que se deja de descartar conexiones
+    private static final double RECOVERY_FACTOR = 0.75;
+    // Repartos mínimos en un intervalo para que su p99 se tenga en cuenta
+    private static final long MIN_FANOUT_SAMPLES = 10;
+
+    /**
+     * Resultado de la admisión de una conexión.
+     */
+    public enum Decision {
+        ADMITTED(null),
+        OVERLOADED("Servidor ocupado, inténtalo más tarde"),
+        RATE_LIMITED("Demasiadas conexiones nuevas, inténtalo más tarde"),
+        SERVER_FULL("Servidor lleno"),
+        ADDRESS_FULL("Demasiadas conexiones desde tu dirección");
+
+        private final byte[] frame; // Trama LEGACY de rechazo ya codificada
+
+        Decision(String reason) {
+            this.frame = reason == null ? null : encode(ChatService.ERROR_PREFIX + reason);
+        }
+
+        private static byte[] encode(String text) {
+            try {
+                return FrameCodec.encode(text);
+            } catch (UTFDataFormatException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final int maxConnections; // Conexiones abiertas como máximo (0 = sin límite)
+    private final int maxPerAddress; // Conexiones abiertas por dirección como máximo (0 = sin límite)
+    private final TokenBucket acceptRate; // Ritmo de aceptación, null si no está limitado
+    private final long shedQueueBytes; // Bytes en las colas de salida a partir de los que se descarta (0 = nunca)
+    private final long shedFanOutNanos; // p99 del reparto a partir del que se descarta (0 = nunca)
+    private final AtomicInteger open; // Conexiones admitidas y aún abiertas
+    private final Map<InetAddress, Integer> perAddress; // Conexiones abiertas por dirección
+    private final ClientRegistry registry; // Clientes registrados, para sumar sus colas de salida
+    private final ServerMetrics metrics; // Conexiones rechazadas y latencia del reparto
+    private LatencyHistogram.Snapshot lastFanOut; // Reparto al final del intervalo anterior (hilo del programador)
+    private volatile boolean shedding; // Se están descartando conexiones por sobrecarga
+
+    /**
+     * Constructor de AdmissionController.
+     */
+    public AdmissionController(ServerConfig config, ClientRegistry registry, ServerMetrics metrics) {
+        this.maxConnections = config.getMaxConnections();
+        this.maxPerAddress = config.getMaxConnectionsPerAddress();
+        int rate = config.getAcceptRatePerSecond();
+        this.acceptRate = rate > 0 ? new TokenBucket(rate, Math.max(rate, config.getAcceptBurst())) : null;
+        this.shedQueueBytes = config.getShedQueueBytes();
+        this.shedFanOutNanos = TimeUnit.MICROSECONDS.toNanos(config.getShedFanOutMicros());
+        this.open = new AtomicInteger();
+        this.perAddress = new ConcurrentHashMap<>();
+        this.registry = registry;
+        this.metrics = metrics;
+        this.lastFanOut = metrics.getFanOut().snapshot();
+    }
+
+    /**
+     * Decide si se admite una conexión recién aceptada. Si se admite, ocupa una plaza
+     * que debe devolverse con release al cerrarla.
+     */
+    public Decision admit(InetAddress address) {
+        if (shedding) {
+            return Decision.OVERLOADED;
+        }
+        if (acceptRate != null && acceptRate.tryAcquire(1) > 0) {
+            return Decision.RATE_LIMITED;
+        }
+        if (open.incrementAndGet() > maxConnections && maxConnections > 0) {
+            open.decrementAndGet();
+            return Decision.SERVER_FULL;
+        }
+        if (maxPerAddress > 0 && address != null && perAddress.merge(address, 1, Integer::sum) > maxPerAddress) {
+            releaseAddress(address);
+            open.decrementAndGet();
+            return Decision.ADDRESS_FULL;
+        }
+        return Decision.ADMITTED;
+    }
+
+    /**
+     * Devuelve la plaza de una conexión admitida al cerrarla.
+     */
+    public void release(InetAddress address) {
+        open.decrementAndGet();
+        if (maxPerAddress > 0 && address != null) {
+            releaseAddress(address);
+        }
+    }
+
+    /**
+     * Resta una conexión a la dirección y la olvida al llegar a cero.
+     */
+    private void releaseAddress(InetAddress address) {
+        perAddress.computeIfPresent(address, (a, count) -> count <= 1 ? null : count - 1);
+    }
+
+    /**
+     * Rechaza un socket del servidor bloqueante: envía el motivo y lo cierra.
+     */
+    public void reject(Socket socket, Decision decision) {
+        metrics.connectionRefused();
+        ServerLog.debug("Conexión rechazada (" + decision + "): " + socket.getRemoteSocketAddress());
+        try (socket) {
+            OutputStream out = socket.getOutputStream();
+            out.write(decision.frame); // Cabe en el buffer de envío vacío: no bloquea
+            out.flush();
+        } catch (IOException e) {
+            ServerLog.debug("No se pudo enviar el rechazo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rechaza un canal del servidor NIO (aún en modo bloqueante): envía el motivo y lo cierra.
+     */
+    public void reject(SocketChannel channel, Decision decision) {
+        metrics.connectionRefused();
+        try (channel) {
+            ServerLog.debug("Conexión rechazada (" + decision + "): " + channel.getRemoteAddress());
+            channel.write(ByteBuffer.wrap(decision.frame));
+        } catch (IOException e) {
+            ServerLog.debug("No se pudo enviar el rechazo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Comprueba la carga del servidor y activa o desactiva el descarte de conexiones.
+     * Se ejecuta periódicamente en el programador del servidor.
+     */
+    public void checkLoad() {
+        LatencyHistogram.Snapshot fanOut = metrics.getFanOut().snapshot();
+        LatencyHistogram.Snapshot interval = fanOut.since(lastFanOut);
+        lastFanOut = fanOut;
+        long queued = shedQueueBytes > 0 ? registry.queuedBytes() : 0;
+        long p99 = shedFanOutNanos > 0 && interval.getCount() >= MIN_FANOUT_SAMPLES ? interval.percentile(0.99) : 0;
+        boolean queuesHigh = shedQueueBytes > 0 && queued > shedQueueBytes;
+        boolean fanOutHigh = shedFanOutNanos > 0 && p99 > shedFanOutNanos;
+        if (!shedding && (queuesHigh || fanOutHigh)) {
+            shedding = true;
+            ServerLog.warn("Sobrecarga: se rechazan conexiones nuevas (colas " + queued + " bytes, reparto p99 "
+                    + TimeUnit.NANOSECONDS.toMicros(p99) + " µs)");
+        } else if (shedding && queued <= shedQueueBytes * RECOVERY_FACTOR
+                && p99 <= shedFanOutNanos * RECOVERY_FACTOR) {
+            shedding = false;
+            ServerLog.info("Fin de la sobrecarga: se vuelven a admitir conexiones");
+        }
+    }
+
+    /**
+     * Indica si se están rechazando conexiones por sobrecarga.
+     */
+    public boolean isShedding() {
+        return shedding;
+    }
+
+    /**
+     * Devuelve las conexiones admitidas y aún abiertas.
+     */
+    public int getOpenConnections() {
+        return open.get();
+    }
+}
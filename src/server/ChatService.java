@@ -0,0 +1,514 @@
+package server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lógica de chat compartida por los motores del servidor.
+ * Recibe los eventos de las conexiones (alta, nombre, mensaje, baja), interpreta
+ * los comandos que empiezan por "/" (lista de clientes, salas, mensajes directos y búsqueda
+ * en el historial) y difunde el resto de mensajes a todos los clientes.
+ * Si se configura un puerto de clúster, los mensajes globales se envían también a
+ * los demás nodos y se difunden aquí los suyos; la lista de clientes incluye a los
+ * de todos los nodos. Las salas y los mensajes directos son locales a cada nodo.
+ */
+public class ChatService implements ClusterNode.Listener {
+    // Comando con el que un cliente pide la instantánea de la lista de clientes
+    public static final String ROSTER_COMMAND = "/roster";
+    // Comandos de salas: /join <sala>, /leave <sala>, /rooms y /room <sala> <mensaje>
+    public static final String JOIN_COMMAND = "/join";
+    public static final String LEAVE_COMMAND = "/leave";
+    public static final String ROOMS_COMMAND = "/rooms";
+    public static final String ROOM_COMMAND = "/room";
+    // Mensaje directo: /msg <nombre> <mensaje>
+    public static final String MSG_COMMAND = "/msg";
+    // Búsqueda en el historial: /search [#sala] <palabras>
+    public static final String SEARCH_COMMAND = "/search";
+    // Prefijo de los mensajes directos que recibe el destinatario
+    public static final String PRIVATE_PREFIX = "[privado] ";
+    // Prefijo de las tramas de control con las que se rechaza un comando
+    public static final String ERROR_PREFIX = "Error:";
+
+    private final ClientRegistry registry; // Registro de clientes conectados
+    private final RosterService roster; // Publicador de la lista de clientes
+    private final RoomService rooms; // Salas de chat y sus miembros
+    private final MessageLog log; // Registro persistente de los mensajes difundidos
+    private final MessagePublisher publisher; // Publica los mensajes en orden de secuencia
+    private final ResumeService resume; // Sesiones reanudables
+    private final SearchService search; // Búsqueda en el historial de mensajes
+    private final ServerMetrics metrics; // Conexiones rechazadas y conexiones activas
+    private final HistoryRing lobbyHistory; // Últimos mensajes globales, para quien se conecta
+    private final ClusterNode cluster; // Enlace con los demás nodos, null si no hay clúster
+    private final IdleMonitor idle; // Plazos de saludo y de inactividad de las conexiones
+    private final AdmissionController admission; // Límites de conexiones y descarte por sobrecarga
+    private final ServerConfig config; // Ritmos de los límites de envío de los clientes
+    private final TokenBucket globalRate; // Mensajes por segundo de todos los clientes, null si no hay límite
+    private volatile boolean draining; // El servidor se está deteniendo: se ignoran las tramas de los clientes
+
+    /**
+     * Constructor de ChatService con los parámetros por defecto.
+     */
+    public ChatService(ScheduledExecutorService scheduler) {
+        this(scheduler, new ServerConfig());
+    }
+
+    /**
+     * Constructor de ChatService.
+     * Los deltas de la lista de clientes se publican en el programador indicado.
+     * Abre el registro de mensajes y recupera de él el historial global.
+     */
+    public ChatService(ScheduledExecutorService scheduler, ServerConfig config) {
+        this(scheduler, config, new ServerMetrics());
+    }
+
+    /**
+     * Constructor de ChatService que registra sus métricas en el objeto indicado.
+     */
+    public ChatService(ScheduledExecutorService scheduler, ServerConfig config, ServerMetrics metrics) {
+        this.registry = new ClientRegistry(config.getRegistryShards(), config.getParallelFanOutThreshold());
+        this.metrics = metrics;
+        this.config = config;
+        int globalRate = config.getGlobalMessagesPerSecond();
+        this.globalRate = globalRate > 0 ? new TokenBucket(globalRate, globalRate) : null;
+        this.roster = new RosterService(registry, scheduler, RosterService.DEFAULT_COALESCE_MILLIS);
+        this.log = new MessageLog(config);
+        this.publisher = new MessagePublisher(log, retentionSize(config), metrics.getFanOut());
+        this.rooms = new RoomService(registry, publisher, config.getHistorySize(), config.getRoomMessagesPerSecond());
+        this.resume = new ResumeService(publisher, config);
+        this.search = new SearchService(log, rooms, config, metrics);
+        this.lobbyHistory = new HistoryRing(config.getHistorySize());
+        this.idle = new IdleMonitor(config, metrics);
+        this.admission = new AdmissionController(config, registry, metrics);
+        for (LogRecord record : log.tail(MessageLog.LOBBY, config.getHistorySize())) {
+            Frame frame = Frame.of(record.getText());
+            frame.setSequence(record.getSequence());
+            lobbyHistory.add(frame);
+        }
+        log.start();
+        search.start();
+        metrics.bind(registry);
+        metrics.bindAdmission(admission);
+        this.cluster = startCluster(config);
+        if (cluster != null) {
+            roster.setRemoteNames(cluster::remoteNames);
+            metrics.bindCluster(cluster);
+        }
+        long sweepMillis = Math.max(1000, config.getResumeTtlMillis() / 2);
+        scheduler.scheduleWithFixedDelay(resume::expire, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        long loadMillis = Math.max(10, config.getLoadCheckMillis());
+        scheduler.scheduleWithFixedDelay(admission::checkLoad, loadMillis, loadMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Abre el puerto del clúster y conecta con los vecinos, si está configurado.
+     * Si el puerto no está disponible el nodo sigue funcionando solo.
+     */
+    private ClusterNode startCluster(ServerConfig config) {
+        if (config.getClusterPort() < 0) {
+            return null;
+        }
+        try {
+            ClusterNode node = new ClusterNode(config, this, registry::names);
+            node.start();
+            return node;
+        } catch (IOException | IllegalArgumentException e) {
+            ServerLog.error("No se pudo iniciar el clúster en el puerto " + config.getClusterPort()
+                    + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Devuelve el registro de clientes.
+     */
+    public ClientRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Devuelve el vigilante de inactividad de las conexiones.
+     */
+    public IdleMonitor idle() {
+        return idle;
+    }
+
+    /**
+     * Devuelve el control de admisión de conexiones.
+     */
+    public AdmissionController admission() {
+        return admission;
+    }
+
+    /**
+     * Crea los límites de envío de una conexión nueva; comparten el límite global.
+     */
+    public RateLimiter newRateLimiter() {
+        return config.newRateLimiter(globalRate);
+    }
+
+    /**
+     * Avisa al cliente de que se descartó su mensaje por superar los límites de envío
+     * (una vez por ráfaga) o lo desconecta, según la acción configurada.
+     * El motor de la conexión aplica él mismo la acción THROTTLE.
+     * @return Verdadero si se desconectó al cliente.
+     */
+    public boolean onRateLimited(ClientConnection client, RateLimiter limiter) {
+        metrics.rateLimited();
+        if (limiter.getPolicy() == RateLimitPolicy.DISCONNECT) {
+            ServerLog.warn("Cliente desconectado por superar los límites de envío: " + client.getClientName());
+            client.closeConnection();
+            return true;
+        }
+        if (limiter.firstInBurst()) {
+            sendError(client, "Límite de envío superado: se descartan tus mensajes");
+        }
+        return false;
+    }
+
+    /**
+     * Devuelve las salas de chat.
+     */
+    public RoomService rooms() {
+        return rooms;
+    }
+
+    /**
+     * Se invoca cuando el cliente completa el saludo enviando su nombre.
+     * Desde ese momento recibe las difusiones; antes no, para que ninguna trama
+     * se adelante a la respuesta del saludo.
+     * Los nombres vacíos, con caracteres de control o ya en uso se rechazan con una
+     * trama de error; la conexión debe enviarla y cerrarse.
+     * Si el cliente presenta un token de reanudación válido recupera su sesión: se
+     * sustituye la conexión anterior si seguía abierta, vuelve a sus salas y recibe
+     * solo los mensajes que se perdió (o "Resync:" si no se pueden cubrir).
+     * Todo ello con el cerrojo del publicador tomado, para que ningún mensaje en
+     * directo se adelante al historial o a los mensajes perdidos.
+     * @return Verdadero si el cliente quedó registrado.
+     */
+    public boolean onNameReceived(ClientConnection client, Handshake handshake) {
+        String name = client.getClientName();
+        if (!isValidName(name)) {
+            sendError(client, "Nombre no válido");
+            metrics.connectionRejected();
+            return false;
+        }
+        boolean registered = register(client, handshake);
+        if (registered && cluster != null) {
+            cluster.presenceChanged();
+        }
+        return registered;
+    }
+
+    /**
+     * Registra al cliente con el cerrojo del publicador tomado (ver onNameReceived).
+     */
+    private boolean register(ClientConnection client, Handshake handshake) {
+        String name = client.getClientName();
+        publisher.lock();
+        try {
+            ResumeService.ResumableSession previous = handshake.wantsResume()
+                    ? resume.claim(handshake.getResumeToken(), name) : null;
+            if (!registry.add(client)) {
+                if (previous != null) {
+                    resume.restore(previous);
+                }
+                sendError(client, "Nombre en uso: " + name);
+                metrics.connectionRejected();
+                return false;
+            }
+            roster.joined(client);
+            if (handshake.wantsResume()) {
+                resume.attach(client); // Envía el token para la próxima reconexión
+            }
+            if (previous == null) {
+                lobbyHistory.replay(client); // Los últimos mensajes globales, desde memoria
+                return true;
+            }
+            Set<String> previousRooms = resume.rooms(previous);
+            boolean caughtUp = resume.catchUp(client, handshake.getLastSequence(), previousRooms);
+            if (!caughtUp) {
+                client.enqueue(Frame.of(FrameType.CONTROL, ResumeService.RESYNC_PREFIX + log.getLastSequence()));
+                lobbyHistory.replay(client);
+            }
+            for (String room : previousRooms) {
+                rooms.join(client, room, !caughtUp);
+            }
+            return true;
+        } finally {
+            publisher.unlock();
+        }
+    }
+
+    /**
+     * Procesa una trama recibida de un cliente.
+     * Los mensajes de chat que llegan ya con el prefijo del remitente en una trama
+     * reutilizable se difunden tal cual, sin decodificar ni volver a codificar el texto.
+     * Quien llama conserva su referencia a la trama y la suelta después.
+     */
+    public void onFrame(ClientConnection client, Frame frame) {
+        if (draining) {
+            return;
+        }
+        if (frame.isRelay()) {
+            publish(frame);
+            return;
+        }
+        onFrame(client, frame.type(), frame.text());
+    }
+
+    /**
+     * Procesa una trama recibida de un cliente.
+     * Las tramas de control (protocolo V2) son siempre comandos o latidos; las de chat
+     * se interpretan como comando si empiezan por "/" y si no se difunden.
+     */
+    public void onFrame(ClientConnection client, FrameType type, String text) {
+        if (draining) {
+            return;
+        }
+        if (type == FrameType.CONTROL || text.startsWith("/")) {
+            onCommand(client, text);
+        } else {
+            onMessage(client, text);
+        }
+    }
+
+    /**
+     * Ejecuta un comando del cliente. Los comandos desconocidos se difunden como
+     * mensajes normales, como hacía el servidor antes de existir los comandos.
+     */
+    private void onCommand(ClientConnection client, String command) {
+        int space = command.indexOf(' ');
+        String name = space < 0 ? command : command.substring(0, space);
+        String arguments = space < 0 ? "" : command.substring(space + 1).trim();
+        switch (name) {
+            case ROSTER_COMMAND:
+                roster.sendSnapshot(client);
+                break;
+            case IdleMonitor.PING:
+                IdleMonitor.pong(client);
+                break;
+            case IdleMonitor.PONG:
+                break; // La actividad ya la registró la conexión al recibir la trama
+            case JOIN_COMMAND:
+                rooms.join(client, arguments);
+                break;
+            case LEAVE_COMMAND:
+                rooms.leave(client, arguments);
+                break;
+            case ROOMS_COMMAND:
+                rooms.sendList(client);
+                break;
+            case MSG_COMMAND:
+                int nameEnd = arguments.indexOf(' ');
+                if (nameEnd < 0) {
+                    sendError(client, "Uso: " + MSG_COMMAND + " <nombre> <mensaje>");
+                } else {
+                    sendPrivate(client, arguments.substring(0, nameEnd), arguments.substring(nameEnd + 1));
+                }
+                break;
+            case SEARCH_COMMAND:
+                search.search(client, arguments);
+                break;
+            case ROOM_COMMAND:
+                int separator = arguments.indexOf(' ');
+                if (separator < 0) {
+                    sendError(client, "Uso: " + ROOM_COMMAND + " <sala> <mensaje>");
+                } else {
+                    rooms.send(client, arguments.substring(0, separator), arguments.substring(separator + 1));
+                }
+                break;
+            default:
+                onMessage(client, command);
+                break;
+        }
+    }
+
+    /**
+     * Envía un mensaje directo: una búsqueda en el índice de nombres y un único encolado,
+     * independientemente del número de clientes conectados.
+     */
+    private void sendPrivate(ClientConnection client, String targetName, String message) {
+        ClientConnection target = registry.find(targetName);
+        if (target == null) {
+            sendError(client, "Cliente no encontrado: " + targetName);
+            return;
+        }
+        target.enqueue(Frame.of(PRIVATE_PREFIX + client.getClientName() + ": " + message));
+    }
+
+    /**
+     * Difunde un mensaje de chat de un cliente.
+     */
+    public void onMessage(ClientConnection client, String message) {
+        broadcast(client.getClientName() + ": " + message);
+    }
+
+    /**
+     * Elimina una conexión cerrada y publica su baja.
+     * @return Verdadero si la conexión estaba registrada (había completado el saludo).
+     */
+    public boolean onDisconnect(ClientConnection client) {
+        boolean removed = registry.remove(client);
+        if (removed) {
+            Set<String> left = rooms.leaveAll(client); // Solo recorre las salas del cliente
+            resume.detach(client, left);
+            roster.left(client);
+            if (cluster != null) {
+                cluster.presenceChanged();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Indica si el nombre es válido: no vacío y sin caracteres de control, que romperían
+     * el formato de la lista de clientes.
+     */
+    private static boolean isValidName(String name) {
+        if (name == null || name.isBlank()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isISOControl(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Envía al cliente una trama de control de error con el motivo del rechazo.
+     */
+    public static void sendError(ClientConnection client, String reason) {
+        client.enqueue(Frame.of(FrameType.CONTROL, ERROR_PREFIX + reason));
+    }
+
+    /**
+     * Envia un mensaje a todos los clientes conectados.
+     */
+    public void broadcast(String message) {
+        publish(Frame.of(message));
+    }
+
+    /**
+     * Difunde un mensaje global: le asigna secuencia, lo guarda en el historial y en
+     * el buffer de retención, lo deja pendiente de persistir (sin esperar al disco) y
+     * lo encola en todos los clientes.
+     */
+    private void publish(Frame frame) {
+        publisher.publish(MessageLog.LOBBY, frame, registry, lobbyHistory);
+        if (cluster != null) {
+            cluster.publish(frame.text());
+        }
+    }
+
+    /**
+     * Difunde a los clientes locales un mensaje global de otro nodo del clúster.
+     * No se vuelve a enviar al clúster.
+     */
+    @Override
+    public void onRemoteMessage(String text) {
+        publisher.publish(MessageLog.LOBBY, Frame.of(text), registry, lobbyHistory);
+    }
+
+    /**
+     * Publica un delta de la lista de clientes cuando cambian los clientes de otro nodo.
+     */
+    @Override
+    public void onPresenceChanged() {
+        roster.refresh();
+    }
+
+    /**
+     * Devuelve el registro de mensajes.
+     */
+    public MessageLog log() {
+        return log;
+    }
+
+    /**
+     * Devuelve el servicio de búsqueda en el historial.
+     */
+    public SearchService search() {
+        return search;
+    }
+
+    /**
+     * Empieza a detener el servicio: deja de atender las tramas de los clientes y espera
+     * a que se envíe lo que ya tenían encolado, como mucho el tiempo indicado.
+     * Debe llamarse con la aceptación ya detenida y antes de cerrar las conexiones.
+     * Una cola puede quedar vacía un instante mientras su hilo toma el siguiente lote,
+     * así que solo se da por terminada tras dos comprobaciones seguidas sin nada pendiente.
+     * @return Verdadero si todas las colas de salida quedaron vacías a tiempo.
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        draining = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<ClientConnection> clients = registry.clients();
+        ServerLog.info("Vaciando las colas de salida de " + clients.size() + " clientes...");
+        boolean quiet = false; // Una comprobación sin nada pendiente; se confirma con la siguiente
+        while (true) {
+            int pending = 0;
+            for (ClientConnection client : clients) {
+                if (client.hasPendingOutput()) {
+                    pending++;
+                }
+            }
+            if (pending == 0 && quiet) {
+                return true;
+            }
+            quiet = pending == 0;
+            if (System.nanoTime() - deadline >= 0) {
+                ServerLog.warn("Se cierran " + pending + " conexiones con mensajes sin enviar ("
+                        + registry.queuedBytes() + " bytes)");
+                return false;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Sale del clúster, detiene la vigilancia de inactividad y el índice de búsqueda,
+     * vacía el registro de mensajes a disco y lo cierra.
+     */
+    public void close() {
+        idle.close();
+        if (cluster != null) {
+            cluster.close();
+        }
+        publisher.lock();
+        try {
+            publisher.retention().clear();
+        } finally {
+            publisher.unlock();
+        }
+        registry.close();
+        search.close();
+        log.close();
+    }
+
+    /**
+     * Calcula cuántos mensajes conserva el buffer de retención.
+     * Cada mensaje retenido mantiene ocupada su trama del pool, así que se limita a la
+     * mitad del pool para que el reenvío siga teniendo tramas libres.
+     */
+    private static int retentionSize(ServerConfig config) {
+        int size = config.getResumeBufferSize();
+        int limit = config.getRelayPoolFrames() / 2;
+        if (size > limit) {
+            ServerLog.warn("Buffer de reanudación reducido a " + limit + " mensajes (la mitad del pool de tramas)");
+            return limit;
+        }
+        return size;
+    }
+
+    /**
+     * Devuelve el servicio de sesiones reanudables.
+     */
+    public ResumeService resume() {
+        return resume;
+    }
+}
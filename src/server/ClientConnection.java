@@ -0,0 +1,46 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * Conexión de un cliente vista desde el servidor, independiente del motor
+ * (ClientHandler en el servidor bloqueante, NioConnection en el servidor NIO).
+ */
+public interface ClientConnection {
+    // Devuelve el nombre del cliente o null si aún no lo ha enviado.
+    String getClientName();
+
+    // Encola una trama ya codificada para enviarla al cliente sin bloquear al emisor.
+    void enqueue(Frame frame);
+
+    // Devuelve la cola de salida acotada del cliente, con su profundidad y sus contadores de descartes.
+    OutboundQueue getOutboundQueue();
+
+    // Indica si quedan datos por enviar al cliente: tramas en la cola de salida o a medio escribir.
+    default boolean hasPendingOutput() {
+        return getOutboundQueue().size() > 0;
+    }
+
+    // Devuelve el protocolo de tramas de la conexión; LEGACY hasta que el saludo negocia V2.
+    default WireProtocol getProtocol() {
+        return WireProtocol.LEGACY;
+    }
+
+    // Cierra la conexión y libera sus recursos.
+    void closeConnection();
+
+    // Devuelve la partición del registro a la que pertenece el cliente (la de su aceptador
+    // o su bucle de eventos). Por defecto se reparte por identidad.
+    default int getShard() {
+        return System.identityHashCode(this);
+    }
+
+    // Indica si el error de E/S se debe a que el cliente cerró o reinició la conexión
+    // (tubería rota, conexión reiniciada): es una desconexión normal, no un fallo del servidor.
+    // Los canales NIO lanzan IOException y los sockets SocketException, con el mismo mensaje.
+    static boolean isPeerDisconnect(IOException e) {
+        String message = e.getMessage();
+        return message != null
+                && (message.contains("Broken pipe") || message.contains("Connection reset"));
+    }
+}
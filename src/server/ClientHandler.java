@@ -4,33 +4,56 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Clase que maneja la comunicación con un cliente específico en el servidor.
  * Implementa la interfaz Runnable para permitir la ejecución en un hilo separado.
  */
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, ClientConnection {
     private Socket socket; // Socket para la conexión con el cliente
     private Session session; // Sesión para leer y escribir datos
+    private final TlsStreams tls; // Cifrado TLS de la conexión, null si el servidor no usa TLS
     private Server server; // Referencia al servidor que maneja esta conexión
     private String clientName; // Nombre del cliente
     private Thread readThread; // Hilo para la lectura de mensajes
     private Thread writeThread; // Hilo para la escritura de mensajes
-    private BlockingQueue<String> messageQueue; // Cola para mensajes salientes
+    private OutboundQueue messageQueue; // Cola acotada de tramas salientes ya codificadas
+    private boolean registered; // El saludo terminó y el nombre fue aceptado
+    private final int shard; // Partición del registro (la del aceptador que recibió la conexión)
+    private final IdleMonitor.Timer idleTimer; // Plazo de saludo y de inactividad de la conexión
+    private final AtomicBoolean closed = new AtomicBoolean(false); // Los hilos del cliente la cierran a la vez
+    private final RateLimiter rateLimiter; // Límites de envío del cliente (solo el hilo de lectura)
+    private volatile boolean writing; // El hilo de escritura está enviando un lote
 
     /**
      * Constructor de ClientHandler.
      * Inicializa el socket, el servidor, la sesión y la cola de mensajes.
      */
     public ClientHandler(Socket socket, Server server) {
+        this(socket, server, 0);
+    }
+
+    /**
+     * Constructor de ClientHandler con la partición del registro a la que pertenece.
+     */
+    public ClientHandler(Socket socket, Server server, int shard) {
+        this.shard = shard;
         this.socket = Objects.requireNonNull(socket, "Socket no puede ser nulo");
         this.server = Objects.requireNonNull(server, "Server no puede ser nulo");
-        this.session = new Session(socket); // Inicializar la sesión con el socket
-        this.messageQueue = new LinkedBlockingQueue<>(); // Inicializar la cola de mensajes
+        TlsContext tlsContext = server.getTls();
+        this.tls = tlsContext == null ? null : new TlsStreams(socket, tlsContext);
+        // Inicializar la sesión con el socket, en claro o sobre los flujos TLS
+        this.session = tls == null ? new Session(socket)
+                : new Session(socket, tls.getInputStream(), tls.getOutputStream());
+        this.messageQueue = server.getConfig().newOutboundQueue(); // Inicializar la cola acotada de mensajes
+        this.messageQueue.setLatencyHistogram(server.getMetrics().getQueueLatency());
+        this.session.setMetrics(server.getMetrics());
+        this.idleTimer = server.getChatService().idle().track(this);
+        this.rateLimiter = server.getChatService().newRateLimiter();
 
-        System.out.println("Cliente conectado desde: " + socket.getRemoteSocketAddress());
+        ServerLog.debug("Cliente conectado desde: " + socket.getRemoteSocketAddress());
     }
 
     /**
@@ -41,11 +64,18 @@ public class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
+            if (tls != null && !tls.handshake()) {
+                return; // Saludo TLS fallido: se cierra la conexión
+            }
             requestClientName(); // Solicita el nombre del cliente
+            if (!registered) {
+                return; // Nombre rechazado o saludo fallido: se cierra la conexión
+            }
 
             // Crear y arrancar los hilos para leer y escribir mensajes
-            readThread = new Thread(this::readMessages);
-            writeThread = new Thread(this::writeMessages);
+            // con la misma fábrica (de plataforma o virtual) que usa el servidor
+            readThread = server.getThreadFactory().newThread(this::readMessages);
+            writeThread = server.getThreadFactory().newThread(this::writeMessages);
 
             readThread.start();
             writeThread.start();
@@ -56,8 +86,7 @@ public class ClientHandler implements Runnable {
 
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt(); // Restaurar el estado de interrupción
-            System.err.println("Hilo interrumpido: " + e.getMessage());
-            e.printStackTrace();
+            ServerLog.error("Hilo interrumpido: " + e.getMessage(), e);
         } finally {
             closeConnection(); // Cerrar la conexión al final
         }
@@ -71,41 +100,105 @@ public class ClientHandler implements Runnable {
         try {
             while (!Thread.currentThread().isInterrupted()) {
                 // Leer un mensaje del cliente
-                String message = session.read();
-                if (message != null) {
-                    System.out.println(clientName + ": " + message);
-                    // Enviar el mensaje a todos los clientes conectados
-                    server.broadcast(clientName + ": " + message);
+                long start = server.getRelayStats().begin();
+                Frame frame = session.readFrame();
+                idleTimer.touch();
+                server.getMetrics().messageReceived();
+                if (!rateLimit(frame)) {
+                    frame.release(); // Mensaje descartado o cliente desconectado
+                    if (closed.get()) {
+                        break;
+                    }
+                    continue;
                 }
+                boolean relay = frame.isRelay();
+                try {
+                    // Ejecutar el comando o enviar el mensaje a todos los clientes conectados
+                    server.getChatService().onFrame(this, frame);
+                } finally {
+                    frame.release(); // Las colas de los destinatarios conservan sus propias referencias
+                }
+                server.getRelayStats().end(start, relay);
             }
         } catch (EOFException e) {
-            System.out.println("El cliente cerró la conexión.");
+            ServerLog.debug("El cliente cerró la conexión.");
         } catch (IOException e) {
-            System.err.println("Error al leer el mensaje del cliente: " + e.getMessage());
-            e.printStackTrace();
+            if (closed.get() || socket.isClosed()) {
+                ServerLog.debug("Conexión cerrada por el servidor: " + e.getMessage()); // Desconexión o parada
+            } else if (ClientConnection.isPeerDisconnect(e)) {
+                ServerLog.debug("El cliente cerró la conexión: " + e.getMessage());
+            } else {
+                ServerLog.error("Error al leer el mensaje del cliente: " + e.getMessage(), e);
+            }
         } finally {
             closeConnection(); // Cerrar la conexión en caso de error
         }
     }
 
+    /**
+     * Aplica los límites de envío del cliente antes de difundir la trama.
+     * Con la acción THROTTLE el hilo de lectura espera a que haya fichas sin leer del
+     * socket, de modo que el control de flujo de TCP frena al cliente.
+     * @return Falso si la trama se descarta (o el cliente se desconectó).
+     */
+    private boolean rateLimit(Frame frame) {
+        long wait = rateLimiter.tryAcquire(frame.length());
+        if (wait == 0) {
+            return true;
+        }
+        if (rateLimiter.getPolicy() != RateLimitPolicy.THROTTLE) {
+            server.getChatService().onRateLimited(this, rateLimiter); // Aviso o desconexión
+            return false;
+        }
+        server.getMetrics().rateLimited();
+        while (wait > 0 && !closed.get() && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, wait);
+            wait = rateLimiter.tryAcquire(frame.length());
+        }
+        return wait == 0;
+    }
+
     /**
      * Hilo encargado de escribir mensajes al cliente.
+     * Escribe por lotes todo lo encolado para reducir llamadas al sistema y segmentos TCP.
      * Reacciona a la interrupción y errores de entrada/salida.
      */
     private void writeMessages() {
+        ServerConfig config = server.getConfig();
+        Frame[] batch = new Frame[Math.max(1, config.getWriteBatchSize())];
+        long latencyBudgetNanos = config.getWriteLatencyBudgetMicros() * 1000;
+        ServerMetrics metrics = server.getMetrics();
         try {
             while (!Thread.currentThread().isInterrupted()) {
-                // Obtener y enviar el siguiente mensaje de la cola
-                String message = messageQueue.take();
-                session.write(message);
+                // Obtener todas las tramas pendientes (hasta el tamaño del lote) y enviarlas con un único flush
+                int count = messageQueue.drainTo(batch, latencyBudgetNanos);
+                if (count == 0) {
+                    break; // La cola se cerró al cerrar la conexión
+                }
+                writing = true;
+                try {
+                    session.write(batch, count);
+                    metrics.messagesSent(count);
+                } finally {
+                    writing = false;
+                    for (int i = 0; i < count; i++) {
+                        batch[i].release(); // Devuelve al pool las tramas que ya no esperan otros clientes
+                        batch[i] = null;
+                    }
+                }
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt(); // Restaurar el estado de interrupción
-            System.err.println("Hilo de escritura interrumpido: " + e.getMessage());
-            e.printStackTrace();
+            ServerLog.error("Hilo de escritura interrumpido: " + e.getMessage(), e);
         } catch (IOException e) {
-            System.err.println("Error al enviar el mensaje al cliente: " + e.getMessage());
-            e.printStackTrace();
+            if (closed.get() || socket.isClosed()) {
+                // Desconexión o parada; la sesión también cierra el socket al leer el fin del cliente
+                ServerLog.debug("Conexión cerrada por el servidor: " + e.getMessage());
+            } else if (ClientConnection.isPeerDisconnect(e)) {
+                ServerLog.debug("El cliente cerró la conexión: " + e.getMessage()); // Se fue con envíos pendientes
+            } else {
+                ServerLog.error("Error al enviar el mensaje al cliente: " + e.getMessage(), e);
+            }
         } finally {
             closeConnection(); // Cerrar la conexión en caso de error
         }
@@ -113,39 +206,102 @@ public class ClientHandler implements Runnable {
 
     /**
      * Solicita el nombre del cliente y lo almacena en clientName.
+     * Si el cliente envía un saludo HELLO se le responde y se negocia el protocolo de tramas.
      */
     private void requestClientName() {
         try {
-            // Leer el nombre del cliente
+            // Leer el nombre del cliente (o su saludo)
             String nameRequest = session.read();
 
             if (nameRequest != null) {
-                clientName = nameRequest; // Almacenar el nombre del cliente
-                System.out.println("Nombre del cliente recibido: " + clientName);
+                Handshake handshake = Handshake.parse(nameRequest);
+                if (handshake.expectsReply()) {
+                    // La respuesta va en LEGACY; después ambos extremos cambian de protocolo
+                    session.write(handshake.reply());
+                    session.setProtocol(handshake.getProtocol());
+                    session.setSequenced(handshake.wantsSequence());
+                    session.setDeflateThreshold(server.getConfig().compressionThreshold(handshake));
+                    session.setMaxFrameBytes(server.getConfig().getMaxFrameBytes());
+                }
+                clientName = handshake.getClientName(); // Almacenar el nombre del cliente
+                ServerLog.info("Nombre del cliente recibido: " + clientName
+                        + " (protocolo " + session.getProtocol() + ")");
+                registered = server.getChatService().onNameReceived(this, handshake); // Enviar la lista y anunciar el alta
+                if (registered) {
+                    idleTimer.registered(handshake.wantsHeartbeat());
+                    // Los mensajes siguientes se reenvían desde el pool con el prefijo ya codificado
+                    session.setRelay(server.getFramePool(), FrameCodec.relayPrefix(clientName));
+                } else {
+                    flushRejection();
+                }
             } else {
-                System.err.println("No se recibió nombre del cliente.");
+                ServerLog.warn("No se recibió nombre del cliente.");
             }
         } catch (Exception e) {
-            System.err.println("Error al solicitar el nombre del cliente: " + e.getMessage());
-            e.printStackTrace();
+            ServerLog.error("Error al solicitar el nombre del cliente: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Envía la trama de error con la que se rechazó el nombre antes de cerrar la conexión.
+     * El hilo de escritura aún no existe, así que se escribe desde este hilo.
+     */
+    private void flushRejection() throws IOException {
+        Frame pending;
+        while ((pending = messageQueue.poll()) != null) {
+            try {
+                session.write(pending);
+            } finally {
+                pending.release();
+            }
         }
     }
 
+    /**
+     * Indica si quedan tramas en la cola o un lote a medio enviar.
+     */
+    @Override
+    public boolean hasPendingOutput() {
+        return writing || messageQueue.size() > 0;
+    }
+
+    /**
+     * Devuelve el protocolo de tramas negociado en el saludo.
+     */
+    @Override
+    public WireProtocol getProtocol() {
+        return session.getProtocol();
+    }
+
     /**
      * Cierra la conexión con el cliente y elimina al cliente del servidor.
+     * Solo la primera llamada cierra (la hacen los hilos de lectura y escritura y quien
+     * desconecta al cliente) y devuelve su plaza al control de admisión.
      * Maneja posibles errores durante el cierre.
      */
+    @Override
     public void closeConnection() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        idleTimer.cancel();
+        messageQueue.close(); // Despierta al hilo de escritura y libera las tramas pendientes
+        if (tls != null && !writing) {
+            // Aviso de cierre TLS; no se envía a un cliente lento, con el socket lleno se bloquearía
+            tls.closeOutbound();
+        }
         try {
             if (session.close()) {
-                System.out.println("Sesión cerrada para: " + socket.getRemoteSocketAddress());
+                ServerLog.info("Sesión cerrada para: " + socket.getRemoteSocketAddress());
                 server.removeClient(this); // Notificar al servidor que el cliente ha sido desconectado
             } else {
-                System.err.println("Error al cerrar la sesión para: " + socket.getRemoteSocketAddress());
+                ServerLog.error("Error al cerrar la sesión para: " + socket.getRemoteSocketAddress());
             }
         } catch (Exception e) {
-            System.err.println("Error al cerrar la conexión: " + e.getMessage());
-            e.printStackTrace();
+            ServerLog.error("Error al cerrar la conexión: " + e.getMessage(), e);
+        } finally {
+            server.getChatService().admission().release(socket.getInetAddress());
+            server.handlerClosed(this);
         }
     }
 
@@ -153,14 +309,57 @@ public class ClientHandler implements Runnable {
      * Devuelve el nombre del cliente.
      * @return Nombre del cliente.
      */
+    @Override
     public String getClientName() {
         return clientName;
     }
 
     /**
      * Encola un mensaje para enviar al cliente.
+     * El mensaje se codifica aquí; para difusiones es preferible enqueue(Frame).
      */
     public void enqueueMessage(String message) {
-        messageQueue.offer(message); // Añadir el mensaje a la cola de mensajes
+        enqueue(Frame.of(message));
+    }
+
+    /**
+     * Encola una trama ya codificada, compartida con el resto de destinatarios.
+     */
+    @Override
+    public void enqueue(Frame frame) {
+        // Añadir la trama a la cola aplicando la política de desbordamiento
+        if (messageQueue.offer(frame) == OutboundQueue.Offer.DISCONNECT) {
+            ServerLog.warn("Cliente lento desconectado: " + clientName);
+            disconnectSlowClient();
+        }
+    }
+
+    /**
+     * Desconecta a un cliente lento sin darlo de baja desde el hilo que encola: suele ser
+     * un hilo de difusión y quien publica puede estar esperándolo con su cerrojo tomado,
+     * el mismo que la baja necesita. Se cierra la cola (las tramas siguientes se descartan)
+     * y el socket, lo que despierta al hilo de escritura aunque esté bloqueado en el cliente;
+     * los hilos de lectura y escritura terminan y cierran la conexión desde su finally.
+     */
+    private void disconnectSlowClient() {
+        messageQueue.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            ServerLog.debug("Error al cerrar el socket del cliente lento: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Devuelve la cola de salida del cliente (profundidad y tramas descartadas).
+     */
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return messageQueue;
+    }
+
+    @Override
+    public int getShard() {
+        return shard;
     }
 }
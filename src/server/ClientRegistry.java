@@ -0,0 +1,361 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registro de los clientes conectados compartido por los motores del servidor.
+ * Los clientes se reparten en particiones (shards), normalmente una por núcleo y
+ * asociadas al aceptador o al bucle NIO que atiende al cliente. Cada partición es
+ * un array copy-on-write con su propio cerrojo: las altas y bajas solo copian y
+ * bloquean su partición, y las difusiones recorren las instantáneas vigentes sin
+ * bloquearse y sin crear iteradores, de modo que reenviar un mensaje no asigna memoria.
+ * Con muchos clientes la difusión se reparte entre hilos, uno por partición, y
+ * termina cuando todas las particiones han encolado la trama.
+ * Además mantiene un índice nombre -> cliente para buscar a un cliente sin
+ * recorrer la lista; los nombres son únicos dentro del registro.
+ */
+public class ClientRegistry {
+    private static final ClientConnection[] EMPTY = new ClientConnection[0];
+    // Espera máxima de quien difunde entre dos comprobaciones de las particiones pendientes
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Shard[] shards; // Particiones de clientes
+    private final Map<String, ClientConnection> byName; // Índice nombre -> cliente
+    private final int parallelThreshold; // Clientes a partir de los que la difusión es paralela (0 = nunca)
+    private final FanOutWorker[] workers; // Hilos de difusión de las particiones 1..n-1, null si no hay
+    private volatile boolean closed;
+
+    /**
+     * Constructor de ClientRegistry con una sola partición y difusión secuencial
+     * (miembros de una sala).
+     */
+    public ClientRegistry() {
+        this(1, 0);
+    }
+
+    /**
+     * Constructor de ClientRegistry.
+     * @param shardCount Particiones en las que se reparten los clientes.
+     * @param parallelThreshold Clientes a partir de los que la difusión se reparte entre
+     *                          hilos (0 = siempre secuencial).
+     */
+    public ClientRegistry(int shardCount, int parallelThreshold) {
+        this.shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+        this.byName = new ConcurrentHashMap<>();
+        this.parallelThreshold = parallelThreshold;
+        if (parallelThreshold > 0 && shards.length > 1) {
+            // La partición 0 la recorre quien difunde; el resto, un hilo cada una
+            this.workers = new FanOutWorker[shards.length - 1];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new FanOutWorker(shards[i + 1]);
+                Thread thread = new Thread(workers[i]::run, "fanout-" + (i + 1));
+                thread.setDaemon(true);
+                workers[i].thread = thread;
+                thread.start();
+            }
+        } else {
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Devuelve la partición de un cliente.
+     */
+    private Shard shardOf(ClientConnection client) {
+        return shards[Math.floorMod(client.getShard(), shards.length)];
+    }
+
+    /**
+     * Añade un cliente al registro.
+     * @return Falso si ya hay otro cliente registrado con el mismo nombre.
+     */
+    public boolean add(ClientConnection client) {
+        String name = client.getClientName();
+        if (name != null && byName.putIfAbsent(name, client) != null) {
+            return false;
+        }
+        shardOf(client).add(client);
+        return true;
+    }
+
+    /**
+     * Elimina un cliente del registro.
+     * @return Verdadero si el cliente estaba registrado.
+     */
+    public boolean remove(ClientConnection client) {
+        if (!shardOf(client).remove(client)) {
+            return false;
+        }
+        String name = client.getClientName();
+        if (name != null) {
+            byName.remove(name, client);
+        }
+        return true;
+    }
+
+    /**
+     * Busca un cliente por su nombre sin recorrer el registro.
+     * @return El cliente, o null si no hay ninguno con ese nombre.
+     */
+    public ClientConnection find(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Indica si el cliente está registrado.
+     */
+    public boolean contains(ClientConnection client) {
+        for (ClientConnection registered : shardOf(client).clients) {
+            if (registered == client) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Devuelve el número de clientes conectados.
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.clients.length;
+        }
+        return size;
+    }
+
+    /**
+     * Devuelve la suma de los bytes pendientes en las colas de salida de los clientes,
+     * recorriendo las instantáneas sin copiarlas.
+     */
+    public long queuedBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            for (ClientConnection client : shard.clients) {
+                bytes += client.getOutboundQueue().bytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Devuelve la lista de clientes (copia de solo lectura de las instantáneas actuales).
+     */
+    public List<ClientConnection> clients() {
+        if (shards.length == 1) {
+            return List.of(shards[0].clients);
+        }
+        List<ClientConnection> clients = new ArrayList<>(size());
+        for (Shard shard : shards) {
+            clients.addAll(Arrays.asList(shard.clients));
+        }
+        return List.copyOf(clients);
+    }
+
+    /**
+     * Devuelve los nombres de los clientes que ya completaron el saludo.
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<>(size());
+        for (Shard shard : shards) {
+            for (ClientConnection client : shard.clients) {
+                if (client.getClientName() != null) {
+                    names.add(client.getClientName());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Codifica el mensaje una sola vez y lo encola en todos los clientes.
+     * Los mensajes que superan el límite de LEGACY solo llegan a los clientes V2.
+     */
+    public void broadcast(String message) {
+        broadcast(Frame.of(message));
+    }
+
+    /**
+     * Entrega la misma trama a la cola de salida de cada cliente.
+     * Cada cola toma su propia referencia; quien llama conserva la suya.
+     * Con muchos clientes cada partición la encola en su propio hilo; en todo caso
+     * el método no vuelve hasta que la trama está en todas las colas, de modo que
+     * quien publica con un cerrojo tomado conserva el orden de los mensajes.
+     */
+    public void broadcast(Frame frame) {
+        broadcast(frame, frame);
+    }
+
+    /**
+     * Como broadcast, pero los clientes LEGACY reciben otra trama: la usa la lista de
+     * clientes, que solo envía deltas versionados a los clientes V2.
+     * @param frame Trama de los clientes V2.
+     * @param legacyFrame Trama de los clientes LEGACY.
+     */
+    public void broadcast(Frame frame, Frame legacyFrame) {
+        if (workers == null || closed || size() < parallelThreshold) {
+            for (Shard shard : shards) {
+                shard.broadcast(frame, legacyFrame);
+            }
+            return;
+        }
+        FanOutTask task = new FanOutTask(frame, legacyFrame, workers.length);
+        for (FanOutWorker worker : workers) {
+            worker.submit(task);
+        }
+        shards[0].broadcast(frame, legacyFrame);
+        while (task.pending.get() > 0) {
+            LockSupport.parkNanos(task, WAIT_NANOS);
+            if (closed) {
+                for (FanOutWorker worker : workers) {
+                    worker.drain(); // Los hilos pueden haber terminado ya: completa lo pendiente
+                }
+            }
+        }
+    }
+
+    /**
+     * Detiene los hilos de difusión. Las difusiones posteriores son secuenciales.
+     */
+    public void close() {
+        closed = true;
+        if (workers != null) {
+            for (FanOutWorker worker : workers) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    /**
+     * Partición de clientes: array copy-on-write con su propio cerrojo.
+     */
+    private static final class Shard {
+        private final ReentrantLock lock = new ReentrantLock(); // Serializa las altas y bajas de la partición
+        private volatile ClientConnection[] clients = EMPTY; // Instantánea de los clientes de la partición
+
+        private void add(ClientConnection client) {
+            lock.lock();
+            try {
+                ClientConnection[] current = clients;
+                ClientConnection[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = client;
+                clients = updated;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean remove(ClientConnection client) {
+            lock.lock();
+            try {
+                ClientConnection[] current = clients;
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i] == client) {
+                        ClientConnection[] updated = new ClientConnection[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        clients = updated;
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void broadcast(Frame frame, Frame legacyFrame) {
+            for (ClientConnection client : clients) {
+                try {
+                    // Encola la trama compartida del protocolo del cliente
+                    client.enqueue(frame == legacyFrame || client.getProtocol() != WireProtocol.LEGACY
+                            ? frame : legacyFrame);
+                } catch (Exception e) {
+                    ServerLog.error("Error al encolar el mensaje para el cliente: " + client.getClientName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Difusión repartida entre particiones: la trama y las particiones que faltan.
+     */
+    private static final class FanOutTask {
+        private final Frame frame;
+        private final Frame legacyFrame; // Trama de los clientes LEGACY (normalmente la misma)
+        private final AtomicInteger pending; // Particiones que aún no han encolado la trama
+        private final Thread caller; // Hilo que espera a que terminen
+
+        private FanOutTask(Frame frame, Frame legacyFrame, int partitions) {
+            this.frame = frame;
+            this.legacyFrame = legacyFrame;
+            this.pending = new AtomicInteger(partitions);
+            this.caller = Thread.currentThread();
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() == 0) {
+                LockSupport.unpark(caller);
+            }
+        }
+    }
+
+    /**
+     * Hilo de difusión de una partición. Atiende las tareas en orden de llegada, así
+     * que cada cliente recibe las tramas en el mismo orden en que se difundieron.
+     */
+    private final class FanOutWorker {
+        private final Shard shard; // Partición que recorre
+        private final Queue<FanOutTask> tasks = new ConcurrentLinkedQueue<>(); // Difusiones pendientes
+        private Thread thread;
+
+        private FanOutWorker(Shard shard) {
+            this.shard = shard;
+        }
+
+        private void submit(FanOutTask task) {
+            tasks.offer(task);
+            LockSupport.unpark(thread);
+        }
+
+        private void run() {
+            while (!closed) {
+                if (!drain()) {
+                    LockSupport.park(this);
+                }
+            }
+            drain();
+        }
+
+        /**
+         * Atiende las tareas pendientes.
+         * @return Falso si no había ninguna.
+         */
+        private boolean drain() {
+            boolean any = false;
+            FanOutTask task;
+            while ((task = tasks.poll()) != null) {
+                any = true;
+                try {
+                    shard.broadcast(task.frame, task.legacyFrame);
+                } finally {
+                    task.done();
+                }
+            }
+            return any;
+        }
+    }
+}
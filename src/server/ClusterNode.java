@@ -0,0 +1,610 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Nodo de un clúster de servidores de chat.
+ * Cada mensaje global publicado en este nodo se envía una vez a cada nodo vecino,
+ * que lo difunde a sus clientes locales; la lista de clientes de cada nodo se envía
+ * también a los vecinos para que la lista publicada incluya a los clientes de todos.
+ *
+ * Topología: malla completa. Cada nodo abre una conexión de salida hacia cada vecino
+ * configurado (solo envía por ella) y acepta las conexiones de entrada de los demás
+ * (solo recibe por ellas). Los mensajes no se reenvían de un vecino a otro.
+ *
+ * Los mensajes de salida se numeran por nodo (secuencia de origen) y se guardan en un
+ * buffer circular común a todos los enlaces; cada enlace lleva su propio cursor y
+ * escribe de una vez, con un único flush, todo lo pendiente (lotes). Si un enlace se
+ * corta, al reconectar el vecino indica la última secuencia que recibió y se reenvía
+ * desde ahí lo que siga en el buffer. El receptor descarta los mensajes ya vistos
+ * (origen + secuencia), así que un reenvío nunca produce duplicados.
+ * Cada arranque de un nodo es una encarnación distinta: si un nodo se reinicia, sus
+ * vecinos reinician su secuencia y no le reenvían mensajes antiguos.
+ *
+ * Un enlace sin mensajes envía lotes vacíos cada reconnectMillis para detectar que el
+ * vecino se cayó aunque este nodo no publique nada.
+ *
+ * Protocolo entre nodos (DataOutputStream):
+ *   Saludo:    UTF "CHAT-CLUSTER/1", UTF nodo, long encarnación
+ *   Respuesta: long última secuencia recibida de esa encarnación (UNKNOWN si es nueva,
+ *              REJECTED si el nodo se conecta a sí mismo)
+ *   Lote:      int registros, y por registro un byte de tipo y su contenido:
+ *              MESSAGE:  long secuencia, int longitud, bytes UTF-8 del texto
+ *              PRESENCE: int nombres, UTF por nombre (lista completa de clientes locales)
+ */
+public class ClusterNode {
+    private static final String MAGIC = "CHAT-CLUSTER/1";
+    private static final byte MESSAGE = 1;
+    private static final byte PRESENCE = 2;
+    // Respuestas especiales al saludo
+    private static final long UNKNOWN = -1;
+    private static final long REJECTED = Long.MIN_VALUE;
+    // Espera máxima al conectar con un vecino
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    // Margen sobre maxFrameBytes para el prefijo "nombre: " del remitente (nombre en UTF de Java)
+    private static final int SENDER_PREFIX_BYTES = 65535 + 2;
+    // Nombres como máximo en un registro de presencia
+    private static final int MAX_PRESENCE_NAMES = 1 << 20;
+
+    /**
+     * Receptor de los eventos del clúster (ChatService).
+     */
+    public interface Listener {
+        /**
+         * Se invoca con cada mensaje global nuevo de otro nodo, en orden de origen.
+         */
+        void onRemoteMessage(String text);
+
+        /**
+         * Se invoca cuando cambia la lista de clientes de algún vecino.
+         */
+        void onPresenceChanged();
+    }
+
+    private final String nodeId; // Identificador único del nodo en el clúster
+    private final long incarnation; // Arranque actual del nodo
+    private final ServerSocket serverSocket; // Conexiones de entrada de los vecinos
+    private final Listener listener; // Destino de los mensajes y cambios de los vecinos
+    private final Supplier<List<String>> localNames; // Clientes conectados a este nodo
+    private final int batchMessages; // Máximo de mensajes por lote
+    private final long reconnectMillis; // Espera entre intentos de conexión con un vecino
+    private final int maxPayloadBytes; // Longitud máxima de un mensaje recibido de un vecino
+
+    private final ReentrantLock outLock; // Protege el buffer de salida y los avisos a los enlaces
+    private final Condition outChanged; // Hay mensajes nuevos o la lista local cambió
+    private final byte[][] outBuffer; // Mensajes de salida recientes (UTF-8), por secuencia
+    private long outHead; // Última secuencia de salida asignada
+    private final List<PeerLink> peers; // Enlaces de salida, uno por vecino
+
+    private final ReentrantLock originLock; // Protege el mapa de orígenes
+    private final Map<String, Origin> origins; // Estado de cada vecino del que se recibe
+
+    private final LongAdder messagesSent; // Mensajes escritos a los vecinos (uno por enlace)
+    private final LongAdder messagesReceived; // Mensajes nuevos recibidos de los vecinos
+    private final LongAdder duplicates; // Mensajes recibidos ya vistos y descartados
+    private final LongAdder gaps; // Mensajes perdidos (no quedaban en el buffer del origen)
+    private volatile boolean running;
+
+    /**
+     * Constructor de ClusterNode. Abre el puerto del clúster pero no conecta con nadie
+     * hasta llamar a start.
+     */
+    public ClusterNode(ServerConfig config, Listener listener, Supplier<List<String>> localNames) throws IOException {
+        this.nodeId = config.getClusterNodeId() != null ? config.getClusterNodeId() : "node-" + config.getClusterPort();
+        this.incarnation = System.currentTimeMillis() * 1000 + (System.nanoTime() & 0x3FF);
+        this.listener = listener;
+        this.localNames = localNames;
+        this.batchMessages = Math.max(1, config.getClusterBatchMessages());
+        this.reconnectMillis = Math.max(10, config.getClusterReconnectMillis());
+        this.maxPayloadBytes = config.getMaxFrameBytes() + SENDER_PREFIX_BYTES;
+        this.outLock = new ReentrantLock();
+        this.outChanged = outLock.newCondition();
+        this.outBuffer = new byte[Math.max(1, config.getClusterReplayMessages())][];
+        this.peers = new ArrayList<>();
+        this.originLock = new ReentrantLock();
+        this.origins = new HashMap<>();
+        this.messagesSent = new LongAdder();
+        this.messagesReceived = new LongAdder();
+        this.duplicates = new LongAdder();
+        this.gaps = new LongAdder();
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(config.getClusterHost(), config.getClusterPort()));
+        for (String peer : config.getClusterPeers()) {
+            peers.add(new PeerLink(parseAddress(peer)));
+        }
+    }
+
+    /**
+     * Convierte "host:puerto" en una dirección.
+     */
+    private static InetSocketAddress parseAddress(String peer) {
+        int colon = peer.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Vecino del clúster no válido (host:puerto): " + peer);
+        }
+        return new InetSocketAddress(peer.substring(0, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim()));
+    }
+
+    /**
+     * Empieza a aceptar a los vecinos y a conectar con ellos.
+     */
+    public void start() {
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink peer : peers) {
+            Thread writer = new Thread(peer::run, "cluster-peer-" + peer.address.getPort());
+            writer.setDaemon(true);
+            writer.start();
+        }
+        ServerLog.info("Nodo de clúster " + nodeId + " escuchando en " + serverSocket.getLocalSocketAddress()
+                + " con " + peers.size() + " vecinos");
+    }
+
+    /**
+     * Envía a los vecinos un mensaje global publicado en este nodo.
+     * No bloquea: el mensaje queda en el buffer de salida y lo escriben los enlaces.
+     */
+    public void publish(String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        outLock.lock();
+        try {
+            outHead++;
+            outBuffer[(int) (outHead % outBuffer.length)] = payload;
+            outChanged.signalAll();
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    /**
+     * Avisa a los enlaces de que la lista de clientes locales cambió. La lista se envía
+     * en el siguiente lote, de modo que los cambios seguidos se agrupan en un solo envío.
+     */
+    public void presenceChanged() {
+        outLock.lock();
+        try {
+            for (PeerLink peer : peers) {
+                peer.presenceDirty = true;
+            }
+            outChanged.signalAll();
+        } finally {
+            outLock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve los clientes conectados a los vecinos (con repeticiones si un nombre
+     * está en varios nodos).
+     */
+    public List<String> remoteNames() {
+        originLock.lock();
+        try {
+            List<String> names = new ArrayList<>();
+            for (Origin origin : origins.values()) {
+                names.addAll(origin.names);
+            }
+            return names;
+        } finally {
+            originLock.unlock();
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Devuelve el puerto del clúster (útil si se configuró el puerto 0).
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public long getGaps() {
+        return gaps.sum();
+    }
+
+    /**
+     * Devuelve el número de vecinos con el enlace de salida conectado.
+     */
+    public int getConnectedPeers() {
+        int connected = 0;
+        for (PeerLink peer : peers) {
+            if (peer.connected) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Cierra el puerto y todos los enlaces.
+     */
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ya estaba cerrado
+        }
+        outLock.lock();
+        try {
+            outChanged.signalAll();
+        } finally {
+            outLock.unlock();
+        }
+        for (PeerLink peer : peers) {
+            closeQuietly(peer.socket);
+        }
+        originLock.lock();
+        try {
+            for (Origin origin : origins.values()) {
+                closeQuietly(origin.link);
+            }
+        } finally {
+            originLock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ya estaba cerrado
+            }
+        }
+    }
+
+    // ---- Recepción ----
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread reader = new Thread(() -> readLoop(socket), "cluster-in");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    ServerLog.error("Error al aceptar un vecino del clúster: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Atiende una conexión de entrada: saludo, y después lotes hasta que se cierre.
+     * Las longitudes que envía el vecino se validan antes de reservar memoria; si alguna
+     * está fuera de rango se corta el enlace y el vecino reenvía al reconectar.
+     */
+    private void readLoop(Socket socket) {
+        Origin origin = null;
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            if (!MAGIC.equals(in.readUTF())) {
+                ServerLog.warn("Conexión al puerto del clúster con un saludo no válido");
+                return;
+            }
+            String peerId = in.readUTF();
+            long peerIncarnation = in.readLong();
+            if (peerId.equals(nodeId)) {
+                out.writeLong(REJECTED);
+                out.flush();
+                return;
+            }
+            origin = claimOrigin(peerId, peerIncarnation, socket, out);
+            while (running) {
+                int records = in.readInt();
+                for (int i = 0; i < records; i++) {
+                    byte kind = in.readByte();
+                    if (kind == MESSAGE) {
+                        long sequence = in.readLong();
+                        int length = in.readInt();
+                        if (length < 0 || length > maxPayloadBytes) {
+                            throw new IOException("Mensaje de clúster de longitud no válida: " + length);
+                        }
+                        byte[] payload = new byte[length];
+                        in.readFully(payload);
+                        deliver(origin, sequence, payload);
+                    } else if (kind == PRESENCE) {
+                        int count = in.readInt();
+                        if (count < 0 || count > MAX_PRESENCE_NAMES) {
+                            throw new IOException("Presencia de clúster con un número de nombres no válido: " + count);
+                        }
+                        List<String> names = new ArrayList<>(count);
+                        for (int j = 0; j < count; j++) {
+                            names.add(in.readUTF());
+                        }
+                        updatePresence(origin, socket, names);
+                    } else {
+                        throw new IOException("Registro de clúster desconocido: " + kind);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            if (running && origin != null) {
+                ServerLog.info("Vecino " + origin.nodeId + " desconectado");
+            }
+        } catch (IOException e) {
+            if (running && origin != null) {
+                ServerLog.info("Vecino " + origin.nodeId + " desconectado: " + e.getMessage());
+            }
+        } finally {
+            if (origin != null) {
+                releaseOrigin(origin, socket);
+            }
+        }
+    }
+
+    /**
+     * Asocia una conexión de entrada a su nodo de origen y responde al saludo con la
+     * última secuencia recibida de esa encarnación. Si había otra conexión del mismo
+     * nodo (aún no detectada como cerrada) se cierra, para que solo una entregue mensajes.
+     */
+    private Origin claimOrigin(String peerId, long peerIncarnation, Socket socket, DataOutputStream out)
+            throws IOException {
+        Origin origin;
+        Socket previous;
+        originLock.lock();
+        try {
+            origin = origins.computeIfAbsent(peerId, Origin::new);
+            previous = origin.link;
+            origin.link = socket;
+        } finally {
+            originLock.unlock();
+        }
+        closeQuietly(previous);
+        long lastSeen;
+        origin.lock.lock();
+        try {
+            if (origin.incarnation != peerIncarnation) {
+                origin.incarnation = peerIncarnation; // Nodo nuevo o reiniciado: empieza desde lo siguiente
+                origin.lastSequence = UNKNOWN;
+            }
+            lastSeen = origin.lastSequence;
+        } finally {
+            origin.lock.unlock();
+        }
+        out.writeLong(lastSeen);
+        out.flush();
+        ServerLog.info("Vecino " + peerId + " conectado desde " + socket.getRemoteSocketAddress());
+        return origin;
+    }
+
+    /**
+     * Entrega un mensaje de un vecino si no se había recibido ya.
+     * Se entrega con el cerrojo del origen tomado para conservar su orden.
+     */
+    private void deliver(Origin origin, long sequence, byte[] payload) {
+        origin.lock.lock();
+        try {
+            if (origin.lastSequence != UNKNOWN && sequence <= origin.lastSequence) {
+                duplicates.increment();
+                return;
+            }
+            if (origin.lastSequence != UNKNOWN && sequence > origin.lastSequence + 1) {
+                long missing = sequence - origin.lastSequence - 1;
+                gaps.add(missing);
+                ServerLog.warn("Perdidos " + missing + " mensajes del nodo " + origin.nodeId);
+            }
+            origin.lastSequence = sequence;
+            messagesReceived.increment();
+            listener.onRemoteMessage(new String(payload, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            ServerLog.error("Error al entregar un mensaje del nodo " + origin.nodeId, e);
+        } finally {
+            origin.lock.unlock();
+        }
+    }
+
+    private void updatePresence(Origin origin, Socket socket, List<String> names) {
+        originLock.lock();
+        try {
+            if (origin.link != socket) {
+                return; // Conexión sustituida por otra más reciente
+            }
+            origin.names = names;
+        } finally {
+            originLock.unlock();
+        }
+        listener.onPresenceChanged();
+    }
+
+    /**
+     * Retira los clientes de un vecino cuando se cierra su conexión de entrada, salvo que
+     * ya la haya sustituido otra. La secuencia recibida se conserva para la reconexión.
+     */
+    private void releaseOrigin(Origin origin, Socket socket) {
+        boolean changed = false;
+        originLock.lock();
+        try {
+            if (origin.link == socket) {
+                origin.link = null;
+                changed = !origin.names.isEmpty();
+                origin.names = List.of();
+            }
+        } finally {
+            originLock.unlock();
+        }
+        if (changed && running) {
+            listener.onPresenceChanged();
+        }
+    }
+
+    /**
+     * Estado de un vecino del que se reciben mensajes.
+     */
+    private static final class Origin {
+        private final String nodeId;
+        private final ReentrantLock lock = new ReentrantLock(); // Ordena la entrega de sus mensajes
+        private long incarnation; // Encarnación de la que se reciben mensajes
+        private long lastSequence = UNKNOWN; // Última secuencia entregada de esa encarnación
+        private Socket link; // Conexión de entrada vigente (protegida por originLock)
+        private List<String> names = List.of(); // Sus clientes conectados (protegida por originLock)
+
+        private Origin(String nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+
+    // ---- Envío ----
+
+    /**
+     * Enlace de salida hacia un vecino. Un hilo propio conecta (y reconecta) y escribe
+     * los mensajes del buffer de salida en lotes.
+     */
+    private final class PeerLink {
+        private final InetSocketAddress address; // Dirección del puerto del clúster del vecino
+        private volatile Socket socket; // Conexión actual, null si no hay
+        private volatile boolean connected; // El saludo se completó
+        private boolean presenceDirty = true; // Hay que enviar la lista local (protegido por outLock)
+        private long next; // Siguiente secuencia que se escribe (protegido por outLock)
+
+        private PeerLink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private void run() {
+            boolean warned = false;
+            while (running) {
+                try {
+                    connectAndSend();
+                    warned = false;
+                } catch (IOException e) {
+                    if (running && (connected || !warned)) {
+                        ServerLog.warn("Sin conexión con el vecino " + address + ": " + e.getMessage());
+                        warned = true;
+                    }
+                } catch (IllegalStateException e) {
+                    ServerLog.warn(e.getMessage());
+                    return;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                    closeQuietly(socket);
+                    socket = null;
+                }
+                if (running) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(reconnectMillis));
+                }
+            }
+        }
+
+        private void connectAndSend() throws IOException, InterruptedException {
+            Socket socket = new Socket();
+            this.socket = socket;
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeUTF(MAGIC);
+            out.writeUTF(nodeId);
+            out.writeLong(incarnation);
+            out.flush();
+            long lastSeen = in.readLong();
+            if (lastSeen == REJECTED) {
+                throw new IllegalStateException("El vecino " + address + " es este mismo nodo; se ignora");
+            }
+            outLock.lock();
+            try {
+                long oldest = Math.max(1, outHead - outBuffer.length + 1);
+                // Un vecino nuevo o reiniciado solo recibe lo que se publique a partir de ahora
+                next = lastSeen == UNKNOWN ? outHead + 1 : Math.max(lastSeen + 1, oldest);
+                presenceDirty = true;
+            } finally {
+                outLock.unlock();
+            }
+            connected = true;
+            ServerLog.info("Conectado con el vecino " + address);
+
+            List<byte[]> batch = new ArrayList<>(batchMessages);
+            while (running) {
+                long first;
+                List<String> presence = null;
+                batch.clear();
+                outLock.lock();
+                try {
+                    long idle = TimeUnit.MILLISECONDS.toNanos(reconnectMillis);
+                    while (running && next > outHead && !presenceDirty && idle > 0) {
+                        idle = outChanged.awaitNanos(idle);
+                    }
+                    long oldest = Math.max(1, outHead - outBuffer.length + 1);
+                    if (next < oldest) {
+                        ServerLog.warn("El vecino " + address + " va retrasado: se saltan " + (oldest - next) + " mensajes");
+                        next = oldest; // El receptor contará el hueco
+                    }
+                    first = next;
+                    while (next <= outHead && batch.size() < batchMessages) {
+                        batch.add(outBuffer[(int) (next % outBuffer.length)]);
+                        next++;
+                    }
+                    if (presenceDirty) {
+                        presenceDirty = false;
+                        presence = localNames.get();
+                    }
+                } finally {
+                    outLock.unlock();
+                }
+                if (!running) {
+                    return;
+                }
+                // Se escribe fuera del cerrojo: un vecino lento no retrasa a los demás
+                out.writeInt(batch.size() + (presence != null ? 1 : 0));
+                for (int i = 0; i < batch.size(); i++) {
+                    byte[] payload = batch.get(i);
+                    out.writeByte(MESSAGE);
+                    out.writeLong(first + i);
+                    out.writeInt(payload.length);
+                    out.write(payload);
+                }
+                if (presence != null) {
+                    out.writeByte(PRESENCE);
+                    out.writeInt(presence.size());
+                    for (String name : presence) {
+                        out.writeUTF(name);
+                    }
+                }
+                out.flush();
+                messagesSent.add(batch.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Trama lista para enviarse, compartida entre todos sus destinatarios.
+ * El cuerpo se guarda una sola vez en UTF-8 estándar; cada conexión escribe la
+ * cabecera de su protocolo (LEGACY o V2) seguida de ese mismo cuerpo, de modo que
+ * un mensaje difundido no se vuelve a codificar por destinatario. Solo cuando el
+ * texto contiene caracteres que difieren en UTF-8 modificado se calcula, una vez,
+ * un cuerpo LEGACY aparte. Del mismo modo, para los clientes V2 que negociaron la
+ * compresión, el cuerpo comprimido se calcula una sola vez por trama (la primera
+ * conexión que lo necesita) y lo comparten todos ellos.
+ *
+ * Hay dos variantes:
+ * - Tramas normales (of, decoded, handshake): inmutables; retain/release no hacen nada.
+ * - Tramas de pool (FramePool): su cuerpo vive en un buffer reutilizable y llevan un
+ *   contador de referencias. Cada cola de salida que guarda la trama posee una
+ *   referencia y la suelta al escribirla o descartarla; al soltar la última, la
+ *   trama vuelve a su pool exactamente una vez.
+ */
+public final class Frame {
+    private static final AtomicIntegerFieldUpdater<Frame> REF_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(Frame.class, "refCount");
+    private static final AtomicReferenceFieldUpdater<Frame, byte[]> DEFLATED =
+            AtomicReferenceFieldUpdater.newUpdater(Frame.class, byte[].class, "deflated");
+    // Valores especiales de deflated: otro hilo lo está calculando, o no compensa comprimir
+    private static final byte[] DEFLATING = new byte[0];
+    private static final byte[] INCOMPRESSIBLE = new byte[0];
+
+    private final FramePool pool; // Pool al que pertenece la trama, null en las tramas normales
+    private final ByteBuffer slab; // Buffer reutilizable de las tramas de pool
+    private final boolean legacyOnly; // Se escribe siempre en formato LEGACY (respuesta al saludo)
+    private FrameType type; // Tipo de la trama (chat, lista de clientes, control)
+    private byte[] payload; // Cuerpo en UTF-8 estándar de las tramas normales
+    private int bodyLength; // Longitud del cuerpo en UTF-8 estándar
+    private boolean portable; // El cuerpo es idéntico en UTF-8 estándar y modificado
+    private boolean relay; // Mensaje de chat recibido con el prefijo del remitente, listo para reenviar
+    private String text; // Texto del mensaje, decodificado la primera vez que se pide
+    private long sequence; // Número de secuencia asignado al publicar el mensaje, 0 si no tiene
+    private volatile byte[] legacyFrame; // Trama LEGACY completa cuando el cuerpo no es portable
+    private volatile boolean legacyUnencodable; // El texto no cabe en una trama LEGACY
+    private volatile byte[] deflated; // Cuerpo V2 comprimido, calculado la primera vez que se pide
+    private volatile int refCount; // Referencias vivas de una trama de pool
+
+    private Frame(FramePool pool, ByteBuffer slab, FrameType type, String text, byte[] payload, boolean legacyOnly) {
+        this.pool = pool;
+        this.slab = slab;
+        this.type = type;
+        this.text = text;
+        this.payload = payload;
+        this.legacyOnly = legacyOnly;
+        if (payload != null) {
+            this.bodyLength = payload.length;
+            this.portable = FrameCodec.isModifiedUtf8Compatible(payload);
+        }
+    }
+
+    /**
+     * Crea una trama de chat.
+     */
+    public static Frame of(String text) {
+        return of(FrameType.CHAT, text);
+    }
+
+    /**
+     * Crea una trama del tipo indicado.
+     */
+    public static Frame of(FrameType type, String text) {
+        return new Frame(null, null, type, text, text.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    /**
+     * Crea una trama a partir de un cuerpo recibido ya decodificado, sin volver a codificarlo.
+     */
+    static Frame decoded(FrameType type, String text, byte[] payload) {
+        return new Frame(null, null, type, text, payload, false);
+    }
+
+    /**
+     * Crea la respuesta al saludo, que se escribe en formato LEGACY aunque la conexión
+     * pase a V2: el cliente la lee antes de cambiar de protocolo.
+     */
+    public static Frame handshake(String text) {
+        return new Frame(null, null, FrameType.CONTROL, text, text.getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    /**
+     * Crea una trama vacía de pool asociada a su buffer. Solo la usa FramePool.
+     */
+    static Frame pooled(FramePool pool, ByteBuffer slab) {
+        return new Frame(pool, slab, FrameType.CHAT, null, null, false);
+    }
+
+    /**
+     * Prepara una trama de pool recién obtenida: una referencia y sin contenido.
+     */
+    void reuse() {
+        type = FrameType.CHAT;
+        text = null;
+        bodyLength = 0;
+        portable = false;
+        relay = false;
+        sequence = 0;
+        deflated = null;
+        refCount = 1;
+    }
+
+    /**
+     * Devuelve el buffer de una trama de pool para escribir su cuerpo.
+     */
+    ByteBuffer slab() {
+        return slab;
+    }
+
+    /**
+     * Marca una trama de pool como mensaje de chat listo para reenviar: su buffer
+     * contiene el prefijo del remitente y el mensaje, ambos en UTF-8 portable.
+     */
+    void completeRelay(int length) {
+        this.type = FrameType.CHAT;
+        this.bodyLength = length;
+        this.portable = true;
+        this.relay = true;
+    }
+
+    /**
+     * Indica si la trama es un mensaje de chat con el prefijo del remitente que
+     * puede reenviarse tal cual a los destinatarios.
+     */
+    public boolean isRelay() {
+        return relay;
+    }
+
+    /**
+     * Asigna el número de secuencia con el que se publica el mensaje.
+     * Se llama una sola vez, antes de encolar la trama en ningún cliente.
+     */
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Devuelve el número de secuencia del mensaje, o 0 si no se publicó con secuencia.
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Añade una referencia a una trama de pool. No hace nada en las tramas normales.
+     */
+    public Frame retain() {
+        if (pool != null) {
+            REF_COUNT.incrementAndGet(this);
+        }
+        return this;
+    }
+
+    /**
+     * Suelta una referencia. Al soltar la última, la trama de pool vuelve a su pool.
+     */
+    public void release() {
+        if (pool != null) {
+            int remaining = REF_COUNT.decrementAndGet(this);
+            if (remaining == 0) {
+                pool.recycle(this);
+            } else if (remaining < 0) {
+                throw new IllegalStateException("Trama liberada más veces de las retenidas");
+            }
+        }
+    }
+
+    /**
+     * Devuelve el tipo de la trama.
+     */
+    public FrameType type() {
+        return type;
+    }
+
+    /**
+     * Devuelve el texto del mensaje. En las tramas reenviadas se decodifica (y se
+     * asigna memoria) solo si alguien lo pide.
+     */
+    public String text() {
+        String decoded = text;
+        if (decoded == null) {
+            if (payload != null) {
+                decoded = new String(payload, StandardCharsets.UTF_8);
+            } else {
+                byte[] copy = new byte[bodyLength];
+                slab.get(0, copy);
+                decoded = new String(copy, StandardCharsets.UTF_8);
+            }
+            text = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Devuelve el tamaño del cuerpo en bytes; es lo que cuentan los límites de las colas.
+     */
+    public int length() {
+        return bodyLength;
+    }
+
+    /**
+     * Devuelve la longitud del cuerpo en el protocolo indicado, o -1 si el mensaje no
+     * cabe en una trama LEGACY.
+     */
+    public int bodyLength(WireProtocol protocol) {
+        return bodyLength(protocol, 0);
+    }
+
+    /**
+     * Devuelve la longitud del cuerpo en el protocolo indicado, comprimido si la conexión
+     * lo negoció y el cuerpo llega al umbral, o -1 si el mensaje no cabe en una trama LEGACY.
+     * @param deflateThreshold Tamaño a partir del que se comprime (0 = sin compresión).
+     */
+    public int bodyLength(WireProtocol protocol, int deflateThreshold) {
+        byte[] compressed = deflated(protocol, deflateThreshold);
+        if (compressed != null) {
+            return compressed.length;
+        }
+        if (isLegacy(protocol)) {
+            if (portable) {
+                return bodyLength <= FrameCodec.MAX_PAYLOAD_LENGTH ? bodyLength : -1;
+            }
+            byte[] frame = legacyFrame();
+            return frame == null ? -1 : frame.length - FrameCodec.HEADER_LENGTH;
+        }
+        return bodyLength;
+    }
+
+    /**
+     * Escribe la cabecera del protocolo indicado en el array.
+     * En V2, si se pide y la trama tiene secuencia, el byte de tipo lleva el bit
+     * FrameCodec.SEQUENCE_FLAG y la secuencia (varint) va justo detrás, antes del
+     * cuerpo; la longitud de la trama incluye la secuencia. Si el cuerpo va comprimido
+     * lleva además el bit FrameCodec.COMPRESSED_FLAG.
+     * @param deflateThreshold Tamaño a partir del que se comprime el cuerpo (0 = sin compresión).
+     * @return Número de bytes de la cabecera, o -1 si el mensaje no cabe en una trama LEGACY.
+     */
+    public int writeHeader(WireProtocol protocol, boolean withSequence, int deflateThreshold,
+                           byte[] target, int offset) {
+        int length = bodyLength(protocol, deflateThreshold);
+        if (length < 0) {
+            return -1;
+        }
+        if (isLegacy(protocol)) {
+            target[offset] = (byte) (length >>> 8);
+            target[offset + 1] = (byte) length;
+            return FrameCodec.HEADER_LENGTH;
+        }
+        int code = type.code() | (deflated(protocol, deflateThreshold) != null ? FrameCodec.COMPRESSED_FLAG : 0);
+        if (withSequence && sequence > 0) {
+            int end = FrameCodec.writeVarint(target, offset, FrameCodec.varintLength(sequence) + length);
+            target[end++] = (byte) (code | FrameCodec.SEQUENCE_FLAG);
+            end = FrameCodec.writeVarint(target, end, sequence);
+            return end - offset;
+        }
+        int end = FrameCodec.writeVarint(target, offset, length);
+        target[end++] = (byte) code;
+        return end - offset;
+    }
+
+    /**
+     * Copia una parte del cuerpo del protocolo indicado en la posición absoluta de un buffer,
+     * sin modificar la posición de ninguno de los dos.
+     */
+    public void copyBody(WireProtocol protocol, int from, ByteBuffer target, int targetIndex, int length) {
+        copyBody(protocol, 0, from, target, targetIndex, length);
+    }
+
+    /**
+     * Como copyBody, pero copia el cuerpo comprimido si la conexión negoció la compresión
+     * y el cuerpo llega al umbral (el mismo que se pasó a writeHeader).
+     */
+    public void copyBody(WireProtocol protocol, int deflateThreshold, int from, ByteBuffer target,
+                         int targetIndex, int length) {
+        byte[] compressed = deflated(protocol, deflateThreshold);
+        if (compressed != null) {
+            target.put(targetIndex, compressed, from, length);
+        } else if (isLegacy(protocol) && !portable) {
+            target.put(targetIndex, legacyFrame(), FrameCodec.HEADER_LENGTH + from, length);
+        } else if (payload != null) {
+            target.put(targetIndex, payload, from, length);
+        } else {
+            target.put(targetIndex, slab, from, length);
+        }
+    }
+
+    /**
+     * Escribe el cuerpo del protocolo indicado en un stream. Los cuerpos en buffers
+     * directos se copian por tramos a través del array auxiliar.
+     */
+    public void writeBody(WireProtocol protocol, OutputStream out, byte[] scratch) throws IOException {
+        writeBody(protocol, 0, out, scratch);
+    }
+
+    /**
+     * Como writeBody, pero escribe el cuerpo comprimido si la conexión negoció la
+     * compresión y el cuerpo llega al umbral (el mismo que se pasó a writeHeader).
+     */
+    public void writeBody(WireProtocol protocol, int deflateThreshold, OutputStream out, byte[] scratch)
+            throws IOException {
+        byte[] compressed = deflated(protocol, deflateThreshold);
+        if (compressed != null) {
+            out.write(compressed);
+        } else if (isLegacy(protocol) && !portable) {
+            byte[] frame = legacyFrame();
+            out.write(frame, FrameCodec.HEADER_LENGTH, frame.length - FrameCodec.HEADER_LENGTH);
+        } else if (payload != null) {
+            out.write(payload, 0, bodyLength);
+        } else if (slab.hasArray()) {
+            out.write(slab.array(), slab.arrayOffset(), bodyLength);
+        } else {
+            for (int pos = 0; pos < bodyLength; pos += scratch.length) {
+                int chunk = Math.min(scratch.length, bodyLength - pos);
+                slab.get(pos, scratch, 0, chunk);
+                out.write(scratch, 0, chunk);
+            }
+        }
+    }
+
+    private boolean isLegacy(WireProtocol protocol) {
+        return protocol == WireProtocol.LEGACY || legacyOnly;
+    }
+
+    /**
+     * Devuelve el cuerpo V2 comprimido, calculado una sola vez: el primer hilo que lo
+     * necesita lo comprime y los que llegan mientras tanto esperan a que termine en
+     * lugar de comprimirlo otra vez.
+     * @return El cuerpo comprimido, o null si no se comprime (LEGACY, sin compresión
+     *         negociada, por debajo del umbral o porque no ahorra lo suficiente).
+     */
+    private byte[] deflated(WireProtocol protocol, int deflateThreshold) {
+        if (deflateThreshold <= 0 || bodyLength < deflateThreshold || isLegacy(protocol)) {
+            return null;
+        }
+        byte[] compressed = deflated;
+        if (compressed == null && DEFLATED.compareAndSet(this, null, DEFLATING)) {
+            compressed = INCOMPRESSIBLE;
+            try {
+                byte[] result = payload != null
+                        ? FrameCompression.deflate(payload, 0, bodyLength)
+                        : FrameCompression.deflate(slab, bodyLength);
+                if (result != null) {
+                    compressed = result;
+                }
+            } finally {
+                deflated = compressed;
+            }
+        } else {
+            while ((compressed = deflated) == DEFLATING) {
+                Thread.yield(); // Comprimir unos kilobytes cuesta microsegundos
+            }
+        }
+        return compressed == INCOMPRESSIBLE ? null : compressed;
+    }
+
+    /**
+     * Devuelve la trama LEGACY completa (en UTF-8 modificado) de un cuerpo no portable,
+     * calculada una sola vez. Las tramas de pool siempre son portables.
+     * @return La trama, o null si el texto no cabe en 65535 bytes.
+     */
+    private byte[] legacyFrame() {
+        byte[] frame = legacyFrame;
+        if (frame == null && !legacyUnencodable) {
+            try {
+                frame = FrameCodec.encode(text());
+                legacyFrame = frame;
+            } catch (UTFDataFormatException e) {
+                legacyUnencodable = true;
+            }
+        }
+        return frame;
+    }
+}
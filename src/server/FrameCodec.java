@@ -0,0 +1,253 @@
+package server;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codificador y decodificador de los formatos de trama.
+ * LEGACY es el que usan DataOutputStream.writeUTF y DataInputStream.readUTF:
+ * dos bytes big-endian con la longitud seguidos del texto en UTF-8 modificado.
+ * V2 es una longitud varint (LEB128 sin signo) del cuerpo, un byte de tipo y el
+ * cuerpo en UTF-8 estándar. Si el byte de tipo lleva SEQUENCE_FLAG, el cuerpo
+ * empieza por el número de secuencia del mensaje (varint). Si lleva COMPRESSED_FLAG,
+ * el resto del cuerpo está comprimido con FrameCompression (solo del servidor a los
+ * clientes que lo negociaron).
+ * Permite hablar el mismo protocolo que Session sin depender de los streams bloqueantes.
+ */
+public final class FrameCodec {
+    // Longitud de la cabecera de la trama (unsigned short big-endian)
+    public static final int HEADER_LENGTH = 2;
+    // Tamaño máximo del cuerpo codificado que admite writeUTF
+    public static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+    // Máximo de bytes que ocupa la cabecera V2 (varint de un int + byte de tipo + secuencia varint de un long)
+    public static final int MAX_V2_HEADER_LENGTH = 5 + 1 + 10;
+    // Bit del byte de tipo V2 que indica que la trama lleva número de secuencia
+    public static final int SEQUENCE_FLAG = 0x40;
+    // Bit del byte de tipo V2 que indica que el cuerpo (tras la secuencia) va comprimido
+    public static final int COMPRESSED_FLAG = 0x80;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Calcula cuántos bytes ocupa el texto codificado en UTF-8 modificado.
+     */
+    public static int encodedLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length += 1;
+            } else if (c <= 0x07FF) {
+                length += 2; // Incluye el carácter nulo, que se codifica con dos bytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Codifica el texto como una trama completa (cabecera + cuerpo), igual que writeUTF.
+     * @throws UTFDataFormatException si el texto codificado supera los 65535 bytes.
+     */
+    public static byte[] encode(String text) throws UTFDataFormatException {
+        int length = encodedLength(text);
+        if (length > MAX_PAYLOAD_LENGTH) {
+            throw new UTFDataFormatException("Mensaje demasiado largo: " + length + " bytes");
+        }
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        frame[0] = (byte) (length >>> 8);
+        frame[1] = (byte) length;
+        int pos = HEADER_LENGTH;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                frame[pos++] = (byte) c;
+            } else if (c <= 0x07FF) {
+                frame[pos++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                frame[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                frame[pos++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                frame[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                frame[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Decodifica el cuerpo de una trama (sin cabecera) escrito en UTF-8 modificado.
+     * @throws UTFDataFormatException si los bytes no forman una secuencia válida.
+     */
+    public static String decode(byte[] data, int offset, int length) throws UTFDataFormatException {
+        char[] chars = new char[length];
+        int count = 0;
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            int b = data[pos] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+                pos++;
+            } else if ((b & 0xE0) == 0xC0) {
+                if (pos + 1 >= end) {
+                    throw new UTFDataFormatException("Trama incompleta en el byte " + (pos - offset));
+                }
+                int b2 = data[pos + 1];
+                if ((b2 & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("Byte mal formado en " + (pos - offset));
+                }
+                chars[count++] = (char) (((b & 0x1F) << 6) | (b2 & 0x3F));
+                pos += 2;
+            } else if ((b & 0xF0) == 0xE0) {
+                if (pos + 2 >= end) {
+                    throw new UTFDataFormatException("Trama incompleta en el byte " + (pos - offset));
+                }
+                int b2 = data[pos + 1];
+                int b3 = data[pos + 2];
+                if ((b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("Byte mal formado en " + (pos - offset));
+                }
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+                pos += 3;
+            } else {
+                throw new UTFDataFormatException("Byte mal formado en " + (pos - offset));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Devuelve cuántos bytes ocupa un entero no negativo codificado como varint.
+     */
+    public static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Escribe un entero no negativo como varint a partir de la posición indicada.
+     * @return Posición siguiente al último byte escrito.
+     */
+    public static int writeVarint(byte[] target, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Devuelve cuántos bytes ocupa un long no negativo codificado como varint.
+     */
+    public static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Escribe un long no negativo como varint a partir de la posición indicada.
+     * @return Posición siguiente al último byte escrito.
+     */
+    public static int writeVarint(byte[] target, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Codifica una trama V2 completa: longitud varint, byte de tipo y cuerpo.
+     */
+    public static byte[] encodeV2(FrameType type, byte[] payload) {
+        byte[] frame = new byte[varintLength(payload.length) + 1 + payload.length];
+        int pos = writeVarint(frame, 0, payload.length);
+        frame[pos++] = (byte) type.code();
+        System.arraycopy(payload, 0, frame, pos, payload.length);
+        return frame;
+    }
+
+    /**
+     * Indica si un cuerpo en UTF-8 estándar es idéntico a su codificación en UTF-8 modificado,
+     * es decir, si no contiene el carácter nulo ni caracteres suplementarios (secuencias de 4 bytes).
+     */
+    public static boolean isModifiedUtf8Compatible(byte[] payload) {
+        for (byte b : payload) {
+            if (b == 0 || (b & 0xF8) == 0xF0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indica si los bytes son texto UTF-8 válido que significa lo mismo en UTF-8 estándar
+     * y en UTF-8 modificado: solo secuencias de 1 a 3 bytes, sin el carácter nulo, sin
+     * sustitutos y sin formas sobrelargas. Esos bytes se pueden reenviar sin transcodificar
+     * a clientes de cualquier protocolo.
+     */
+    public static boolean isPortableUtf8(ByteBuffer buffer, int index, int length) {
+        int end = index + length;
+        int pos = index;
+        while (pos < end) {
+            int b = buffer.get(pos) & 0xFF;
+            if (b >= 0x01 && b <= 0x7F) {
+                pos++;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                if (pos + 1 >= end || !isContinuation(buffer.get(pos + 1))) {
+                    return false;
+                }
+                pos += 2;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                if (pos + 2 >= end) {
+                    return false;
+                }
+                int b2 = buffer.get(pos + 1) & 0xFF;
+                if (!isContinuation((byte) b2) || !isContinuation(buffer.get(pos + 2))
+                        || (b == 0xE0 && b2 < 0xA0) // Forma sobrelarga
+                        || (b == 0xED && b2 >= 0xA0)) { // Sustituto (UTF-16) codificado
+                    return false;
+                }
+                pos += 3;
+            } else {
+                return false; // Carácter nulo, secuencias de 4 bytes o bytes no válidos
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Codifica una sola vez el prefijo "nombre: " con el que se reenvían los mensajes de un cliente.
+     * @return El prefijo en UTF-8, o null si el nombre no es portable y sus mensajes deben
+     * pasar por el camino normal (decodificar y volver a codificar).
+     */
+    public static byte[] relayPrefix(String clientName) {
+        byte[] prefix = (clientName + ": ").getBytes(StandardCharsets.UTF_8);
+        return isPortableUtf8(ByteBuffer.wrap(prefix), 0, prefix.length) ? prefix : null;
+    }
+
+    /**
+     * Indica si el cuerpo recibido es un mensaje de chat que puede reenviarse tal cual:
+     * no es un comando (no empieza por "/") y es UTF-8 portable.
+     */
+    public static boolean isRelayable(ByteBuffer buffer, int index, int length) {
+        return (length == 0 || buffer.get(index) != '/') && isPortableUtf8(buffer, index, length);
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+}
@@ -0,0 +1,146 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresión de los cuerpos de las tramas V2 con Deflate.
+ * Se usa Deflate en bruto (sin cabecera zlib) con un diccionario predefinido que
+ * conocen los dos extremos: los prefijos del protocolo, los comandos y las palabras
+ * más frecuentes del chat. Con él también los cuerpos de unos cientos de bytes
+ * (una instantánea de la lista de clientes, un mensaje pegado) se comprimen bien,
+ * cosa que Deflate sin diccionario apenas consigue por debajo de unos kilobytes.
+ * Los compresores se reutilizan desde un pool sin cerrojos: cada uno reserva
+ * cientos de kilobytes de memoria nativa, así que no se crea uno por hilo.
+ */
+public final class FrameCompression {
+    // Diccionario compartido; Deflate encuentra antes las cadenas del final, así que
+    // lo más frecuente (prefijos del protocolo y separadores) va al final
+    public static final byte[] DICTIONARY = (
+            " que de no la el en es un una los las por para con lo me te se si ya pero "
+            + "hola buenos días buenas tardes noches gracias vale bien todo muy qué cómo "
+            + "dónde cuándo porque también ahora hoy mañana aquí eso esto está estoy "
+            + "tengo tiene hay hacer puedo puedes quiero sabes creo alguien nadie gente "
+            + "mensaje servidor sala cliente usuario conectado desconectado error "
+            + "http://https://www..com .es .org "
+            + ChatService.ROSTER_COMMAND + " " + ChatService.JOIN_COMMAND + " " + ChatService.LEAVE_COMMAND + " "
+            + ChatService.ROOMS_COMMAND + " " + ChatService.ROOM_COMMAND + " " + ChatService.MSG_COMMAND + " "
+            + ChatService.ERROR_PREFIX + " " + ChatService.PRIVATE_PREFIX
+            + RoomService.JOINED_PREFIX + RoomService.LEFT_PREFIX + RoomService.LIST_PREFIX
+            + RosterService.DELTA_PREFIX + "#\n+\n-\n"
+            + RosterService.SNAPSHOT_PREFIX + "#\n"
+            + "\n\n\n\n: : : ").getBytes(StandardCharsets.UTF_8);
+    // Cuerpos más cortos que esto nunca compensan la trama comprimida
+    private static final int MIN_LENGTH = 64;
+    // Compresores libres como máximo en el pool
+    private static final int MAX_POOLED = 64;
+
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+
+    private FrameCompression() {
+    }
+
+    /**
+     * Comprime un cuerpo guardado en un array.
+     * @return El cuerpo comprimido, o null si no ahorra al menos un octavo del tamaño.
+     */
+    public static byte[] deflate(byte[] body, int offset, int length) {
+        if (length < MIN_LENGTH) {
+            return null;
+        }
+        Deflater deflater = acquire();
+        try {
+            deflater.setInput(body, offset, length);
+            return finish(deflater, length);
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Comprime los primeros bytes de un buffer (tramas de pool, también directas),
+     * sin modificar su posición.
+     * @return El cuerpo comprimido, o null si no ahorra al menos un octavo del tamaño.
+     */
+    public static byte[] deflate(ByteBuffer body, int length) {
+        if (length < MIN_LENGTH) {
+            return null;
+        }
+        Deflater deflater = acquire();
+        try {
+            deflater.setInput(body.slice(0, length));
+            return finish(deflater, length);
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Descomprime un cuerpo recibido con el bit FrameCodec.COMPRESSED_FLAG.
+     * Es lo que debe hacer un cliente que negoció la compresión.
+     * @throws DataFormatException si los datos no son Deflate válido con el diccionario.
+     */
+    public static byte[] inflate(byte[] data, int offset, int length) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY); // En bruto no se pide: se fija antes de empezar
+            inflater.setInput(data, offset, length);
+            byte[] out = new byte[Math.max(256, length * 4)];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int n = inflater.inflate(out, size, out.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Cuerpo comprimido incompleto");
+                }
+                size += n;
+            }
+            return Arrays.copyOf(out, size);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Termina la compresión de la entrada ya fijada. Abandona en cuanto la salida
+     * deja de ahorrar lo suficiente, sin comprimir el resto.
+     */
+    private static byte[] finish(Deflater deflater, int length) {
+        deflater.finish();
+        byte[] out = new byte[length - length / 8];
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                return null;
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    private static Deflater acquire() {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        deflater.setDictionary(DICTIONARY);
+        return deflater;
+    }
+
+    private static void release(Deflater deflater) {
+        deflater.reset(); // También olvida el diccionario: se vuelve a fijar al reutilizarlo
+        if (DEFLATERS.size() < MAX_POOLED) {
+            DEFLATERS.offer(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Arena de tramas reutilizables para el reenvío de mensajes de chat.
+ * Cada trama del pool posee un buffer de tamaño fijo (de heap o directo) que se
+ * reserva al crear el pool. Una trama vuelve al pool cuando su contador de
+ * referencias llega a cero, es decir, cuando el último destinatario la ha escrito
+ * o descartado. Si el pool se agota o el mensaje no cabe en un buffer, quien
+ * reenvía usa una trama normal (con asignación de memoria).
+ */
+public class FramePool {
+    private final ArrayBlockingQueue<Frame> free; // Tramas libres; ofrecer y extraer no asigna memoria
+    private final int slabBytes; // Capacidad del buffer de cada trama
+    private final LongAdder misses; // Peticiones que no se pudieron atender desde el pool
+
+    /**
+     * Constructor de FramePool.
+     * Reserva de antemano todas las tramas y sus buffers.
+     */
+    public FramePool(int frames, int slabBytes, boolean direct) {
+        this.free = new ArrayBlockingQueue<>(Math.max(1, frames));
+        this.slabBytes = slabBytes;
+        this.misses = new LongAdder();
+        for (int i = 0; i < frames; i++) {
+            ByteBuffer slab = direct ? ByteBuffer.allocateDirect(slabBytes) : ByteBuffer.allocate(slabBytes);
+            free.offer(Frame.pooled(this, slab));
+        }
+    }
+
+    /**
+     * Obtiene una trama libre con capacidad para el número de bytes indicado.
+     * La trama se entrega con una referencia, que pertenece a quien la pide.
+     * @return La trama, o null si el mensaje no cabe o no quedan tramas libres.
+     */
+    public Frame acquire(int bodyBytes) {
+        Frame frame = bodyBytes <= slabBytes ? free.poll() : null;
+        if (frame == null) {
+            misses.increment();
+            return null;
+        }
+        frame.reuse();
+        return frame;
+    }
+
+    /**
+     * Construye en una trama del pool el mensaje reenviado: el prefijo del remitente
+     * seguido del cuerpo recibido, copiado de las posiciones indicadas del buffer.
+     * @return La trama con una referencia, o null si no hay trama libre con capacidad suficiente.
+     */
+    public Frame relay(byte[] prefix, ByteBuffer source, int index, int length) {
+        Frame frame = acquire(prefix.length + length);
+        if (frame != null) {
+            ByteBuffer slab = frame.slab();
+            slab.put(0, prefix);
+            slab.put(prefix.length, source, index, length);
+            frame.completeRelay(prefix.length + length);
+        }
+        return frame;
+    }
+
+    /**
+     * Devuelve una trama al pool. Lo invoca Frame.release() al soltar la última referencia.
+     */
+    void recycle(Frame frame) {
+        free.offer(frame);
+    }
+
+    /**
+     * Devuelve el número de tramas libres.
+     */
+    public int available() {
+        return free.size();
+    }
+
+    /**
+     * Devuelve cuántas peticiones no pudieron atenderse desde el pool.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,39 @@
+package server;
+
+/**
+ * Tipo de una trama.
+ * Permite a las colas de salida tratar de forma distinta los mensajes de chat
+ * y las actualizaciones de la lista de clientes. En el protocolo V2 el tipo viaja
+ * en el byte que sigue a la longitud.
+ */
+public enum FrameType {
+    CHAT(1),
+    ROSTER(2),
+    CONTROL(3),
+    ACK(4);
+
+    private final int code; // Código del tipo en el protocolo V2
+
+    FrameType(int code) {
+        this.code = code;
+    }
+
+    /**
+     * Devuelve el código del tipo en el protocolo V2.
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * Devuelve el tipo correspondiente a un código del protocolo V2, o null si no existe.
+     */
+    public static FrameType fromCode(int code) {
+        for (FrameType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
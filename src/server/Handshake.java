@@ -0,0 +1,170 @@
+package server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Saludo inicial de un cliente.
+ * Un cliente antiguo envía su nombre tal cual en una trama LEGACY. Un cliente que
+ * soporta el protocolo V2 envía, también en LEGACY:
+ *
+ *   HELLO:<versión>[;<opción>[=<valor>]]*:<nombre>
+ *
+ * por ejemplo "HELLO:2:ana". El servidor responde en LEGACY con "HELLO_OK:2" y a
+ * partir de ahí ambos extremos usan tramas V2. Las opciones permiten negociar
+ * capacidades adicionales sin cambiar el formato del saludo:
+ *
+ *   seq            Las tramas difundidas llevan número de secuencia (solo V2).
+ *   resume[=token] Pide un token de reanudación; con token, reanuda esa sesión.
+ *   last=<n>       Última secuencia que recibió el cliente antes de desconectarse.
+ *   ping           El cliente contesta PONG a los PING del servidor y acepta que se
+ *                  le desconecte si deja de hacerlo (solo V2).
+ *   deflate        El cliente sabe descomprimir las tramas con FrameCodec.COMPRESSED_FLAG;
+ *                  los cuerpos grandes le llegan comprimidos (solo V2).
+ *
+ * por ejemplo "HELLO:2;seq;resume=3f2a...;last=1041:ana".
+ */
+public final class Handshake {
+    public static final String HELLO_PREFIX = "HELLO:";
+    public static final String HELLO_OK_PREFIX = "HELLO_OK:";
+    // Versión más alta del protocolo que soporta el servidor
+    public static final int MAX_VERSION = 2;
+    // Opciones del saludo
+    public static final String OPTION_SEQUENCE = "seq";
+    public static final String OPTION_RESUME = "resume";
+    public static final String OPTION_LAST = "last";
+    public static final String OPTION_PING = "ping";
+    public static final String OPTION_DEFLATE = "deflate";
+
+    private final String clientName; // Nombre del cliente
+    private final int version; // Versión del protocolo negociada (1 = LEGACY)
+    private final Map<String, String> options; // Opciones del saludo
+    private final boolean hello; // El cliente envió un saludo HELLO (y espera respuesta)
+
+    private Handshake(String clientName, int version, Map<String, String> options, boolean hello) {
+        this.clientName = clientName;
+        this.version = version;
+        this.options = options;
+        this.hello = hello;
+    }
+
+    /**
+     * Interpreta la primera trama del cliente.
+     * Si no tiene el formato HELLO se trata como el nombre de un cliente antiguo.
+     */
+    public static Handshake parse(String firstFrame) {
+        if (firstFrame.startsWith(HELLO_PREFIX)) {
+            String rest = firstFrame.substring(HELLO_PREFIX.length());
+            int nameSeparator = rest.indexOf(':');
+            if (nameSeparator > 0) {
+                String[] header = rest.substring(0, nameSeparator).split(";");
+                try {
+                    int requested = Integer.parseInt(header[0].trim());
+                    Map<String, String> options = new LinkedHashMap<>();
+                    for (int i = 1; i < header.length; i++) {
+                        int equals = header[i].indexOf('=');
+                        if (equals < 0) {
+                            options.put(header[i], "");
+                        } else {
+                            options.put(header[i].substring(0, equals), header[i].substring(equals + 1));
+                        }
+                    }
+                    return new Handshake(rest.substring(nameSeparator + 1),
+                            Math.max(1, Math.min(requested, MAX_VERSION)), Collections.unmodifiableMap(options), true);
+                } catch (NumberFormatException e) {
+                    // No es un saludo válido: se trata como un nombre
+                }
+            }
+        }
+        return new Handshake(firstFrame, 1, Collections.emptyMap(), false);
+    }
+
+    /**
+     * Devuelve el nombre del cliente.
+     */
+    public String getClientName() {
+        return clientName;
+    }
+
+    /**
+     * Devuelve el protocolo de tramas negociado.
+     */
+    public WireProtocol getProtocol() {
+        return version >= 2 ? WireProtocol.V2 : WireProtocol.LEGACY;
+    }
+
+    /**
+     * Devuelve el valor de una opción del saludo, o null si no se envió.
+     */
+    public String getOption(String name) {
+        return options.get(name);
+    }
+
+    /**
+     * Indica si el cliente quiere recibir el número de secuencia de los mensajes.
+     * Solo es posible en V2: las tramas LEGACY no tienen dónde llevarlo.
+     */
+    public boolean wantsSequence() {
+        return getProtocol() == WireProtocol.V2 && options.containsKey(OPTION_SEQUENCE);
+    }
+
+    /**
+     * Indica si el cliente pide una sesión reanudable (requiere números de secuencia).
+     */
+    public boolean wantsResume() {
+        return wantsSequence() && options.containsKey(OPTION_RESUME);
+    }
+
+    /**
+     * Indica si el cliente pide latidos. Solo es posible en V2: los PING son tramas de control.
+     */
+    public boolean wantsHeartbeat() {
+        return getProtocol() == WireProtocol.V2 && options.containsKey(OPTION_PING);
+    }
+
+    /**
+     * Indica si el cliente acepta tramas comprimidas. Solo es posible en V2: el bit de
+     * compresión va en el byte de tipo.
+     */
+    public boolean wantsCompression() {
+        return getProtocol() == WireProtocol.V2 && options.containsKey(OPTION_DEFLATE);
+    }
+
+    /**
+     * Devuelve el token de reanudación que presenta el cliente, o null si pide una sesión nueva.
+     */
+    public String getResumeToken() {
+        String token = options.get(OPTION_RESUME);
+        return token == null || token.isEmpty() ? null : token;
+    }
+
+    /**
+     * Devuelve la última secuencia que recibió el cliente, o -1 si no la envió o no es válida.
+     */
+    public long getLastSequence() {
+        String last = options.get(OPTION_LAST);
+        if (last == null) {
+            return -1;
+        }
+        try {
+            return Math.max(-1, Long.parseLong(last.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Indica si el cliente envió un saludo HELLO y espera respuesta.
+     */
+    public boolean expectsReply() {
+        return hello;
+    }
+
+    /**
+     * Devuelve la respuesta al saludo que se envía en formato LEGACY.
+     */
+    public Frame reply() {
+        return Frame.handshake(HELLO_OK_PREFIX + version);
+    }
+}
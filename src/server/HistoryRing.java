@@ -0,0 +1,103 @@
+package server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Últimos N mensajes de una sala, en memoria, para reenviarlos a quien se une.
+ * Guarda las mismas tramas que se difundieron (con una referencia propia), de
+ * modo que la reproducción no vuelve a codificar nada ni consulta el disco.
+ */
+public class HistoryRing {
+    private final Frame[] slots; // Huecos del buffer circular
+    private final ReentrantLock lock;
+    private int head; // Índice del mensaje más antiguo
+    private int count; // Número de mensajes guardados
+
+    /**
+     * Constructor de HistoryRing.
+     * @param capacity Número de mensajes que se conservan; 0 desactiva el historial.
+     */
+    public HistoryRing(int capacity) {
+        this.slots = new Frame[Math.max(0, capacity)];
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Añade un mensaje y descarta el más antiguo si el historial está lleno.
+     */
+    public void add(Frame frame) {
+        if (slots.length == 0) {
+            return;
+        }
+        Frame evicted = null;
+        lock.lock();
+        try {
+            if (count == slots.length) {
+                evicted = slots[head];
+                slots[head] = frame.retain();
+                head = (head + 1) % slots.length;
+            } else {
+                slots[(head + count) % slots.length] = frame.retain();
+                count++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (evicted != null) {
+            evicted.release();
+        }
+    }
+
+    /**
+     * Encola en el cliente los mensajes guardados, del más antiguo al más reciente.
+     * Las tramas se copian bajo el cerrojo y se encolan fuera de él.
+     */
+    public void replay(ClientConnection client) {
+        Frame[] copy;
+        lock.lock();
+        try {
+            copy = new Frame[count];
+            for (int i = 0; i < count; i++) {
+                copy[i] = slots[(head + i) % slots.length].retain();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Frame frame : copy) {
+            try {
+                client.enqueue(frame);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Vacía el historial y suelta sus tramas.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            while (count > 0) {
+                slots[head].release();
+                slots[head] = null;
+                head = (head + 1) % slots.length;
+                count--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve el número de mensajes guardados.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package server;
+
+/**
+ * Vigila la actividad de las conexiones y cierra las que han muerto sin avisar.
+ * Una conexión TCP medio abierta (el cliente desapareció sin cerrar el socket) solo
+ * se detecta al fallar una escritura, y hasta entonces conserva sus hilos y su cola.
+ * Cada conexión tiene un plazo en una TimingWheel compartida:
+ * - Hasta completar el saludo, el plazo es handshakeTimeoutMillis desde la conexión.
+ * - Los clientes V2 que pidieron latidos (opción "ping" del saludo) reciben una trama
+ *   de control PING tras heartbeatIntervalMillis sin enviar nada, y se cierran si
+ *   siguen en silencio tras idleTimeoutMillis. Cualquier trama recibida (un PONG,
+ *   un mensaje o un comando) cuenta como actividad.
+ * - El resto de clientes no sabe responder a PING y un cliente callado es legítimo:
+ *   tras el saludo dejan de vigilarse y quedan a cargo de SO_KEEPALIVE.
+ * Registrar actividad solo escribe el reloj grueso de la rueda en la conexión; el
+ * plazo no se mueve en cada trama, sino que al vencer se recalcula con la última
+ * actividad, de modo que el camino de los mensajes no toma ningún cerrojo.
+ */
+public class IdleMonitor {
+    // Tramas de control de los latidos; son tramas normales, que se pueden compartir
+    public static final String PING = "PING";
+    public static final String PONG = "PONG";
+    private static final Frame PING_FRAME = Frame.of(FrameType.CONTROL, PING);
+    private static final Frame PONG_FRAME = Frame.of(FrameType.CONTROL, PONG);
+    // Cubetas de la rueda: con ticks de 100 ms una vuelta dura unos 51 s
+    private static final int WHEEL_SIZE = 512;
+
+    private final TimingWheel wheel; // Rueda con los plazos de todas las conexiones
+    private final ServerMetrics metrics; // Conexiones cerradas por inactividad
+    private final long heartbeatMillis; // Silencio tras el que se envía PING
+    private final long idleMillis; // Silencio tras el que se cierra la conexión
+    private final long handshakeMillis; // Plazo para completar el saludo
+
+    /**
+     * Constructor de IdleMonitor. Arranca el hilo de la rueda.
+     */
+    public IdleMonitor(ServerConfig config, ServerMetrics metrics) {
+        this.wheel = new TimingWheel(config.getIdleTickMillis(), WHEEL_SIZE, "idle-monitor");
+        this.metrics = metrics;
+        this.heartbeatMillis = Math.max(1, config.getHeartbeatIntervalMillis());
+        this.idleMillis = Math.max(heartbeatMillis, config.getIdleTimeoutMillis());
+        this.handshakeMillis = config.getHandshakeTimeoutMillis();
+    }
+
+    /**
+     * Empieza a vigilar una conexión recién aceptada con el plazo del saludo.
+     * Con handshakeTimeoutMillis <= 0 no se vigila el saludo, pero sí los latidos.
+     * @return El plazo de la conexión, que debe informar de su actividad y cancelarse al cerrar.
+     */
+    public Timer track(ClientConnection client) {
+        Timer timer = new Timer(client, wheel.now());
+        if (handshakeMillis > 0) {
+            wheel.schedule(timer, handshakeMillis);
+        }
+        return timer;
+    }
+
+    /**
+     * Responde a un PING de un cliente.
+     */
+    public static void pong(ClientConnection client) {
+        client.enqueue(PONG_FRAME);
+    }
+
+    /**
+     * Detiene la rueda; las conexiones dejan de vigilarse.
+     */
+    public void close() {
+        wheel.stop();
+    }
+
+    /**
+     * Cierra una conexión muerta o que no completó el saludo.
+     */
+    private void reap(ClientConnection client, String reason) {
+        metrics.connectionReaped();
+        String name = client.getClientName();
+        ServerLog.info("Conexión cerrada por " + reason + ": " + (name == null ? "(sin nombre)" : name));
+        client.closeConnection();
+    }
+
+    /**
+     * Plazo de inactividad de una conexión.
+     */
+    public final class Timer extends TimingWheel.Timeout {
+        private final ClientConnection client; // Conexión vigilada
+        private final long connected; // Instante de la conexión (reloj de la rueda)
+        private volatile long lastRead; // Instante de la última trama recibida (reloj de la rueda)
+        private volatile boolean registered; // El saludo terminó y el nombre fue aceptado
+        private volatile boolean heartbeat; // El cliente pidió latidos
+        private volatile boolean cancelled; // La conexión se cerró
+        private long pingSent = -1; // Instante del último PING (solo el hilo de la rueda)
+
+        private Timer(ClientConnection client, long connected) {
+            this.client = client;
+            this.connected = connected;
+            this.lastRead = connected;
+        }
+
+        /**
+         * Registra actividad de la conexión. Solo escribe si el reloj de la rueda avanzó
+         * desde la última vez, para no ensuciar la línea de caché en cada trama.
+         */
+        public void touch() {
+            long now = wheel.now();
+            if (lastRead != now) {
+                lastRead = now;
+            }
+        }
+
+        /**
+         * Informa de que el saludo terminó y el nombre fue aceptado.
+         * @param heartbeat El cliente pidió latidos y debe seguir vigilándose.
+         */
+        public void registered(boolean heartbeat) {
+            this.heartbeat = heartbeat;
+            this.lastRead = wheel.now();
+            this.registered = true;
+            if (heartbeat && handshakeMillis <= 0) {
+                wheel.schedule(this, heartbeatMillis);
+            }
+        }
+
+        /**
+         * Deja de vigilar la conexión. Se puede llamar varias veces.
+         */
+        public void cancel() {
+            cancelled = true;
+            wheel.cancel(this);
+        }
+
+        /**
+         * Comprueba la conexión al vencer su plazo y, si sigue viva, lo vuelve a programar
+         * según su última actividad.
+         */
+        @Override
+        protected void expired() {
+            if (cancelled) {
+                return;
+            }
+            long now = wheel.now();
+            if (!registered) {
+                long remaining = connected + handshakeMillis - now;
+                if (remaining <= 0) {
+                    reap(client, "saludo incompleto");
+                } else {
+                    wheel.schedule(this, remaining);
+                }
+                return;
+            }
+            if (!heartbeat) {
+                return; // Cliente sin latidos: queda a cargo de SO_KEEPALIVE
+            }
+            long idle = now - lastRead;
+            if (idle >= idleMillis) {
+                reap(client, "inactividad");
+                return;
+            }
+            if (idle < heartbeatMillis) {
+                wheel.schedule(this, heartbeatMillis - idle);
+                return;
+            }
+            if (pingSent <= lastRead) {
+                // Un PING por silencio (un PONG en el mismo tick cuenta como respuesta):
+                // si no contesta, se cierra al vencer idleMillis
+                pingSent = now;
+                client.enqueue(PING_FRAME);
+            }
+            wheel.schedule(this, Math.min(heartbeatMillis, idleMillis - idle));
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Segmento inmutable del índice de búsqueda, guardado en un fichero proyectado en memoria.
+ * Cubre un tramo contiguo de secuencias del registro de mensajes; el nombre del fichero
+ * son la primera y la última secuencia del tramo.
+ *
+ * Formato (big-endian):
+ *   int magic, int versión
+ *   long primera secuencia, long última secuencia, int mensajes indexados
+ *   int salas, y por cada sala: short longitud + nombre en UTF-8
+ *   apariciones de cada término, seguidas: por cada una, la diferencia con la
+ *     secuencia anterior (varint, la primera respecto a la primera del segmento)
+ *     y el identificador de la sala (varint)
+ *   tabla de términos en orden: short longitud + término en UTF-8, int apariciones,
+ *     int posición de sus apariciones
+ *   int posición de la tabla de términos, int términos, int CRC32C de todo lo anterior
+ *
+ * Al abrirlo se comprueba el CRC y se cargan en memoria la tabla de salas y la de
+ * términos; las apariciones se decodifican de la proyección al consultarlas.
+ * Se escribe en un fichero temporal que se renombra al terminar, así que un segmento
+ * con nombre definitivo siempre está completo.
+ */
+public class IndexSegment {
+    // Extensión de los ficheros de segmento del índice
+    public static final String SUFFIX = ".idx";
+    private static final int MAGIC = 0x43494458; // "CIDX"
+    private static final int VERSION = 1;
+    private static final int TRAILER_LENGTH = 4 + 4 + 4;
+
+    private final Path path; // Fichero del segmento
+    private final MappedByteBuffer buffer; // Proyección del fichero completo (solo lectura)
+    private final long firstSequence; // Primera secuencia del tramo
+    private final long lastSequence; // Última secuencia del tramo
+    private final int messages; // Mensajes indexados en el segmento
+    private final String[] rooms; // Tabla de salas: identificador -> nombre
+    private final String[] terms; // Términos en orden
+    private final int[] counts; // Apariciones de cada término
+    private final int[] offsets; // Posición de las apariciones de cada término
+
+    private IndexSegment(Path path, MappedByteBuffer buffer, long firstSequence, long lastSequence, int messages,
+                         String[] rooms, String[] terms, int[] counts, int[] offsets) {
+        this.path = path;
+        this.buffer = buffer;
+        this.firstSequence = firstSequence;
+        this.lastSequence = lastSequence;
+        this.messages = messages;
+        this.rooms = rooms;
+        this.terms = terms;
+        this.counts = counts;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Devuelve el nombre de fichero del segmento que cubre el tramo indicado.
+     */
+    public static String fileName(long firstSequence, long lastSequence) {
+        return String.format("%020d-%020d", firstSequence, lastSequence) + SUFFIX;
+    }
+
+    /**
+     * Escribe un segmento nuevo y lo abre.
+     * @param rooms Tabla de salas a la que remiten los identificadores de las apariciones.
+     * @param terms Términos del segmento, en orden.
+     * @param postings Apariciones de cada término; se piden una vez por término, en orden,
+     *                 de modo que una fusión no necesita tenerlas todas en memoria.
+     */
+    public static IndexSegment write(Path directory, long firstSequence, long lastSequence, int messages,
+                                     List<String> rooms, String[] terms,
+                                     Function<String, PostingList> postings) throws IOException {
+        Path path = directory.resolve(fileName(firstSequence, lastSequence));
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        int[] counts = new int[terms.length];
+        int[] offsets = new int[terms.length];
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(firstSequence);
+            out.writeLong(lastSequence);
+            out.writeInt(messages);
+            out.writeInt(rooms.size());
+            for (String room : rooms) {
+                writeString(out, room);
+            }
+            for (int i = 0; i < terms.length; i++) {
+                PostingList list = postings.apply(terms[i]);
+                offsets[i] = out.size();
+                counts[i] = list.size();
+                long previous = firstSequence;
+                for (int j = 0; j < list.size(); j++) {
+                    writeVarint(out, list.sequence(j) - previous);
+                    writeVarint(out, list.room(j));
+                    previous = list.sequence(j);
+                }
+            }
+            int termTable = out.size();
+            for (int i = 0; i < terms.length; i++) {
+                writeString(out, terms[i]);
+                out.writeInt(counts[i]);
+                out.writeInt(offsets[i]);
+            }
+            out.writeInt(termTable);
+            out.writeInt(terms.length);
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            if (out.size() == Integer.MAX_VALUE) { // size() se satura en 2 GB
+                throw new IOException("Segmento del índice demasiado grande");
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(path);
+    }
+
+    /**
+     * Abre un segmento existente y carga sus tablas de salas y de términos.
+     * @throws IOException si el fichero no es un segmento válido o está dañado.
+     */
+    public static IndexSegment open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // La proyección sigue siendo válida tras cerrar el canal
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = buffer.capacity();
+        if (size < 32 + TRAILER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("No es un segmento del índice: " + path);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(0, size - 4));
+        if ((int) crc.getValue() != buffer.getInt(size - 4)) {
+            throw new IOException("Segmento del índice dañado: " + path);
+        }
+        int roomCount = buffer.getInt(28);
+        String[] rooms = new String[roomCount];
+        int pos = 32;
+        for (int i = 0; i < roomCount; i++) {
+            int length = buffer.getShort(pos) & 0xFFFF;
+            rooms[i] = readString(buffer, pos + 2, length);
+            pos += 2 + length;
+        }
+        pos = buffer.getInt(size - TRAILER_LENGTH);
+        int termCount = buffer.getInt(size - TRAILER_LENGTH + 4);
+        String[] terms = new String[termCount];
+        int[] counts = new int[termCount];
+        int[] offsets = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            int length = buffer.getShort(pos) & 0xFFFF;
+            terms[i] = readString(buffer, pos + 2, length);
+            pos += 2 + length;
+            counts[i] = buffer.getInt(pos);
+            offsets[i] = buffer.getInt(pos + 4);
+            pos += 8;
+        }
+        return new IndexSegment(path, buffer, buffer.getLong(8), buffer.getLong(16), buffer.getInt(24),
+                rooms, terms, counts, offsets);
+    }
+
+    /**
+     * Devuelve las apariciones de un término, o null si no aparece en el segmento.
+     */
+    public PostingList postings(String term) {
+        int slot = Arrays.binarySearch(terms, term);
+        if (slot < 0) {
+            return null;
+        }
+        int count = counts[slot];
+        PostingList list = new PostingList(count);
+        int pos = offsets[slot];
+        long sequence = firstSequence;
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(pos++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int room = 0;
+            shift = 0;
+            do {
+                b = buffer.get(pos++);
+                room |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            sequence += delta;
+            list.add(sequence, room);
+        }
+        return list;
+    }
+
+    /**
+     * Devuelve el número de apariciones de un término (0 si no aparece), sin decodificarlas.
+     */
+    public int count(String term) {
+        int slot = Arrays.binarySearch(terms, term);
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    /**
+     * Borra el fichero del segmento. Las consultas en curso siguen leyendo la proyección.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            ServerLog.error("Error al borrar el segmento del índice " + path + ": " + e.getMessage());
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * Devuelve el nombre de la sala con el identificador indicado.
+     */
+    public String room(int id) {
+        return rooms[id];
+    }
+
+    /**
+     * Devuelve la tabla de salas del segmento.
+     */
+    public String[] rooms() {
+        return rooms;
+    }
+
+    /**
+     * Devuelve los términos del segmento, en orden. No debe modificarse.
+     */
+    public String[] terms() {
+        return terms;
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer, int pos, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(pos, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,160 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos al estilo HDR: cubetas log-lineales con
+ * precisión relativa constante (SUB_BUCKETS cubetas por cada potencia de dos, un
+ * error máximo del 3 %) y memoria fija, sin asignar nada al registrar un valor.
+ * Los contadores están repartidos en varias franjas según el hilo que registra,
+ * para que los hilos lectores no compitan por las mismas líneas de caché; las
+ * franjas se suman solo al consultar el histograma.
+ */
+public class LatencyHistogram {
+    // Bits de precisión: 2^SUB_BITS cubetas por cada potencia de dos
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Bit más alto que se distingue (2^41 ns son unos 36 minutos); los valores mayores se acumulan en la última cubeta
+    private static final int MAX_BIT = 41;
+    private static final int BUCKETS = (MAX_BIT - SUB_BITS + 2) * SUB_BUCKETS;
+    // Franjas de contadores (potencia de dos)
+    private static final int STRIPES = 8;
+
+    private final AtomicLongArray counts; // Contadores de cada franja, uno tras otro
+    private final LongAdder total; // Valores registrados
+    private final LongAdder sum; // Suma de los valores registrados (para la media)
+
+    /**
+     * Constructor de LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(STRIPES * BUCKETS);
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * Registra una latencia en nanosegundos. Los valores negativos cuentan como cero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+        counts.getAndIncrement(stripe * BUCKETS + bucket(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Devuelve la cubeta de un valor: lineal por debajo de 2 * SUB_BUCKETS y, por
+     * encima, SUB_BUCKETS cubetas por cada potencia de dos.
+     */
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int bit = 63 - Long.numberOfLeadingZeros(value);
+        if (bit > MAX_BIT) {
+            return BUCKETS - 1;
+        }
+        int shift = bit - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Devuelve el mayor valor que cae en una cubeta.
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long base = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((base + 1) << shift) - 1;
+    }
+
+    /**
+     * Suma las franjas y devuelve una copia consistente para calcular percentiles.
+     */
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int offset = stripe * BUCKETS;
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = counts.get(offset + i);
+                merged[i] += c;
+                count += c;
+            }
+        }
+        return new Snapshot(merged, count, sum.sum());
+    }
+
+    /**
+     * Devuelve el número de valores registrados.
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * Copia de las cubetas de un histograma en un instante.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * Devuelve el valor por debajo del cual está la fracción indicada de los valores
+         * (por ejemplo 0.99), redondeado al límite superior de su cubeta.
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return bucketLimit(i);
+                }
+            }
+            return bucketLimit(counts.length - 1);
+        }
+
+        /**
+         * Devuelve los valores registrados desde otra copia anterior del mismo histograma,
+         * para calcular percentiles de un intervalo y no de todo el tiempo en marcha.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(delta, count - earlier.count, sum - earlier.sum);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Devuelve la media en nanosegundos.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package server;
+
+/**
+ * Niveles de los mensajes de ServerLog, de menor a mayor gravedad.
+ */
+public enum LogLevel {
+    // Detalle para depuración (trazas de excepciones esperadas, desconexiones)
+    DEBUG,
+    // Eventos normales del servidor: arranque, conexiones, altas y bajas
+    INFO,
+    // Situaciones anómalas que el servidor puede manejar (clientes lentos, datos dañados)
+    WARN,
+    // Errores que interrumpen una operación
+    ERROR,
+    // No se escribe ningún mensaje
+    OFF;
+
+    /**
+     * Indica si un mensaje de este nivel se escribe con el nivel mínimo indicado.
+     */
+    public boolean isEnabled(LogLevel threshold) {
+        return this != OFF && ordinal() >= threshold.ordinal();
+    }
+}
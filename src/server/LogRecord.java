@@ -0,0 +1,38 @@
+package server;
+
+/**
+ * Mensaje leído del registro persistente: número de secuencia, instante, sala y texto.
+ * La sala vacía (MessageLog.LOBBY) corresponde a los mensajes difundidos a todos.
+ */
+public final class LogRecord {
+    private final long sequence; // Número de secuencia asignado al publicar el mensaje
+    private final long timestamp; // Instante de publicación en milisegundos desde la época
+    private final String room; // Sala del mensaje, vacía para los mensajes globales
+    private final String text; // Texto tal y como lo recibieron los clientes
+
+    /**
+     * Constructor de LogRecord.
+     */
+    public LogRecord(long sequence, long timestamp, String room, String text) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.room = room;
+        this.text = text;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,335 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Segmento del registro de mensajes: un fichero de tamaño fijo proyectado en
+ * memoria (MappedByteBuffer) en el que los registros se añaden uno tras otro.
+ * El nombre del fichero es el número de secuencia del primer registro.
+ *
+ * Formato de cada registro (big-endian):
+ *   int longitud   bytes que siguen al CRC
+ *   int crc        CRC32C de los bytes que siguen
+ *   long secuencia
+ *   long instante  milisegundos desde la época
+ *   short sala     longitud del nombre de la sala en UTF-8
+ *   bytes sala, bytes mensaje (UTF-8)
+ * Una longitud 0 marca el final de los datos; el resto del fichero está a cero.
+ *
+ * Solo el hilo escritor de MessageLog añade registros. Las lecturas pueden hacerse
+ * desde cualquier hilo y solo ven los registros anteriores a la posición publicada.
+ */
+public class LogSegment {
+    // Extensión de los ficheros de segmento
+    public static final String SUFFIX = ".log";
+    // Bytes fijos de un registro: longitud, CRC, secuencia, instante y longitud de la sala
+    static final int RECORD_OVERHEAD = 4 + 4 + 8 + 8 + 2;
+    // Se guarda en el índice disperso la posición de uno de cada INDEX_INTERVAL registros
+    private static final int INDEX_INTERVAL = 64;
+
+    private final Path path; // Fichero del segmento
+    private final FileChannel channel; // Canal con el que se proyectó el fichero
+    private final MappedByteBuffer buffer; // Proyección del fichero completo
+    private final long baseSequence; // Secuencia con la que se nombró el segmento
+    private final long createdMillis; // Instante de creación, para el cambio de segmento por tiempo
+    private volatile int position; // Fin de los registros completos (publicado para los lectores)
+    private volatile long lastSequence; // Secuencia del último registro, o baseSequence - 1 si está vacío
+    private long[] indexSequences; // Índice disperso: secuencias...
+    private int[] indexPositions; // ... y posiciones de sus registros
+    private volatile int indexCount;
+    private int records; // Registros del segmento
+
+    private LogSegment(Path path, FileChannel channel, MappedByteBuffer buffer, long baseSequence, long createdMillis) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.baseSequence = baseSequence;
+        this.createdMillis = createdMillis;
+        this.lastSequence = baseSequence - 1;
+        this.indexSequences = new long[16];
+        this.indexPositions = new int[16];
+    }
+
+    /**
+     * Crea un segmento nuevo del tamaño indicado.
+     */
+    public static LogSegment create(Path directory, long baseSequence, int size) throws IOException {
+        Path path = directory.resolve(fileName(baseSequence));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new LogSegment(path, channel, buffer, baseSequence, System.currentTimeMillis());
+    }
+
+    /**
+     * Abre un segmento existente y recorre sus registros para reconstruir el índice.
+     * Los datos a partir del primer registro incompleto o con CRC incorrecto (escritura
+     * interrumpida) se descartan y se sobrescribirán.
+     */
+    public static LogSegment open(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        long baseSequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        LogSegment segment = new LogSegment(path, channel, buffer, baseSequence,
+                Files.getLastModifiedTime(path).toMillis());
+        segment.recover();
+        return segment;
+    }
+
+    /**
+     * Devuelve el nombre de fichero del segmento que empieza en la secuencia indicada.
+     */
+    public static String fileName(long baseSequence) {
+        return String.format("%020d", baseSequence) + SUFFIX;
+    }
+
+    private void recover() {
+        CRC32C crc = new CRC32C();
+        int pos = 0;
+        while (pos + RECORD_OVERHEAD <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length < RECORD_OVERHEAD - 8 || pos + 8 + length > buffer.capacity()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(pos + 8, length));
+            if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+                ServerLog.warn("Registro dañado en " + path + " (posición " + pos + "), se descarta el resto");
+                break;
+            }
+            addIndex(buffer.getLong(pos + 8), pos);
+            lastSequence = buffer.getLong(pos + 8);
+            pos += 8 + length;
+        }
+        // Borrar lo que quede de una escritura interrumpida para no confundirlo con registros válidos
+        for (int i = pos; i < Math.min(buffer.capacity(), pos + RECORD_OVERHEAD); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        position = pos;
+    }
+
+    /**
+     * Añade un registro con el cuerpo de la trama (en UTF-8 estándar).
+     * @return Falso si el registro no cabe en el espacio restante del segmento.
+     */
+    boolean append(long sequence, long timestamp, byte[] room, Frame frame, CRC32C crc) {
+        int bodyLength = frame.bodyLength(WireProtocol.V2);
+        int length = RECORD_OVERHEAD - 8 + room.length + bodyLength;
+        int pos = position;
+        if (pos + 8 + length > buffer.capacity()) {
+            return false;
+        }
+        buffer.putLong(pos + 8, sequence);
+        buffer.putLong(pos + 16, timestamp);
+        buffer.putShort(pos + 24, (short) room.length);
+        buffer.put(pos + RECORD_OVERHEAD, room);
+        frame.copyBody(WireProtocol.V2, 0, buffer, pos + RECORD_OVERHEAD + room.length, bodyLength);
+        crc.reset();
+        buffer.limit(pos + 8 + length).position(pos + 8);
+        crc.update(buffer);
+        buffer.clear();
+        buffer.putInt(pos + 4, (int) crc.getValue());
+        buffer.putInt(pos, length); // La longitud se escribe la última: el registro queda completo
+        addIndex(sequence, pos);
+        lastSequence = sequence;
+        position = pos + 8 + length;
+        return true;
+    }
+
+    private void addIndex(long sequence, int pos) {
+        if (records++ % INDEX_INTERVAL != 0) {
+            return;
+        }
+        int count = indexCount;
+        if (count == indexSequences.length) {
+            indexSequences = Arrays.copyOf(indexSequences, count * 2);
+            indexPositions = Arrays.copyOf(indexPositions, count * 2);
+        }
+        indexSequences[count] = sequence;
+        indexPositions[count] = pos;
+        indexCount = count + 1;
+    }
+
+    /**
+     * Devuelve la posición del registro con la secuencia indicada o del primero posterior,
+     * partiendo de la entrada del índice disperso más cercana.
+     * @return La posición, o -1 si el segmento no contiene secuencias mayores o iguales.
+     */
+    public int find(long sequence) {
+        int pos = 0;
+        long[] sequences = indexSequences;
+        int[] positions = indexPositions;
+        int count = Math.min(indexCount, Math.min(sequences.length, positions.length));
+        int slot = Arrays.binarySearch(sequences, 0, count, sequence);
+        if (slot >= 0) {
+            return positions[slot];
+        }
+        int before = -slot - 2;
+        if (before >= 0) {
+            pos = positions[before];
+        }
+        int end = position;
+        while (pos < end) {
+            if (buffer.getLong(pos + 8) >= sequence) {
+                return pos;
+            }
+            pos += 8 + buffer.getInt(pos);
+        }
+        return -1;
+    }
+
+    /**
+     * Lee hasta max registros a partir de la secuencia indicada y los añade a la lista.
+     * @return Número de registros leídos.
+     */
+    public int read(long fromSequence, int max, List<LogRecord> target) {
+        int pos = find(fromSequence);
+        if (pos < 0) {
+            return 0;
+        }
+        int end = position;
+        int read = 0;
+        while (pos < end && read < max) {
+            target.add(decode(pos));
+            read++;
+            pos += 8 + buffer.getInt(pos);
+        }
+        return read;
+    }
+
+    /**
+     * Añade a la lista los últimos max registros de una sala, del más antiguo al más reciente.
+     * Recorre solo las cabeceras y compara la sala sin decodificarla: únicamente se
+     * decodifican los registros que se devuelven.
+     * @param room Nombre de la sala en UTF-8.
+     * @return Número de registros añadidos.
+     */
+    public int tail(byte[] room, int max, List<LogRecord> target) {
+        int end = position;
+        if (max <= 0 || end == 0) {
+            return 0;
+        }
+        int[] positions = new int[Math.min(max, end / RECORD_OVERHEAD + 1)]; // Últimas coincidencias (circular)
+        int found = 0;
+        for (int pos = 0; pos < end; pos += 8 + buffer.getInt(pos)) {
+            if (isRoom(pos, room)) {
+                positions[found++ % positions.length] = pos;
+            }
+        }
+        int count = Math.min(found, positions.length);
+        for (int i = found - count; i < found; i++) {
+            target.add(decode(positions[i % positions.length]));
+        }
+        return count;
+    }
+
+    /**
+     * Indica si el registro de la posición indicada es de la sala, comparando los bytes en el fichero.
+     */
+    private boolean isRoom(int pos, byte[] room) {
+        if ((buffer.getShort(pos + 24) & 0xFFFF) != room.length) {
+            return false;
+        }
+        for (int i = 0; i < room.length; i++) {
+            if (buffer.get(pos + RECORD_OVERHEAD + i) != room[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodifica el registro de la posición indicada.
+     */
+    private LogRecord decode(int pos) {
+        int length = buffer.getInt(pos);
+        long sequence = buffer.getLong(pos + 8);
+        long timestamp = buffer.getLong(pos + 16);
+        int roomLength = buffer.getShort(pos + 24) & 0xFFFF;
+        byte[] room = new byte[roomLength];
+        buffer.get(pos + RECORD_OVERHEAD, room);
+        byte[] body = new byte[length - (RECORD_OVERHEAD - 8) - roomLength];
+        buffer.get(pos + RECORD_OVERHEAD + roomLength, body);
+        return new LogRecord(sequence, timestamp, new String(room, StandardCharsets.UTF_8),
+                new String(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Fuerza la escritura a disco de los registros añadidos.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Fuerza a disco lo pendiente y cierra el canal. La proyección se libera con el recolector.
+     */
+    public void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            ServerLog.error("Error al cerrar el segmento " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cierra el segmento y borra su fichero (retención de segmentos antiguos).
+     */
+    public void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            ServerLog.error("Error al borrar el segmento " + path + ": " + e.getMessage());
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Indica si el segmento no tiene registros.
+     */
+    public boolean isEmpty() {
+        return position == 0;
+    }
+
+    /**
+     * Devuelve los bytes ocupados por los registros.
+     */
+    public int size() {
+        return position;
+    }
+
+    /**
+     * Devuelve el tamaño del fichero proyectado.
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+}
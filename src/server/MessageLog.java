@@ -0,0 +1,371 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Registro persistente de los mensajes difundidos.
+ * Cada mensaje recibe un número de secuencia creciente y se añade a un registro
+ * segmentado de ficheros proyectados en memoria (LogSegment). Quien difunde solo
+ * asigna la secuencia y deja la trama en un buffer circular preasignado; un hilo
+ * escritor la copia al segmento, agrupa los fsync (force) y cambia de segmento por
+ * tamaño o por antigüedad. Así la escritura a disco queda fuera del camino de difusión.
+ * Si el buffer circular está lleno el mensaje no se persiste y se contabiliza.
+ *
+ * Si no hay directorio configurado (o no se puede abrir) el registro solo asigna
+ * secuencias y no escribe nada.
+ */
+public class MessageLog {
+    // Sala de los mensajes difundidos a todos los clientes
+    public static final String LOBBY = "";
+
+    private final Path directory; // Directorio de los segmentos, null si no se persiste
+    private final int segmentBytes; // Tamaño de cada segmento
+    private final long rollMillis; // Antigüedad máxima de un segmento antes de cambiar a otro
+    private final long flushNanos; // Intervalo máximo entre dos fsync
+    private final int maxSegments; // Segmentos que se conservan (0 = todos)
+    private final List<LogSegment> segments; // Segmentos abiertos, del más antiguo al más reciente
+    private final ReentrantLock lock; // Protege la secuencia y el buffer circular
+    private final Condition notEmpty;
+    private final long[] pendingSequences; // Buffer circular de mensajes pendientes de escribir...
+    private final long[] pendingTimes;
+    private final String[] pendingRooms;
+    private final Frame[] pendingFrames;
+    private final LongAdder dropped; // Mensajes que no se persistieron por estar lleno el buffer
+    private int head; // Primer mensaje pendiente
+    private int count; // Mensajes pendientes
+    private long lastSequence; // Última secuencia asignada
+    private boolean closed;
+    private boolean expired; // El segmento actual superó su antigüedad (solo lo usa el escritor)
+    private Thread writer; // Hilo que copia los mensajes a los segmentos
+
+    /**
+     * Constructor de MessageLog.
+     * Abre los segmentos existentes del directorio y continúa la secuencia donde se quedó.
+     */
+    public MessageLog(ServerConfig config) {
+        int capacity = Math.max(1, config.getLogQueueCapacity());
+        this.segmentBytes = config.getLogSegmentBytes();
+        this.rollMillis = config.getLogRollMillis();
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(config.getLogFlushMillis());
+        this.maxSegments = config.getLogMaxSegments();
+        this.segments = new CopyOnWriteArrayList<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.pendingSequences = new long[capacity];
+        this.pendingTimes = new long[capacity];
+        this.pendingRooms = new String[capacity];
+        this.pendingFrames = new Frame[capacity];
+        this.dropped = new LongAdder();
+        this.directory = openDirectory(config.getLogDirectory());
+    }
+
+    /**
+     * Crea el directorio y abre sus segmentos.
+     * @return El directorio, o null si no se persiste.
+     */
+    private Path openDirectory(String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        try {
+            Path path = Path.of(name);
+            Files.createDirectories(path);
+            List<Path> files;
+            try (Stream<Path> list = Files.list(path)) {
+                files = list.filter(p -> p.getFileName().toString().matches("\\d{20}\\" + LogSegment.SUFFIX))
+                        .sorted()
+                        .toList();
+            }
+            for (Path file : files) {
+                LogSegment segment = LogSegment.open(file);
+                segments.add(segment);
+                lastSequence = Math.max(lastSequence, segment.getLastSequence());
+            }
+            ServerLog.info("Registro de mensajes en " + path.toAbsolutePath() + " (" + segments.size()
+                    + " segmentos, última secuencia " + lastSequence + ")");
+            return path;
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error("No se pudo abrir el registro de mensajes: " + e.getMessage(), e);
+            for (LogSegment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+            return null;
+        }
+    }
+
+    /**
+     * Arranca el hilo escritor.
+     */
+    public void start() {
+        if (directory != null) {
+            writer = new Thread(this::writeLoop, "message-log");
+            writer.start();
+        }
+    }
+
+    /**
+     * Asigna una secuencia al mensaje y lo deja pendiente de escribir.
+     * No bloquea por E/S ni asigna memoria: la trama se guarda en el buffer circular
+     * con una referencia propia que el escritor suelta al copiarla.
+     * @return La secuencia asignada.
+     */
+    public long append(String room, Frame frame) {
+        lock.lock();
+        try {
+            long sequence = ++lastSequence;
+            if (directory == null || closed) {
+                return sequence;
+            }
+            if (count == pendingFrames.length) {
+                dropped.increment();
+                return sequence;
+            }
+            int slot = (head + count) % pendingFrames.length;
+            pendingSequences[slot] = sequence;
+            pendingTimes[slot] = System.currentTimeMillis();
+            pendingRooms[slot] = room;
+            pendingFrames[slot] = frame.retain();
+            count++;
+            notEmpty.signal();
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor: copia los mensajes pendientes, agrupa los fsync y
+     * cambia de segmento cuando el actual se llena o envejece.
+     */
+    private void writeLoop() {
+        CRC32C crc = new CRC32C();
+        long lastForce = System.nanoTime();
+        boolean dirty = false;
+        while (true) {
+            long sequence;
+            long time;
+            String room;
+            Frame frame;
+            boolean stop;
+            lock.lock();
+            try {
+                if (count == 0 && !closed) {
+                    try {
+                        notEmpty.awaitNanos(flushNanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        closed = true;
+                    }
+                }
+                stop = closed && count == 0;
+                if (count > 0) {
+                    sequence = pendingSequences[head];
+                    time = pendingTimes[head];
+                    room = pendingRooms[head];
+                    frame = pendingFrames[head];
+                    pendingRooms[head] = null;
+                    pendingFrames[head] = null;
+                    head = (head + 1) % pendingFrames.length;
+                    count--;
+                } else {
+                    sequence = 0;
+                    time = 0;
+                    room = null;
+                    frame = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (frame != null) {
+                try {
+                    write(sequence, time, room, frame, crc);
+                    dirty = true;
+                } catch (IOException e) {
+                    ServerLog.error("Error al escribir en el registro de mensajes: " + e.getMessage());
+                    dropped.increment();
+                } finally {
+                    frame.release();
+                }
+            }
+            long now = System.nanoTime();
+            if (dirty && (stop || now - lastForce >= flushNanos)) {
+                current().force(); // Un único fsync para todo lo escrito en el intervalo
+                dirty = false;
+                lastForce = now;
+            }
+            if (stop) {
+                break;
+            }
+            rollIfExpired();
+        }
+        for (LogSegment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * Copia un mensaje al segmento actual, abriendo uno nuevo si no cabe o si el actual ha envejecido.
+     */
+    private void write(long sequence, long time, String room, Frame frame, CRC32C crc) throws IOException {
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        LogSegment segment = current();
+        if (segment == null || expired || !segment.append(sequence, time, roomBytes, frame, crc)) {
+            if (LogSegment.RECORD_OVERHEAD + roomBytes.length + frame.length() > segmentBytes) {
+                throw new IOException("Mensaje mayor que un segmento: " + frame.length() + " bytes");
+            }
+            segment = roll(sequence);
+            segment.append(sequence, time, roomBytes, frame, crc);
+        }
+    }
+
+    /**
+     * Cierra el segmento actual (forzándolo a disco) y abre uno nuevo que empieza en la secuencia indicada.
+     * Si se supera el número de segmentos conservados se borran los más antiguos.
+     */
+    private LogSegment roll(long baseSequence) throws IOException {
+        LogSegment previous = current();
+        if (previous != null) {
+            previous.force();
+        }
+        LogSegment segment = LogSegment.create(directory, baseSequence, segmentBytes);
+        segments.add(segment);
+        expired = false;
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            segments.remove(0).delete();
+        }
+        return segment;
+    }
+
+    /**
+     * Marca el segmento actual para cambiarlo si tiene registros y ha superado la antigüedad máxima.
+     * El segmento nuevo se crea con el primer mensaje que llegue: un servidor sin tráfico no
+     * deja segmentos vacíos ni borra por retención los que aún tienen mensajes.
+     */
+    private void rollIfExpired() {
+        LogSegment segment = current();
+        if (rollMillis > 0 && !expired && segment != null && !segment.isEmpty()
+                && System.currentTimeMillis() - segment.getCreatedMillis() >= rollMillis) {
+            expired = true;
+        }
+    }
+
+    private LogSegment current() {
+        int size = segments.size();
+        return size == 0 ? null : segments.get(size - 1);
+    }
+
+    /**
+     * Lee del disco hasta max mensajes a partir de la secuencia indicada.
+     * Solo ve los mensajes que el escritor ya ha copiado a los segmentos.
+     */
+    public List<LogRecord> read(long fromSequence, int max) {
+        List<LogRecord> records = new ArrayList<>();
+        for (LogSegment segment : segments) {
+            if (records.size() >= max) {
+                break;
+            }
+            if (segment.getLastSequence() < fromSequence) {
+                continue;
+            }
+            long from = records.isEmpty() ? fromSequence : records.get(records.size() - 1).getSequence() + 1;
+            segment.read(from, max - records.size(), records);
+        }
+        return records;
+    }
+
+    /**
+     * Devuelve los últimos max mensajes de una sala, del más antiguo al más reciente.
+     * Recorre los segmentos desde el más reciente hasta reunirlos, así que el resultado
+     * no depende de dónde cayó el último cambio de segmento, y deja de leer en cuanto
+     * los tiene. Dentro de cada segmento solo se decodifican los mensajes devueltos.
+     * Se usa al arrancar para rellenar el historial en memoria.
+     */
+    public List<LogRecord> tail(String room, int max) {
+        List<LogRecord> records = new ArrayList<>();
+        if (max <= 0) {
+            return records;
+        }
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        LogSegment[] snapshot = segments.toArray(new LogSegment[0]);
+        List<LogRecord> segmentTail = new ArrayList<>();
+        for (int i = snapshot.length - 1; i >= 0 && records.size() < max; i--) {
+            segmentTail.clear();
+            snapshot[i].tail(roomBytes, max - records.size(), segmentTail);
+            records.addAll(0, segmentTail);
+        }
+        return records;
+    }
+
+    /**
+     * Devuelve la última secuencia asignada.
+     */
+    public long getLastSequence() {
+        lock.lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve la secuencia del mensaje más antiguo que conserva el registro en disco.
+     */
+    public long getFirstSequence() {
+        return segments.isEmpty() ? getLastSequence() + 1 : segments.get(0).getBaseSequence();
+    }
+
+    /**
+     * Devuelve el directorio de los segmentos, o null si no se persiste.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Devuelve los mensajes que no se pudieron persistir.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Indica si los mensajes se están persistiendo en disco.
+     */
+    public boolean isPersistent() {
+        return directory != null;
+    }
+
+    /**
+     * Escribe lo pendiente, fuerza los segmentos a disco y detiene el hilo escritor.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (writer != null) {
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
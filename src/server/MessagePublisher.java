@@ -0,0 +1,80 @@
+package server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Punto único de publicación de mensajes (globales y de salas).
+ * Con un mismo cerrojo asigna el número de secuencia, guarda el mensaje en el
+ * historial de su sala y en el buffer de retención, lo deja pendiente de persistir
+ * y lo encola en los destinatarios. Así todos los clientes reciben los mensajes en
+ * orden de secuencia, y quien se registra o se reanuda con el cerrojo tomado no
+ * pierde ni recibe desordenado ningún mensaje.
+ * Encolar no bloquea, de modo que el cerrojo se mantiene muy poco tiempo.
+ * Si se activa el registro de chat, cada mensaje se registra también en ServerLog.
+ */
+public class MessagePublisher {
+    private final ReentrantLock lock; // Ordena las publicaciones entre sí y con los registros
+    private final MessageLog log; // Registro persistente, que asigna las secuencias
+    private final RetentionBuffer retention; // Últimos mensajes para reanudar sesiones
+    private final LatencyHistogram fanOut; // Tiempo en encolar cada mensaje en sus destinatarios
+
+    /**
+     * Constructor de MessagePublisher.
+     */
+    public MessagePublisher(MessageLog log, int retentionSize, LatencyHistogram fanOut) {
+        this.lock = new ReentrantLock();
+        this.log = log;
+        this.retention = new RetentionBuffer(retentionSize);
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Publica un mensaje en una sala (MessageLog.LOBBY para los globales).
+     */
+    public void publish(String room, Frame frame, ClientRegistry targets, HistoryRing history) {
+        if (ServerLog.isChatEnabled()) {
+            ServerLog.chat(MessageLog.LOBBY.equals(room) ? frame.text() : frame.text() + " (" + room + ")");
+        }
+        lock.lock();
+        try {
+            long sequence = log.append(room, frame);
+            frame.setSequence(sequence);
+            history.add(frame);
+            retention.add(sequence, room, frame);
+            long start = System.nanoTime();
+            targets.broadcast(frame);
+            fanOut.record(System.nanoTime() - start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Toma el cerrojo de publicación para registrar a un cliente sin que se cuele
+     * ningún mensaje entre la reproducción de lo perdido y los mensajes en directo.
+     */
+    public void lock() {
+        lock.lock();
+    }
+
+    /**
+     * Suelta el cerrojo de publicación.
+     */
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Devuelve el buffer de retención. Solo debe usarse con el cerrojo tomado.
+     */
+    RetentionBuffer retention() {
+        return retention;
+    }
+
+    /**
+     * Devuelve el registro persistente de mensajes.
+     */
+    public MessageLog log() {
+        return log;
+    }
+}
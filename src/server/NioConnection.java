@@ -0,0 +1,645 @@
+package server;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión de un cliente atendida por un NioEventLoop.
+ * Mantiene sus propios buffers de lectura y escritura y habla el mismo
+ * protocolo que Session (tramas de readUTF/writeUTF). La primera trama
+ * recibida es el nombre del cliente; las siguientes son mensajes de chat.
+ */
+public class NioConnection implements ClientConnection {
+    // Tamaño inicial del buffer de lectura; crece con los bytes de una trama mayor y vuelve a él
+    private static final int INITIAL_READ_BUFFER = 4096;
+    // Tamaño del buffer directo de salida en el que se juntan las tramas de un lote
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel; // Canal no bloqueante del cliente
+    private final SelectionKey key; // Clave de registro en el selector del bucle
+    private final NioEventLoop eventLoop; // Bucle que atiende esta conexión
+    private final NioServer server; // Servidor que difunde los mensajes
+    private final OutboundQueue writeQueue; // Cola acotada de tramas pendientes de escribir
+    private final AtomicBoolean writeScheduled; // Evita encolar varias veces la activación de escritura
+    private final AtomicBoolean closed;
+    private boolean closeAfterFlush; // Cerrar en cuanto se envíe lo pendiente (nombre rechazado)
+    private volatile boolean writeBlocked; // El socket se llenó con datos pendientes en el buffer de salida
+    private final Runnable writeTask; // Tarea de escritura reutilizada para no crear una lambda por mensaje
+    private final ByteBuffer outBuffer; // Buffer directo de salida en modo lectura (bytes pendientes de enviar)
+    private final byte[] headerBuffer; // Cabecera de la trama que se copia al buffer de salida
+    private Frame current; // Trama cuyo cuerpo se está copiando al buffer de salida
+    private int currentOffset; // Bytes del cuerpo de la trama en curso ya copiados
+    private int currentLength; // Longitud del cuerpo de la trama en curso en el protocolo de la conexión
+    private ByteBuffer readBuffer; // Buffer de lectura en modo escritura (posición = bytes recibidos)
+    private final int readBufferSize; // Tamaño normal del buffer de lectura
+    private final int maxFrameBytes; // Tamaño máximo del cuerpo de una trama V2 recibida
+    private String clientName; // Nombre del cliente, null hasta recibir la primera trama
+    private byte[] relayPrefix; // Prefijo "nombre: " ya codificado, null si los mensajes no se reenvían tal cual
+    private volatile WireProtocol protocol; // Protocolo de tramas; solo lo cambia el hilo del bucle
+    private boolean sequenced; // El cliente pidió el número de secuencia en las tramas V2
+    private int deflateThreshold; // Cuerpo a partir del que las tramas V2 se envían comprimidas (0 = nunca)
+    private final IdleMonitor.Timer idleTimer; // Plazo de saludo y de inactividad de la conexión
+    private final InetAddress inetAddress; // Dirección del cliente, para devolver su plaza de admisión
+    private final RateLimiter rateLimiter; // Límites de envío del cliente (solo el hilo del bucle)
+    private boolean throttled; // Se dejó de leer hasta que haya fichas (acción THROTTLE)
+    private final TlsChannel tls; // Cifrado TLS de la conexión, null si el servidor no usa TLS
+
+    /**
+     * Constructor de NioConnection.
+     * Se invoca desde el hilo del bucle al registrar el canal.
+     */
+    public NioConnection(SocketChannel channel, SelectionKey key, NioEventLoop eventLoop, NioServer server)
+            throws IOException {
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.server = server;
+        this.writeQueue = server.getConfig().newOutboundQueue();
+        this.writeQueue.setLatencyHistogram(server.getMetrics().getQueueLatency());
+        this.writeTask = this::runScheduledWrite;
+        this.outBuffer = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE).limit(0);
+        this.headerBuffer = new byte[FrameCodec.MAX_V2_HEADER_LENGTH];
+        this.writeScheduled = new AtomicBoolean(false);
+        this.closed = new AtomicBoolean(false);
+        this.maxFrameBytes = server.getConfig().getMaxFrameBytes();
+        this.protocol = WireProtocol.LEGACY;
+        this.inetAddress = channel.socket().getInetAddress();
+        this.rateLimiter = server.getChatService().newRateLimiter();
+        this.tls = server.getTls() == null ? null
+                : new TlsChannel(channel, server.getTls(), () -> eventLoop.execute(this::onTlsTasksDone));
+        // Con TLS el buffer de lectura recibe registros descifrados completos
+        this.readBufferSize = tls == null ? INITIAL_READ_BUFFER
+                : Math.max(INITIAL_READ_BUFFER, tls.applicationBufferSize());
+        this.readBuffer = ByteBuffer.allocate(readBufferSize);
+        // El último paso: si algo anterior falla no queda ningún plazo vigilando una conexión a medias
+        this.idleTimer = server.getChatService().idle().track(this);
+
+        ServerLog.debug("Cliente conectado desde: " + remoteAddress());
+    }
+
+    /**
+     * Lee todos los bytes disponibles y procesa las tramas completas.
+     */
+    void onReadable() {
+        if (closed.get()) {
+            return; // Cerrada desde otro hilo: el cierre del canal está encolado en el bucle
+        }
+        try {
+            int read = tls == null ? channel.read(readBuffer) : tls.read();
+            if (read < 0) {
+                ServerLog.debug("El cliente cerró la conexión.");
+                closeConnection();
+                return;
+            }
+            server.getMetrics().bytesReceived(read);
+            idleTimer.touch();
+            if (tls == null) {
+                processFrames();
+            } else {
+                readTls();
+            }
+        } catch (IOException e) {
+            if (tls != null && tls.isHandshaking()) {
+                ServerLog.debug("Saludo TLS fallido con " + remoteAddress() + ": " + e.getMessage());
+            } else if (ClientConnection.isPeerDisconnect(e)) {
+                ServerLog.debug("El cliente cerró la conexión: " + e.getMessage());
+            } else {
+                ServerLog.error("Error al leer el mensaje del cliente: " + e.getMessage());
+            }
+            closeConnection();
+        }
+    }
+
+    /**
+     * Descifra los registros TLS recibidos en el buffer de lectura y procesa sus tramas,
+     * por tandas si no caben de una vez. Mientras el saludo espera a sus tareas
+     * delegadas se deja de leer del socket.
+     */
+    private void readTls() throws IOException {
+        boolean more;
+        do {
+            if (readBuffer.remaining() < tls.applicationBufferSize()) {
+                resizeReadBuffer(readBuffer.position() + tls.applicationBufferSize());
+            }
+            more = tls.unwrap(readBuffer);
+            processFrames();
+        } while (more && !throttled && !closed.get());
+        if (tls.isInboundClosed()) {
+            ServerLog.debug("El cliente cerró la conexión.");
+            closeConnection(); // Sin esperar al cierre del socket: ya no enviará nada más
+            return;
+        }
+        updateTlsInterest();
+    }
+
+    /**
+     * Continúa el saludo TLS cuando terminan sus tareas delegadas. Se ejecuta en el hilo del bucle.
+     */
+    private void onTlsTasksDone() {
+        if (closed.get() || !key.isValid()) {
+            return;
+        }
+        tls.tasksDone();
+        try {
+            if (tls.advance() && tls.hasBufferedInput()) {
+                readTls();
+            } else {
+                updateTlsInterest();
+            }
+        } catch (IOException e) {
+            ServerLog.debug("Saludo TLS fallido con " + remoteAddress() + ": " + e.getMessage());
+            closeConnection();
+        }
+    }
+
+    /**
+     * Ajusta el interés del selector al estado de TLS: sin lectura mientras corren las
+     * tareas del saludo y con escritura si quedan bytes cifrados por enviar.
+     */
+    private void updateTlsInterest() {
+        if (closed.get() || !key.isValid()) {
+            return;
+        }
+        int ops = key.interestOps();
+        if (tls.isWaitingForTasks() || throttled) {
+            ops &= ~SelectionKey.OP_READ;
+        } else {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (tls.hasPendingOutput()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Extrae del buffer de lectura todas las tramas completas.
+     * Si la trama en curso no cabe, el buffer crece a medida que llegan sus bytes: se
+     * duplica (como mucho hasta el tamaño de la trama) cada vez que se llena, de modo que
+     * una cabecera que anuncia una trama enorme no reserva memoria por sí sola. Cuando
+     * las tramas grandes se han consumido, el buffer vuelve a su tamaño normal.
+     * El protocolo se consulta en cada trama porque puede cambiar tras el saludo.
+     */
+    private void processFrames() throws IOException {
+        readBuffer.flip();
+        int needed;
+        RelayStats stats = server.getRelayStats();
+        while ((needed = nextFrameLength()) > 0 && readBuffer.remaining() >= needed) {
+            int start = readBuffer.position();
+            if (clientName != null && !closeAfterFlush && !rateLimit(needed)) {
+                if (throttled) {
+                    break; // La trama se queda en el buffer hasta reanudar la lectura
+                }
+                readBuffer.position(start + needed); // Trama descartada
+                if (closed.get()) {
+                    return;
+                }
+                continue;
+            }
+            long allocated = stats.begin();
+            Frame frame = decodeFrame(start, needed);
+            readBuffer.position(start + needed);
+            if (frame != null) {
+                boolean relay = frame.isRelay();
+                try {
+                    onFrame(frame);
+                } finally {
+                    frame.release(); // Las colas de los destinatarios conservan sus propias referencias
+                }
+                stats.end(allocated, relay);
+            }
+            if (closed.get()) {
+                return;
+            }
+        }
+        readBuffer.compact();
+        if (needed > readBuffer.capacity() && !readBuffer.hasRemaining()) {
+            // La trama pendiente llena el buffer: ampliarlo conservando los bytes recibidos
+            resizeReadBuffer((int) Math.min(needed, readBuffer.capacity() * 2L));
+        } else if (needed <= readBufferSize) {
+            // Sin trama grande a medias: devolver la memoria de las que ya se consumieron. Con
+            // TLS se deja sitio para descifrar un registro; el margen del doble evita reasignar
+            // en cada lectura
+            int target = Math.max(readBufferSize,
+                    readBuffer.position() + (tls == null ? 0 : tls.applicationBufferSize()));
+            if (readBuffer.capacity() > 2 * target) {
+                resizeReadBuffer(target);
+            }
+        }
+    }
+
+    /**
+     * Cambia la capacidad del buffer de lectura (en modo escritura) conservando los bytes recibidos.
+     */
+    private void resizeReadBuffer(int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(capacity);
+        readBuffer.flip();
+        resized.put(readBuffer);
+        readBuffer = resized;
+    }
+
+    /**
+     * Aplica los límites de envío del cliente antes de decodificar y difundir la trama.
+     * Con la acción THROTTLE deja de leer del socket (sin OP_READ) y programa la
+     * reanudación para cuando haya fichas, de modo que el control de flujo de TCP
+     * frena al cliente sin ocupar el bucle.
+     * @return Falso si la trama no se procesa ahora.
+     */
+    private boolean rateLimit(int frameBytes) {
+        long wait = rateLimiter.tryAcquire(frameBytes);
+        if (wait == 0) {
+            return true;
+        }
+        if (rateLimiter.getPolicy() != RateLimitPolicy.THROTTLE) {
+            server.getChatService().onRateLimited(this, rateLimiter); // Aviso o desconexión
+            return false;
+        }
+        server.getMetrics().rateLimited();
+        throttled = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        try {
+            server.getScheduler().schedule(() -> eventLoop.execute(this::resumeReading), wait, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            closeConnection(); // El servidor se está cerrando
+        }
+        return false;
+    }
+
+    /**
+     * Reanuda la lectura de una conexión frenada: procesa las tramas que quedaron en el
+     * buffer y vuelve a pedir OP_READ si no ha vuelto a quedar frenada.
+     */
+    private void resumeReading() {
+        if (closed.get() || !key.isValid()) {
+            return;
+        }
+        throttled = false;
+        try {
+            if (tls != null) {
+                readTls(); // También descifra lo que quedó recibido sin procesar
+                return;
+            }
+            processFrames();
+            if (!throttled && !closed.get()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            if (ClientConnection.isPeerDisconnect(e)) {
+                ServerLog.debug("El cliente cerró la conexión: " + e.getMessage());
+            } else {
+                ServerLog.error("Error al leer el mensaje del cliente: " + e.getMessage());
+            }
+            closeConnection();
+        }
+    }
+
+    /**
+     * Devuelve el tamaño total (cabecera y cuerpo) de la trama que empieza en la posición
+     * actual del buffer, o 0 si aún no se ha recibido la cabecera completa.
+     */
+    private int nextFrameLength() throws IOException {
+        int start = readBuffer.position();
+        int available = readBuffer.remaining();
+        if (protocol == WireProtocol.LEGACY) {
+            if (available < FrameCodec.HEADER_LENGTH) {
+                return 0;
+            }
+            int length = ((readBuffer.get(start) & 0xFF) << 8) | (readBuffer.get(start + 1) & 0xFF);
+            return FrameCodec.HEADER_LENGTH + length;
+        }
+        int length = 0;
+        for (int i = 0; i < 5; i++) {
+            if (i >= available) {
+                return 0;
+            }
+            int b = readBuffer.get(start + i);
+            length |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > maxFrameBytes) {
+                    throw new IOException("Trama demasiado grande: " + length + " bytes");
+                }
+                return i + 1 + 1 + length; // varint + byte de tipo + cuerpo
+            }
+        }
+        throw new IOException("Longitud varint no válida");
+    }
+
+    /**
+     * Decodifica la trama completa que ocupa los bytes indicados del buffer.
+     * Los mensajes de chat se copian, con el prefijo del remitente, a una trama del pool
+     * sin crear ningún String; el resto (comandos, saludo, texto no portable o pool
+     * agotado) se decodifica como texto.
+     * @return La trama de chat o de control, o null si es de un tipo que se ignora.
+     */
+    private Frame decodeFrame(int start, int frameLength) throws UTFDataFormatException {
+        byte[] array = readBuffer.array();
+        int offset = readBuffer.arrayOffset() + start;
+        int header;
+        FrameType type;
+        if (protocol == WireProtocol.LEGACY) {
+            header = FrameCodec.HEADER_LENGTH;
+            type = FrameType.CHAT;
+        } else {
+            header = 1;
+            while ((array[offset + header - 1] & 0x80) != 0) {
+                header++;
+            }
+            type = FrameType.fromCode(array[offset + header] & 0xFF);
+            header++;
+            if (type != FrameType.CHAT && type != FrameType.CONTROL) {
+                return null; // Las confirmaciones y los tipos desconocidos se ignoran
+            }
+        }
+        int length = frameLength - header;
+        if (type == FrameType.CHAT && relayPrefix != null
+                && FrameCodec.isRelayable(readBuffer, start + header, length)) {
+            Frame relay = server.getFramePool().relay(relayPrefix, readBuffer, start + header, length);
+            if (relay != null) {
+                return relay;
+            }
+        }
+        if (protocol == WireProtocol.LEGACY) {
+            return Frame.of(FrameCodec.decode(array, offset + header, length));
+        }
+        byte[] payload = Arrays.copyOfRange(array, offset + header, offset + frameLength);
+        return Frame.decoded(type, new String(payload, StandardCharsets.UTF_8), payload);
+    }
+
+    /**
+     * Procesa una trama recibida: la primera es el saludo (o el nombre) y el resto son mensajes.
+     */
+    private void onFrame(Frame frame) {
+        if (closeAfterFlush) {
+            return; // El nombre fue rechazado: se ignora el resto hasta cerrar
+        }
+        if (clientName == null) {
+            Handshake handshake = Handshake.parse(frame.text());
+            if (handshake.expectsReply()) {
+                // La respuesta se escribe en LEGACY; las tramas siguientes ya usan el protocolo negociado
+                enqueue(handshake.reply());
+                protocol = handshake.getProtocol();
+                sequenced = handshake.wantsSequence();
+                deflateThreshold = server.getConfig().compressionThreshold(handshake);
+            }
+            clientName = handshake.getClientName();
+            ServerLog.info("Nombre del cliente recibido: " + clientName + " (protocolo " + protocol + ")");
+            if (server.getChatService().onNameReceived(this, handshake)) {
+                idleTimer.registered(handshake.wantsHeartbeat());
+                relayPrefix = FrameCodec.relayPrefix(clientName);
+            } else {
+                // Enviar la trama de error ya encolada y cerrar después
+                closeAfterFlush = true;
+                onWritable();
+            }
+            return;
+        }
+        server.getMetrics().messageReceived();
+        server.getChatService().onFrame(this, frame);
+    }
+
+    /**
+     * Escribe las tramas pendientes sin bloquear.
+     * Copia la cabecera y el cuerpo de las tramas encoladas en el buffer directo de salida
+     * y lo envía con una única escritura, sin vistas ni arrays por mensaje. Cada trama se
+     * suelta en cuanto su cuerpo está copiado. Si el socket no admite más datos se
+     * mantiene el interés en OP_WRITE.
+     */
+    void onWritable() {
+        if (closed.get()) {
+            return; // Cerrada desde otro hilo: el cierre del canal está encolado en el bucle
+        }
+        try {
+            if (tls != null && tls.isHandshaking()) {
+                continueHandshake();
+                return;
+            }
+            while (hasUnsent() || fillOutBuffer()) {
+                server.getMetrics().bytesSent(tls == null ? channel.write(outBuffer) : tls.write(outBuffer));
+                if (hasUnsent()) {
+                    writeBlocked = true;
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return; // El socket está lleno; continuar cuando vuelva a ser escribible
+                }
+            }
+            writeBlocked = false;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterFlush) {
+                closeConnection();
+            }
+        } catch (IOException e) {
+            if (ClientConnection.isPeerDisconnect(e)) {
+                ServerLog.debug("El cliente cerró la conexión: " + e.getMessage()); // Se fue con envíos pendientes
+            } else {
+                ServerLog.error("Error al enviar el mensaje al cliente: " + e.getMessage());
+            }
+            closeConnection();
+        }
+    }
+
+    /**
+     * Continúa un saludo TLS que esperaba a que el socket fuera escribible.
+     */
+    private void continueHandshake() throws IOException {
+        if (tls.advance() && tls.hasBufferedInput()) {
+            readTls();
+            return;
+        }
+        if (!tls.hasPendingOutput()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+        updateTlsInterest();
+    }
+
+    /**
+     * Indica si quedan bytes del buffer de salida (o ya cifrados) sin enviar.
+     */
+    private boolean hasUnsent() {
+        return outBuffer.hasRemaining() || (tls != null && tls.hasPendingOutput());
+    }
+
+    /**
+     * Llena el buffer de salida con las tramas pendientes.
+     * Una trama mayor que el buffer se copia por tramos en llenados sucesivos.
+     * @return Verdadero si hay bytes que enviar.
+     */
+    private boolean fillOutBuffer() {
+        outBuffer.clear();
+        while (true) {
+            if (current == null) {
+                if (outBuffer.remaining() < FrameCodec.MAX_V2_HEADER_LENGTH) {
+                    break; // La cabecera siguiente se escribe entera en el próximo llenado
+                }
+                Frame next = writeQueue.poll();
+                if (next == null) {
+                    break;
+                }
+                int header = next.writeHeader(protocol, sequenced, deflateThreshold, headerBuffer, 0);
+                if (header < 0) {
+                    next.release(); // Los mensajes de más de 64 KB no llegan a los clientes LEGACY
+                    continue;
+                }
+                outBuffer.put(headerBuffer, 0, header);
+                current = next;
+                currentOffset = 0;
+                currentLength = next.bodyLength(protocol, deflateThreshold);
+                if (deflateThreshold > 0 && currentLength < next.length()) {
+                    server.getMetrics().frameCompressed(next.length() - currentLength);
+                }
+            }
+            int chunk = Math.min(outBuffer.remaining(), currentLength - currentOffset);
+            current.copyBody(protocol, deflateThreshold, currentOffset, outBuffer, outBuffer.position(), chunk);
+            outBuffer.position(outBuffer.position() + chunk);
+            currentOffset += chunk;
+            if (currentOffset < currentLength) {
+                break; // El buffer está lleno
+            }
+            current.release();
+            current = null;
+            server.getMetrics().messagesSent(1);
+        }
+        outBuffer.flip();
+        return outBuffer.hasRemaining();
+    }
+
+    /**
+     * Tarea de escritura programada desde otros hilos por enqueue.
+     */
+    private void runScheduledWrite() {
+        writeScheduled.set(false);
+        if (key.isValid()) {
+            onWritable();
+        }
+    }
+
+    /**
+     * Cierra el canal en el hilo del bucle: suelta la trama que se estaba copiando, con
+     * TLS envía el aviso de cierre (el canal aún está abierto) y después cierra el canal.
+     */
+    private void closeChannel() {
+        String address = remoteAddress();
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+        if (tls != null) {
+            tls.abort(); // Un saludo sin terminar cuenta como fallido
+            tls.closeOutbound();
+        }
+        try {
+            key.cancel();
+            channel.close();
+            ServerLog.info("Sesión cerrada para: " + address);
+        } catch (IOException e) {
+            ServerLog.error("Error al cerrar la conexión: " + e.getMessage());
+        }
+        server.getChatService().admission().release(inetAddress);
+    }
+
+    /**
+     * Encola una trama compartida para enviar al cliente.
+     * Puede llamarse desde cualquier hilo; la escritura la realiza el bucle de la conexión.
+     * La cola toma su propia referencia de la trama; el mensaje no se vuelve a codificar.
+     * Si la cola está llena se aplica la política de desbordamiento configurada.
+     */
+    @Override
+    public void enqueue(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        OutboundQueue.Offer result = writeQueue.offer(frame);
+        if (result == OutboundQueue.Offer.DISCONNECT) {
+            ServerLog.warn("Cliente lento desconectado: " + clientName);
+            // No se cierra aquí: quien encola puede ser un hilo de difusión al que espera
+            // quien publica con su cerrojo tomado, y la baja del cliente necesita ese cerrojo
+            writeQueue.close(); // Las tramas siguientes se descartan
+            eventLoop.executeLater(this::closeConnection);
+            return;
+        }
+        if (result == OutboundQueue.Offer.DROPPED) {
+            return;
+        }
+        if (writeScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(writeTask);
+        }
+    }
+
+    /**
+     * Indica si quedan tramas en la cola, una escritura programada o bytes en el buffer
+     * de salida esperando a que el socket vuelva a ser escribible.
+     */
+    @Override
+    public boolean hasPendingOutput() {
+        return writeScheduled.get() || writeBlocked || writeQueue.size() > 0;
+    }
+
+    /**
+     * Cierra el canal y elimina la conexión del servidor.
+     * El cierre del canal se hace en el hilo del bucle (en el acto si se llama desde él),
+     * que es el único que puede usar el buffer de salida y el motor TLS. La baja en el
+     * servidor es inmediata desde cualquier hilo: quien reanuda una sesión cuenta con que
+     * la conexión anterior ya no esté registrada al volver de aquí.
+     */
+    @Override
+    public void closeConnection() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        idleTimer.cancel();
+        writeQueue.close();
+        eventLoop.execute(this::closeChannel);
+        server.removeConnection(this);
+    }
+
+    /**
+     * Devuelve la cola de salida del cliente (profundidad y tramas descartadas).
+     */
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return writeQueue;
+    }
+
+    /**
+     * Devuelve la dirección remota del cliente o un texto vacío si ya no está disponible.
+     */
+    private String remoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Devuelve el nombre del cliente.
+     * @return Nombre del cliente.
+     */
+    @Override
+    public String getClientName() {
+        return clientName;
+    }
+
+    /**
+     * Devuelve el protocolo de tramas negociado en el saludo.
+     */
+    @Override
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Devuelve la partición del registro: la del bucle que atiende la conexión.
+     */
+    @Override
+    public int getShard() {
+        return eventLoop.getIndex();
+    }
+}
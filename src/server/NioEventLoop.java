@@ -0,0 +1,206 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bucle de eventos basado en Selector.
+ * Cada bucle atiende un subconjunto de conexiones en un único hilo, realizando
+ * lecturas y escrituras no bloqueantes. Las tareas de otros hilos (registro de
+ * conexiones nuevas, activar la escritura) se encolan y se ejecutan dentro del bucle.
+ */
+public class NioEventLoop implements Runnable {
+    private final NioServer server; // Servidor al que pertenece el bucle
+    private final int index; // Posición del bucle en el servidor: partición del registro de sus conexiones
+    private final Selector selector; // Selector que multiplexa las conexiones del bucle
+    private final Queue<Runnable> tasks; // Tareas pendientes enviadas desde otros hilos
+    private final AtomicBoolean wakeupPending; // Evita llamadas redundantes a selector.wakeup()
+    private volatile boolean running;
+    private volatile boolean terminated; // El hilo del bucle terminó: las tareas las ejecuta quien las encola
+    private Thread thread; // Hilo que ejecuta el bucle
+
+    /**
+     * Constructor de NioEventLoop.
+     * Abre el selector propio del bucle.
+     */
+    public NioEventLoop(NioServer server) throws IOException {
+        this(server, 0);
+    }
+
+    /**
+     * Constructor de NioEventLoop con su posición en el servidor.
+     */
+    public NioEventLoop(NioServer server, int index) throws IOException {
+        this.server = server;
+        this.index = index;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.wakeupPending = new AtomicBoolean(false);
+        this.running = true;
+    }
+
+    /**
+     * Arranca el hilo del bucle con el nombre indicado.
+     */
+    public void start(String name) {
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Registra un canal aceptado en este bucle.
+     * El registro se hace dentro del hilo del bucle para no competir con select().
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(channel, key, this, server);
+                key.attach(connection);
+            } catch (IOException | RuntimeException e) {
+                ServerLog.error("Error al registrar la conexión: " + e.getMessage(), e);
+                server.getChatService().admission().release(channel.socket().getInetAddress());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // El canal ya no es utilizable
+                }
+            }
+        });
+    }
+
+    /**
+     * Ejecuta una tarea en el hilo del bucle.
+     * Si se llama desde el propio bucle se ejecuta de inmediato.
+     */
+    public void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+        executeLater(task);
+    }
+
+    /**
+     * Encola una tarea para el hilo del bucle, también si se llama desde el propio bucle:
+     * se ejecuta después de lo que esté haciendo quien la encola.
+     * Si el bucle ya terminó, la tarea se ejecuta en el hilo de quien la encola.
+     */
+    public void executeLater(Runnable task) {
+        tasks.offer(task);
+        if (terminated) {
+            runTasks();
+            return;
+        }
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Devuelve la posición del bucle en el servidor.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Indica si el hilo actual es el hilo del bucle.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                wakeupPending.set(false);
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        connection.closeConnection();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                ServerLog.error("Error en el bucle de eventos: " + e.getMessage(), e);
+            }
+        }
+        runTasks(); // Cierres y registros encolados antes de detener el bucle
+        closeAll();
+        terminated = true;
+        runTasks(); // Las encoladas mientras se marcaba el final
+    }
+
+    /**
+     * Ejecuta las tareas encoladas desde otros hilos.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                ServerLog.error("Error al ejecutar tarea del bucle: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Cierra todas las conexiones del bucle y el selector.
+     */
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof NioConnection) {
+                    ((NioConnection) attachment).closeConnection();
+                }
+            }
+            selector.close();
+        } catch (ClosedSelectorException | IOException e) {
+            // El selector ya estaba cerrado
+        }
+    }
+
+    /**
+     * Detiene el bucle. Las conexiones se cierran desde el propio hilo del bucle.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Espera a que el hilo del bucle termine.
+     */
+    public void awaitTermination(long millis) throws InterruptedException {
+        if (thread != null) {
+            thread.join(millis);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package server;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servidor basado en java.nio que atiende a todos los clientes con un número
+ * reducido de hilos: uno o varios hilos aceptadores y un NioEventLoop por núcleo.
+ * Es una alternativa a Server (un hilo por cliente) que implementa la misma
+ * interfaz SocketProcess y el mismo protocolo de tramas writeUTF/readUTF.
+ */
+public class NioServer implements SocketProcess {
+    private ServerSocketChannel serverChannel; // Canal del servidor para aceptar conexiones
+    private NioEventLoop[] eventLoops; // Bucles de eventos que atienden a los clientes
+    private ScheduledExecutorService scheduler; // Servicio para ejecutar tareas periódicas
+    private ServerConfig config; // Parámetros de ajuste (límites de las colas de salida, etc.)
+    private FramePool framePool; // Tramas reutilizables para reenviar mensajes de chat sin asignar memoria
+    private RelayStats relayStats; // Mensajes reenviados y bytes asignados por mensaje
+    private ServerMetrics metrics; // Contadores y latencias que publica la consola de administración
+    private ChatService chatService; // Registro de clientes, lista de clientes y difusión de mensajes
+    private TlsContext tls; // Contexto TLS de las conexiones, null si se atiende en claro
+    private volatile boolean running;
+    private final List<ServerSocketChannel> extraChannels = new ArrayList<>(); // Canales de los aceptadores adicionales
+
+    /**
+     * Constructor de NioServer con un bucle de eventos por núcleo disponible.
+     */
+    public NioServer(ServerSocketChannel serverChannel) throws IOException {
+        this(serverChannel, Runtime.getRuntime().availableProcessors(), new ServerConfig());
+    }
+
+    /**
+     * Constructor de NioServer.
+     * Inicializa el canal del servidor, los bucles de eventos, el programador y los parámetros de ajuste.
+     */
+    public NioServer(ServerSocketChannel serverChannel, int loopCount, ServerConfig config) throws IOException {
+        this(serverChannel, loopCount, config, new ServerMetrics());
+    }
+
+    /**
+     * Constructor de NioServer que acumula sus métricas en el objeto indicado.
+     */
+    public NioServer(ServerSocketChannel serverChannel, int loopCount, ServerConfig config, ServerMetrics metrics)
+            throws IOException {
+        this(serverChannel, loopCount, config, metrics, null);
+    }
+
+    /**
+     * Constructor de NioServer que cifra las conexiones con el contexto TLS indicado (null para atender en claro).
+     */
+    public NioServer(ServerSocketChannel serverChannel, int loopCount, ServerConfig config, ServerMetrics metrics,
+                     TlsContext tls) throws IOException {
+        this.serverChannel = serverChannel;
+        this.tls = tls;
+        this.config = config;
+        this.framePool = config.newFramePool();
+        this.relayStats = new RelayStats(config.isMeasureAllocations());
+        this.metrics = metrics;
+        this.scheduler = Executors.newScheduledThreadPool(1);
+        this.chatService = new ChatService(scheduler, config, metrics);
+        this.eventLoops = new NioEventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new NioEventLoop(this, i);
+        }
+        this.running = true;
+    }
+
+    /**
+     * Arranca los bucles de eventos y acepta conexiones en el hilo actual.
+     * Con un solo aceptador cada conexión aceptada se asigna a un bucle siguiendo un
+     * reparto round-robin. Con varios (y SO_REUSEPORT disponible) cada aceptador tiene
+     * su propio canal en el mismo puerto y reparte sus conexiones entre sus bucles:
+     * el aceptador i usa los bucles i, i + aceptadores, i + 2 * aceptadores...
+     * Cada bucle es una partición del registro de clientes.
+     */
+    @Override
+    public boolean bind() {
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i].start("nio-loop-" + i);
+        }
+        List<ServerSocketChannel> channels = openAcceptors();
+        for (int i = 1; i < channels.size(); i++) {
+            ServerSocketChannel channel = channels.get(i);
+            int index = i;
+            Thread acceptor = new Thread(() -> acceptLoop(channel, index, channels.size()), "nio-acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        ServerLog.info("Esperando conexiones (NIO, " + eventLoops.length + " bucles"
+                + (channels.size() > 1 ? ", " + channels.size() + " aceptadores" : "") + ")...");
+        acceptLoop(serverChannel, 0, channels.size());
+        return true;
+    }
+
+    /**
+     * Abre los canales de los aceptadores adicionales en la dirección del principal.
+     * @return Los canales de todos los aceptadores, empezando por el principal.
+     */
+    private List<ServerSocketChannel> openAcceptors() {
+        List<ServerSocketChannel> channels = new ArrayList<>();
+        channels.add(serverChannel);
+        int count = Math.min(config.getAcceptors(), eventLoops.length);
+        if (count <= 1) {
+            return channels;
+        }
+        if (!serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            ServerLog.info("SO_REUSEPORT no disponible: un aceptador reparte las conexiones en round-robin");
+            return channels;
+        }
+        try {
+            for (int i = 1; i < count; i++) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                extraChannels.add(channel);
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                if (config.getReceiveBufferSize() > 0) {
+                    channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+                }
+                channel.bind(serverChannel.getLocalAddress());
+                channels.add(channel);
+            }
+        } catch (IOException e) {
+            // El canal principal se abrió sin SO_REUSEPORT o el puerto no lo admite
+            ServerLog.warn("No se pudieron abrir más aceptadores con SO_REUSEPORT: " + e.getMessage());
+            closeExtraChannels();
+            channels.subList(1, channels.size()).clear();
+        }
+        return channels;
+    }
+
+    /**
+     * Bucle de un aceptador: reparte sus conexiones en round-robin entre sus bucles.
+     */
+    private void acceptLoop(ServerSocketChannel channelToAccept, int index, int acceptorCount) {
+        int next = 0; // Conexiones aceptadas por este aceptador
+        int loops = Math.max(1, (eventLoops.length - index + acceptorCount - 1) / acceptorCount); // Bucles propios
+        while (running) {
+            try {
+                SocketChannel channel = channelToAccept.accept();
+                if (channel == null) {
+                    continue;
+                }
+                ServerLog.info("Conexión aceptada: " + channel.getRemoteAddress());
+                metrics.connectionAccepted();
+                AdmissionController.Decision decision =
+                        chatService.admission().admit(channel.socket().getInetAddress());
+                if (decision != AdmissionController.Decision.ADMITTED) {
+                    chatService.admission().reject(channel, decision); // Sin registrarlo en ningún bucle
+                    continue;
+                }
+                try {
+                    config.configure(channel); // Aplica TCP_NODELAY y el tamaño del buffer de envío
+                } catch (IOException e) {
+                    // Sin registrarlo en ningún bucle: se devuelve la plaza y se cierra
+                    ServerLog.error("Error al configurar la conexión: " + e.getMessage());
+                    chatService.admission().release(channel.socket().getInetAddress());
+                    channel.close();
+                    continue;
+                }
+                NioEventLoop loop = eventLoops[index + acceptorCount * next];
+                next = (next + 1) % loops;
+                loop.register(channel);
+            } catch (AsynchronousCloseException e) {
+                ServerLog.info("ServerSocketChannel cerrado.");
+                break;
+            } catch (IOException e) {
+                if (!running) {
+                    ServerLog.info("ServerSocketChannel cerrado.");
+                    break;
+                }
+                ServerLog.error("Error al aceptar una conexión: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public List<Object> listen() {
+        return List.of(); // Método no utilizado en esta implementación
+    }
+
+    @Override
+    public boolean response(List<Object> data) {
+        return false; // Método no utilizado en esta implementación
+    }
+
+    /**
+     * Cierra el servidor, los bucles de eventos y libera los recursos.
+     * Antes de detener los bucles espera a que se envíe lo que los clientes tenían
+     * encolado (como mucho shutdownDrainMillis); al detenerse cada bucle cierra sus conexiones.
+     * @return Verdadero si se cerró exitosamente.
+     */
+    @Override
+    public boolean close() {
+        running = false;
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                ServerLog.info("Cerrando ServerSocketChannel...");
+                serverChannel.close();
+            }
+            closeExtraChannels();
+            chatService.drain(config.getShutdownDrainMillis()); // Los bucles siguen enviando lo encolado
+            for (NioEventLoop loop : eventLoops) {
+                loop.shutdown();
+            }
+            for (NioEventLoop loop : eventLoops) {
+                loop.awaitTermination(5000);
+            }
+            if (config.isMeasureAllocations()) {
+                ServerLog.info(relayStats.summary(framePool));
+            }
+            scheduler.shutdown();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            chatService.close(); // Escribe a disco los mensajes pendientes del registro
+            if (tls != null) {
+                tls.close(); // Detiene el pool de saludos TLS
+            }
+            return true;
+        } catch (IOException | InterruptedException e) {
+            ServerLog.error("Error al cerrar el servidor: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Cierra los canales de los aceptadores adicionales.
+     */
+    private void closeExtraChannels() {
+        for (ServerSocketChannel channel : extraChannels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ya estaba cerrado
+            }
+        }
+        extraChannels.clear();
+    }
+
+    /**
+     * Elimina una conexión de la lista de conexiones activas.
+     */
+    void removeConnection(NioConnection connection) {
+        if (chatService.onDisconnect(connection)) {
+            ServerLog.info("Cliente removido: " + connection.getClientName());
+        }
+    }
+
+    /**
+     * Devuelve los parámetros de ajuste del servidor.
+     */
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Devuelve el contexto TLS de las conexiones, o null si el servidor atiende en claro.
+     */
+    TlsContext getTls() {
+        return tls;
+    }
+
+    /**
+     * Devuelve el pool de tramas con el que se reenvían los mensajes de chat.
+     */
+    FramePool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     * Devuelve el programador de tareas del servidor.
+     */
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Devuelve los contadores del reenvío de mensajes.
+     */
+    public RelayStats getRelayStats() {
+        return relayStats;
+    }
+
+    /**
+     * Devuelve las métricas del servidor.
+     */
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Devuelve el servicio de chat que procesa los mensajes de los clientes.
+     */
+    ChatService getChatService() {
+        return chatService;
+    }
+
+    /**
+     * Envia un mensaje a todos los clientes conectados.
+     * El mensaje se codifica una sola vez y la misma trama se encola en cada conexión.
+     */
+    public void broadcast(String message) {
+        chatService.broadcast(message);
+    }
+}
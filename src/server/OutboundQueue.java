@@ -0,0 +1,365 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de un cliente.
+ * Es un buffer circular con huecos preasignados (sin un nodo por mensaje) limitado
+ * por número de tramas y por bytes. Cuando se llena aplica una OverflowPolicy y
+ * contabiliza las tramas descartadas, tanto por cliente como en total.
+ * La cola posee una referencia de cada trama encolada: la suelta al descartarla, y
+ * quien extrae una trama (take, poll, drainTo) recibe esa referencia y debe soltarla
+ * con Frame.release() después de escribirla.
+ * Si se le asigna un histograma, anota el instante en que se encola cada trama y
+ * registra cuánto esperó al extraerla para escribirla.
+ * Usa ReentrantLock para no fijar hilos virtuales.
+ */
+public class OutboundQueue {
+    /**
+     * Resultado de encolar una trama.
+     */
+    public enum Offer {
+        ENQUEUED, // La trama se encoló (quizá descartando otras)
+        DROPPED, // La trama nueva se descartó
+        DISCONNECT // El cliente superó el periodo de gracia y debe desconectarse
+    }
+
+    // Contadores globales de todas las colas
+    private static final LongAdder TOTAL_DROPPED_FRAMES = new LongAdder();
+    private static final LongAdder TOTAL_DROPPED_BYTES = new LongAdder();
+    private static final LongAdder TOTAL_DISCONNECTED = new LongAdder();
+
+    private final Frame[] slots; // Huecos del buffer circular
+    private final long[] enqueuedAt; // Instante (nanoTime) en que se encoló cada trama
+    private final long maxBytes; // Límite de bytes pendientes
+    private final OverflowPolicy policy; // Política al llenarse
+    private final long graceNanos; // Periodo de gracia de la política DISCONNECT
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private int head; // Índice de la trama más antigua
+    private int count; // Número de tramas pendientes
+    private long bytes; // Bytes pendientes
+    private long overflowSince; // Instante (nanoTime) del primer desbordamiento sin recuperar, 0 si no hay
+    private boolean closed;
+    private long droppedFrames; // Tramas descartadas en esta cola
+    private long droppedBytes; // Bytes descartados en esta cola
+    private LatencyHistogram latency; // Espera de las tramas en la cola, null si no se mide
+
+    /**
+     * Constructor de OutboundQueue.
+     */
+    public OutboundQueue(int maxMessages, long maxBytes, OverflowPolicy policy, long graceMillis) {
+        this.slots = new Frame[Math.max(1, maxMessages)];
+        this.enqueuedAt = new long[slots.length];
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        this.graceNanos = TimeUnit.MILLISECONDS.toNanos(graceMillis);
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+    }
+
+    /**
+     * Activa la medida de la espera de las tramas en la cola.
+     */
+    public void setLatencyHistogram(LatencyHistogram latency) {
+        lock.lock();
+        try {
+            this.latency = latency;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encola una trama aplicando la política de desbordamiento si la cola está llena.
+     */
+    public Offer offer(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return Offer.DROPPED;
+            }
+            if (overflowSince != 0 && count <= slots.length / 2 && bytes <= maxBytes / 2) {
+                overflowSince = 0; // El cliente se recuperó: vació al menos la mitad de la cola
+            }
+            if (fits(frame)) {
+                push(frame);
+                return Offer.ENQUEUED;
+            }
+            switch (policy) {
+                case DROP_OLDEST:
+                    while (count > 0 && !fits(frame)) {
+                        discard(pop());
+                    }
+                    break;
+                case COALESCE_ROSTER:
+                    dropQueuedRoster();
+                    break;
+                case DISCONNECT:
+                    long now = System.nanoTime();
+                    if (overflowSince == 0) {
+                        overflowSince = now;
+                    } else if (now - overflowSince >= graceNanos) {
+                        drop(frame);
+                        TOTAL_DISCONNECTED.increment();
+                        return Offer.DISCONNECT;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (!fits(frame)) {
+                drop(frame);
+                return Offer.DROPPED;
+            }
+            push(frame);
+            return Offer.ENQUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Extrae la trama más antigua esperando a que haya una.
+     * @return La trama, o null si la cola se cerró.
+     */
+    public Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.await();
+            }
+            return count == 0 ? null : dequeue(now());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Extrae un lote de tramas para escribirlas juntas.
+     * Espera a que haya al menos una; después, si el lote no está completo, espera
+     * como mucho el presupuesto de latencia indicado a que lleguen más.
+     * @return Número de tramas copiadas en el lote, o 0 si la cola se cerró.
+     */
+    public int drainTo(Frame[] batch, long latencyBudgetNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.await();
+            }
+            if (latencyBudgetNanos > 0 && count < batch.length) {
+                long remaining = latencyBudgetNanos;
+                while (count < batch.length && !closed && remaining > 0) {
+                    remaining = notEmpty.awaitNanos(remaining);
+                }
+            }
+            return drain(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Extrae sin esperar tantas tramas como quepan en el lote.
+     * @return Número de tramas copiadas en el lote.
+     */
+    public int pollBatch(Frame[] batch) {
+        lock.lock();
+        try {
+            return drain(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Extrae la trama más antigua sin esperar.
+     * @return La trama, o null si la cola está vacía.
+     */
+    public Frame poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue(now());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cierra la cola, descarta lo pendiente y despierta a quien espera en take().
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (count > 0) {
+                pop().release();
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve el número de tramas pendientes.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve los bytes pendientes.
+     */
+    public long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve las tramas descartadas en esta cola.
+     */
+    public long getDroppedFrames() {
+        lock.lock();
+        try {
+            return droppedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve los bytes descartados en esta cola.
+     */
+    public long getDroppedBytes() {
+        lock.lock();
+        try {
+            return droppedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve las tramas descartadas en todas las colas.
+     */
+    public static long totalDroppedFrames() {
+        return TOTAL_DROPPED_FRAMES.sum();
+    }
+
+    /**
+     * Devuelve los bytes descartados en todas las colas.
+     */
+    public static long totalDroppedBytes() {
+        return TOTAL_DROPPED_BYTES.sum();
+    }
+
+    /**
+     * Devuelve los clientes desconectados por la política DISCONNECT.
+     */
+    public static long totalDisconnected() {
+        return TOTAL_DISCONNECTED.sum();
+    }
+
+    /**
+     * Indica si la trama cabe sin superar los límites.
+     * Una cola vacía acepta siempre una trama aunque supere el límite de bytes.
+     */
+    private boolean fits(Frame frame) {
+        return count < slots.length && (count == 0 || bytes + frame.length() <= maxBytes);
+    }
+
+    private int drain(Frame[] batch) {
+        int n = Math.min(count, batch.length);
+        long now = now();
+        for (int i = 0; i < n; i++) {
+            batch[i] = dequeue(now);
+        }
+        return n;
+    }
+
+    /**
+     * Extrae la trama más antigua para escribirla y registra cuánto esperó en la cola.
+     */
+    private Frame dequeue(long now) {
+        if (latency != null) {
+            latency.record(now - enqueuedAt[head]);
+        }
+        return pop();
+    }
+
+    private long now() {
+        return latency == null ? 0 : System.nanoTime();
+    }
+
+    private void push(Frame frame) {
+        int slot = (head + count) % slots.length;
+        if (latency != null) {
+            enqueuedAt[slot] = System.nanoTime();
+        }
+        slots[slot] = frame.retain();
+        count++;
+        bytes += frame.length();
+        notEmpty.signal();
+    }
+
+    private Frame pop() {
+        Frame frame = slots[head];
+        slots[head] = null;
+        head = (head + 1) % slots.length;
+        count--;
+        bytes -= frame.length();
+        return frame;
+    }
+
+    /**
+     * Elimina de la cola todas las actualizaciones de la lista de clientes pendientes;
+     * el resto de tramas conserva su orden. El cliente verá un salto de versión y
+     * pedirá una instantánea nueva.
+     */
+    private void dropQueuedRoster() {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % slots.length;
+            Frame queued = slots[index];
+            slots[index] = null;
+            if (queued.type() == FrameType.ROSTER) {
+                bytes -= queued.length();
+                discard(queued);
+            } else {
+                int target = (head + kept) % slots.length;
+                slots[target] = queued;
+                enqueuedAt[target] = enqueuedAt[index];
+                kept++;
+            }
+        }
+        count = kept;
+    }
+
+    /**
+     * Descarta una trama que estaba encolada y suelta la referencia de la cola.
+     */
+    private void discard(Frame frame) {
+        drop(frame);
+        frame.release();
+    }
+
+    private void drop(Frame frame) {
+        droppedFrames++;
+        droppedBytes += frame.length();
+        TOTAL_DROPPED_FRAMES.increment();
+        TOTAL_DROPPED_BYTES.add(frame.length());
+    }
+}
@@ -0,0 +1,16 @@
+package server;
+
+/**
+ * Política que aplica una cola de salida cuando se alcanza su límite de mensajes o bytes.
+ */
+public enum OverflowPolicy {
+    // Descarta las tramas más antiguas hasta que quepa la nueva
+    DROP_OLDEST,
+    // Descarta la trama nueva y conserva las que ya estaban en la cola
+    DROP_NEW,
+    // Descarta las actualizaciones de la lista de clientes encoladas; si no hay, descarta la nueva.
+    // El cliente detecta el salto de versión y pide una instantánea con /roster
+    COALESCE_ROSTER,
+    // Descarta la trama nueva y desconecta al cliente si sigue lleno tras el periodo de gracia
+    DISCONNECT
+}
@@ -0,0 +1,51 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Lista de apariciones de un término: secuencias de mensaje crecientes y, en paralelo,
+ * el identificador de la sala de cada una (índice en la tabla de salas de su segmento).
+ * Se guarda en dos arrays primitivos que crecen al añadir, sin un objeto por aparición.
+ */
+public final class PostingList {
+    private long[] sequences; // Secuencias de los mensajes, en orden creciente
+    private int[] rooms; // Sala de cada mensaje
+    private int size;
+
+    public PostingList(int capacity) {
+        this.sequences = new long[Math.max(1, capacity)];
+        this.rooms = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Añade una aparición. La secuencia debe ser mayor que la última añadida.
+     */
+    public void add(long sequence, int room) {
+        if (size == sequences.length) {
+            sequences = Arrays.copyOf(sequences, size * 2);
+            rooms = Arrays.copyOf(rooms, size * 2);
+        }
+        sequences[size] = sequence;
+        rooms[size] = room;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long sequence(int index) {
+        return sequences[index];
+    }
+
+    public int room(int index) {
+        return rooms[index];
+    }
+
+    /**
+     * Indica si la lista contiene la secuencia indicada (búsqueda binaria).
+     */
+    public boolean contains(long sequence) {
+        return Arrays.binarySearch(sequences, 0, size, sequence) >= 0;
+    }
+}
@@ -0,0 +1,13 @@
+package server;
+
+/**
+ * Acción que se aplica a un cliente que supera sus límites de envío.
+ */
+public enum RateLimitPolicy {
+    // Deja de leer del socket hasta que haya fichas: el cliente se frena por el control de flujo de TCP
+    THROTTLE,
+    // Descarta el mensaje y avisa al cliente con una trama de error (una vez por ráfaga)
+    DROP,
+    // Desconecta al cliente
+    DISCONNECT
+}
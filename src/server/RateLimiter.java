@@ -0,0 +1,73 @@
+package server;
+
+/**
+ * Límites de envío de un cliente, que se comprueban al leer cada trama y antes de
+ * difundirla, para que un cliente en un bucle no multiplique su tráfico por el número
+ * de destinatarios. Combina cubos de fichas propios (mensajes y bytes por segundo)
+ * con el cubo global del servidor; cualquiera de ellos puede no existir.
+ * Lo usa solo el hilo que lee de la conexión; los cubos no tienen cerrojos.
+ */
+public class RateLimiter {
+    private final TokenBucket messages; // Mensajes por segundo del cliente, null si no hay límite
+    private final TokenBucket bytes; // Bytes por segundo del cliente, null si no hay límite
+    private final TokenBucket global; // Mensajes por segundo de todo el servidor, null si no hay límite
+    private final RateLimitPolicy policy; // Acción al superar los límites
+    private boolean warned; // Ya se avisó al cliente en la ráfaga actual de tramas descartadas
+
+    /**
+     * Constructor de RateLimiter.
+     */
+    public RateLimiter(TokenBucket messages, TokenBucket bytes, TokenBucket global, RateLimitPolicy policy) {
+        this.messages = messages;
+        this.bytes = bytes;
+        this.global = global;
+        this.policy = policy;
+    }
+
+    /**
+     * Intenta tomar las fichas de una trama de todos los cubos. Si algún cubo no tiene
+     * suficientes se devuelven las tomadas de los anteriores, para no cobrarlas dos
+     * veces cuando la trama se reintente.
+     * @return 0 si la trama se puede difundir; si no, los nanosegundos que faltan.
+     */
+    public long tryAcquire(int frameBytes) {
+        long wait = 0;
+        if (bytes != null && (wait = bytes.tryAcquire(frameBytes)) > 0) {
+            return wait;
+        }
+        if (messages != null && (wait = messages.tryAcquire(1)) > 0) {
+            if (bytes != null) {
+                bytes.refund(frameBytes);
+            }
+            return wait;
+        }
+        if (global != null && (wait = global.tryAcquire(1)) > 0) {
+            if (bytes != null) {
+                bytes.refund(frameBytes);
+            }
+            if (messages != null) {
+                messages.refund(1);
+            }
+            return wait;
+        }
+        warned = false;
+        return 0;
+    }
+
+    /**
+     * Indica si hay que avisar al cliente de que se descartó su mensaje: solo con la
+     * primera trama descartada de cada ráfaga.
+     */
+    public boolean firstInBurst() {
+        boolean first = !warned;
+        warned = true;
+        return first;
+    }
+
+    /**
+     * Devuelve la acción que se aplica al superar los límites.
+     */
+    public RateLimitPolicy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores del camino de reenvío de mensajes de chat.
+ * Cuenta los mensajes reenviados desde una trama reutilizable y, si se activa
+ * ServerConfig.setMeasureAllocations, los bytes que asigna el hilo lector mientras
+ * recibe y difunde cada mensaje (ThreadMXBean.getCurrentThreadAllocatedBytes).
+ * En régimen estable el resultado esperado es 0 bytes por mensaje.
+ */
+public class RelayStats {
+    private final com.sun.management.ThreadMXBean threads; // null si la JVM no permite medir asignaciones
+    private final LongAdder relayed; // Mensajes reenviados desde el pool
+    private final LongAdder measured; // Mensajes reenviados cuya asignación se midió
+    private final LongAdder allocatedBytes; // Bytes asignados durante los mensajes medidos
+
+    /**
+     * Constructor de RelayStats.
+     * @param measureAllocations Si es verdadero, mide los bytes asignados por mensaje.
+     */
+    public RelayStats(boolean measureAllocations) {
+        this.threads = measureAllocations ? allocationBean() : null;
+        this.relayed = new LongAdder();
+        this.measured = new LongAdder();
+        this.allocatedBytes = new LongAdder();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        ServerLog.warn("La JVM no permite medir la memoria asignada por hilo.");
+        return null;
+    }
+
+    /**
+     * Marca el inicio del procesamiento de una trama recibida.
+     * @return Bytes asignados hasta ahora por el hilo actual, o -1 si no se mide.
+     */
+    public long begin() {
+        return threads == null ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Marca el final del procesamiento de una trama recibida.
+     * Solo se contabilizan los mensajes que se reenviaron desde el pool.
+     */
+    public void end(long start, boolean relay) {
+        if (!relay) {
+            return;
+        }
+        relayed.increment();
+        if (start >= 0) {
+            allocatedBytes.add(threads.getCurrentThreadAllocatedBytes() - start);
+            measured.increment();
+        }
+    }
+
+    /**
+     * Devuelve los mensajes reenviados desde el pool.
+     */
+    public long getRelayed() {
+        return relayed.sum();
+    }
+
+    /**
+     * Devuelve la media de bytes asignados por mensaje reenviado, o -1 si no se mide.
+     */
+    public double getAllocatedBytesPerRelay() {
+        long count = measured.sum();
+        return count == 0 ? -1 : (double) allocatedBytes.sum() / count;
+    }
+
+    /**
+     * Pone a cero los contadores, por ejemplo al terminar el calentamiento de la JVM.
+     */
+    public void reset() {
+        relayed.reset();
+        measured.reset();
+        allocatedBytes.reset();
+    }
+
+    /**
+     * Devuelve un resumen legible de los contadores.
+     */
+    public String summary(FramePool pool) {
+        return "Mensajes reenviados: " + getRelayed()
+                + ", bytes asignados por mensaje: " + getAllocatedBytesPerRelay()
+                + ", tramas libres: " + pool.available()
+                + ", peticiones sin trama libre: " + pool.getMisses();
+    }
+}
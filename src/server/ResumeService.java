@@ -0,0 +1,220 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sesiones reanudables.
+ * Un cliente V2 que pide "resume" en el saludo recibe un token. Si se reconecta
+ * presentando el token y la última secuencia que recibió, el servidor recupera su
+ * nombre y sus salas y le reenvía solo los mensajes que se perdió: desde el buffer
+ * de retención en memoria o, si ya no están ahí, desde el registro en disco. Si el
+ * hueco es demasiado grande le indica que haga una resincronización completa.
+ * Si la conexión anterior aún no se había detectado como cerrada, la nueva la sustituye.
+ *
+ * Tramas de control:
+ *   "Sesion:<token>"            Token para la próxima reconexión (cambia en cada saludo).
+ *   "Reanudada:<desde>-<hasta>" Se reenvían los mensajes perdidos entre esas secuencias.
+ *   "Resync:<secuencia>"        El hueco no se puede cubrir: descartar el estado local.
+ */
+public class ResumeService {
+    public static final String SESSION_PREFIX = "Sesion:";
+    public static final String RESUMED_PREFIX = "Reanudada:";
+    public static final String RESYNC_PREFIX = "Resync:";
+
+    private final MessagePublisher publisher; // Publicador, con el buffer de retención y el registro
+    private final Map<String, ResumableSession> sessions; // Índice token -> sesión (conectada o no)
+    private final Map<ClientConnection, ResumableSession> active; // Índice conexión -> sesión conectada
+    private final long ttlMillis; // Tiempo que se conserva una sesión desconectada
+    private final int maxSessions; // Máximo de sesiones conservadas
+    private final int maxGap; // Máximo de mensajes perdidos que se reenvían desde el disco
+
+    /**
+     * Sesión reanudable: nombre del cliente, conexión actual y salas al desconectarse.
+     */
+    static final class ResumableSession {
+        private final String token;
+        private final String clientName;
+        private volatile ClientConnection connection; // Conexión actual, null si está desconectada
+        private volatile Set<String> rooms = Set.of(); // Salas del cliente al desconectarse
+        private volatile long detachedAt; // Instante de la desconexión (milisegundos)
+
+        private ResumableSession(String token, String clientName, ClientConnection connection) {
+            this.token = token;
+            this.clientName = clientName;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Generador de tokens. Se crea con el primer cliente y no al arrancar: iniciar los
+     * proveedores de seguridad supone buena parte del tiempo de arranque del servidor.
+     */
+    private static final class Tokens {
+        private static final SecureRandom RANDOM = new SecureRandom();
+    }
+
+    /**
+     * Constructor de ResumeService.
+     */
+    public ResumeService(MessagePublisher publisher, ServerConfig config) {
+        this.publisher = publisher;
+        this.sessions = new ConcurrentHashMap<>();
+        this.active = new ConcurrentHashMap<>();
+        this.ttlMillis = config.getResumeTtlMillis();
+        this.maxSessions = config.getResumeMaxSessions();
+        this.maxGap = config.getResumeMaxGap();
+    }
+
+    /**
+     * Reclama la sesión de un token para el cliente que se reconecta.
+     * Si la conexión anterior sigue registrada se cierra, y sus salas quedan en la sesión.
+     * @return La sesión, o null si el token no existe, caducó o es de otro nombre.
+     */
+    ResumableSession claim(String token, String clientName) {
+        if (token == null) {
+            return null;
+        }
+        ResumableSession session = sessions.get(token);
+        if (session == null || !session.clientName.equals(clientName) || !sessions.remove(token, session)) {
+            return null;
+        }
+        ClientConnection stale = session.connection;
+        if (stale != null) {
+            ServerLog.info("Sesión reanudada desde otra conexión, se cierra la anterior: " + clientName);
+            stale.closeConnection(); // Llama a detach y guarda sus salas en la sesión
+        }
+        return session;
+    }
+
+    /**
+     * Devuelve a la lista una sesión reclamada que al final no se usó (el registro falló).
+     */
+    void restore(ResumableSession session) {
+        sessions.put(session.token, session);
+    }
+
+    /**
+     * Crea una sesión nueva para el cliente y le envía su token.
+     */
+    public void attach(ClientConnection client) {
+        byte[] bytes = new byte[16];
+        Tokens.RANDOM.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        ResumableSession session = new ResumableSession(token, client.getClientName(), client);
+        sessions.put(token, session);
+        active.put(client, session);
+        client.enqueue(Frame.of(FrameType.CONTROL, SESSION_PREFIX + token));
+    }
+
+    /**
+     * Marca como desconectada la sesión del cliente, conservando sus salas.
+     */
+    public void detach(ClientConnection client, Set<String> rooms) {
+        ResumableSession session = active.remove(client);
+        if (session == null) {
+            return;
+        }
+        session.rooms = rooms;
+        session.detachedAt = System.currentTimeMillis();
+        session.connection = null;
+        if (sessions.size() > maxSessions) {
+            sessions.remove(session.token, session); // Demasiadas sesiones: esta no se podrá reanudar
+        }
+    }
+
+    /**
+     * Devuelve las salas a las que pertenecía el cliente de la sesión.
+     */
+    Set<String> rooms(ResumableSession session) {
+        return session.rooms;
+    }
+
+    /**
+     * Reenvía al cliente los mensajes posteriores a la secuencia indicada, globales o de
+     * sus salas. Se llama con el cerrojo del publicador tomado, para que ningún mensaje
+     * en directo se adelante a los reenviados.
+     * @return Falso si el hueco no se puede cubrir y el cliente debe resincronizar.
+     */
+    boolean catchUp(ClientConnection client, long lastSequence, Set<String> rooms) {
+        MessageLog log = publisher.log();
+        long newest = log.getLastSequence();
+        if (lastSequence < 0 || lastSequence > newest) {
+            return false; // Secuencia desconocida (otro servidor o registro borrado)
+        }
+        if (lastSequence == newest) {
+            return true; // No se perdió nada
+        }
+        RetentionBuffer retention = publisher.retention();
+        long oldest = retention.oldestSequence();
+        long memoryFrom = oldest < 0 ? newest + 1 : oldest;
+        if (lastSequence + 1 < memoryFrom) {
+            // La parte más antigua del hueco ya no está en memoria: leerla del disco si es pequeña
+            long missing = memoryFrom - lastSequence - 1;
+            if (!log.isPersistent() || missing > maxGap) {
+                return false;
+            }
+            List<LogRecord> records = log.read(lastSequence + 1, (int) missing);
+            if (!isContiguous(records, lastSequence + 1, memoryFrom)) {
+                return false; // Al disco le falta parte del hueco
+            }
+            client.enqueue(Frame.of(FrameType.CONTROL, RESUMED_PREFIX + (lastSequence + 1) + "-" + newest));
+            for (LogRecord record : records) {
+                if (MessageLog.LOBBY.equals(record.getRoom()) || rooms.contains(record.getRoom())) {
+                    Frame frame = Frame.of(record.getText());
+                    frame.setSequence(record.getSequence());
+                    client.enqueue(frame);
+                }
+            }
+        } else {
+            client.enqueue(Frame.of(FrameType.CONTROL, RESUMED_PREFIX + (lastSequence + 1) + "-" + newest));
+        }
+        retention.replay(client, lastSequence, rooms);
+        return true;
+    }
+
+    /**
+     * Comprueba que los mensajes leídos del disco son exactamente los de las secuencias
+     * [from, to), sin huecos. El registro puede saltarse secuencias: las que descarta
+     * con el buffer de escritura lleno, o las que aún no ha copiado a los segmentos.
+     */
+    private static boolean isContiguous(List<LogRecord> records, long from, long to) {
+        if (records.size() != to - from) {
+            return false;
+        }
+        long expected = from;
+        for (LogRecord record : records) {
+            if (record.getSequence() != expected++) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Elimina las sesiones desconectadas que superaron su tiempo de vida.
+     * Se ejecuta periódicamente en el programador del servidor.
+     */
+    public void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<ResumableSession> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            ResumableSession session = iterator.next();
+            if (session.connection == null && now - session.detachedAt >= ttlMillis) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Devuelve el número de sesiones conservadas (conectadas o no).
+     */
+    public int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,87 @@
+package server;
+
+import java.util.Set;
+
+/**
+ * Últimos mensajes publicados (globales y de salas) con su número de secuencia,
+ * para reenviar a un cliente que se reconecta solo lo que se perdió.
+ * Es un buffer circular acotado; al llenarse se descarta el mensaje más antiguo.
+ * No tiene cerrojo propio: solo se usa con el cerrojo de MessagePublisher tomado,
+ * el mismo que ordena la publicación.
+ */
+public class RetentionBuffer {
+    private final long[] sequences; // Secuencia de cada mensaje...
+    private final String[] rooms; // ... su sala (MessageLog.LOBBY para los globales)...
+    private final Frame[] frames; // ... y la trama compartida, con una referencia propia
+    private int head; // Mensaje más antiguo
+    private int count; // Mensajes guardados
+
+    /**
+     * Constructor de RetentionBuffer.
+     * @param capacity Número de mensajes que se conservan; 0 desactiva la retención.
+     */
+    public RetentionBuffer(int capacity) {
+        this.sequences = new long[Math.max(0, capacity)];
+        this.rooms = new String[sequences.length];
+        this.frames = new Frame[sequences.length];
+    }
+
+    /**
+     * Guarda un mensaje publicado, descartando el más antiguo si el buffer está lleno.
+     */
+    public void add(long sequence, String room, Frame frame) {
+        if (frames.length == 0) {
+            return;
+        }
+        int slot;
+        if (count == frames.length) {
+            slot = head;
+            frames[slot].release();
+            head = (head + 1) % frames.length;
+        } else {
+            slot = (head + count) % frames.length;
+            count++;
+        }
+        sequences[slot] = sequence;
+        rooms[slot] = room;
+        frames[slot] = frame.retain();
+    }
+
+    /**
+     * Devuelve la secuencia del mensaje más antiguo guardado, o -1 si está vacío.
+     */
+    public long oldestSequence() {
+        return count == 0 ? -1 : sequences[head];
+    }
+
+    /**
+     * Encola en el cliente los mensajes posteriores a la secuencia indicada que sean
+     * globales o de una de sus salas, en orden de secuencia.
+     * @return Número de mensajes encolados.
+     */
+    public int replay(ClientConnection client, long afterSequence, Set<String> clientRooms) {
+        int replayed = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % frames.length;
+            if (sequences[slot] > afterSequence
+                    && (MessageLog.LOBBY.equals(rooms[slot]) || clientRooms.contains(rooms[slot]))) {
+                client.enqueue(frames[slot]);
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Suelta todas las tramas guardadas.
+     */
+    public void clear() {
+        while (count > 0) {
+            frames[head].release();
+            frames[head] = null;
+            rooms[head] = null;
+            head = (head + 1) % frames.length;
+            count--;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package server;
+
+/**
+ * Sala de chat: un nombre, sus miembros y sus últimos mensajes.
+ * Los miembros se guardan en un ClientRegistry propio, de modo que un mensaje
+ * enviado a la sala solo recorre a sus miembros y no a todo el servidor.
+ */
+public class Room {
+    private final String name; // Nombre de la sala
+    private final ClientRegistry members; // Clientes suscritos a la sala
+    private final HistoryRing history; // Últimos mensajes, para reenviarlos a quien se une
+    private final TokenBucket rate; // Mensajes por segundo de la sala, null si no hay límite
+
+    /**
+     * Constructor de Room sin límite de mensajes.
+     */
+    public Room(String name, int historySize) {
+        this(name, historySize, 0);
+    }
+
+    /**
+     * Constructor de Room.
+     * @param messagesPerSecond Mensajes por segundo que admite la sala (0 = sin límite).
+     */
+    public Room(String name, int historySize, int messagesPerSecond) {
+        this.name = name;
+        this.members = new ClientRegistry();
+        this.history = new HistoryRing(historySize);
+        this.rate = messagesPerSecond > 0 ? new TokenBucket(messagesPerSecond, messagesPerSecond) : null;
+    }
+
+    /**
+     * Toma una ficha del límite de mensajes de la sala.
+     * @return Falso si la sala superó su límite y el mensaje debe descartarse.
+     */
+    public boolean tryAcquire() {
+        return rate == null || rate.tryAcquire(1) == 0;
+    }
+
+    /**
+     * Devuelve el nombre de la sala.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Devuelve los miembros de la sala.
+     */
+    public ClientRegistry members() {
+        return members;
+    }
+
+    /**
+     * Devuelve el historial de la sala.
+     */
+    public HistoryRing history() {
+        return history;
+    }
+}
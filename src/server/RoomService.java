@@ -0,0 +1,254 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Salas de chat del servidor.
+ * Mantiene dos índices: sala -> miembros (para que un mensaje a una sala solo
+ * toque a sus miembros) y cliente -> salas (para que la baja de un cliente solo
+ * recorra sus propias salas). Las altas y bajas se serializan con un cerrojo;
+ * el envío de mensajes solo consulta los índices y no se bloquea.
+ * Las salas se crean al entrar el primer miembro y se eliminan al salir el último.
+ * Los mensajes de una sala se publican con MessagePublisher (secuencia, historial
+ * en memoria y registro de mensajes); quien se une recibe el historial de la sala
+ * sin consultar el disco.
+ *
+ * Respuestas (tramas de control):
+ *   "Sala_unido:<sala>", "Sala_salido:<sala>"
+ *   "Lista_salas:\n<sala>\t<miembros>\n..."
+ * Los mensajes de una sala llegan como tramas de chat "[<sala>] <nombre>: <mensaje>".
+ */
+public class RoomService {
+    public static final String JOINED_PREFIX = "Sala_unido:";
+    public static final String LEFT_PREFIX = "Sala_salido:";
+    public static final String LIST_PREFIX = "Lista_salas:";
+    // Longitud máxima del nombre de una sala
+    public static final int MAX_NAME_LENGTH = 32;
+    // Máximo de salas a las que puede pertenecer un cliente
+    public static final int MAX_ROOMS_PER_CLIENT = 64;
+
+    private final ClientRegistry registry; // Registro de clientes del servidor
+    private final MessagePublisher publisher; // Publica los mensajes con secuencia, historial y registro
+    private final int historySize; // Mensajes que guarda el historial de cada sala
+    private final int messagesPerSecond; // Mensajes por segundo de cada sala (0 = sin límite)
+    private final Map<String, Room> rooms; // Índice sala -> miembros
+    private final Map<ClientConnection, Set<Room>> memberships; // Índice cliente -> salas
+    private final ReentrantLock lock; // Serializa las altas y bajas en las salas
+
+    /**
+     * Constructor de RoomService sin límite de mensajes por sala.
+     */
+    public RoomService(ClientRegistry registry, MessagePublisher publisher, int historySize) {
+        this(registry, publisher, historySize, 0);
+    }
+
+    /**
+     * Constructor de RoomService.
+     * @param messagesPerSecond Mensajes por segundo que admite cada sala (0 = sin límite).
+     */
+    public RoomService(ClientRegistry registry, MessagePublisher publisher, int historySize, int messagesPerSecond) {
+        this.registry = registry;
+        this.publisher = publisher;
+        this.historySize = historySize;
+        this.messagesPerSecond = messagesPerSecond;
+        this.rooms = new ConcurrentHashMap<>();
+        this.memberships = new ConcurrentHashMap<>();
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Añade el cliente a la sala, creándola si no existe, y le reenvía su historial.
+     */
+    public void join(ClientConnection client, String roomName) {
+        join(client, roomName, true);
+    }
+
+    /**
+     * Añade el cliente a la sala, creándola si no existe.
+     * Se hace con el cerrojo del publicador tomado: el historial reenviado y los
+     * mensajes en directo de la sala llegan en orden y sin huecos.
+     * @param replayHistory Falso al reanudar una sesión, que ya recibe los mensajes perdidos.
+     */
+    public void join(ClientConnection client, String roomName, boolean replayHistory) {
+        if (!isValidName(roomName)) {
+            ChatService.sendError(client, "Nombre de sala no válido: " + roomName);
+            return;
+        }
+        publisher.lock();
+        try {
+            Room room = addMember(client, roomName);
+            if (room != null) {
+                client.enqueue(Frame.of(FrameType.CONTROL, JOINED_PREFIX + roomName));
+                if (replayHistory) {
+                    room.history().replay(client);
+                }
+            }
+        } finally {
+            publisher.unlock();
+        }
+    }
+
+    /**
+     * Registra al cliente como miembro de la sala.
+     * @return La sala, o null si el cliente no pudo unirse.
+     */
+    private Room addMember(ClientConnection client, String roomName) {
+        Room room;
+        lock.lock();
+        try {
+            if (!registry.contains(client)) {
+                return null; // El cliente se desconectó mientras se procesaba el comando
+            }
+            Set<Room> joined = memberships.computeIfAbsent(client, c -> ConcurrentHashMap.newKeySet());
+            room = rooms.get(roomName);
+            if (room != null && joined.contains(room)) {
+                ChatService.sendError(client, "Ya perteneces a la sala " + roomName);
+                return null;
+            }
+            if (joined.size() >= MAX_ROOMS_PER_CLIENT) {
+                ChatService.sendError(client, "Demasiadas salas (máximo " + MAX_ROOMS_PER_CLIENT + ")");
+                return null;
+            }
+            if (room == null) {
+                room = new Room(roomName, historySize, messagesPerSecond);
+                rooms.put(roomName, room);
+            }
+            room.members().add(client);
+            joined.add(room);
+            return room;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saca al cliente de la sala y la elimina si se queda vacía.
+     */
+    public void leave(ClientConnection client, String roomName) {
+        lock.lock();
+        try {
+            Room room = rooms.get(roomName);
+            Set<Room> joined = memberships.get(client);
+            if (room == null || joined == null || !joined.remove(room)) {
+                ChatService.sendError(client, "No perteneces a la sala " + roomName);
+                return;
+            }
+            removeMember(room, client);
+        } finally {
+            lock.unlock();
+        }
+        client.enqueue(Frame.of(FrameType.CONTROL, LEFT_PREFIX + roomName));
+    }
+
+    /**
+     * Saca al cliente de todas sus salas al desconectarse.
+     * Solo recorre las salas del cliente, no todas las del servidor.
+     * @return Nombres de las salas de las que salió (para reanudar su sesión).
+     */
+    public Set<String> leaveAll(ClientConnection client) {
+        lock.lock();
+        try {
+            Set<Room> joined = memberships.remove(client);
+            if (joined == null) {
+                return Set.of();
+            }
+            Set<String> names = new HashSet<>();
+            for (Room room : joined) {
+                names.add(room.getName());
+                removeMember(room, client);
+            }
+            return names;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Envía un mensaje a los miembros de una sala. El remitente debe pertenecer a ella.
+     */
+    public void send(ClientConnection client, String roomName, String message) {
+        Room room = rooms.get(roomName);
+        Set<Room> joined = memberships.get(client);
+        if (room == null || joined == null || !joined.contains(room)) {
+            ChatService.sendError(client, "No perteneces a la sala " + roomName);
+            return;
+        }
+        if (!room.tryAcquire()) {
+            // Una sala saturada no frena a sus miembros: el mensaje se descarta con un aviso
+            ChatService.sendError(client, "Sala saturada, mensaje descartado: " + roomName);
+            return;
+        }
+        Frame frame = Frame.of("[" + roomName + "] " + client.getClientName() + ": " + message);
+        publisher.publish(roomName, frame, room.members(), room.history());
+    }
+
+    /**
+     * Devuelve los nombres de las salas a las que pertenece el cliente.
+     */
+    public Set<String> roomsOf(ClientConnection client) {
+        Set<Room> joined = memberships.get(client);
+        Set<String> names = new HashSet<>();
+        if (joined != null) {
+            for (Room room : joined) {
+                names.add(room.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Envía al cliente la lista de salas con su número de miembros.
+     */
+    public void sendList(ClientConnection client) {
+        List<String> names = new ArrayList<>(rooms.keySet());
+        Collections.sort(names);
+        StringBuilder list = new StringBuilder(LIST_PREFIX).append('\n');
+        for (String name : names) {
+            Room room = rooms.get(name);
+            if (room != null) {
+                list.append(name).append('\t').append(room.members().size()).append('\n');
+            }
+        }
+        client.enqueue(Frame.of(FrameType.CONTROL, list.toString()));
+    }
+
+    /**
+     * Devuelve el número de salas activas.
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * Elimina un miembro de la sala y la sala si se queda vacía. Se llama con el cerrojo tomado.
+     */
+    private void removeMember(Room room, ClientConnection client) {
+        room.members().remove(client);
+        if (room.members().size() == 0) {
+            rooms.remove(room.getName(), room);
+            room.history().clear();
+        }
+    }
+
+    /**
+     * Indica si el nombre de sala es válido: no vacío, sin espacios y de longitud acotada.
+     */
+    private static boolean isValidName(String name) {
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i)) || Character.isISOControl(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,269 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Servicio único que publica la lista de clientes conectados.
+ * En lugar de difundir la lista completa periódicamente, envía una instantánea
+ * solo al cliente que se une (o que la pide con /roster) y difunde deltas
+ * versionados con las altas y bajas. Los cambios que ocurren dentro de la misma
+ * ventana de agrupación se publican en un único delta. El servidor no permite cambiar
+ * de nombre: un cliente que vuelve a conectarse con otro aparece como una baja y un alta.
+ *
+ * Formato de las tramas:
+ *   Instantánea: "Lista_clientes:#<versión>\n<nombre>\n<nombre>\n..."
+ *   Delta:       "Lista_delta:#<versión>\n+<alta>\n-<baja>\n..."
+ * Cada delta incrementa la versión en uno; si un cliente detecta un salto debe
+ * pedir una instantánea nueva con /roster. Los deltas que lleguen antes de la
+ * primera instantánea, o con una versión no posterior a la suya, se ignoran.
+ * Las tramas versionadas solo se envían a los clientes V2. Los clientes LEGACY
+ * reciben la lista completa en el formato original, sin versión:
+ *   "Lista_clientes:<nombre>\nLista_clientes:<nombre>\n..."
+ * con /roster y cada vez que se publica un delta (también el de su propia alta).
+ * En un clúster la lista incluye también a los clientes de los demás nodos.
+ */
+public class RosterService {
+    public static final String SNAPSHOT_PREFIX = "Lista_clientes:";
+    public static final String DELTA_PREFIX = "Lista_delta:";
+    // Ventana de agrupación por defecto para los cambios en la lista
+    public static final long DEFAULT_COALESCE_MILLIS = 200;
+
+    private final ClientRegistry registry; // Registro de clientes del servidor
+    private final ScheduledExecutorService scheduler; // Programador donde se publican los deltas
+    private final long coalesceMillis; // Ventana de agrupación de cambios
+    private final ReentrantLock lock; // Ordena instantáneas y deltas (sin fijar hilos virtuales)
+    private final Map<String, Integer> published; // Nombres (con multiplicidad) de la última versión publicada
+    private long version; // Versión de la última lista publicada
+    private boolean flushScheduled; // Indica si ya hay una publicación programada
+    private Frame snapshotCache; // Instantánea codificada de la versión actual
+    private Frame legacyCache; // Lista completa sin versión de la versión actual (clientes LEGACY)
+    private volatile Supplier<List<String>> remoteNames; // Clientes de otros nodos del clúster, null sin clúster
+
+    /**
+     * Constructor de RosterService.
+     */
+    public RosterService(ClientRegistry registry, ScheduledExecutorService scheduler, long coalesceMillis) {
+        this.registry = registry;
+        this.scheduler = scheduler;
+        this.coalesceMillis = coalesceMillis;
+        this.lock = new ReentrantLock();
+        this.published = new HashMap<>();
+    }
+
+    /**
+     * Indica de dónde se obtienen los clientes conectados a otros nodos del clúster.
+     */
+    public void setRemoteNames(Supplier<List<String>> remoteNames) {
+        this.remoteNames = remoteNames;
+    }
+
+    /**
+     * Programa la publicación de un delta porque cambió la lista de otro nodo.
+     */
+    public void refresh() {
+        lock.lock();
+        try {
+            scheduleFlush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registra el alta de un cliente que acaba de enviar su nombre.
+     * Le envía la instantánea actual y programa el delta para el resto. Un cliente
+     * LEGACY no recibe nada todavía: la lista publicada no lo incluye, y la que se
+     * difunde con su alta al final de la ventana ya lo hace.
+     */
+    public void joined(ClientConnection client) {
+        lock.lock();
+        try {
+            if (client.getProtocol() != WireProtocol.LEGACY) {
+                sendSnapshot(client);
+            }
+            scheduleFlush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registra la baja de un cliente.
+     */
+    public void left(ClientConnection client) {
+        if (client.getClientName() == null) {
+            return; // Nunca formó parte de la lista
+        }
+        lock.lock();
+        try {
+            scheduleFlush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Envía la instantánea de la versión publicada a un cliente (alta o petición /roster):
+     * la versionada a los clientes V2 y la lista sin versión a los LEGACY.
+     * Cada trama se codifica una vez por versión y se reutiliza entre clientes.
+     */
+    public void sendSnapshot(ClientConnection client) {
+        lock.lock();
+        try {
+            if (client.getProtocol() == WireProtocol.LEGACY) {
+                client.enqueue(legacyList());
+                return;
+            }
+            if (snapshotCache == null) {
+                StringBuilder snapshot = new StringBuilder(SNAPSHOT_PREFIX).append('#').append(version).append('\n');
+                for (Map.Entry<String, Integer> entry : published.entrySet()) {
+                    for (int i = 0; i < entry.getValue(); i++) {
+                        snapshot.append(entry.getKey()).append('\n');
+                    }
+                }
+                snapshotCache = Frame.of(FrameType.ROSTER, snapshot.toString());
+            }
+            client.enqueue(snapshotCache);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve la lista completa de la versión publicada en el formato original, sin
+     * versión, codificada una vez por versión. Debe llamarse con el bloqueo tomado.
+     */
+    private Frame legacyList() {
+        if (legacyCache == null) {
+            StringBuilder list = new StringBuilder();
+            for (Map.Entry<String, Integer> entry : published.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    list.append(SNAPSHOT_PREFIX).append(entry.getKey()).append('\n');
+                }
+            }
+            legacyCache = Frame.of(FrameType.ROSTER, list.toString());
+        }
+        return legacyCache;
+    }
+
+    /**
+     * Devuelve la versión de la última lista publicada.
+     */
+    public long getVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Programa la publicación del delta al final de la ventana de agrupación.
+     * Debe llamarse con el bloqueo tomado.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        try {
+            scheduler.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        } catch (RejectedExecutionException e) {
+            // El servidor se está cerrando: ya no se publican más listas
+        }
+    }
+
+    /**
+     * Publica un delta con los cambios de la ventana y lo difunde.
+     * La difusión se hace sin el cerrojo: con muchos clientes espera a los hilos de
+     * reparto, y una baja (left, desde el cierre de una conexión) no debe quedarse
+     * esperando a una difusión. El programador tiene un solo hilo, así que los deltas
+     * salen en orden de versión; un alta que se cuele entre la publicación y la difusión
+     * recibe una instantánea de la versión nueva y después ese mismo delta, que ignora.
+     * Los clientes LEGACY no entienden los deltas: reciben en su lugar la lista completa.
+     */
+    private void flush() {
+        try {
+            Publication publication = publishDelta();
+            if (publication != null) {
+                registry.broadcast(publication.delta(), publication.legacyList());
+            }
+        } catch (Exception e) {
+            ServerLog.error("Error al publicar la lista de clientes: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Calcula la diferencia entre la lista publicada y la actual y la publica como una versión nueva.
+     * @return El delta y la lista sin versión de la versión nueva, o null si no hubo cambios.
+     */
+    private Publication publishDelta() {
+        lock.lock();
+        try {
+            flushScheduled = false;
+
+            Map<String, Integer> current = new HashMap<>();
+            for (String name : registry.names()) {
+                current.merge(name, 1, Integer::sum);
+            }
+            Supplier<List<String>> remote = remoteNames;
+            if (remote != null) {
+                for (String name : remote.get()) {
+                    current.merge(name, 1, Integer::sum);
+                }
+            }
+
+            List<String> added = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : current.entrySet()) {
+                int before = published.getOrDefault(entry.getKey(), 0);
+                for (int i = before; i < entry.getValue(); i++) {
+                    added.add(entry.getKey());
+                }
+            }
+            for (Map.Entry<String, Integer> entry : published.entrySet()) {
+                int after = current.getOrDefault(entry.getKey(), 0);
+                for (int i = after; i < entry.getValue(); i++) {
+                    removed.add(entry.getKey());
+                }
+            }
+
+            StringBuilder delta = new StringBuilder();
+            for (String name : added) {
+                delta.append('+').append(name).append('\n');
+            }
+            for (String name : removed) {
+                delta.append('-').append(name).append('\n');
+            }
+            if (delta.length() == 0) {
+                return null; // Los cambios de la ventana se anularon entre sí
+            }
+
+            version++;
+            published.clear();
+            published.putAll(current);
+            snapshotCache = null;
+            legacyCache = null;
+            return new Publication(Frame.of(FrameType.ROSTER, DELTA_PREFIX + "#" + version + "\n" + delta),
+                    legacyList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tramas de una versión publicada: el delta para los clientes V2 y la lista
+     * completa para los LEGACY.
+     */
+    private record Publication(Frame delta, Frame legacyList) {
+    }
+}
@@ -0,0 +1,513 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Índice invertido del historial de mensajes: término -> (sala, secuencia).
+ * Un hilo indexador sigue el registro de mensajes (MessageLog) por detrás del escritor
+ * y añade cada mensaje nuevo a un segmento en memoria; al llegar a searchFlushMessages
+ * mensajes (o tras un rato sin mensajes nuevos) lo escribe como un IndexSegment
+ * inmutable en el subdirectorio "index" del registro. Un hilo de fusión junta en
+ * segundo plano los segmentos del mismo tamaño de searchMergeFactor en searchMergeFactor,
+ * de modo que una consulta recorre pocos segmentos aunque el historial tenga millones
+ * de mensajes, y borra los que ya no tienen mensajes en el registro.
+ * Nada de esto toca el camino de difusión: el indexador lee del disco lo que el
+ * escritor del registro ya copió, así que un índice lento solo se queda atrás.
+ * Al arrancar se abren los segmentos guardados y se indexa desde el registro lo que
+ * faltaba por escribir.
+ */
+public class SearchIndex {
+    // Subdirectorio del registro de mensajes con los segmentos del índice
+    public static final String DIRECTORY = "index";
+    // Los términos más largos no se indexan (enlaces, ruido)
+    public static final int MAX_TERM_LENGTH = 40;
+    // Mensajes que lee el indexador del registro de una vez
+    private static final int BATCH = 1024;
+    // Espera del indexador cuando no hay mensajes nuevos
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Tiempo sin mensajes nuevos tras el que se escribe el segmento en memoria
+    private static final long IDLE_FLUSH_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // Mensajes como máximo de un segmento fusionado (los ficheros no pueden pasar de 2 GB)
+    private static final int MAX_SEGMENT_MESSAGES = 16 * 1024 * 1024;
+
+    private final MessageLog log; // Registro del que se leen los mensajes
+    private final Path directory; // Directorio de los segmentos
+    private final int flushMessages; // Mensajes del segmento en memoria que provocan su escritura
+    private final int mergeFactor; // Segmentos del mismo nivel que se fusionan en uno
+    private final ReentrantLock lock; // Protege el segmento en memoria y el cambio de la lista de segmentos
+    private final ExecutorService merger; // Hilo de fusión de segmentos
+    private final Thread indexer; // Hilo que sigue el registro
+    private volatile List<IndexSegment> segments; // Segmentos en disco, por secuencia (lista inmutable)
+    private MemorySegment memory; // Mensajes indexados aún no escritos (lo modifica el indexador con el cerrojo)
+    private volatile long indexedSequence; // Última secuencia indexada
+    private volatile boolean running;
+
+    /**
+     * Constructor de SearchIndex. Abre los segmentos del directorio del índice.
+     * @throws IOException si no se puede crear el directorio.
+     */
+    public SearchIndex(MessageLog log, ServerConfig config) throws IOException {
+        this.log = log;
+        this.directory = log.getDirectory().resolve(DIRECTORY);
+        this.flushMessages = Math.max(1, config.getSearchFlushMessages());
+        this.mergeFactor = Math.max(2, config.getSearchMergeFactor());
+        this.lock = new ReentrantLock();
+        this.merger = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "search-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.memory = new MemorySegment();
+        Files.createDirectories(directory);
+        this.segments = List.copyOf(openSegments());
+        this.indexedSequence = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getLastSequence();
+        this.indexer = new Thread(this::indexLoop, "search-index");
+        indexer.setDaemon(true);
+        ServerLog.info("Índice de búsqueda en " + directory.toAbsolutePath() + " (" + segments.size()
+                + " segmentos, hasta la secuencia " + indexedSequence + ")");
+    }
+
+    /**
+     * Abre los segmentos guardados. Descarta los incompletos o dañados, los que quedaron
+     * cubiertos por una fusión interrumpida y los que van más allá del registro (mensajes
+     * que el registro perdió en una caída y cuyas secuencias se volverán a asignar).
+     */
+    private List<IndexSegment> openSegments() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.toList();
+        }
+        List<IndexSegment> opened = new ArrayList<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".tmp")) {
+                Files.deleteIfExists(file); // Escritura interrumpida
+            } else if (name.endsWith(IndexSegment.SUFFIX)) {
+                try {
+                    opened.add(IndexSegment.open(file));
+                } catch (IOException | RuntimeException e) {
+                    ServerLog.warn("Se descarta el segmento del índice " + file + ": " + e.getMessage());
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        opened.sort(Comparator.comparingLong(IndexSegment::getFirstSequence)
+                .thenComparing(Comparator.comparingLong(IndexSegment::getLastSequence).reversed()));
+        List<IndexSegment> kept = new ArrayList<>();
+        long covered = 0;
+        long logged = log.getLastSequence();
+        for (IndexSegment segment : opened) {
+            if (segment.getLastSequence() <= covered || segment.getLastSequence() > logged) {
+                segment.delete();
+            } else {
+                kept.add(segment);
+                covered = segment.getLastSequence();
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Arranca el hilo indexador.
+     */
+    public void start() {
+        running = true;
+        indexer.start();
+        merger.execute(this::merge);
+    }
+
+    /**
+     * Extrae los términos de un texto: secuencias de letras y dígitos, en minúsculas y
+     * sin tildes, de modo que "Días" y "dias" son el mismo término. Se usa igual al
+     * indexar y al buscar.
+     */
+    public static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    terms.add(normalize(text.substring(start, i)));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static String normalize(String word) {
+        String lower = word.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); i++) {
+            if (lower.charAt(i) >= 0x80) {
+                String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD);
+                StringBuilder plain = new StringBuilder(decomposed.length());
+                for (int j = 0; j < decomposed.length(); j++) {
+                    char c = decomposed.charAt(j);
+                    if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                        plain.append(c);
+                    }
+                }
+                return plain.toString();
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * Busca los mensajes que contienen todos los términos, del más reciente al más antiguo.
+     * Consulta primero el segmento en memoria (con el cerrojo, que el indexador solo toma
+     * para añadir un lote) y después los segmentos en disco sin cerrojo.
+     * @param terms Términos ya normalizados (ver terms).
+     * @param rooms Salas cuyos mensajes puede ver quien busca.
+     * @return Las secuencias de hasta limit mensajes.
+     */
+    public long[] search(Set<String> terms, Predicate<String> rooms, int limit) {
+        long[] found = new long[Math.max(0, limit)];
+        if (terms.isEmpty() || limit <= 0) {
+            return found;
+        }
+        int count;
+        List<IndexSegment> disk;
+        lock.lock();
+        try {
+            disk = segments;
+            List<PostingList> lists = new ArrayList<>();
+            for (String term : terms) {
+                lists.add(memory.postings.get(term));
+            }
+            count = collect(lists, memory.rooms.toArray(String[]::new), rooms, found, 0);
+        } finally {
+            lock.unlock();
+        }
+        for (int i = disk.size() - 1; i >= 0 && count < limit; i--) {
+            IndexSegment segment = disk.get(i);
+            List<PostingList> lists = new ArrayList<>();
+            for (String term : terms) {
+                if (segment.count(term) == 0) {
+                    lists = null; // Falta un término: el segmento no tiene ningún resultado
+                    break;
+                }
+            }
+            if (lists != null) {
+                for (String term : terms) {
+                    lists.add(segment.postings(term));
+                }
+                count = collect(lists, segment.rooms(), rooms, found, count);
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Añade a found, del más reciente al más antiguo, los mensajes que están en todas las
+     * listas y en una sala visible. Recorre la lista más corta hacia atrás y busca cada
+     * secuencia en las demás, así que se detiene en cuanto tiene bastantes resultados.
+     * @return Resultados en found tras añadir los del segmento.
+     */
+    private static int collect(List<PostingList> lists, String[] roomNames, Predicate<String> rooms,
+                               long[] found, int count) {
+        if (lists.contains(null)) {
+            return count;
+        }
+        lists.sort(Comparator.comparingInt(PostingList::size));
+        boolean[] visible = new boolean[roomNames.length];
+        for (int i = 0; i < roomNames.length; i++) {
+            visible[i] = rooms.test(roomNames[i]);
+        }
+        PostingList shortest = lists.get(0);
+        for (int i = shortest.size() - 1; i >= 0 && count < found.length; i--) {
+            if (!visible[shortest.room(i)]) {
+                continue;
+            }
+            long sequence = shortest.sequence(i);
+            boolean all = true;
+            for (int j = 1; j < lists.size() && all; j++) {
+                all = lists.get(j).contains(sequence);
+            }
+            if (all) {
+                found[count++] = sequence;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Bucle del hilo indexador: lee del registro los mensajes nuevos por lotes, extrae sus
+     * términos sin cerrojo y los añade al segmento en memoria con el cerrojo tomado.
+     */
+    private void indexLoop() {
+        long idleSince = System.nanoTime();
+        while (running) {
+            List<LogRecord> batch = log.read(indexedSequence + 1, BATCH);
+            if (batch.isEmpty()) {
+                if (memory.messages > 0 && System.nanoTime() - idleSince >= IDLE_FLUSH_NANOS) {
+                    flush();
+                }
+                LockSupport.parkNanos(this, POLL_NANOS);
+                continue;
+            }
+            List<Set<String>> terms = new ArrayList<>(batch.size());
+            for (LogRecord record : batch) {
+                terms.add(terms(record.getText()));
+            }
+            lock.lock();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    LogRecord record = batch.get(i);
+                    memory.add(record.getSequence(), record.getRoom(), terms.get(i));
+                }
+                indexedSequence = batch.get(batch.size() - 1).getSequence();
+            } finally {
+                lock.unlock();
+            }
+            idleSince = System.nanoTime();
+            if (memory.messages >= memory.flushAt) {
+                flush();
+            }
+        }
+        if (memory.messages > 0) {
+            flush(); // Lo indexado no se vuelve a leer del registro al arrancar
+        }
+    }
+
+    /**
+     * Escribe el segmento en memoria como segmento en disco. Las consultas siguen viendo
+     * el segmento en memoria hasta que el de disco está en la lista; el cambio es atómico.
+     * Si la escritura falla se conserva en memoria y se reintenta más adelante.
+     */
+    private void flush() {
+        MemorySegment full = memory; // Solo este hilo lo modifica: se puede leer sin cerrojo
+        String[] terms = full.postings.keySet().toArray(String[]::new);
+        Arrays.sort(terms);
+        try {
+            IndexSegment segment = IndexSegment.write(directory, full.first, full.last, full.messages,
+                    full.rooms, terms, full.postings::get);
+            lock.lock();
+            try {
+                List<IndexSegment> updated = new ArrayList<>(segments);
+                updated.add(segment);
+                segments = List.copyOf(updated);
+                memory = new MemorySegment();
+            } finally {
+                lock.unlock();
+            }
+            merger.execute(this::merge);
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error("No se pudo escribir un segmento del índice: " + e.getMessage());
+            full.flushAt = full.messages + flushMessages;
+        }
+    }
+
+    /**
+     * Fusiona segmentos mientras haya searchMergeFactor seguidos del mismo nivel, y borra
+     * los que solo tienen mensajes que ya no están en el registro. Se ejecuta en el hilo
+     * de fusión; las consultas siguen usando los segmentos antiguos hasta el cambio.
+     */
+    private void merge() {
+        dropExpired();
+        while (running) {
+            List<IndexSegment> current = segments;
+            List<IndexSegment> run = pickRun(current);
+            if (run == null) {
+                return;
+            }
+            IndexSegment merged;
+            try {
+                merged = merge(run);
+            } catch (IOException | RuntimeException e) {
+                ServerLog.error("No se pudieron fusionar segmentos del índice: " + e.getMessage());
+                return;
+            }
+            lock.lock();
+            try {
+                List<IndexSegment> updated = new ArrayList<>(segments);
+                int at = updated.indexOf(run.get(0));
+                updated.removeAll(run);
+                updated.add(at, merged);
+                segments = List.copyOf(updated);
+            } finally {
+                lock.unlock();
+            }
+            for (IndexSegment segment : run) {
+                segment.delete();
+            }
+        }
+    }
+
+    /**
+     * Quita los segmentos cuyos mensajes ya borró la retención del registro.
+     */
+    private void dropExpired() {
+        long oldest = log.getFirstSequence();
+        List<IndexSegment> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            for (IndexSegment segment : segments) {
+                if (segment.getLastSequence() < oldest) {
+                    expired.add(segment);
+                }
+            }
+            if (!expired.isEmpty()) {
+                List<IndexSegment> updated = new ArrayList<>(segments);
+                updated.removeAll(expired);
+                segments = List.copyOf(updated);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (IndexSegment segment : expired) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Busca searchMergeFactor segmentos seguidos del mismo nivel. El nivel de un segmento
+     * es el número de fusiones que representa según su tamaño (0 los recién escritos).
+     * @return Los segmentos a fusionar, o null si no hay.
+     */
+    private List<IndexSegment> pickRun(List<IndexSegment> current) {
+        int start = 0;
+        for (int i = 1; i <= current.size(); i++) {
+            if (i == current.size() || level(current.get(i)) != level(current.get(start))) {
+                if (i - start >= mergeFactor) {
+                    List<IndexSegment> run = current.subList(start, start + mergeFactor);
+                    long messages = run.stream().mapToLong(IndexSegment::getMessages).sum();
+                    if (messages <= MAX_SEGMENT_MESSAGES) {
+                        return run;
+                    }
+                }
+                start = i;
+            }
+        }
+        return null;
+    }
+
+    private int level(IndexSegment segment) {
+        int level = 0;
+        long size = flushMessages;
+        while (segment.getMessages() >= size * mergeFactor) {
+            size *= mergeFactor;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Escribe un segmento con los mensajes de varios segmentos seguidos. Los términos se
+     * recorren en orden y las apariciones de cada uno se concatenan (los tramos de
+     * secuencias no se solapan), traduciendo los identificadores de sala.
+     */
+    private IndexSegment merge(List<IndexSegment> run) throws IOException {
+        Map<String, Integer> roomIds = new LinkedHashMap<>();
+        int[][] roomMaps = new int[run.size()][];
+        TreeSet<String> terms = new TreeSet<>();
+        int messages = 0;
+        for (int i = 0; i < run.size(); i++) {
+            IndexSegment segment = run.get(i);
+            String[] rooms = segment.rooms();
+            roomMaps[i] = new int[rooms.length];
+            for (int j = 0; j < rooms.length; j++) {
+                roomMaps[i][j] = roomIds.computeIfAbsent(rooms[j], r -> roomIds.size());
+            }
+            terms.addAll(Arrays.asList(segment.terms()));
+            messages += segment.getMessages();
+        }
+        return IndexSegment.write(directory, run.get(0).getFirstSequence(), run.get(run.size() - 1).getLastSequence(),
+                messages, new ArrayList<>(roomIds.keySet()), terms.toArray(String[]::new), term -> {
+                    PostingList merged = new PostingList(16);
+                    for (int i = 0; i < run.size(); i++) {
+                        PostingList part = run.get(i).postings(term);
+                        if (part != null) {
+                            for (int j = 0; j < part.size(); j++) {
+                                merged.add(part.sequence(j), roomMaps[i][part.room(j)]);
+                            }
+                        }
+                    }
+                    return merged;
+                });
+    }
+
+    /**
+     * Devuelve la última secuencia indexada.
+     */
+    public long getIndexedSequence() {
+        return indexedSequence;
+    }
+
+    /**
+     * Devuelve el número de segmentos en disco.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Detiene el indexador, escribe lo que quedaba en memoria y espera a la fusión en curso.
+     * Debe llamarse antes de cerrar el registro de mensajes.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(indexer);
+        try {
+            indexer.join(5000);
+            merger.shutdown();
+            merger.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Segmento en construcción: apariciones de los mensajes aún no escritos a disco.
+     */
+    private final class MemorySegment {
+        private final Map<String, PostingList> postings = new HashMap<>(); // Término -> apariciones
+        private final Map<String, Integer> roomIds = new HashMap<>(); // Sala -> identificador
+        private final List<String> rooms = new ArrayList<>(); // Identificador -> sala
+        private long first; // Primera secuencia del segmento
+        private long last; // Última secuencia del segmento
+        private int messages; // Mensajes indexados
+        private int flushAt = flushMessages; // Mensajes a partir de los que se escribe a disco
+
+        private void add(long sequence, String room, Set<String> terms) {
+            Integer id = roomIds.get(room);
+            if (id == null) {
+                id = rooms.size();
+                roomIds.put(room, id);
+                rooms.add(room);
+            }
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new PostingList(4)).add(sequence, id);
+            }
+            if (messages++ == 0) {
+                first = sequence;
+            }
+            last = sequence;
+        }
+    }
+}
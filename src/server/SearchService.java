@@ -0,0 +1,164 @@
+package server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Búsqueda en el historial de mensajes con el comando:
+ *
+ *   /search [#sala] <palabras>
+ *
+ * Devuelve los mensajes más recientes que contienen todas las palabras, de las salas
+ * que el cliente puede ver: los mensajes globales y los de las salas a las que
+ * pertenece (o solo los de la sala indicada, si pertenece a ella). La respuesta es
+ * una trama de control:
+ *
+ *   Resultados:<n>
+ *   <secuencia>\t<instante>\t<sala>\t<mensaje>
+ *   ...
+ *
+ * con un mensaje por línea (los saltos de línea del mensaje se sustituyen por espacios)
+ * y la sala vacía en los globales. Las consultas se resuelven en un hilo propio con una
+ * cola acotada, nunca en el hilo de la conexión ni en el de un bucle de eventos; si la
+ * cola está llena la búsqueda se rechaza con un error.
+ * Requiere el registro de mensajes: sin él la búsqueda está desactivada.
+ */
+public class SearchService {
+    // Prefijo de la trama de control con los resultados
+    public static final String RESULTS_PREFIX = "Resultados:";
+    // Búsquedas pendientes como máximo
+    private static final int MAX_PENDING = 64;
+
+    private final SearchIndex index; // Índice del historial, null si la búsqueda está desactivada
+    private final MessageLog log; // Registro del que se leen los mensajes encontrados
+    private final RoomService rooms; // Salas de cada cliente, para filtrar los resultados
+    private final ThreadPoolExecutor executor; // Hilo de las consultas, null si la búsqueda está desactivada
+    private final int maxResults; // Resultados como máximo de una búsqueda
+    private final LatencyHistogram latency; // Tiempo en resolver cada búsqueda
+
+    /**
+     * Constructor de SearchService. Abre el índice si la búsqueda está activada y el
+     * registro de mensajes se persiste; si no se puede abrir, la búsqueda queda desactivada.
+     */
+    public SearchService(MessageLog log, RoomService rooms, ServerConfig config, ServerMetrics metrics) {
+        this.log = log;
+        this.rooms = rooms;
+        this.maxResults = Math.max(1, config.getSearchMaxResults());
+        this.latency = metrics.getSearchLatency();
+        this.index = openIndex(log, config);
+        if (index != null) {
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING), r -> {
+                        Thread thread = new Thread(r, "search");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    private static SearchIndex openIndex(MessageLog log, ServerConfig config) {
+        if (!config.isSearchEnabled() || !log.isPersistent()) {
+            return null;
+        }
+        try {
+            return new SearchIndex(log, config);
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error("No se pudo abrir el índice de búsqueda: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Arranca el indexador. Debe llamarse después de arrancar el registro de mensajes.
+     */
+    public void start() {
+        if (index != null) {
+            index.start();
+        }
+    }
+
+    /**
+     * Atiende un comando /search. Valida los argumentos y las salas en el hilo que llama
+     * y resuelve la consulta en el hilo de búsqueda, que encola la respuesta al terminar.
+     */
+    public void search(ClientConnection client, String arguments) {
+        if (index == null) {
+            ChatService.sendError(client, "La búsqueda no está disponible");
+            return;
+        }
+        String query = arguments;
+        Set<String> visible = rooms.roomsOf(client);
+        if (query.startsWith("#")) {
+            int space = query.indexOf(' ');
+            String room = space < 0 ? query.substring(1) : query.substring(1, space);
+            if (!visible.contains(room)) {
+                ChatService.sendError(client, "No perteneces a la sala " + room);
+                return;
+            }
+            visible = Set.of(room);
+            query = space < 0 ? "" : query.substring(space + 1);
+        } else {
+            visible.add(MessageLog.LOBBY);
+        }
+        Set<String> terms = SearchIndex.terms(query);
+        if (terms.isEmpty()) {
+            ChatService.sendError(client, "Uso: " + ChatService.SEARCH_COMMAND + " [#sala] <palabras>");
+            return;
+        }
+        Set<String> allowed = visible;
+        try {
+            executor.execute(() -> run(client, terms, allowed));
+        } catch (RejectedExecutionException e) {
+            ChatService.sendError(client, "Demasiadas búsquedas en curso, inténtalo más tarde");
+        }
+    }
+
+    /**
+     * Resuelve una consulta: busca las secuencias en el índice, lee los mensajes del
+     * registro y envía la respuesta. Los mensajes que la retención ya borró se omiten.
+     */
+    private void run(ClientConnection client, Set<String> terms, Set<String> rooms) {
+        long start = System.nanoTime();
+        long[] sequences = index.search(terms, rooms::contains, maxResults);
+        StringBuilder results = new StringBuilder();
+        int count = 0;
+        for (long sequence : sequences) {
+            List<LogRecord> records = log.read(sequence, 1);
+            if (records.isEmpty() || records.get(0).getSequence() != sequence) {
+                continue;
+            }
+            LogRecord record = records.get(0);
+            results.append(sequence).append('\t').append(record.getTimestamp()).append('\t')
+                    .append(record.getRoom()).append('\t')
+                    .append(record.getText().replace('\n', ' ').replace('\r', ' ')).append('\n');
+            count++;
+        }
+        client.enqueue(Frame.of(FrameType.CONTROL, RESULTS_PREFIX + count + "\n" + results));
+        latency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Devuelve el índice de búsqueda, o null si la búsqueda está desactivada.
+     */
+    public SearchIndex index() {
+        return index;
+    }
+
+    /**
+     * Deja de atender búsquedas y detiene el índice, escribiendo lo pendiente a disco.
+     * Debe llamarse antes de cerrar el registro de mensajes.
+     */
+    public void close() {
+        if (index != null) {
+            executor.shutdownNow();
+            index.close();
+        }
+    }
+}
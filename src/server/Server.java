@@ -3,10 +3,14 @@ package server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,57 +20,191 @@ import java.util.concurrent.TimeUnit;
 public class Server implements SocketProcess {
     private ServerSocket serverSocket; // Socket del servidor para aceptar conexiones
     private ScheduledExecutorService scheduler; // Servicio para ejecutar tareas periódicas
-    private List<ClientHandler> clientHandlers; // Lista de manejadores de clientes
+    private ChatService chatService; // Registro de clientes, lista de clientes y difusión de mensajes
+    private ThreadFactory threadFactory; // Fábrica de hilos para los manejadores y sus bucles de lectura/escritura
+    private ServerConfig config; // Parámetros de ajuste (límites de las colas de salida, etc.)
+    private FramePool framePool; // Tramas reutilizables para reenviar mensajes de chat sin asignar memoria
+    private RelayStats relayStats; // Mensajes reenviados y bytes asignados por mensaje
+    private ServerMetrics metrics; // Contadores y latencias que publica la consola de administración
+    private TlsContext tls; // Contexto TLS de las conexiones, null si se atiende en claro
+    private final List<ServerSocket> extraSockets = new ArrayList<>(); // Sockets de los aceptadores adicionales
+    private final Set<ClientHandler> handlers = ConcurrentHashMap.newKeySet(); // Conexiones abiertas, también sin saludo
     private volatile boolean running;
 
     /**
      * Constructor de Server.
-     * Inicializa el ServerSocket, el programador y la lista de manejadores de clientes.
+     * Los manejadores de clientes se ejecutan en hilos de plataforma.
      */
     public Server(ServerSocket serverSocket) {
+        this(serverSocket, Thread::new, new ServerConfig());
+    }
+
+    /**
+     * Constructor de Server.
+     * Inicializa el ServerSocket, el programador, la lista de manejadores de clientes
+     * la fábrica de hilos (de plataforma o virtuales) con la que se atiende a cada cliente
+     * y los parámetros de ajuste.
+     */
+    public Server(ServerSocket serverSocket, ThreadFactory threadFactory, ServerConfig config) {
+        this(serverSocket, threadFactory, config, new ServerMetrics());
+    }
+
+    /**
+     * Constructor de Server que acumula sus métricas en el objeto indicado.
+     */
+    public Server(ServerSocket serverSocket, ThreadFactory threadFactory, ServerConfig config, ServerMetrics metrics) {
+        this(serverSocket, threadFactory, config, metrics, null);
+    }
+
+    /**
+     * Constructor de Server que cifra las conexiones con el contexto TLS indicado (null para atender en claro).
+     */
+    public Server(ServerSocket serverSocket, ThreadFactory threadFactory, ServerConfig config, ServerMetrics metrics,
+                  TlsContext tls) {
         this.serverSocket = serverSocket;
+        this.tls = tls;
+        this.threadFactory = threadFactory;
+        this.config = config;
+        this.framePool = config.newFramePool();
+        this.relayStats = new RelayStats(config.isMeasureAllocations());
+        this.metrics = metrics;
         this.scheduler = Executors.newScheduledThreadPool(1); // Inicializa el servicio de programación
-        this.clientHandlers = new ArrayList<>(); // Inicializa la lista de manejadores de clientes
+        this.chatService = new ChatService(scheduler, config, metrics); // Inicializa el registro y el publicador de la lista de clientes
         this.running = true; // El servidor comienza en estado de true significa que esta prendido  o encendido
     }
 
     /**
      * Método para aceptar conexiones de clientes y manejar los hilos de los clientes.
-     * Ejecuta tareas periódicas para enviar actualizaciones de la lista de clientes.
+     * La lista de clientes la publica RosterService con deltas, no una tarea por conexión.
+     * Con varios aceptadores configurados se abren más sockets en el mismo puerto con
+     * SO_REUSEPORT (el núcleo reparte las conexiones entre ellos) y cada aceptador
+     * asigna sus clientes a su propia partición del registro. Si el sistema no admite
+     * SO_REUSEPORT acepta un solo hilo, que reparte los clientes entre las particiones
+     * en round-robin.
      */
     @Override
     public boolean bind() {
-        System.out.println("Esperando conexiones...");
+        List<ServerSocket> sockets = openAcceptors();
+        for (int i = 1; i < sockets.size(); i++) {
+            ServerSocket socket = sockets.get(i);
+            int index = i;
+            Thread acceptor = new Thread(() -> acceptLoop(socket, index, sockets.size()), "acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        ServerLog.info("Esperando conexiones" + (sockets.size() > 1 ? " (" + sockets.size() + " aceptadores)" : "")
+                + "...");
+        acceptLoop(serverSocket, 0, sockets.size());
+        return true;
+    }
+
+    /**
+     * Abre los sockets de los aceptadores adicionales en la dirección del principal.
+     * @return Los sockets de todos los aceptadores, empezando por el principal.
+     */
+    private List<ServerSocket> openAcceptors() {
+        List<ServerSocket> sockets = new ArrayList<>();
+        sockets.add(serverSocket);
+        int count = Math.min(config.getAcceptors(), registryShards());
+        if (count <= 1) {
+            return sockets;
+        }
+        if (!serverSocket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            ServerLog.info("SO_REUSEPORT no disponible: un aceptador reparte las conexiones en round-robin");
+            return sockets;
+        }
+        try {
+            for (int i = 1; i < count; i++) {
+                ServerSocket socket = new ServerSocket();
+                extraSockets.add(socket);
+                socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                if (config.getReceiveBufferSize() > 0) {
+                    socket.setReceiveBufferSize(config.getReceiveBufferSize());
+                }
+                socket.bind(serverSocket.getLocalSocketAddress());
+                sockets.add(socket);
+            }
+        } catch (IOException e) {
+            // El socket principal se abrió sin SO_REUSEPORT o el puerto no lo admite
+            ServerLog.warn("No se pudieron abrir más aceptadores con SO_REUSEPORT: " + e.getMessage());
+            closeExtraSockets();
+            sockets.subList(1, sockets.size()).clear();
+        }
+        return sockets;
+    }
 
+    /**
+     * Bucle de un aceptador. El aceptador i reparte sus clientes en round-robin entre sus
+     * particiones del registro: i, i + aceptadores, i + 2 * aceptadores... mientras sean
+     * menores que el número de particiones (con uno solo, todas). Los aceptadores no
+     * comparten particiones.
+     */
+    private void acceptLoop(ServerSocket socketToAccept, int index, int acceptorCount) {
+        int next = 0; // Posición del siguiente cliente entre las particiones propias
+        int shards = Math.max(1, (registryShards() - index + acceptorCount - 1) / acceptorCount); // Particiones propias
         while (running) {
             try {
                 // Verifica si el servidor ha sido cerrado
-                if (serverSocket.isClosed()) {
+                if (socketToAccept.isClosed()) {
                     break;
                 }
 
                 // Acepta una nueva conexión del cliente
-                Socket socket = serverSocket.accept();
-                System.out.println("Conexión aceptada: " + socket.getRemoteSocketAddress());
-
-                // Programa la tarea de enviar la lista de clientes cada 5 segundos
-                scheduler.scheduleAtFixedRate(this::sendClientList, 0, 5, TimeUnit.SECONDS);
+                Socket socket = socketToAccept.accept();
+                ServerLog.info("Conexión aceptada: " + socket.getRemoteSocketAddress());
+                metrics.connectionAccepted();
 
-                if (socket != null) {
-                    // Crea un nuevo manejador de cliente y lo inicia en un nuevo hilo
-                    ClientHandler clientHandler = new ClientHandler(socket, this);
-                    clientHandlers.add(clientHandler); // Añade el manejador a la lista
-                    new Thread(clientHandler).start(); // Inicia el hilo del manejador
+                AdmissionController.Decision decision = chatService.admission().admit(socket.getInetAddress());
+                if (decision != AdmissionController.Decision.ADMITTED) {
+                    chatService.admission().reject(socket, decision); // Sin crear hilos ni colas
+                    continue;
                 }
+                startHandler(socket, index + acceptorCount * next);
+                next = (next + 1) % shards;
             } catch (IOException e) {
                 if (!running) {
-                    System.out.println("ServerSocket cerrado.");
+                    ServerLog.info("ServerSocket cerrado.");
                     break;
                 }
-                e.printStackTrace();
+                ServerLog.error("Error al aceptar una conexión: " + e.getMessage(), e);
             }
         }
-        return true;
+    }
+
+    /**
+     * Crea el manejador de un cliente admitido y lo inicia en un nuevo hilo.
+     * Si algo falla (opciones del socket, flujos TLS, creación del hilo) devuelve la
+     * plaza al control de admisión y cierra el socket, como NioEventLoop.register:
+     * si no, cada fallo ocuparía una plaza para siempre.
+     */
+    private void startHandler(Socket socket, int shard) {
+        ClientHandler clientHandler = null;
+        try {
+            config.configure(socket); // Aplica TCP_NODELAY y el tamaño del buffer de envío
+            clientHandler = new ClientHandler(socket, this, shard);
+            handlers.add(clientHandler);
+            threadFactory.newThread(clientHandler).start(); // Inicia el hilo del manejador
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            ServerLog.error("Error al preparar la conexión de " + socket.getRemoteSocketAddress() + ": "
+                    + e.getMessage(), e);
+            if (clientHandler != null) {
+                clientHandler.closeConnection(); // Devuelve la plaza y olvida el manejador
+                return;
+            }
+            chatService.admission().release(socket.getInetAddress());
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // El socket ya no es utilizable
+            }
+        }
+    }
+
+    /**
+     * Devuelve el número de particiones del registro de clientes.
+     */
+    private int registryShards() {
+        return Math.max(1, config.getRegistryShards());
     }
 
     @Override
@@ -81,6 +219,9 @@ public class Server implements SocketProcess {
 
     /**
      * Cierra el servidor y libera los recursos.
+     * Deja de aceptar conexiones, espera a que se envíe lo que los clientes tenían encolado
+     * (como mucho shutdownDrainMillis) y después cierra todas las conexiones, de modo que
+     * sus hilos terminan sin necesidad de salir de la JVM.
      * @return Verdadero si se cerró exitosamente.
      */
     @Override
@@ -88,55 +229,116 @@ public class Server implements SocketProcess {
         running = false; // Detiene la aceptación de nuevas conexiones
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
-                System.out.println("Cerrando ServerSocket...");
+                ServerLog.info("Cerrando ServerSocket...");
                 serverSocket.close(); // Cierra el ServerSocket
             }
+            closeExtraSockets();
+            chatService.drain(config.getShutdownDrainMillis());
+            for (ClientHandler handler : handlers) {
+                handler.closeConnection();
+            }
+            if (config.isMeasureAllocations()) {
+                ServerLog.info(relayStats.summary(framePool));
+            }
             scheduler.shutdown(); // Apaga el servicio de programación
             scheduler.awaitTermination(5, TimeUnit.SECONDS); // Espera a que todas las tareas se completen
+            chatService.close(); // Escribe a disco los mensajes pendientes del registro
+            if (tls != null) {
+                tls.close(); // Detiene el pool de saludos TLS
+            }
             return true;
         } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
+            ServerLog.error("Error al cerrar el servidor: " + e.getMessage(), e);
             return false;
         }
     }
 
     /**
-     * Envia un mensaje a todos los clientes conectados.
-     * Maneja errores y elimina clientes con problemas.
+     * Cierra los sockets de los aceptadores adicionales.
      */
-    public synchronized void broadcast(String message) {
-        for (ClientHandler handler : clientHandlers) {
+    private void closeExtraSockets() {
+        for (ServerSocket socket : extraSockets) {
             try {
-                handler.enqueueMessage(message); // Encola el mensaje para el cliente
-            } catch (Exception e) {
-                System.err.println("Error al encolar el mensaje para el cliente: " + handler.getClientName());
-                e.printStackTrace();
-                // Aquí puedes optar por registrar el error, notificar al cliente o realizar otras acciones si es necesario
+                socket.close();
+            } catch (IOException e) {
+                // Ya estaba cerrado
             }
         }
+        extraSockets.clear();
     }
 
+    /**
+     * Olvida una conexión cerrada.
+     */
+    void handlerClosed(ClientHandler clientHandler) {
+        handlers.remove(clientHandler);
+    }
 
     /**
-     * Elimina un cliente de la lista de clientes conectados.
+     * Devuelve la fábrica de hilos con la que se atiende a los clientes.
      */
-    public synchronized void removeClient(ClientHandler clientHandler) {
-        clientHandlers.remove(clientHandler); // Elimina al cliente de la lista
-        System.out.println("Cliente removido: " + clientHandler.getClientName());
+    ThreadFactory getThreadFactory() {
+        return threadFactory;
     }
 
     /**
-     * Envía la lista de todos los clientes conectados a todos los clientes.
-     * Se ejecuta periódicamente para mantener actualizada la lista de clientes.
+     * Devuelve los parámetros de ajuste del servidor.
      */
-    private synchronized void sendClientList() {
-        if (clientHandlers.size() > 0) {
-            StringBuilder clientList = new StringBuilder("Lista_clientes:"); // Inicializa la lista de clientes
-            for (ClientHandler handler : clientHandlers) {
-                clientList.append(handler.getClientName()).append("\n"); // Agrega el nombre del cliente a la lista
-            }
-            System.out.println(clientList);
-            broadcast(clientList.toString()); // Envía la lista de clientes a todos los clientes con prefijo
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Devuelve el contexto TLS de las conexiones, o null si el servidor atiende en claro.
+     */
+    TlsContext getTls() {
+        return tls;
+    }
+
+    /**
+     * Devuelve el pool de tramas con el que se reenvían los mensajes de chat.
+     */
+    FramePool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     * Devuelve los contadores del reenvío de mensajes.
+     */
+    public RelayStats getRelayStats() {
+        return relayStats;
+    }
+
+    /**
+     * Devuelve las métricas del servidor.
+     */
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Devuelve el servicio de chat que procesa los mensajes de los clientes.
+     */
+    ChatService getChatService() {
+        return chatService;
+    }
+
+    /**
+     * Envia un mensaje a todos los clientes conectados.
+     * El mensaje se codifica una sola vez y la misma trama se encola en cada cliente;
+     * el registro copy-on-write permite difundir sin tomar ningún bloqueo.
+     */
+    public void broadcast(String message) {
+        chatService.broadcast(message);
+    }
+
+    /**
+     * Elimina un cliente de la lista de clientes conectados.
+     * La baja se publica en el siguiente delta de la lista de clientes.
+     */
+    public void removeClient(ClientHandler clientHandler) {
+        if (chatService.onDisconnect(clientHandler)) { // Elimina al cliente del registro
+            ServerLog.info("Cliente removido: " + clientHandler.getClientName());
         }
     }
 }
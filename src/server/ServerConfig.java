@@ -0,0 +1,737 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * Parámetros de ajuste del servidor compartidos por los dos motores.
+ * Los valores por defecto reproducen un servidor de chat pequeño; se pueden
+ * modificar antes de arrancar el servidor.
+ */
+public class ServerConfig {
+    private int maxQueuedMessages = 1024; // Máximo de tramas pendientes por cliente
+    private long maxQueuedBytes = 1024 * 1024; // Máximo de bytes pendientes por cliente
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST; // Política al llenarse la cola
+    private long overflowGraceMillis = 5000; // Periodo de gracia antes de desconectar (política DISCONNECT)
+    private int writeBatchSize = 64; // Máximo de tramas que se escriben juntas con un único flush
+    private long writeLatencyBudgetMicros = 0; // Espera máxima para completar un lote (0 = solo lo ya encolado)
+    private int maxFrameBytes = 1024 * 1024; // Tamaño máximo del cuerpo de una trama V2 recibida
+    private boolean tcpNoDelay = true; // TCP_NODELAY en los sockets aceptados
+    private int sendBufferSize = 0; // SO_SNDBUF de los sockets aceptados (0 = valor del sistema)
+    private int receiveBufferSize = 0; // SO_RCVBUF del socket de escucha, lo heredan los aceptados (0 = valor del sistema)
+    private int relayPoolFrames = 4096; // Tramas reutilizables para reenviar mensajes de chat
+    private int relaySlabBytes = 2048; // Capacidad de cada trama reutilizable (prefijo + mensaje)
+    private boolean directBuffers = false; // Buffers directos (fuera del heap) para las tramas reutilizables
+    private boolean measureAllocations = false; // Medir los bytes asignados por cada mensaje reenviado
+    private String logDirectory = "chat-log"; // Directorio del registro de mensajes (null = no se persiste)
+    private int logSegmentBytes = 64 * 1024 * 1024; // Tamaño de cada segmento del registro
+    private long logRollMillis = 60 * 60 * 1000; // Antigüedad máxima de un segmento (0 = solo por tamaño)
+    private long logFlushMillis = 200; // Intervalo máximo entre dos fsync del registro
+    private int logMaxSegments = 16; // Segmentos del registro que se conservan (0 = todos)
+    private int logQueueCapacity = 64 * 1024; // Mensajes pendientes de escribir en el registro
+    private int historySize = 50; // Mensajes por sala que se reenvían a quien se une
+    // Mensajes recientes que se conservan para reanudar sesiones. Retienen sus tramas,
+    // así que debe ser bastante menor que relayPoolFrames para no agotar el pool
+    private int resumeBufferSize = 1024;
+    private long resumeTtlMillis = 5 * 60 * 1000; // Tiempo que se conserva una sesión desconectada
+    private int resumeMaxSessions = 100_000; // Máximo de sesiones reanudables conservadas
+    private int resumeMaxGap = 10_000; // Máximo de mensajes perdidos que se reenvían desde el disco
+    private LogLevel loggerLevel = LogLevel.INFO; // Nivel mínimo de los eventos que escribe ServerLog
+    private boolean chatLogging = false; // Registrar en ServerLog cada mensaje de chat difundido
+    private int adminPort = 9180; // Puerto local de la consola de administración (métricas); -1 la desactiva
+    private int acceptors = 1; // Hilos aceptadores; con más de uno se usa SO_REUSEPORT si el sistema lo admite
+    // Particiones del registro de clientes (normalmente una por núcleo)
+    private int registryShards = Runtime.getRuntime().availableProcessors();
+    private int parallelFanOutThreshold = 1024; // Clientes a partir de los que la difusión es paralela (0 = nunca)
+    private int clusterPort = -1; // Puerto del clúster para los demás nodos; -1 desactiva el clúster
+    private String clusterHost = "127.0.0.1"; // Interfaz en la que escucha el puerto del clúster
+    private String clusterNodeId; // Identificador único del nodo (null = "node-<puerto del clúster>")
+    private List<String> clusterPeers = List.of(); // Puertos del clúster de los vecinos ("host:puerto")
+    private int clusterReplayMessages = 4096; // Mensajes de salida que se conservan para reenviar al reconectar
+    private int clusterBatchMessages = 256; // Máximo de mensajes por lote entre nodos
+    private long clusterReconnectMillis = 1000; // Espera entre intentos de conexión con un vecino
+    private boolean tcpKeepAlive = true; // SO_KEEPALIVE en los sockets aceptados (red de seguridad del sistema)
+    private long heartbeatIntervalMillis = 15_000; // Silencio tras el que se envía PING a los clientes que lo pidieron
+    private long idleTimeoutMillis = 45_000; // Silencio tras el que se cierra una conexión con latidos
+    private long handshakeTimeoutMillis = 10_000; // Plazo para completar el saludo tras conectar
+    private long idleTickMillis = 100; // Duración de un tick de la rueda de plazos de inactividad
+    private int maxConnections = 0; // Conexiones abiertas como máximo, con o sin saludo (0 = sin límite)
+    private int maxConnectionsPerAddress = 0; // Conexiones abiertas por dirección IP como máximo (0 = sin límite)
+    private int acceptRatePerSecond = 0; // Conexiones nuevas admitidas por segundo (0 = sin límite)
+    private int acceptBurst = 0; // Conexiones nuevas que se admiten de golpe (como mínimo el ritmo por segundo)
+    private long shedQueueBytes = 256L * 1024 * 1024; // Bytes en las colas de salida a partir de los que se rechazan conexiones (0 = nunca)
+    private long shedFanOutMicros = 100_000; // p99 del reparto a partir del que se rechazan conexiones (0 = nunca)
+    private long loadCheckMillis = 250; // Intervalo entre comprobaciones de la carga
+    private int clientMessagesPerSecond = 0; // Mensajes por segundo que puede enviar cada cliente (0 = sin límite)
+    private int clientMessageBurst = 0; // Mensajes que un cliente puede enviar de golpe (como mínimo el ritmo)
+    private long clientBytesPerSecond = 0; // Bytes por segundo que puede enviar cada cliente (0 = sin límite)
+    private long clientByteBurst = 0; // Bytes que un cliente puede enviar de golpe (como mínimo el ritmo)
+    private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.THROTTLE; // Acción al superar los límites de envío
+    private int roomMessagesPerSecond = 0; // Mensajes por segundo de cada sala (0 = sin límite)
+    private int globalMessagesPerSecond = 0; // Mensajes por segundo de todos los clientes juntos (0 = sin límite)
+    private int compressionThreshold = 512; // Cuerpo a partir del que se comprime para quien lo negoció (0 = nunca)
+    private boolean searchEnabled = true; // Índice de búsqueda del historial (requiere el registro de mensajes)
+    private int searchFlushMessages = 64 * 1024; // Mensajes del segmento en memoria del índice antes de escribirlo
+    private int searchMergeFactor = 8; // Segmentos del índice del mismo tamaño que se fusionan en uno
+    private int searchMaxResults = 20; // Resultados como máximo de una búsqueda
+    private int eventLoops = 0; // Bucles de eventos del motor NIO (0 = uno por procesador)
+    private long shutdownDrainMillis = 5000; // Espera máxima al detener el servidor para vaciar las colas de salida
+    private String tlsKeyStore; // Almacén de claves con el certificado del servidor (null = sin TLS)
+    private String tlsKeyStorePassword = ""; // Contraseña del almacén y de la clave privada
+    private String tlsKeyStoreType = "PKCS12"; // Tipo del almacén de claves
+    private List<String> tlsProtocols = List.of("TLSv1.3", "TLSv1.2"); // Versiones de TLS admitidas
+    private int tlsSessionCacheSize = 20_000; // Sesiones TLS que se conservan para reanudarlas (0 = sin límite)
+    private int tlsSessionTimeoutSeconds = 24 * 60 * 60; // Validez de una sesión TLS reanudable
+    // Hilos que ejecutan las tareas costosas de los saludos TLS (criptografía de clave pública)
+    private int tlsHandshakeThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int tlsHandshakeQueue = 1024; // Tareas de saludo TLS pendientes; con la cola llena se cierra la conexión
+
+    public int getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    public void setMaxQueuedMessages(int maxQueuedMessages) {
+        this.maxQueuedMessages = maxQueuedMessages;
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getOverflowGraceMillis() {
+        return overflowGraceMillis;
+    }
+
+    public void setOverflowGraceMillis(long overflowGraceMillis) {
+        this.overflowGraceMillis = overflowGraceMillis;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public long getWriteLatencyBudgetMicros() {
+        return writeLatencyBudgetMicros;
+    }
+
+    public void setWriteLatencyBudgetMicros(long writeLatencyBudgetMicros) {
+        this.writeLatencyBudgetMicros = writeLatencyBudgetMicros;
+    }
+
+    public int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    public void setMaxFrameBytes(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public int getRelayPoolFrames() {
+        return relayPoolFrames;
+    }
+
+    public void setRelayPoolFrames(int relayPoolFrames) {
+        this.relayPoolFrames = relayPoolFrames;
+    }
+
+    public int getRelaySlabBytes() {
+        return relaySlabBytes;
+    }
+
+    public void setRelaySlabBytes(int relaySlabBytes) {
+        this.relaySlabBytes = relaySlabBytes;
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    public boolean isMeasureAllocations() {
+        return measureAllocations;
+    }
+
+    public void setMeasureAllocations(boolean measureAllocations) {
+        this.measureAllocations = measureAllocations;
+    }
+
+    public String getLogDirectory() {
+        return logDirectory;
+    }
+
+    public void setLogDirectory(String logDirectory) {
+        this.logDirectory = logDirectory;
+    }
+
+    public int getLogSegmentBytes() {
+        return logSegmentBytes;
+    }
+
+    public void setLogSegmentBytes(int logSegmentBytes) {
+        this.logSegmentBytes = logSegmentBytes;
+    }
+
+    public long getLogRollMillis() {
+        return logRollMillis;
+    }
+
+    public void setLogRollMillis(long logRollMillis) {
+        this.logRollMillis = logRollMillis;
+    }
+
+    public long getLogFlushMillis() {
+        return logFlushMillis;
+    }
+
+    public void setLogFlushMillis(long logFlushMillis) {
+        this.logFlushMillis = logFlushMillis;
+    }
+
+    public int getLogMaxSegments() {
+        return logMaxSegments;
+    }
+
+    public void setLogMaxSegments(int logMaxSegments) {
+        this.logMaxSegments = logMaxSegments;
+    }
+
+    public int getLogQueueCapacity() {
+        return logQueueCapacity;
+    }
+
+    public void setLogQueueCapacity(int logQueueCapacity) {
+        this.logQueueCapacity = logQueueCapacity;
+    }
+
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    public void setHistorySize(int historySize) {
+        this.historySize = historySize;
+    }
+
+    public int getResumeBufferSize() {
+        return resumeBufferSize;
+    }
+
+    public void setResumeBufferSize(int resumeBufferSize) {
+        this.resumeBufferSize = resumeBufferSize;
+    }
+
+    public long getResumeTtlMillis() {
+        return resumeTtlMillis;
+    }
+
+    public void setResumeTtlMillis(long resumeTtlMillis) {
+        this.resumeTtlMillis = resumeTtlMillis;
+    }
+
+    public int getResumeMaxSessions() {
+        return resumeMaxSessions;
+    }
+
+    public void setResumeMaxSessions(int resumeMaxSessions) {
+        this.resumeMaxSessions = resumeMaxSessions;
+    }
+
+    public int getResumeMaxGap() {
+        return resumeMaxGap;
+    }
+
+    public void setResumeMaxGap(int resumeMaxGap) {
+        this.resumeMaxGap = resumeMaxGap;
+    }
+
+    public LogLevel getLoggerLevel() {
+        return loggerLevel;
+    }
+
+    public void setLoggerLevel(LogLevel loggerLevel) {
+        this.loggerLevel = loggerLevel;
+    }
+
+    public boolean isChatLogging() {
+        return chatLogging;
+    }
+
+    public void setChatLogging(boolean chatLogging) {
+        this.chatLogging = chatLogging;
+    }
+
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    public void setAdminPort(int adminPort) {
+        this.adminPort = adminPort;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public int getRegistryShards() {
+        return registryShards;
+    }
+
+    public void setRegistryShards(int registryShards) {
+        this.registryShards = registryShards;
+    }
+
+    public int getParallelFanOutThreshold() {
+        return parallelFanOutThreshold;
+    }
+
+    public void setParallelFanOutThreshold(int parallelFanOutThreshold) {
+        this.parallelFanOutThreshold = parallelFanOutThreshold;
+    }
+
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public void setClusterPort(int clusterPort) {
+        this.clusterPort = clusterPort;
+    }
+
+    public String getClusterHost() {
+        return clusterHost;
+    }
+
+    public void setClusterHost(String clusterHost) {
+        this.clusterHost = clusterHost;
+    }
+
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    public void setClusterNodeId(String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    public List<String> getClusterPeers() {
+        return clusterPeers;
+    }
+
+    public void setClusterPeers(List<String> clusterPeers) {
+        this.clusterPeers = List.copyOf(clusterPeers);
+    }
+
+    public int getClusterReplayMessages() {
+        return clusterReplayMessages;
+    }
+
+    public void setClusterReplayMessages(int clusterReplayMessages) {
+        this.clusterReplayMessages = clusterReplayMessages;
+    }
+
+    public int getClusterBatchMessages() {
+        return clusterBatchMessages;
+    }
+
+    public void setClusterBatchMessages(int clusterBatchMessages) {
+        this.clusterBatchMessages = clusterBatchMessages;
+    }
+
+    public long getClusterReconnectMillis() {
+        return clusterReconnectMillis;
+    }
+
+    public void setClusterReconnectMillis(long clusterReconnectMillis) {
+        this.clusterReconnectMillis = clusterReconnectMillis;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public long getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+
+    public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+
+    public long getIdleTickMillis() {
+        return idleTickMillis;
+    }
+
+    public void setIdleTickMillis(long idleTickMillis) {
+        this.idleTickMillis = idleTickMillis;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    public int getAcceptRatePerSecond() {
+        return acceptRatePerSecond;
+    }
+
+    public void setAcceptRatePerSecond(int acceptRatePerSecond) {
+        this.acceptRatePerSecond = acceptRatePerSecond;
+    }
+
+    public int getAcceptBurst() {
+        return acceptBurst;
+    }
+
+    public void setAcceptBurst(int acceptBurst) {
+        this.acceptBurst = acceptBurst;
+    }
+
+    public long getShedQueueBytes() {
+        return shedQueueBytes;
+    }
+
+    public void setShedQueueBytes(long shedQueueBytes) {
+        this.shedQueueBytes = shedQueueBytes;
+    }
+
+    public long getShedFanOutMicros() {
+        return shedFanOutMicros;
+    }
+
+    public void setShedFanOutMicros(long shedFanOutMicros) {
+        this.shedFanOutMicros = shedFanOutMicros;
+    }
+
+    public long getLoadCheckMillis() {
+        return loadCheckMillis;
+    }
+
+    public void setLoadCheckMillis(long loadCheckMillis) {
+        this.loadCheckMillis = loadCheckMillis;
+    }
+
+    public int getClientMessagesPerSecond() {
+        return clientMessagesPerSecond;
+    }
+
+    public void setClientMessagesPerSecond(int clientMessagesPerSecond) {
+        this.clientMessagesPerSecond = clientMessagesPerSecond;
+    }
+
+    public int getClientMessageBurst() {
+        return clientMessageBurst;
+    }
+
+    public void setClientMessageBurst(int clientMessageBurst) {
+        this.clientMessageBurst = clientMessageBurst;
+    }
+
+    public long getClientBytesPerSecond() {
+        return clientBytesPerSecond;
+    }
+
+    public void setClientBytesPerSecond(long clientBytesPerSecond) {
+        this.clientBytesPerSecond = clientBytesPerSecond;
+    }
+
+    public long getClientByteBurst() {
+        return clientByteBurst;
+    }
+
+    public void setClientByteBurst(long clientByteBurst) {
+        this.clientByteBurst = clientByteBurst;
+    }
+
+    public RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    public void setRateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+        this.rateLimitPolicy = rateLimitPolicy;
+    }
+
+    public int getRoomMessagesPerSecond() {
+        return roomMessagesPerSecond;
+    }
+
+    public void setRoomMessagesPerSecond(int roomMessagesPerSecond) {
+        this.roomMessagesPerSecond = roomMessagesPerSecond;
+    }
+
+    public int getGlobalMessagesPerSecond() {
+        return globalMessagesPerSecond;
+    }
+
+    public void setGlobalMessagesPerSecond(int globalMessagesPerSecond) {
+        this.globalMessagesPerSecond = globalMessagesPerSecond;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public boolean isSearchEnabled() {
+        return searchEnabled;
+    }
+
+    public void setSearchEnabled(boolean searchEnabled) {
+        this.searchEnabled = searchEnabled;
+    }
+
+    public int getSearchFlushMessages() {
+        return searchFlushMessages;
+    }
+
+    public void setSearchFlushMessages(int searchFlushMessages) {
+        this.searchFlushMessages = searchFlushMessages;
+    }
+
+    public int getSearchMergeFactor() {
+        return searchMergeFactor;
+    }
+
+    public void setSearchMergeFactor(int searchMergeFactor) {
+        this.searchMergeFactor = searchMergeFactor;
+    }
+
+    public int getSearchMaxResults() {
+        return searchMaxResults;
+    }
+
+    public void setSearchMaxResults(int searchMaxResults) {
+        this.searchMaxResults = searchMaxResults;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public void setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    public long getShutdownDrainMillis() {
+        return shutdownDrainMillis;
+    }
+
+    public void setShutdownDrainMillis(long shutdownDrainMillis) {
+        this.shutdownDrainMillis = shutdownDrainMillis;
+    }
+
+    public String getTlsKeyStore() {
+        return tlsKeyStore;
+    }
+
+    public void setTlsKeyStore(String tlsKeyStore) {
+        this.tlsKeyStore = tlsKeyStore;
+    }
+
+    public String getTlsKeyStorePassword() {
+        return tlsKeyStorePassword;
+    }
+
+    public void setTlsKeyStorePassword(String tlsKeyStorePassword) {
+        this.tlsKeyStorePassword = tlsKeyStorePassword;
+    }
+
+    public String getTlsKeyStoreType() {
+        return tlsKeyStoreType;
+    }
+
+    public void setTlsKeyStoreType(String tlsKeyStoreType) {
+        this.tlsKeyStoreType = tlsKeyStoreType;
+    }
+
+    public List<String> getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    public void setTlsProtocols(List<String> tlsProtocols) {
+        this.tlsProtocols = tlsProtocols;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+        this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+    }
+
+    public int getTlsHandshakeThreads() {
+        return tlsHandshakeThreads;
+    }
+
+    public void setTlsHandshakeThreads(int tlsHandshakeThreads) {
+        this.tlsHandshakeThreads = tlsHandshakeThreads;
+    }
+
+    public int getTlsHandshakeQueue() {
+        return tlsHandshakeQueue;
+    }
+
+    public void setTlsHandshakeQueue(int tlsHandshakeQueue) {
+        this.tlsHandshakeQueue = tlsHandshakeQueue;
+    }
+
+    /**
+     * Indica si los clientes se conectan con TLS (hay un almacén de claves configurado).
+     */
+    public boolean isTlsEnabled() {
+        return tlsKeyStore != null && !tlsKeyStore.isBlank();
+    }
+
+    /**
+     * Devuelve el número de bucles de eventos del motor NIO: el configurado o uno por procesador.
+     */
+    public int eventLoopCount() {
+        return eventLoops > 0 ? eventLoops : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Devuelve el umbral de compresión de una conexión según su saludo: 0 (sin compresión)
+     * si el cliente no la pidió.
+     */
+    public int compressionThreshold(Handshake handshake) {
+        return handshake.wantsCompression() ? Math.max(0, compressionThreshold) : 0;
+    }
+
+    /**
+     * Crea los límites de envío de un cliente con los ritmos configurados y el cubo
+     * global del servidor (null si no hay límite global).
+     */
+    public RateLimiter newRateLimiter(TokenBucket global) {
+        TokenBucket messages = clientMessagesPerSecond > 0
+                ? new TokenBucket(clientMessagesPerSecond, Math.max(clientMessagesPerSecond, clientMessageBurst)) : null;
+        TokenBucket bytes = clientBytesPerSecond > 0
+                ? new TokenBucket(clientBytesPerSecond, Math.max(clientBytesPerSecond, clientByteBurst)) : null;
+        return new RateLimiter(messages, bytes, global, rateLimitPolicy);
+    }
+
+    /**
+     * Aplica las opciones de socket configuradas a un socket aceptado por el servidor bloqueante.
+     */
+    public void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(tcpKeepAlive);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+    }
+
+    /**
+     * Aplica las opciones de socket configuradas a un canal aceptado por el servidor NIO.
+     */
+    public void configure(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, tcpKeepAlive);
+        if (sendBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+    }
+
+    /**
+     * Crea una cola de salida con los límites y la política configurados.
+     */
+    public OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(maxQueuedMessages, maxQueuedBytes, overflowPolicy, overflowGraceMillis);
+    }
+
+    /**
+     * Crea el pool de tramas reutilizables para el reenvío de mensajes.
+     */
+    public FramePool newFramePool() {
+        return new FramePool(relayPoolFrames, relaySlabBytes, directBuffers);
+    }
+}
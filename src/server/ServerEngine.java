@@ -0,0 +1,10 @@
+package server;
+
+/**
+ * Motores de servidor disponibles.
+ * BLOCKING usa Server (un hilo por cliente) y NIO usa NioServer (bucles de eventos con Selector).
+ */
+public enum ServerEngine {
+    BLOCKING,
+    NIO
+}
@@ -3,8 +3,11 @@ package server;
 import java_server_socket.JavaServerSocket; // Importa la clase JavaServerSocket, presumiblemente personalizada para manejar la creación de sockets.
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Clase que inicializa y gestiona el servidor.
@@ -12,22 +15,73 @@ import java.util.concurrent.Executors;
  */
 public class ServerInitializer {
     private int port; // Puerto en el que el servidor escuchará conexiones entrantes
-    private int maxClients; // Número máximo de clientes que el servidor puede manejar simultáneamente
-    private ExecutorService threadPool; // Pool de hilos para manejar la ejecución concurrente
-    private Server server; // Instancia del servidor que maneja la lógica de conexión y comunicación
+    private int backlog; // Cola de conexiones pendientes de aceptar del socket del servidor
+    private ExecutorService threadPool; // Hilo que ejecuta el bucle de aceptación del servidor
+    private ServerConfig config; // Parámetros de ajuste que se entregan al servidor
+    private boolean virtualThreads; // Si es verdadero, los clientes se atienden con hilos virtuales (JDK 21+)
+    private ServerEngine engine; // Motor de servidor a utilizar (bloqueante o NIO)
+    private SocketProcess server; // Instancia del servidor que maneja la lógica de conexión y comunicación
+    private final ServerMetrics metrics; // Métricas del servidor; se conservan entre reinicios
+    private AdminServer adminServer; // Consola de administración con las métricas, null si está desactivada
     private volatile boolean running; // Indicador de si el servidor está en funcionamiento
+    private final ReentrantLock lifecycle = new ReentrantLock(); // Serializa el arranque y la parada (interfaz, señales)
 
     /**
      * Constructor de ServerInitializer.
-     * Inicializa el puerto, el número máximo de clientes y el pool de hilos..
+     * Inicializa el puerto y el número máximo de clientes. El pool de hilos se crea al arrancar.
      */
     public ServerInitializer(int port, int maxClients) {
+        this(port, maxClients, ServerEngine.BLOCKING);
+    }
+
+    /**
+     * Constructor de ServerInitializer que permite elegir el motor del servidor.
+     * El número máximo de clientes es el límite de conexiones del control de admisión
+     * (se puede cambiar en la configuración) y la cola de conexiones pendientes del socket.
+     */
+    public ServerInitializer(int port, int maxClients, ServerEngine engine) {
+        this(port, maxClients, engine, new ServerConfig());
+        this.config.setMaxConnections(maxClients);
+    }
+
+    /**
+     * Constructor de ServerInitializer con una configuración ya preparada (la del lanzador).
+     * @param backlog Cola de conexiones pendientes de aceptar del socket del servidor.
+     */
+    public ServerInitializer(int port, int backlog, ServerEngine engine, ServerConfig config) {
         this.port = port;
-        this.maxClients = maxClients;
-        this.threadPool = Executors.newFixedThreadPool(maxClients); // Inicializa el pool de hilos con un tamaño fijo
+        this.backlog = backlog;
+        this.engine = engine;
+        this.config = config;
+        this.metrics = new ServerMetrics();
         this.running = false; // El servidor comienza en estado detenido
     }
 
+    /**
+     * Devuelve los parámetros de ajuste del servidor.
+     * Pueden modificarse antes de llamar a startServer.
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Devuelve las métricas del servidor (para el panel de la interfaz).
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Activa o desactiva el modo de hilos virtuales para el motor bloqueante.
+     * En ese modo ClientHandler y sus bucles de lectura/escritura se ejecutan en hilos
+     * virtuales en lugar de hilos de plataforma.
+     * Debe llamarse antes de startServer.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
     /**
      * Inicia el servidor.
      * Crea un JavaServerSocket, inicializa la instancia de Server y comienza a aceptar conexiones.
@@ -36,25 +90,49 @@ public class ServerInitializer {
      * sin bloquear el hilo principal de la aplicación.
      */
     public void startServer() {
+        lifecycle.lock();
+        try {
+            start();
+        } finally {
+            lifecycle.unlock();
+        }
+    }
+
+    private void start() {
         if (running) {
-            System.out.println("El servidor ya está en funcionamiento.");
+            ServerLog.info("El servidor ya está en funcionamiento.");
             return;
         }
 
-        System.out.println("Iniciando Java Server Socket");
+        ServerLog.configure(config); // Nivel del registro y registro de los mensajes de chat
+        ServerLog.info("Iniciando Java Server Socket");
+
+        TlsContext tls;
+        try {
+            tls = TlsContext.create(config, metrics); // null si las conexiones van en claro
+        } catch (IOException e) {
+            ServerLog.error("No se pudo configurar TLS: " + e.getMessage(), e);
+            return;
+        }
+
+        // Los clientes se atienden en hilos propios del servidor; aquí solo se ejecuta el bucle de aceptación
+        threadPool = Executors.newSingleThreadExecutor();
 
         // Crea un JavaServerSocket personalizado (presumiblemente maneja la configuración del ServerSocket)
-        JavaServerSocket javaServerSocket = new JavaServerSocket(port, maxClients);
-        ServerSocket serverSocket = javaServerSocket.get();
+        JavaServerSocket javaServerSocket = new JavaServerSocket(port, backlog);
+        javaServerSocket.setReusePort(config.getAcceptors() > 1); // Los demás aceptadores comparten el puerto
+        javaServerSocket.setReceiveBufferSize(config.getReceiveBufferSize());
+        server = createServer(javaServerSocket, tls);
 
-        if (serverSocket == null) {
-            System.err.println("No se pudo crear ServerSocket.");
+        if (server == null) {
+            threadPool.shutdown();
+            if (tls != null) {
+                tls.close();
+            }
             return;
         }
-
-        // Inicializa la instancia del servidor con el ServerSocket
-        server = new Server(serverSocket);
         running = true;
+        startAdminServer();
 
         // Ejecuta el método bind del servidor en un hilo del pool de hilos.
         // Esto permite que el servidor maneje conexiones concurrentemente y realice tareas
@@ -63,25 +141,116 @@ public class ServerInitializer {
     }
 
     /**
-     * Detiene el servidor.
-     * Cierra el ServerSocket, apaga el pool de hilos y sale de la aplicación.
+     * Abre la consola de administración en el puerto configurado.
+     * Si el puerto no está disponible el servidor de chat sigue funcionando sin ella.
+     */
+    private void startAdminServer() {
+        if (config.getAdminPort() < 0) {
+            return;
+        }
+        try {
+            adminServer = new AdminServer(config.getAdminPort(), metrics);
+            adminServer.start();
+        } catch (IOException e) {
+            ServerLog.warn("No se pudo abrir la consola de administración en el puerto "
+                    + config.getAdminPort() + ": " + e.getMessage());
+            adminServer = null;
+        }
+    }
+
+    /**
+     * Crea la instancia del servidor según el motor configurado.
+     * Devuelve null si no se pudo abrir el socket del servidor.
+     * @param tls Contexto TLS de las conexiones, o null para atenderlas en claro.
+     */
+    private SocketProcess createServer(JavaServerSocket javaServerSocket, TlsContext tls) {
+        if (engine == ServerEngine.NIO) {
+            ServerSocketChannel serverChannel = javaServerSocket.getChannel();
+            if (serverChannel == null) {
+                ServerLog.error("No se pudo crear ServerSocketChannel.");
+                return null;
+            }
+            try {
+                return new NioServer(serverChannel, config.eventLoopCount(), config, metrics, tls);
+            } catch (IOException e) {
+                ServerLog.error("No se pudo iniciar el servidor NIO: " + e.getMessage(), e);
+                try {
+                    serverChannel.close();
+                } catch (IOException ignored) {
+                    // El canal ya no es utilizable
+                }
+                return null;
+            }
+        }
+
+        ServerSocket serverSocket = javaServerSocket.get();
+        if (serverSocket == null) {
+            ServerLog.error("No se pudo crear ServerSocket.");
+            return null;
+        }
+        // Inicializa la instancia del servidor con el ServerSocket
+        if (virtualThreads) {
+            return new Server(serverSocket, Thread.ofVirtual().name("client-", 0).factory(), config, metrics, tls);
+        }
+        return new Server(serverSocket, Thread::new, config, metrics, tls);
+    }
+
+    /**
+     * Detiene el servidor sin salir de la aplicación.
+     * Cierra la consola de administración y el servidor, que deja de aceptar conexiones,
+     * vacía las colas de salida y cierra las conexiones; después espera al hilo aceptador.
+     * Se puede volver a arrancar con startServer.
      */
     public void stopServer() {
+        lifecycle.lock();
+        try {
+            stop();
+        } finally {
+            lifecycle.unlock();
+        }
+    }
+
+    private void stop() {
         if (!running) {
-            System.out.println("El servidor no está en funcionamiento.");
+            ServerLog.info("El servidor no está en funcionamiento.");
             return;
         }
 
         running = false;
 
+        if (adminServer != null) {
+            adminServer.stop();
+            adminServer = null;
+        }
         if (server != null) {
             server.close(); // Cierra el servidor
+            server = null;
         }
         if (threadPool != null) {
             threadPool.shutdown(); // Apaga el pool de hilos
+            try {
+                threadPool.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
-        System.exit(0); // Sale de la aplicación
+        ServerLog.info("Servidor detenido.");
+        ServerLog.flush(); // Escribe los eventos pendientes
+    }
+
+    /**
+     * Cambia la cola de conexiones pendientes del socket. Debe llamarse antes de startServer.
+     */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Devuelve el puerto en el que escucha (o escuchará) el servidor.
+     */
+    public int getPort() {
+        return port;
     }
 
     /**
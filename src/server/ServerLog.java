@@ -0,0 +1,233 @@
+package server;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro de eventos del servidor, fuera del camino de los mensajes.
+ * Los hilos que registran un evento solo lo dejan en un buffer circular preasignado
+ * (sin cerrojos: reservan la posición con una operación atómica) y un único hilo
+ * escritor lo formatea y lo escribe en la consola. Así los hilos lectores no compiten
+ * por el cerrojo de System.out ni esperan a la E/S de la consola.
+ * Si el buffer está lleno el evento se descarta y se contabiliza; quien registra
+ * nunca se bloquea. El escritor informa de los descartes en cuanto puede.
+ *
+ * Los eventos de nivel inferior al configurado se descartan antes de encolarse; los
+ * mensajes de chat tienen su propio interruptor y por defecto no se registran.
+ * Para no construir el texto de un evento que no se va a escribir, los llamadores
+ * del camino caliente comprueban antes isEnabled o isChatEnabled.
+ */
+public final class ServerLog {
+    // Eventos que caben en el buffer circular (potencia de dos)
+    private static final int CAPACITY = 16 * 1024;
+    // Espera máxima del escritor cuando no hay eventos
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Formato de la hora de cada evento
+    private static final String TIME_PATTERN = "HH:mm:ss.SSS";
+
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY); // Turno de cada posición
+    private static final long[] times = new long[CAPACITY]; // Instante de cada evento...
+    private static final LogLevel[] levels = new LogLevel[CAPACITY]; // ... su nivel...
+    private static final String[] messages = new String[CAPACITY]; // ... su texto...
+    private static final Throwable[] errors = new Throwable[CAPACITY]; // ... y su excepción, si la hay
+    private static final AtomicLong tail = new AtomicLong(); // Siguiente posición que se reserva
+    private static final LongAdder dropped = new LongAdder(); // Eventos descartados por estar lleno el buffer
+    private static volatile LogLevel level = LogLevel.INFO; // Nivel mínimo que se escribe
+    private static volatile boolean chatEnabled; // Registrar cada mensaje de chat
+    private static volatile boolean writerIdle; // El escritor está dormido esperando eventos
+    private static volatile long written; // Eventos ya escritos (posición del escritor)
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        writer = new Thread(ServerLog::writeLoop, "server-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::flush, "server-log-flush"));
+    }
+
+    private ServerLog() {
+    }
+
+    /**
+     * Aplica el nivel y el registro de chat configurados.
+     */
+    public static void configure(ServerConfig config) {
+        level = config.getLoggerLevel();
+        chatEnabled = config.isChatLogging();
+    }
+
+    public static void setLevel(LogLevel level) {
+        ServerLog.level = level;
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    public static void setChatEnabled(boolean chatEnabled) {
+        ServerLog.chatEnabled = chatEnabled;
+    }
+
+    /**
+     * Indica si se escriben los eventos del nivel indicado.
+     */
+    public static boolean isEnabled(LogLevel eventLevel) {
+        return eventLevel.isEnabled(level);
+    }
+
+    /**
+     * Indica si se registra cada mensaje de chat.
+     */
+    public static boolean isChatEnabled() {
+        return chatEnabled;
+    }
+
+    public static void debug(String message) {
+        log(LogLevel.DEBUG, message, null);
+    }
+
+    public static void debug(String message, Throwable error) {
+        log(LogLevel.DEBUG, message, error);
+    }
+
+    public static void info(String message) {
+        log(LogLevel.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(LogLevel.WARN, message, null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        log(LogLevel.WARN, message, error);
+    }
+
+    public static void error(String message) {
+        log(LogLevel.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(LogLevel.ERROR, message, error);
+    }
+
+    /**
+     * Registra un mensaje de chat si el registro de chat está activado (nivel INFO).
+     */
+    public static void chat(String message) {
+        if (chatEnabled) {
+            log(LogLevel.INFO, message, null);
+        }
+    }
+
+    /**
+     * Deja un evento en el buffer circular para que lo escriba el hilo escritor.
+     * No se bloquea: si no hay sitio el evento se descarta y se contabiliza.
+     */
+    public static void log(LogLevel eventLevel, String message, Throwable error) {
+        if (!eventLevel.isEnabled(level)) {
+            return;
+        }
+        long position = tail.get();
+        int slot;
+        while (true) {
+            slot = (int) position & (CAPACITY - 1);
+            long diff = sequences.get(slot) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break; // Posición reservada
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                dropped.increment(); // El escritor aún no ha liberado esta posición: buffer lleno
+                return;
+            } else {
+                position = tail.get(); // Otro hilo reservó esta posición
+            }
+        }
+        times[slot] = System.currentTimeMillis();
+        levels[slot] = eventLevel;
+        messages[slot] = message;
+        errors[slot] = error;
+        sequences.set(slot, position + 1); // Publica el evento para el escritor
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor: formatea y escribe los eventos en orden y, cuando no
+     * quedan, vacía los streams y duerme hasta que llegue otro.
+     */
+    private static void writeLoop() {
+        // Se crea aquí y no al cargar la clase: leer la zona horaria cuesta decenas de
+        // milisegundos, que así no retrasan el arranque del hilo que registra el primer evento
+        DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern(TIME_PATTERN).withZone(ZoneId.systemDefault());
+        StringBuilder line = new StringBuilder(256);
+        long head = 0;
+        long reportedDrops = 0;
+        while (true) {
+            int slot = (int) head & (CAPACITY - 1);
+            if (sequences.get(slot) != head + 1) {
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    System.err.println("Registro saturado: " + (drops - reportedDrops) + " eventos descartados");
+                    reportedDrops = drops;
+                }
+                System.out.flush();
+                System.err.flush();
+                writerIdle = true;
+                if (sequences.get(slot) != head + 1) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+                writerIdle = false;
+                continue;
+            }
+            LogLevel eventLevel = levels[slot];
+            Throwable error = errors[slot];
+            line.setLength(0);
+            timeFormat.formatTo(Instant.ofEpochMilli(times[slot]), line);
+            line.append(' ').append(eventLevel).append(' ').append(messages[slot]);
+            messages[slot] = null;
+            errors[slot] = null;
+            sequences.set(slot, head + CAPACITY); // Libera la posición para la siguiente vuelta
+            head++;
+            written = head;
+            PrintStream out = eventLevel.ordinal() >= LogLevel.WARN.ordinal() ? System.err : System.out;
+            out.println(line);
+            if (error != null) {
+                error.printStackTrace(out);
+            }
+        }
+    }
+
+    /**
+     * Espera (como mucho un segundo) a que se escriban los eventos ya registrados.
+     */
+    public static void flush() {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (written < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        System.out.flush();
+        System.err.flush();
+    }
+
+    /**
+     * Devuelve los eventos descartados por estar lleno el buffer.
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+}
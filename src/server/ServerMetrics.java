@@ -0,0 +1,357 @@
+package server;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas del servidor: contadores acumulados, histogramas de latencia y medidas
+ * instantáneas (conexiones activas, profundidad de las colas de salida).
+ * Los contadores son LongAdder, repartidos por hilo, y los histogramas no asignan
+ * memoria, de modo que registrar un evento en el camino de los mensajes cuesta unos
+ * pocos nanosegundos. Las tasas por segundo las calcula quien consulta, a partir de
+ * la diferencia entre dos lecturas (la consola de administración o el panel).
+ * Un mismo objeto sobrevive a los reinicios del servidor: los contadores se acumulan
+ * y las medidas instantáneas se toman del registro de clientes del servidor actual.
+ */
+public class ServerMetrics {
+    // Máximo de clientes cuya cola se publica por separado en el formato Prometheus
+    public static final int MAX_CLIENT_SERIES = 100;
+    // Cuantiles que se publican de cada histograma
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LongAdder messagesIn; // Tramas recibidas de los clientes
+    private final LongAdder messagesOut; // Tramas escritas a los clientes
+    private final LongAdder bytesIn; // Bytes recibidos de los clientes
+    private final LongAdder bytesOut; // Bytes escritos a los clientes
+    private final LongAdder accepted; // Conexiones aceptadas
+    private final LongAdder rejected; // Conexiones rechazadas (saludo o nombre no válidos)
+    private final LongAdder idleReaped; // Conexiones cerradas por inactividad o saludo incompleto
+    private final LongAdder refused; // Conexiones rechazadas por el control de admisión
+    private final LongAdder rateLimited; // Tramas de clientes que superaron sus límites de envío
+    private final LongAdder compressedOut; // Tramas escritas comprimidas
+    private final LongAdder compressionSaved; // Bytes que se dejaron de escribir gracias a la compresión
+    private final LongAdder tlsHandshakes; // Saludos TLS completados
+    private final LongAdder tlsResumed; // Saludos TLS que reanudaron una sesión anterior
+    private final LongAdder tlsFailures; // Saludos TLS fallidos o rechazados por estar lleno el pool
+    private final LatencyHistogram fanOut; // Tiempo en encolar un mensaje en todos sus destinatarios
+    private final LatencyHistogram queueLatency; // Tiempo desde que se encola una trama hasta que se escribe
+    private final LatencyHistogram searchLatency; // Tiempo en resolver una búsqueda en el historial
+    private final LatencyHistogram tlsHandshakeLatency; // Duración de los saludos TLS completados
+    private volatile ClientRegistry clients; // Clientes del servidor en marcha, null si está parado
+    private volatile ClusterNode cluster; // Nodo del clúster del servidor en marcha, null si no hay
+    private volatile AdmissionController admission; // Control de admisión del servidor en marcha
+
+    /**
+     * Constructor de ServerMetrics.
+     */
+    public ServerMetrics() {
+        this.messagesIn = new LongAdder();
+        this.messagesOut = new LongAdder();
+        this.bytesIn = new LongAdder();
+        this.bytesOut = new LongAdder();
+        this.accepted = new LongAdder();
+        this.rejected = new LongAdder();
+        this.idleReaped = new LongAdder();
+        this.refused = new LongAdder();
+        this.rateLimited = new LongAdder();
+        this.compressedOut = new LongAdder();
+        this.compressionSaved = new LongAdder();
+        this.tlsHandshakes = new LongAdder();
+        this.tlsResumed = new LongAdder();
+        this.tlsFailures = new LongAdder();
+        this.fanOut = new LatencyHistogram();
+        this.queueLatency = new LatencyHistogram();
+        this.searchLatency = new LatencyHistogram();
+        this.tlsHandshakeLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Asocia las métricas al registro de clientes del servidor en marcha.
+     */
+    void bind(ClientRegistry clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Asocia las métricas al control de admisión del servidor en marcha.
+     */
+    void bindAdmission(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Asocia las métricas al nodo del clúster del servidor en marcha.
+     */
+    void bindCluster(ClusterNode cluster) {
+        this.cluster = cluster;
+    }
+
+    public void messageReceived() {
+        messagesIn.increment();
+    }
+
+    public void bytesReceived(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void messagesSent(int count) {
+        messagesOut.add(count);
+    }
+
+    public void bytesSent(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+
+    public void connectionRejected() {
+        rejected.increment();
+    }
+
+    public void connectionRefused() {
+        refused.increment();
+    }
+
+    public void rateLimited() {
+        rateLimited.increment();
+    }
+
+    /**
+     * Registra una trama escrita comprimida.
+     * @param saved Bytes de cuerpo que se ahorraron frente a la trama sin comprimir.
+     */
+    public void frameCompressed(int saved) {
+        compressedOut.increment();
+        compressionSaved.add(saved);
+    }
+
+    /**
+     * Registra un saludo TLS completado.
+     * @param resumed Se reanudó una sesión anterior (sin enviar ni firmar el certificado).
+     */
+    public void tlsHandshake(boolean resumed, long nanos) {
+        tlsHandshakes.increment();
+        if (resumed) {
+            tlsResumed.increment();
+        }
+        tlsHandshakeLatency.record(nanos);
+    }
+
+    public void tlsHandshakeFailed() {
+        tlsFailures.increment();
+    }
+
+    public void connectionReaped() {
+        idleReaped.increment();
+    }
+
+    public LatencyHistogram getFanOut() {
+        return fanOut;
+    }
+
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    public LatencyHistogram getSearchLatency() {
+        return searchLatency;
+    }
+
+    public LatencyHistogram getTlsHandshakeLatency() {
+        return tlsHandshakeLatency;
+    }
+
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getRefused() {
+        return refused.sum();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    public long getCompressedOut() {
+        return compressedOut.sum();
+    }
+
+    public long getCompressionSaved() {
+        return compressionSaved.sum();
+    }
+
+    public long getTlsHandshakes() {
+        return tlsHandshakes.sum();
+    }
+
+    public long getTlsResumed() {
+        return tlsResumed.sum();
+    }
+
+    public long getTlsFailures() {
+        return tlsFailures.sum();
+    }
+
+    public long getIdleReaped() {
+        return idleReaped.sum();
+    }
+
+    /**
+     * Devuelve el número de clientes registrados.
+     */
+    public int getActiveConnections() {
+        ClientRegistry registry = clients;
+        return registry == null ? 0 : registry.size();
+    }
+
+    /**
+     * Devuelve la suma y el máximo de tramas pendientes en las colas de salida.
+     * @return {suma, máximo}
+     */
+    public long[] getQueueDepth() {
+        long total = 0;
+        long max = 0;
+        ClientRegistry registry = clients;
+        if (registry != null) {
+            for (ClientConnection client : registry.clients()) {
+                int depth = client.getOutboundQueue().size();
+                total += depth;
+                max = Math.max(max, depth);
+            }
+        }
+        return new long[] {total, max};
+    }
+
+    /**
+     * Devuelve las métricas en el formato de texto de Prometheus (versión 0.0.4).
+     * Las latencias se publican en segundos como resúmenes con cuantiles.
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "chat_messages_in_total", "Tramas recibidas de los clientes", getMessagesIn());
+        counter(out, "chat_messages_out_total", "Tramas escritas a los clientes", getMessagesOut());
+        counter(out, "chat_bytes_in_total", "Bytes recibidos de los clientes", getBytesIn());
+        counter(out, "chat_bytes_out_total", "Bytes escritos a los clientes", getBytesOut());
+        counter(out, "chat_connections_accepted_total", "Conexiones aceptadas", getAccepted());
+        counter(out, "chat_connections_rejected_total", "Conexiones rechazadas", getRejected());
+        counter(out, "chat_connections_idle_reaped_total", "Conexiones cerradas por inactividad", getIdleReaped());
+        counter(out, "chat_connections_refused_total", "Conexiones rechazadas por el control de admisión",
+                getRefused());
+        counter(out, "chat_rate_limited_total", "Tramas de clientes que superaron sus límites de envío",
+                getRateLimited());
+        counter(out, "chat_tls_handshakes_total", "Saludos TLS completados", getTlsHandshakes());
+        counter(out, "chat_tls_resumed_total", "Saludos TLS que reanudaron una sesión", getTlsResumed());
+        counter(out, "chat_tls_handshake_failures_total", "Saludos TLS fallidos o rechazados", getTlsFailures());
+        counter(out, "chat_compressed_frames_total", "Tramas escritas comprimidas", getCompressedOut());
+        counter(out, "chat_compression_saved_bytes_total", "Bytes ahorrados por la compresión",
+                getCompressionSaved());
+        counter(out, "chat_queue_dropped_frames_total", "Tramas descartadas por colas llenas",
+                OutboundQueue.totalDroppedFrames());
+        counter(out, "chat_slow_clients_disconnected_total", "Clientes lentos desconectados",
+                OutboundQueue.totalDisconnected());
+        counter(out, "chat_server_log_dropped_total", "Eventos del registro descartados", ServerLog.getDropped());
+        gauge(out, "chat_connections_active", "Clientes registrados", getActiveConnections());
+        AdmissionController control = admission;
+        if (control != null) {
+            gauge(out, "chat_connections_open", "Conexiones admitidas y abiertas (con o sin saludo)",
+                    control.getOpenConnections());
+            gauge(out, "chat_admission_shedding", "Se rechazan conexiones por sobrecarga (1) o no (0)",
+                    control.isShedding() ? 1 : 0);
+        }
+        ClusterNode node = cluster;
+        if (node != null) {
+            counter(out, "chat_cluster_messages_sent_total", "Mensajes enviados a otros nodos", node.getMessagesSent());
+            counter(out, "chat_cluster_messages_received_total", "Mensajes recibidos de otros nodos",
+                    node.getMessagesReceived());
+            counter(out, "chat_cluster_duplicates_total", "Mensajes de otros nodos descartados por repetidos",
+                    node.getDuplicates());
+            counter(out, "chat_cluster_gaps_total", "Mensajes de otros nodos perdidos", node.getGaps());
+            gauge(out, "chat_cluster_peers_connected", "Vecinos con el enlace de salida conectado",
+                    node.getConnectedPeers());
+        }
+        summary(out, "chat_fanout_seconds", "Tiempo en encolar un mensaje en sus destinatarios", fanOut);
+        summary(out, "chat_queue_latency_seconds", "Tiempo desde que se encola una trama hasta que se escribe",
+                queueLatency);
+        summary(out, "chat_search_seconds", "Tiempo en resolver una búsqueda en el historial", searchLatency);
+        summary(out, "chat_tls_handshake_seconds", "Duración de los saludos TLS", tlsHandshakeLatency);
+
+        out.append("# HELP chat_client_queue_depth Tramas pendientes en la cola de salida de cada cliente\n");
+        out.append("# TYPE chat_client_queue_depth gauge\n");
+        long total = 0;
+        long max = 0;
+        int series = 0;
+        ClientRegistry registry = clients;
+        if (registry != null) {
+            for (ClientConnection client : registry.clients()) {
+                int depth = client.getOutboundQueue().size();
+                total += depth;
+                max = Math.max(max, depth);
+                if (series++ < MAX_CLIENT_SERIES) {
+                    out.append("chat_client_queue_depth{client=\"").append(escape(client.getClientName()))
+                            .append("\"} ").append(depth).append('\n');
+                }
+            }
+        }
+        gauge(out, "chat_queue_depth_total", "Tramas pendientes en todas las colas de salida", total);
+        gauge(out, "chat_queue_depth_max", "Mayor cola de salida de un cliente", max);
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.percentile(quantile))).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(snapshot.getSum())).append('\n');
+        out.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    /**
+     * Escapa un valor de etiqueta (barra invertida, comillas y saltos de línea).
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
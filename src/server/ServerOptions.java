@@ -0,0 +1,354 @@
+package server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Opciones de arranque del servidor sin interfaz gráfica.
+ * Cada opción es una propiedad de ServerConfig (por su nombre, p. ej. maxQueuedBytes)
+ * o una propia del lanzador: port, backlog, engine, virtualThreads, gui y trainingRun.
+ * Se aplican por capas, cada una sobre la anterior:
+ *
+ *   1. los valores por defecto (puerto 2000, 100 conexiones, motor bloqueante);
+ *   2. el fichero de configuración: el de --config o CHAT_CONFIG, o chat-server.properties
+ *      en el directorio de trabajo si existe (formato Properties, clave = opción);
+ *   3. las variables de entorno CHAT_<OPCIÓN> en mayúsculas y separada por guiones bajos
+ *      (p. ej. CHAT_MAX_QUEUED_BYTES);
+ *   4. las propiedades del sistema chat.<opción> y las antiguas chat.port, chat.max.clients,
+ *      chat.admin.port, chat.log.dir, chat.cluster.port, chat.cluster.node y chat.cluster.peers;
+ *   5. la línea de órdenes: --opción valor, --opción=valor o --opción sola para las booleanas
+ *      (también con guiones: --max-queued-bytes). Se siguen admitiendo los argumentos
+ *      posicionales de antes: el motor ("blocking" o "nio") y "virtual".
+ *
+ * Las listas (clusterPeers) se escriben separadas por comas y una cadena vacía equivale
+ * a null (logDirectory vacío no persiste los mensajes). Una opción desconocida en el
+ * fichero o en la línea de órdenes es un error; en el entorno y en las propiedades del
+ * sistema solo se avisa, porque ahí pueden quedar restos de otras herramientas.
+ */
+public class ServerOptions {
+    // Fichero de configuración que se lee si no se indica otro
+    public static final String DEFAULT_CONFIG_FILE = "chat-server.properties";
+    // Prefijo de las variables de entorno y de las propiedades del sistema
+    private static final String ENV_PREFIX = "CHAT_";
+    private static final String PROPERTY_PREFIX = "chat.";
+    // Propiedades del sistema anteriores al lanzador y la opción a la que equivalen
+    private static final Map<String, String> LEGACY_PROPERTIES = Map.of(
+            "chat.port", "port",
+            "chat.max.clients", "maxConnections",
+            "chat.admin.port", "adminPort",
+            "chat.log.dir", "logDirectory",
+            "chat.cluster.port", "clusterPort",
+            "chat.cluster.node", "clusterNodeId",
+            "chat.cluster.peers", "clusterPeers");
+
+    public static final String USAGE = "Uso: java Main [--config fichero] [--port 2000] [--backlog 100]"
+            + " [--engine blocking|nio] [--virtualThreads] [--gui] [--trainingRun] [--<opción de ServerConfig> valor]...";
+
+    private int port = 2000; // Puerto de escucha del servidor de chat
+    private int backlog = 100; // Cola de conexiones pendientes de aceptar
+    private ServerEngine engine = ServerEngine.BLOCKING; // Motor del servidor
+    private boolean virtualThreads; // Atender a los clientes con hilos virtuales (motor bloqueante)
+    private boolean gui; // Abrir la ventana de control (si hay entorno gráfico)
+    private boolean trainingRun; // Arrancar, ejercitar el servidor con un cliente local y detenerlo
+    private final ServerConfig config = new ServerConfig(); // Parámetros de ajuste del servidor
+
+    /**
+     * Constructor de ServerOptions con los valores por defecto del lanzador.
+     * Se conservan las 100 conexiones que admitía el servidor antes de poder configurarlo.
+     */
+    public ServerOptions() {
+        config.setMaxConnections(100);
+    }
+
+    /**
+     * Lee las opciones de todas las fuentes, en orden de precedencia creciente.
+     * @throws IllegalArgumentException si una opción es desconocida, no tiene valor o el valor no es válido.
+     */
+    public static ServerOptions load(String[] args, Map<String, String> env, Properties system) {
+        ServerOptions options = new ServerOptions();
+        Path file = configFile(args, env, system);
+        if (file != null) {
+            options.loadFile(file);
+        }
+        options.loadEnvironment(env);
+        options.loadSystemProperties(system);
+        options.parse(args);
+        return options;
+    }
+
+    /**
+     * Busca el fichero de configuración: --config, CHAT_CONFIG, chat.config o el de por defecto si existe.
+     */
+    private static Path configFile(String[] args, Map<String, String> env, Properties system) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--config") && i + 1 < args.length) {
+                return Path.of(args[i + 1]);
+            }
+            if (args[i].startsWith("--config=")) {
+                return Path.of(args[i].substring("--config=".length()));
+            }
+        }
+        String named = env.getOrDefault(ENV_PREFIX + "CONFIG", system.getProperty(PROPERTY_PREFIX + "config"));
+        if (named != null) {
+            return Path.of(named);
+        }
+        Path fallback = Path.of(DEFAULT_CONFIG_FILE);
+        return Files.isRegularFile(fallback) ? fallback : null;
+    }
+
+    private void loadFile(Path file) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("No se pudo leer el fichero de configuración " + file + ": " + e.getMessage());
+        }
+        for (String key : properties.stringPropertyNames()) {
+            set(key, properties.getProperty(key).trim(), file.toString());
+        }
+    }
+
+    private void loadEnvironment(Map<String, String> env) {
+        for (Map.Entry<String, String> entry : env.entrySet()) {
+            String name = entry.getKey();
+            if (!name.startsWith(ENV_PREFIX) || name.equals(ENV_PREFIX + "CONFIG")) {
+                continue;
+            }
+            String key = camelCase(name.substring(ENV_PREFIX.length()).toLowerCase(Locale.ROOT), '_');
+            if (!isKnown(key)) {
+                ServerLog.warn("Variable de entorno ignorada: " + name);
+                continue;
+            }
+            set(key, entry.getValue(), "la variable " + name);
+        }
+    }
+
+    private void loadSystemProperties(Properties system) {
+        for (String name : system.stringPropertyNames()) {
+            if (!name.startsWith(PROPERTY_PREFIX) || name.equals(PROPERTY_PREFIX + "config")) {
+                continue;
+            }
+            String key = LEGACY_PROPERTIES.getOrDefault(name, name.substring(PROPERTY_PREFIX.length()));
+            if (!isKnown(key)) {
+                ServerLog.warn("Propiedad del sistema ignorada: " + name);
+                continue;
+            }
+            set(key, system.getProperty(name), "la propiedad " + name);
+            if (name.equals("chat.max.clients")) {
+                set("backlog", system.getProperty(name), "la propiedad " + name); // También era la cola del socket
+            }
+        }
+    }
+
+    /**
+     * Interpreta la línea de órdenes. --config ya se leyó al buscar el fichero.
+     */
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                parsePositional(arg);
+                continue;
+            }
+            String key = arg.substring(2);
+            String value = null;
+            int equals = key.indexOf('=');
+            if (equals >= 0) {
+                value = key.substring(equals + 1);
+                key = key.substring(0, equals);
+            }
+            key = camelCase(key, '-');
+            if (value == null) {
+                boolean flag = isBoolean(key) && (i + 1 == args.length || args[i + 1].startsWith("--"));
+                if (flag) {
+                    value = "true";
+                } else if (i + 1 < args.length) {
+                    value = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Falta el valor de " + arg);
+                }
+            }
+            if (!key.equals("config")) {
+                set(key, value, "la línea de órdenes");
+            }
+        }
+    }
+
+    private void parsePositional(String arg) {
+        if (arg.equalsIgnoreCase("virtual")) {
+            virtualThreads = true;
+        } else {
+            set("engine", arg, "la línea de órdenes");
+        }
+    }
+
+    /**
+     * Fija una opción del lanzador o de ServerConfig.
+     * @param source Origen del valor, para los mensajes de error.
+     */
+    public void set(String key, String value, String source) {
+        if (!isKnown(key)) {
+            throw new IllegalArgumentException("Opción desconocida en " + source + ": " + key);
+        }
+        try {
+            switch (key) {
+                case "port" -> port = Integer.parseInt(value.trim());
+                case "backlog" -> backlog = Integer.parseInt(value.trim());
+                case "engine" -> engine = ServerEngine.valueOf(value.trim().toUpperCase(Locale.ROOT));
+                case "virtualThreads" -> virtualThreads = parseBoolean(value);
+                case "gui" -> gui = parseBoolean(value);
+                case "trainingRun" -> trainingRun = parseBoolean(value);
+                default -> {
+                    Method setter = setter(key);
+                    setter.invoke(config, convert(value, setter.getParameterTypes()[0]));
+                }
+            }
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalArgumentException("No se pudo aplicar " + key + " de " + source + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Valor no válido para " + key + " en " + source + ": " + value);
+        }
+    }
+
+    private static boolean isKnown(String key) {
+        return switch (key) {
+            case "port", "backlog", "engine", "virtualThreads", "gui", "trainingRun" -> true;
+            default -> setter(key) != null;
+        };
+    }
+
+    private static boolean isBoolean(String key) {
+        return switch (key) {
+            case "virtualThreads", "gui", "trainingRun" -> true;
+            default -> {
+                Method setter = setter(key);
+                yield setter != null && setter.getParameterTypes()[0] == boolean.class;
+            }
+        };
+    }
+
+    /**
+     * Busca el método set de una propiedad de ServerConfig con un único parámetro.
+     */
+    private static Method setter(String key) {
+        if (key.isEmpty()) {
+            return null;
+        }
+        String name = "set" + Character.toUpperCase(key.charAt(0)) + key.substring(1);
+        for (Method method : ServerConfig.class.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterCount() == 1) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Convierte el texto de una opción al tipo del parámetro de su método set.
+     */
+    private static Object convert(String value, Class<?> type) {
+        String text = value.trim();
+        if (type == int.class) {
+            return Integer.parseInt(text.replace("_", ""));
+        }
+        if (type == long.class) {
+            return Long.parseLong(text.replace("_", ""));
+        }
+        if (type == double.class) {
+            return Double.parseDouble(text);
+        }
+        if (type == boolean.class) {
+            return parseBoolean(text);
+        }
+        if (type == String.class) {
+            return text.isEmpty() ? null : text;
+        }
+        if (type == List.class) {
+            return text.isEmpty() ? List.of() : Arrays.stream(text.split(",")).map(String::trim).toList();
+        }
+        if (type.isEnum()) {
+            for (Object constant : type.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equalsIgnoreCase(text)) {
+                    return constant;
+                }
+            }
+        }
+        throw new IllegalArgumentException(text);
+    }
+
+    private static boolean parseBoolean(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        if (text.equals("true") || text.equals("yes") || text.equals("1")) {
+            return true;
+        }
+        if (text.equals("false") || text.equals("no") || text.equals("0")) {
+            return false;
+        }
+        throw new IllegalArgumentException(value);
+    }
+
+    /**
+     * Pasa a camelCase un nombre en minúsculas separado por el carácter indicado (max-queued-bytes).
+     */
+    private static String camelCase(String name, char separator) {
+        StringBuilder result = new StringBuilder(name.length());
+        boolean upper = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == separator) {
+                upper = result.length() > 0;
+            } else {
+                result.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Crea el inicializador del servidor con estas opciones.
+     */
+    public ServerInitializer newInitializer() {
+        ServerInitializer initializer = new ServerInitializer(port, backlog, engine, config);
+        initializer.setVirtualThreads(virtualThreads);
+        return initializer;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public ServerEngine getEngine() {
+        return engine;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public boolean isGui() {
+        return gui;
+    }
+
+    public boolean isTrainingRun() {
+        return trainingRun;
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+}
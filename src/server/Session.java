@@ -1,75 +1,336 @@
 package server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * Sesión de lectura y escritura sobre el socket de un cliente.
+ * No usa synchronized: las lecturas bloqueantes sobre el socket liberan el hilo
+ * portador cuando el manejador se ejecuta en un hilo virtual.
+ * Empieza hablando el protocolo LEGACY (writeUTF/readUTF); tras negociar el
+ * saludo puede pasar al protocolo V2 con setProtocol.
+ */
 public class Session {
+    // Tamaño del buffer de salida: permite juntar un lote de tramas en una sola escritura al socket
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    // Tamaño del buffer de entrada: evita una llamada al sistema por cada byte de la cabecera varint
+    private static final int INPUT_BUFFER_SIZE = 8 * 1024;
+
     private DataOutputStream dataOutputStream;
     private DataInputStream dataInputStream;
     private Socket socket;
+    private volatile WireProtocol protocol = WireProtocol.LEGACY; // Protocolo de tramas de la sesión
+    private boolean sequenced; // Las tramas V2 llevan el número de secuencia del mensaje
+    private int deflateThreshold; // Cuerpo a partir del que las tramas V2 se escriben comprimidas (0 = nunca)
+    private int maxFrameBytes = Integer.MAX_VALUE; // Tamaño máximo del cuerpo de una trama V2 recibida
+    private byte[] readBuffer = new byte[INPUT_BUFFER_SIZE]; // Cuerpo de la última trama leída
+    private ByteBuffer readView = ByteBuffer.wrap(readBuffer); // Vista de readBuffer para validar y copiar
+    private final byte[] headerBuffer = new byte[FrameCodec.MAX_V2_HEADER_LENGTH]; // Cabecera de la trama en curso
+    private final byte[] writeBuffer = new byte[INPUT_BUFFER_SIZE]; // Copia por tramos de cuerpos en buffers directos
+    private FramePool framePool; // Pool de tramas para reenviar mensajes, null si no se reenvían
+    private byte[] relayPrefix; // Prefijo "nombre: " del cliente, null si no se reenvían mensajes
+    private ServerMetrics metrics; // Bytes recibidos y enviados, null si no se miden
 
     public Session(Socket socket) {
         this.socket = socket;
         try {
-            this.dataOutputStream = new DataOutputStream(this.socket.getOutputStream());
-            this.dataInputStream = new DataInputStream(this.socket.getInputStream());
+            openStreams(this.socket.getInputStream(), this.socket.getOutputStream());
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.error("Error al abrir los streams de la sesión: " + e.getMessage(), e);
             close();
         }
     }
 
+    /**
+     * Constructor de una sesión que lee y escribe en claro sobre otros flujos del socket
+     * (los de TlsStreams en las conexiones TLS). Cerrar la sesión sigue cerrando el socket.
+     */
+    public Session(Socket socket, InputStream in, OutputStream out) {
+        this.socket = socket;
+        openStreams(in, out);
+    }
+
+    private void openStreams(InputStream in, OutputStream out) {
+        this.dataOutputStream = new DataOutputStream(new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE));
+        this.dataInputStream = new DataInputStream(new BufferedInputStream(in, INPUT_BUFFER_SIZE));
+    }
+
+    /**
+     * Cambia el protocolo de tramas de la sesión (tras negociar el saludo).
+     */
+    public void setProtocol(WireProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * Cuenta en las métricas del servidor los bytes que se leen y se escriben.
+     */
+    public void setMetrics(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Indica si las tramas V2 que se escriben deben llevar su número de secuencia.
+     */
+    public void setSequenced(boolean sequenced) {
+        this.sequenced = sequenced;
+    }
+
+    /**
+     * Activa la compresión de las tramas V2 cuyo cuerpo llega al umbral indicado (0 la desactiva).
+     */
+    public void setDeflateThreshold(int deflateThreshold) {
+        this.deflateThreshold = deflateThreshold;
+    }
+
+    /**
+     * Activa el reenvío directo de mensajes de chat: las tramas leídas se copian en
+     * tramas del pool precedidas del prefijo del remitente.
+     * @param relayPrefix Prefijo codificado por FrameCodec.relayPrefix, o null para desactivarlo.
+     */
+    public void setRelay(FramePool framePool, byte[] relayPrefix) {
+        this.framePool = framePool;
+        this.relayPrefix = relayPrefix;
+    }
+
+    /**
+     * Devuelve el protocolo de tramas de la sesión.
+     */
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Limita el tamaño del cuerpo de las tramas V2 que se aceptan del cliente.
+     */
+    public void setMaxFrameBytes(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * Lee el texto de la siguiente trama de chat o de control.
+     */
     public String read() throws IOException {
+        return readFrame().text();
+    }
+
+    /**
+     * Lee la siguiente trama en el protocolo de la sesión.
+     * En LEGACY todas las tramas son de chat; en V2 se ignoran las confirmaciones (ACK)
+     * y los tipos desconocidos.
+     * Si la sesión tiene activado el reenvío (setRelay), los mensajes de chat se devuelven
+     * en una trama del pool con el prefijo del remitente, sin crear ningún String; quien
+     * llama recibe una referencia y debe soltarla con Frame.release().
+     */
+    public Frame readFrame() throws IOException {
         try {
-            return this.dataInputStream.readUTF();
+            while (true) {
+                int length;
+                FrameType type;
+                if (protocol == WireProtocol.LEGACY) {
+                    length = this.dataInputStream.readUnsignedShort();
+                    type = FrameType.CHAT;
+                } else {
+                    length = readVarint();
+                    if (length > maxFrameBytes) {
+                        throw new IOException("Trama demasiado grande: " + length + " bytes");
+                    }
+                    type = FrameType.fromCode(this.dataInputStream.readUnsignedByte());
+                    if (type != FrameType.CHAT && type != FrameType.CONTROL) {
+                        this.dataInputStream.skipNBytes(length);
+                        continue;
+                    }
+                }
+                readPayload(length);
+                if (metrics != null) {
+                    metrics.bytesReceived(protocol == WireProtocol.LEGACY
+                            ? FrameCodec.HEADER_LENGTH + length
+                            : FrameCodec.varintLength(length) + 1 + length);
+                }
+                try {
+                    return decodePayload(type, length);
+                } finally {
+                    shrinkReadBuffer(); // La trama ya se copió fuera del buffer
+                }
+            }
         } catch (EOFException e) {
             // Maneja el caso en el que el cliente cierra la conexión inesperadamente
             close(); // Cierra la sesión y libera los recursos
             throw e; // Propaga la excepción para que pueda ser manejada en otro lugar
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.debug("Error al leer la trama", e); // Quien llama lo registra sin la traza
             throw e;
         }
     }
 
+    /**
+     * Crea la trama con el cuerpo leído en el buffer de lectura.
+     */
+    private Frame decodePayload(FrameType type, int length) throws UTFDataFormatException {
+        if (type == FrameType.CHAT && relayPrefix != null
+                && FrameCodec.isRelayable(readView, 0, length)) {
+            Frame relay = framePool.relay(relayPrefix, readView, 0, length);
+            if (relay != null) {
+                return relay;
+            }
+        }
+        if (protocol == WireProtocol.LEGACY) {
+            return Frame.of(FrameCodec.decode(readBuffer, 0, length));
+        }
+        byte[] payload = Arrays.copyOf(readBuffer, length);
+        return Frame.decoded(type, new String(payload, StandardCharsets.UTF_8), payload);
+    }
+
+    /**
+     * Lee el cuerpo de una trama en el buffer de lectura reutilizable.
+     * Si no cabe, el buffer se duplica (como mucho hasta el cuerpo) cada vez que se llena,
+     * de modo que una cabecera que anuncia una trama enorme no reserva memoria por sí sola.
+     */
+    private void readPayload(int length) throws IOException {
+        int read = Math.min(length, readBuffer.length);
+        this.dataInputStream.readFully(readBuffer, 0, read);
+        if (read == length) {
+            return;
+        }
+        while (read < length) {
+            int capacity = (int) Math.min(length, readBuffer.length * 2L);
+            readBuffer = Arrays.copyOf(readBuffer, capacity);
+            this.dataInputStream.readFully(readBuffer, read, capacity - read);
+            read = capacity;
+        }
+        readView = ByteBuffer.wrap(readBuffer);
+    }
+
+    /**
+     * Devuelve el buffer de lectura a su tamaño normal tras consumir una trama grande.
+     */
+    private void shrinkReadBuffer() {
+        if (readBuffer.length > INPUT_BUFFER_SIZE) {
+            readBuffer = new byte[INPUT_BUFFER_SIZE];
+            readView = ByteBuffer.wrap(readBuffer);
+        }
+    }
+
+    /**
+     * Lee un entero varint (LEB128 sin signo) de como mucho 5 bytes.
+     */
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = this.dataInputStream.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Longitud varint no válida");
+    }
+
+    /**
+     * Escribe un mensaje de chat en el protocolo de la sesión.
+     */
     public boolean write(String data) throws IOException {
+        return write(Frame.of(data));
+    }
+
+    /**
+     * Escribe una trama en el protocolo de la sesión.
+     * Se reutiliza la codificación compartida de la trama, sin volver a codificar el texto.
+     */
+    public boolean write(Frame frame) throws IOException {
         try {
-            this.dataOutputStream.writeUTF(data);
+            if (!writeFrame(frame)) {
+                throw new UTFDataFormatException("Mensaje demasiado largo para el protocolo LEGACY");
+            }
             this.dataOutputStream.flush();
             return true;
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.debug("Error al escribir la trama", e); // Quien llama lo registra sin la traza
             throw e;
         }
     }
 
+    /**
+     * Escribe un lote de tramas con un único flush.
+     * Las tramas se acumulan en el buffer de salida y se envían juntas al socket.
+     */
+    public boolean write(Frame[] frames, int count) throws IOException {
+        try {
+            for (int i = 0; i < count; i++) {
+                writeFrame(frames[i]); // Los mensajes de más de 64 KB no llegan a los clientes LEGACY
+            }
+            this.dataOutputStream.flush();
+            return true;
+        } catch (IOException e) {
+            ServerLog.debug("Error al escribir la trama", e); // Quien llama lo registra sin la traza
+            throw e;
+        }
+    }
+
+    /**
+     * Copia la cabecera y el cuerpo de una trama en el buffer de salida, sin hacer flush.
+     * @return Falso si el mensaje no cabe en una trama del protocolo de la sesión.
+     */
+    private boolean writeFrame(Frame frame) throws IOException {
+        int header = frame.writeHeader(protocol, sequenced, deflateThreshold, headerBuffer, 0);
+        if (header < 0) {
+            return false;
+        }
+        this.dataOutputStream.write(headerBuffer, 0, header);
+        frame.writeBody(protocol, deflateThreshold, this.dataOutputStream, writeBuffer);
+        if (metrics != null) {
+            int length = frame.bodyLength(protocol, deflateThreshold);
+            metrics.bytesSent(header + length);
+            if (deflateThreshold > 0 && length < frame.length()) {
+                metrics.frameCompressed(frame.length() - length);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cierra la sesión.
+     * El socket se cierra primero: así un hilo bloqueado escribiendo en un cliente lento
+     * se desbloquea y el flush del buffer de salida no puede quedarse esperando.
+     * Los datos que quedaran en el buffer se descartan.
+     */
     public boolean close() {
         boolean success = true;
         try {
-            if (this.dataOutputStream != null) {
-                this.dataOutputStream.close();
+            if (this.socket != null && !this.socket.isClosed()) {
+                this.socket.close();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.warn("Error al cerrar la sesión: " + e.getMessage());
             success = false;
         }
         try {
-            if (this.dataInputStream != null) {
-                this.dataInputStream.close();
+            if (this.dataOutputStream != null) {
+                this.dataOutputStream.close();
             }
         } catch (IOException e) {
-            e.printStackTrace();
-            success = false;
+            // El socket ya está cerrado: el flush de lo pendiente falla y se descarta
         }
         try {
-            if (this.socket != null && !this.socket.isClosed()) {
-                this.socket.close();
+            if (this.dataInputStream != null) {
+                this.dataInputStream.close();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLog.warn("Error al cerrar la sesión: " + e.getMessage());
             success = false;
         }
         return success;
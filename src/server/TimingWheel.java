@@ -0,0 +1,195 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rueda de temporización con cubetas (hashed timing wheel).
+ * Cada plazo se guarda en la cubeta de la vuelta en la que vence, en una lista
+ * doblemente enlazada intrusiva: programar y cancelar cuestan O(1) y no asignan
+ * memoria. Un único hilo avanza la rueda una cubeta por tick y solo recorre los
+ * plazos de esa cubeta, de modo que vigilar 100.000 conexiones no cuesta más por
+ * tick que vigilar unas pocas (a diferencia de una tarea programada por conexión).
+ * Los plazos más largos que una vuelta completa esperan las vueltas que les faltan.
+ * La precisión es la de un tick: un plazo vence entre su instante y un tick después.
+ */
+public class TimingWheel {
+    private final long tickMillis; // Duración de un tick
+    private final Timeout[] buckets; // Cabeceras de las listas de cada cubeta (centinelas)
+    private final int mask; // Número de cubetas - 1 (potencia de dos)
+    private final ReentrantLock lock; // Protege las listas y los campos de enlace de los plazos
+    private final Thread thread; // Hilo que avanza la rueda
+    private final long startNanos; // Instante de arranque de la rueda
+    private volatile long now; // Milisegundos desde el arranque al empezar el tick actual (reloj grueso)
+    private long tick; // Ticks procesados (lo modifica solo el hilo de la rueda, con el cerrojo)
+    private volatile boolean running;
+
+    /**
+     * Plazo programable en la rueda. Las clases que lo extienden implementan la acción
+     * al vencer; desde ella pueden volver a programarse. Si otro hilo lo reprograma
+     * mientras vence, la acción puede ejecutarse igualmente: debe comprobar su estado.
+     */
+    public abstract static class Timeout {
+        private Timeout prev; // Enlaces de la lista de la cubeta (protegidos por el cerrojo de la rueda)
+        private Timeout next;
+        private Timeout nextExpired; // Enlace de la lista de vencidos del tick (solo el hilo de la rueda)
+        private long rounds; // Vueltas completas que faltan para vencer
+        private boolean scheduled; // Está en alguna cubeta
+
+        /**
+         * Se invoca en el hilo de la rueda al vencer el plazo. No debe bloquearse.
+         */
+        protected abstract void expired();
+    }
+
+    /**
+     * Constructor de TimingWheel. Arranca el hilo de la rueda.
+     * @param tickMillis Duración de un tick.
+     * @param wheelSize Número de cubetas (se redondea a potencia de dos).
+     */
+    public TimingWheel(long tickMillis, int wheelSize, String threadName) {
+        this.tickMillis = Math.max(1, tickMillis);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.buckets = new Timeout[size];
+        for (int i = 0; i < size; i++) {
+            Timeout head = new Sentinel();
+            head.prev = head;
+            head.next = head;
+            buckets[i] = head;
+        }
+        this.mask = size - 1;
+        this.lock = new ReentrantLock();
+        this.startNanos = System.nanoTime();
+        this.running = true;
+        this.thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Devuelve los milisegundos transcurridos desde el arranque de la rueda, con la
+     * precisión de un tick. Es una lectura volátil, apta para el camino de los mensajes.
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Programa un plazo para dentro de los milisegundos indicados. Si ya estaba
+     * programado se mueve al nuevo instante.
+     */
+    public void schedule(Timeout timeout, long delayMillis) {
+        long ticks = Math.max(1, (Math.max(0, delayMillis) + tickMillis - 1) / tickMillis);
+        lock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            unlink(timeout);
+            long deadline = tick + ticks;
+            timeout.rounds = (ticks - 1) / buckets.length;
+            Timeout head = buckets[(int) (deadline & mask)];
+            timeout.prev = head.prev;
+            timeout.next = head;
+            head.prev.next = timeout;
+            head.prev = timeout;
+            timeout.scheduled = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancela un plazo. No hace nada si no estaba programado.
+     */
+    public void cancel(Timeout timeout) {
+        lock.lock();
+        try {
+            unlink(timeout);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saca un plazo de su cubeta. Debe llamarse con el cerrojo tomado.
+     */
+    private static void unlink(Timeout timeout) {
+        if (!timeout.scheduled) {
+            return;
+        }
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+    }
+
+    /**
+     * Detiene la rueda. Los plazos pendientes ya no vencen.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Bucle del hilo de la rueda: espera al siguiente tick, separa los plazos vencidos
+     * de su cubeta con el cerrojo tomado y ejecuta sus acciones fuera de él.
+     */
+    private void run() {
+        Timeout expired = new Sentinel(); // Lista de vencidos del tick (enlazada por nextExpired)
+        while (running) {
+            long target = startNanos + TimeUnit.MILLISECONDS.toNanos((tick + 1) * tickMillis);
+            long wait = target - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            Timeout last = expired;
+            lock.lock();
+            try {
+                tick++;
+                now = tick * tickMillis;
+                Timeout head = buckets[(int) (tick & mask)];
+                Timeout timeout = head.next;
+                while (timeout != head) {
+                    Timeout following = timeout.next;
+                    if (timeout.rounds > 0) {
+                        timeout.rounds--;
+                    } else {
+                        unlink(timeout);
+                        last.nextExpired = timeout;
+                        last = timeout;
+                    }
+                    timeout = following;
+                }
+            } finally {
+                lock.unlock();
+            }
+            last.nextExpired = null;
+            Timeout timeout = expired.nextExpired;
+            expired.nextExpired = null;
+            while (timeout != null) {
+                Timeout following = timeout.nextExpired;
+                timeout.nextExpired = null;
+                try {
+                    timeout.expired();
+                } catch (RuntimeException e) {
+                    ServerLog.error("Error en un plazo de la rueda de temporización", e);
+                }
+                timeout = following;
+            }
+        }
+    }
+
+    /**
+     * Cabecera de una lista; nunca vence.
+     */
+    private static final class Sentinel extends Timeout {
+        @Override
+        protected void expired() {
+        }
+    }
+}
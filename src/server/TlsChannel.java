@@ -0,0 +1,318 @@
+package server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TLS sobre el canal no bloqueante de una NioConnection, con un SSLEngine.
+ * Solo lo usa el hilo del bucle de la conexión: descifra lo recibido en el buffer de
+ * lectura de la conexión y cifra su buffer de salida. Las tareas delegadas del saludo
+ * se ejecutan en el pool de TlsContext; mientras tanto la conexión no lee y el bucle
+ * sigue atendiendo al resto de clientes. Al terminarlas se avisa a la conexión con la
+ * continuación indicada, que debe volver al hilo del bucle.
+ */
+class TlsChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel; // Canal del cliente
+    private final SSLEngine engine; // Motor TLS de la conexión
+    private final TlsContext tls; // Pool de saludos y métricas
+    private final Runnable onTasksDone; // Continuación tras las tareas delegadas (en el pool)
+    private ByteBuffer netIn; // Bytes cifrados recibidos sin descifrar (modo escritura)
+    private final ByteBuffer netOut; // Bytes cifrados pendientes de enviar (modo lectura)
+    private boolean handshaking = true; // El saludo no ha terminado
+    private boolean tasksRunning; // Hay tareas delegadas en el pool
+    private boolean inboundClosed; // El cliente envió su aviso de cierre
+    private final long startNanos = System.nanoTime(); // Inicio del saludo, para su latencia
+    private final long startMillis = System.currentTimeMillis(); // Inicio del saludo, para detectar la reanudación
+
+    TlsChannel(SocketChannel channel, TlsContext tls, Runnable onTasksDone) throws IOException {
+        this.channel = channel;
+        this.tls = tls;
+        this.onTasksDone = onTasksDone;
+        this.engine = tls.newEngine();
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocateDirect(packetSize).limit(0);
+        engine.beginHandshake();
+    }
+
+    /**
+     * Tamaño mínimo del hueco del buffer de destino para descifrar un registro.
+     */
+    int applicationBufferSize() {
+        return engine.getSession().getApplicationBufferSize();
+    }
+
+    /**
+     * Lee del canal los bytes cifrados disponibles.
+     * @return Bytes leídos, o -1 si el cliente cerró la conexión.
+     */
+    int read() throws IOException {
+        if (inboundClosed) {
+            return -1;
+        }
+        if (!netIn.hasRemaining()) {
+            return 0; // Se leerá al descifrar lo pendiente
+        }
+        return channel.read(netIn);
+    }
+
+    /**
+     * Descifra los registros recibidos en el buffer de destino (en modo escritura) y
+     * avanza el saludo con lo que pida el motor.
+     * @return Verdadero si quedan registros que no cupieron en el destino: hay que
+     *         vaciarlo y volver a llamar.
+     */
+    boolean unwrap(ByteBuffer dst) throws IOException {
+        if (!advance()) {
+            return false;
+        }
+        boolean more = false;
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining() && !tasksRunning) {
+                SSLEngineResult result = engine.unwrap(netIn, dst);
+                SSLEngineResult.Status status = result.getStatus();
+                if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    more = true;
+                    break;
+                }
+                if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    break; // Falta el resto del registro
+                }
+                if (status == SSLEngineResult.Status.CLOSED) {
+                    inboundClosed = true;
+                    break;
+                }
+                if (!onHandshakeStatus(result.getHandshakeStatus())) {
+                    break;
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+        int packetSize = engine.getSession().getPacketBufferSize();
+        if (netIn.capacity() < packetSize) {
+            ByteBuffer bigger = ByteBuffer.allocate(packetSize);
+            netIn.flip();
+            bigger.put(netIn);
+            netIn = bigger;
+        }
+        return more;
+    }
+
+    /**
+     * Cifra y envía los datos del buffer de salida de la conexión (en modo lectura),
+     * mientras el canal los admita.
+     * @return Bytes cifrados escritos en el canal.
+     */
+    int write(ByteBuffer src) throws IOException {
+        int written = flush();
+        while (src.hasRemaining() && !netOut.hasRemaining()) {
+            netOut.clear();
+            SSLEngineResult result;
+            try {
+                result = engine.wrap(src, netOut);
+            } finally {
+                netOut.flip();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new IOException("Conexión TLS cerrada");
+            }
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasksInline(); // Mensajes posteriores al saludo (actualización de claves): nada costoso
+            }
+            written += flush();
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                break; // El motor espera a leer algo del cliente
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Escribe en el canal los bytes cifrados pendientes.
+     * @return Bytes escritos.
+     */
+    private int flush() throws IOException {
+        return netOut.hasRemaining() ? channel.write(netOut) : 0;
+    }
+
+    /**
+     * Avanza el saludo mientras el motor no necesite datos del cliente: lanza sus tareas
+     * delegadas y envía sus mensajes. Los mensajes de un mismo vuelo se juntan en el
+     * buffer de salida y se envían con una sola escritura.
+     * @return Falso si el saludo espera a que se vacíe la salida o a sus tareas.
+     */
+    boolean advance() throws IOException {
+        if (tasksRunning) {
+            return false;
+        }
+        boolean wrapped = false; // Hay mensajes del saludo por enviar
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP -> {
+                    wrapped = true;
+                    netOut.compact();
+                    SSLEngineResult result;
+                    try {
+                        result = engine.wrap(EMPTY, netOut);
+                    } finally {
+                        netOut.flip();
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        flush();
+                        if (netOut.hasRemaining()) {
+                            return false; // El canal está lleno; se continúa con OP_WRITE
+                        }
+                        continue;
+                    }
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+                        finishHandshake();
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        flush();
+                        return true; // Aviso de cierre enviado
+                    }
+                }
+                case NEED_TASK -> {
+                    flush();
+                    startTasks();
+                    return false;
+                }
+                case NOT_HANDSHAKING -> {
+                    if (wrapped) {
+                        flush();
+                    }
+                    if (handshaking) {
+                        finishHandshake();
+                    }
+                    return true;
+                }
+                default -> {
+                    if (wrapped) {
+                        flush();
+                    }
+                    return true; // Espera datos del cliente
+                }
+            }
+        }
+    }
+
+    /**
+     * Atiende el estado del saludo tras un unwrap.
+     * @return Falso si hay que dejar de descifrar (tareas en curso o salida llena).
+     */
+    private boolean onHandshakeStatus(SSLEngineResult.HandshakeStatus status) throws IOException {
+        if (status == SSLEngineResult.HandshakeStatus.FINISHED) {
+            finishHandshake();
+        }
+        if (status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING && !handshaking) {
+            return true;
+        }
+        return advance();
+    }
+
+    /**
+     * Ejecuta las tareas delegadas en el pool de saludos.
+     */
+    private void startTasks() throws IOException {
+        tasksRunning = true;
+        if (!tls.runTasks(engine, onTasksDone)) {
+            throw new IOException("Demasiados saludos TLS en curso");
+        }
+    }
+
+    /**
+     * Ejecuta en el hilo actual las tareas delegadas que aparezcan fuera del saludo.
+     */
+    private void runTasksInline() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Marca terminadas las tareas delegadas. Se llama en el hilo del bucle, desde la continuación.
+     */
+    void tasksDone() {
+        tasksRunning = false;
+    }
+
+    private void finishHandshake() {
+        if (handshaking) {
+            handshaking = false;
+            tls.handshakeFinished(engine.getSession(), startMillis, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Indica si el saludo no ha terminado.
+     */
+    boolean isHandshaking() {
+        return handshaking;
+    }
+
+    /**
+     * Indica si hay tareas delegadas del saludo en el pool.
+     */
+    boolean isWaitingForTasks() {
+        return tasksRunning;
+    }
+
+    /**
+     * Indica si el cliente envió su aviso de cierre.
+     */
+    boolean isInboundClosed() {
+        return inboundClosed;
+    }
+
+    /**
+     * Indica si quedan bytes recibidos sin descifrar.
+     */
+    boolean hasBufferedInput() {
+        return netIn.position() > 0;
+    }
+
+    /**
+     * Indica si quedan bytes cifrados esperando a que el canal sea escribible.
+     */
+    boolean hasPendingOutput() {
+        return netOut.hasRemaining();
+    }
+
+    /**
+     * Registra el saludo como fallido si no llegó a terminar.
+     */
+    void abort() {
+        if (handshaking) {
+            handshaking = false;
+            tls.handshakeFailed();
+        }
+    }
+
+    /**
+     * Envía el aviso de cierre TLS si cabe en el canal sin esperar (best effort).
+     */
+    void closeOutbound() {
+        engine.closeOutbound();
+        try {
+            if (!netOut.hasRemaining() && !handshaking) {
+                netOut.clear();
+                try {
+                    engine.wrap(EMPTY, netOut);
+                } finally {
+                    netOut.flip();
+                }
+                flush();
+            }
+        } catch (IOException e) {
+            // El canal ya estaba cerrado
+        }
+    }
+}
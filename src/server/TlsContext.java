@@ -0,0 +1,189 @@
+package server;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contexto TLS del servidor, compartido por todas las conexiones de los dos motores.
+ * Carga el certificado del almacén de claves configurado y crea un SSLEngine por conexión.
+ *
+ * Las sesiones TLS se conservan en la caché del contexto (tlsSessionCacheSize,
+ * tlsSessionTimeoutSeconds) y con tickets de sesión de TLS 1.3, de modo que un cliente
+ * que se reconecta reanuda su sesión sin que el servidor vuelva a enviar y firmar su
+ * certificado: una avalancha de reconexiones cuesta bastante menos que la de conexiones nuevas.
+ *
+ * Las tareas delegadas del saludo (firmas y acuerdo de claves, lo único costoso) se
+ * ejecutan en un pool acotado de tlsHandshakeThreads hilos con una cola de
+ * tlsHandshakeQueue tareas, nunca en un bucle de eventos ni sin límite de hilos: los
+ * saludos no retrasan la entrega de mensajes y con la cola llena la conexión se cierra.
+ *
+ * Para probarlo en local basta un certificado autofirmado:
+ *
+ *   keytool -genkeypair -alias chat -keyalg EC -groupname secp256r1 -validity 365 -dname CN=localhost
+ *           -storetype PKCS12 -keystore chat.p12 -storepass cambiame
+ *
+ * y arrancar el servidor con --tls-key-store chat.p12 --tls-key-store-password cambiame.
+ */
+public class TlsContext {
+    private final SSLContext context; // Contexto con el certificado y la caché de sesiones
+    private final String[] protocols; // Versiones de TLS habilitadas en cada motor
+    private final ThreadPoolExecutor handshakes; // Pool acotado de las tareas delegadas de los saludos
+    private final ServerMetrics metrics; // Saludos completados, reanudados y fallidos
+
+    private TlsContext(SSLContext context, String[] protocols, ThreadPoolExecutor handshakes, ServerMetrics metrics) {
+        this.context = context;
+        this.protocols = protocols;
+        this.handshakes = handshakes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Crea el contexto TLS con la configuración indicada.
+     * @return El contexto, o null si TLS no está configurado.
+     * @throws IOException si no se puede leer el almacén de claves o no contiene un certificado válido.
+     */
+    public static TlsContext create(ServerConfig config, ServerMetrics metrics) throws IOException {
+        if (!config.isTlsEnabled()) {
+            return null;
+        }
+        char[] password = config.getTlsKeyStorePassword() == null
+                ? new char[0] : config.getTlsKeyStorePassword().toCharArray();
+        SSLContext context;
+        try (InputStream in = Files.newInputStream(Path.of(config.getTlsKeyStore()))) {
+            KeyStore keyStore = KeyStore.getInstance(config.getTlsKeyStoreType());
+            keyStore.load(in, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+            context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Almacén de claves TLS no válido: " + e.getMessage(), e);
+        }
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(Math.max(0, config.getTlsSessionCacheSize()));
+        sessions.setSessionTimeout(Math.max(0, config.getTlsSessionTimeoutSeconds()));
+
+        List<String> supported = List.of(context.getSupportedSSLParameters().getProtocols());
+        List<String> protocols = new ArrayList<>();
+        for (String protocol : config.getTlsProtocols()) {
+            if (supported.contains(protocol)) {
+                protocols.add(protocol);
+            } else {
+                ServerLog.warn("Versión de TLS no admitida por la JVM: " + protocol);
+            }
+        }
+        if (protocols.isEmpty()) {
+            throw new IOException("Ninguna de las versiones de TLS configuradas está disponible");
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        int size = Math.max(1, config.getTlsHandshakeThreads());
+        ThreadPoolExecutor handshakes = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.getTlsHandshakeQueue())), r -> {
+                    Thread thread = new Thread(r, "tls-handshake-" + threads.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ServerLog.info("TLS activado (" + String.join(", ", protocols) + ", " + size + " hilos de saludo)");
+        return new TlsContext(context, protocols.toArray(new String[0]), handshakes, metrics);
+    }
+
+    /**
+     * Crea el motor TLS de una conexión aceptada por el servidor.
+     */
+    public SSLEngine newEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(protocols);
+        return engine;
+    }
+
+    /**
+     * Ejecuta en el pool de saludos las tareas delegadas pendientes del motor y después
+     * la continuación indicada (en el hilo del pool).
+     * @return Falso si la cola del pool está llena: el saludo no puede continuar.
+     */
+    public boolean runTasks(SSLEngine engine, Runnable then) {
+        try {
+            handshakes.execute(() -> {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                then.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Ejecuta en el pool de saludos las tareas delegadas pendientes del motor y espera a
+     * que terminen. Lo usa el motor bloqueante, que hace el saludo en el hilo del cliente.
+     * @throws IOException si la cola del pool está llena o el hilo se interrumpe.
+     */
+    public void runTasks(SSLEngine engine) throws IOException {
+        Future<?> done;
+        try {
+            done = handshakes.submit(() -> {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Demasiados saludos TLS en curso");
+        }
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.cancel(false);
+            throw new IOException("Saludo TLS interrumpido");
+        } catch (ExecutionException e) {
+            throw new IOException("Error en el saludo TLS: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Registra un saludo completado. La sesión es reanudada si se creó antes de empezar
+     * este saludo: una sesión nueva nace durante el propio saludo.
+     * @param startMillis Instante (currentTimeMillis) en que empezó el saludo.
+     */
+    public void handshakeFinished(SSLSession session, long startMillis, long nanos) {
+        metrics.tlsHandshake(session.getCreationTime() < startMillis, nanos);
+    }
+
+    /**
+     * Registra un saludo fallido o que no pudo continuar.
+     */
+    public void handshakeFailed() {
+        metrics.tlsHandshakeFailed();
+    }
+
+    /**
+     * Detiene el pool de saludos. Los saludos en curso fallan al no poder continuar.
+     */
+    public void close() {
+        handshakes.shutdownNow();
+    }
+}
@@ -0,0 +1,287 @@
+package server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TLS sobre el socket bloqueante de un cliente, con un SSLEngine.
+ * Ofrece un InputStream y un OutputStream en claro para Session: el hilo de lectura
+ * descifra lo que llega del socket y el de escritura cifra lo que envía. SSLEngine
+ * admite un wrap y un unwrap a la vez; las escrituras al socket se serializan con un
+ * cerrojo porque también el hilo de lectura puede tener que responder (mensajes
+ * posteriores al saludo, como KeyUpdate de TLS 1.3).
+ * El saludo se hace en el hilo del cliente y sus tareas costosas en el pool de TlsContext.
+ */
+public class TlsStreams {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Socket socket; // Socket del cliente
+    private final SSLEngine engine; // Motor TLS de la conexión
+    private final TlsContext tls; // Pool de saludos y métricas
+    private InputStream rawIn; // Bytes cifrados del socket (se abre en el saludo)
+    private OutputStream rawOut; // Bytes cifrados hacia el socket (se abre en el saludo)
+    private ByteBuffer netIn; // Bytes cifrados recibidos sin descifrar (modo escritura)
+    private ByteBuffer appIn; // Bytes descifrados sin entregar (modo lectura)
+    private final ByteBuffer netOut; // Registro cifrado que se escribe al socket
+    private final ReentrantLock writeLock = new ReentrantLock(); // Serializa wrap y escritura al socket
+    private final InputStream in = new TlsInputStream();
+    private final OutputStream out = new TlsOutputStream();
+
+    /**
+     * Constructor de TlsStreams. No hace ninguna operación de red: el saludo empieza con handshake.
+     */
+    public TlsStreams(Socket socket, TlsContext tls) {
+        this.socket = socket;
+        this.tls = tls;
+        this.engine = tls.newEngine();
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize()).limit(0);
+        this.netOut = ByteBuffer.allocate(packetSize);
+    }
+
+    /**
+     * Hace el saludo TLS con el cliente. Registra en las métricas si se completó,
+     * si reanudó una sesión y cuánto tardó.
+     * @return Falso si el saludo falló (el motivo queda en el registro).
+     */
+    public boolean handshake() {
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        try {
+            rawIn = socket.getInputStream();
+            rawOut = socket.getOutputStream();
+            engine.beginHandshake();
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                    && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                switch (status) {
+                    case NEED_TASK -> {
+                        tls.runTasks(engine);
+                        status = engine.getHandshakeStatus();
+                    }
+                    case NEED_WRAP -> status = wrapHandshake();
+                    default -> {
+                        sendHandshake(); // El vuelo completo en una sola escritura
+                        status = unwrap(); // NEED_UNWRAP y NEED_UNWRAP_AGAIN
+                    }
+                }
+            }
+            while (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                wrapHandshake(); // Tickets de sesión de TLS 1.3
+            }
+            sendHandshake();
+            tls.handshakeFinished(engine.getSession(), startMillis, System.nanoTime() - start);
+            return true;
+        } catch (IOException e) {
+            tls.handshakeFailed();
+            ServerLog.debug("Saludo TLS fallido con " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Devuelve el flujo de entrada en claro.
+     */
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * Devuelve el flujo de salida en claro.
+     */
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * Envía el aviso de cierre TLS si el socket lo admite sin esperar (best effort):
+     * si el hilo de escritura está bloqueado en un cliente lento no se espera por él.
+     */
+    public void closeOutbound() {
+        if (rawOut == null || !writeLock.tryLock()) {
+            return;
+        }
+        try {
+            engine.closeOutbound();
+            wrap(EMPTY);
+            rawOut.flush();
+        } catch (IOException e) {
+            // El socket ya estaba cerrado
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Añade el siguiente mensaje del saludo al buffer de salida, sin enviarlo.
+     * @return El estado del saludo tras el wrap.
+     */
+    private SSLEngineResult.HandshakeStatus wrapHandshake() throws IOException {
+        SSLEngineResult result = engine.wrap(EMPTY, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            sendHandshake();
+            result = engine.wrap(EMPTY, netOut);
+        }
+        return result.getHandshakeStatus();
+    }
+
+    /**
+     * Envía los mensajes del saludo acumulados en el buffer de salida.
+     */
+    private void sendHandshake() throws IOException {
+        if (netOut.position() > 0) {
+            rawOut.write(netOut.array(), 0, netOut.position());
+            netOut.clear();
+        }
+    }
+
+    /**
+     * Cifra los datos indicados (o un mensaje del saludo si no hay datos) y escribe el
+     * registro resultante al socket.
+     * @return El estado del saludo tras el wrap.
+     */
+    private SSLEngineResult.HandshakeStatus wrap(ByteBuffer source) throws IOException {
+        writeLock.lock();
+        try {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(source, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED && result.bytesProduced() == 0
+                    && source.hasRemaining()) {
+                throw new SocketException("Conexión TLS cerrada");
+            }
+            rawOut.write(netOut.array(), 0, netOut.position());
+            return result.getHandshakeStatus();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Descifra lo recibido en appIn, leyendo del socket si falta un registro completo.
+     * Atiende lo que pida el motor tras el saludo (tareas o respuestas).
+     * @return El estado del saludo tras el unwrap.
+     */
+    private SSLEngineResult.HandshakeStatus unwrap() throws IOException {
+        while (true) {
+            netIn.flip();
+            appIn.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case OK -> {
+                    return result.getHandshakeStatus();
+                }
+                case CLOSED -> throw new EOFException("El cliente cerró la conexión TLS");
+                case BUFFER_OVERFLOW -> {
+                    // Solo ocurre si appIn tiene datos sin entregar; el lector los consume antes
+                    int size = engine.getSession().getApplicationBufferSize() + appIn.remaining();
+                    ByteBuffer bigger = ByteBuffer.allocate(size);
+                    bigger.put(appIn).flip();
+                    appIn = bigger;
+                }
+                default -> { // BUFFER_UNDERFLOW: falta el resto del registro
+                    if (!netIn.hasRemaining()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(netIn.capacity() * 2);
+                        netIn.flip();
+                        bigger.put(netIn);
+                        netIn = bigger;
+                    }
+                    int read = rawIn.read(netIn.array(), netIn.position(), netIn.remaining());
+                    if (read < 0) {
+                        throw new EOFException("El cliente cerró la conexión");
+                    }
+                    netIn.position(netIn.position() + read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flujo de entrada: descifra registros hasta tener datos de aplicación.
+     */
+    private final class TlsInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (!appIn.hasRemaining()) {
+                    SSLEngineResult.HandshakeStatus status = unwrap();
+                    while (status == SSLEngineResult.HandshakeStatus.NEED_TASK
+                            || status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                            tls.runTasks(engine);
+                            status = engine.getHandshakeStatus();
+                        } else {
+                            status = wrap(EMPTY);
+                            rawOut.flush();
+                        }
+                    }
+                }
+            } catch (EOFException e) {
+                return -1;
+            }
+            int count = Math.min(len, appIn.remaining());
+            appIn.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return appIn.remaining();
+        }
+    }
+
+    /**
+     * Flujo de salida: cifra cada escritura en uno o varios registros TLS.
+     * Session lo envuelve en un BufferedOutputStream, así que los registros salen llenos.
+     */
+    private final class TlsOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer source = ByteBuffer.wrap(b, off, len);
+            while (source.hasRemaining()) {
+                SSLEngineResult.HandshakeStatus status = wrap(source);
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    tls.runTasks(engine);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            rawOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            rawOut.close();
+        }
+    }
+}
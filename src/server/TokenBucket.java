@@ -0,0 +1,82 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cubo de fichas sin cerrojos.
+ * En lugar de un contador de fichas y un instante de recarga, guarda un único valor:
+ * el instante en que el cubo volvería a estar lleno (algoritmo GCRA). Tomar fichas
+ * adelanta ese instante lo que tardarían en recargarse; la recarga es implícita al
+ * pasar el tiempo, sin hilo ni tarea programada. Cada intento es una lectura de
+ * System.nanoTime() y un compareAndSet, así que se puede consultar por mensaje
+ * desde varios hilos a la vez.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long ratePerSecond; // Fichas que se recargan por segundo
+    private final long burstNanos; // Capacidad del cubo expresada en tiempo de recarga
+    private final AtomicLong fullAt; // Instante (nanoTime) en que el cubo vuelve a estar lleno
+
+    /**
+     * Constructor de TokenBucket. El cubo empieza lleno.
+     * @param ratePerSecond Fichas que se recargan por segundo (mayor que 0).
+     * @param burst Capacidad del cubo: fichas que se pueden tomar de golpe.
+     */
+    public TokenBucket(long ratePerSecond, long burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("El ritmo debe ser positivo: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.burstNanos = nanosFor(Math.max(1, burst));
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Intenta tomar fichas del cubo.
+     * Una petición mayor que la capacidad se atiende cuando el cubo está lleno, para
+     * que un mensaje grande no quede bloqueado para siempre.
+     * @return 0 si se tomaron las fichas; si no, los nanosegundos que faltan para que
+     *         haya suficientes (no se toma ninguna).
+     */
+    public long tryAcquire(long tokens) {
+        long cost = Math.min(nanosFor(tokens), burstNanos);
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            long excess = next - now - burstNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Devuelve fichas tomadas que al final no se usaron.
+     */
+    public void refund(long tokens) {
+        fullAt.addAndGet(-Math.min(nanosFor(tokens), burstNanos));
+    }
+
+    /**
+     * Devuelve las fichas que se recargan por segundo.
+     */
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Devuelve el tiempo que tardan en recargarse las fichas indicadas.
+     */
+    private long nanosFor(long tokens) {
+        if (tokens > Long.MAX_VALUE / NANOS_PER_SECOND) {
+            return Long.MAX_VALUE / 4; // Mayor que cualquier capacidad razonable
+        }
+        return Math.max(1, tokens * NANOS_PER_SECOND / ratePerSecond);
+    }
+}
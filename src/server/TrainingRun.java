@@ -0,0 +1,118 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ejecución de entrenamiento para el archivo de clases (AppCDS).
+ * Conecta al servidor recién arrancado un cliente LEGACY y otro V2 con todas las opciones
+ * del saludo, envía mensajes y comandos y lee las respuestas, de modo que se cargan las
+ * clases del camino habitual (saludo, difusión, salas, lista de clientes, búsqueda,
+ * compresión) antes de que la JVM vuelque el archivo al salir:
+ *
+ *   java -XX:ArchiveClassesAtExit=chat.jsa -jar server-chat.jar --trainingRun
+ *   java -XX:SharedArchiveFile=chat.jsa -jar server-chat.jar
+ *
+ * Un fallo del entrenamiento solo se avisa: el archivo sale con menos clases.
+ */
+public final class TrainingRun {
+    // Espera máxima de cada respuesta del servidor
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+
+    private TrainingRun() {
+    }
+
+    /**
+     * Ejercita el servidor que escucha en el puerto local indicado.
+     */
+    public static void run(int port) {
+        try (Socket legacy = connect(port); Socket v2 = connect(port)) {
+            DataOutputStream legacyOut = new DataOutputStream(new BufferedOutputStream(legacy.getOutputStream()));
+            legacyOut.writeUTF("training-legacy");
+            legacyOut.flush();
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(v2.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(v2.getInputStream()));
+            out.writeUTF(Handshake.HELLO_PREFIX + "2;" + Handshake.OPTION_SEQUENCE + ";" + Handshake.OPTION_PING
+                    + ";" + Handshake.OPTION_DEFLATE + ":training");
+            out.flush();
+            in.readUTF(); // HELLO_OK
+
+            legacyOut.writeUTF("hola desde el entrenamiento");
+            legacyOut.flush();
+            write(out, FrameType.CHAT, "hola " + "bienvenidos al servidor de chat ".repeat(40));
+            write(out, FrameType.CONTROL, ChatService.ROSTER_COMMAND);
+            write(out, FrameType.CONTROL, ChatService.JOIN_COMMAND + " entrenamiento");
+            write(out, FrameType.CHAT, ChatService.ROOM_COMMAND + " entrenamiento hola sala");
+            write(out, FrameType.CHAT, ChatService.MSG_COMMAND + " training-legacy hola");
+            write(out, FrameType.CONTROL, ChatService.SEARCH_COMMAND + " hola");
+            out.flush();
+            readUntilSearchReply(in);
+        } catch (IOException e) {
+            ServerLog.warn("Entrenamiento incompleto: " + e.getMessage());
+        }
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    private static void write(DataOutputStream out, FrameType type, String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, payload.length);
+        out.write(type.code());
+        out.write(payload);
+    }
+
+    /**
+     * Lee tramas V2 hasta la respuesta a la búsqueda (o su error) o hasta agotar la espera.
+     */
+    private static void readUntilSearchReply(DataInputStream in) throws IOException {
+        try {
+            while (true) {
+                int length = readVarint(in);
+                int type = in.readUnsignedByte();
+                byte[] body = new byte[length];
+                in.readFully(body);
+                if ((type & (FrameCodec.SEQUENCE_FLAG | FrameCodec.COMPRESSED_FLAG)) != 0) {
+                    continue; // Mensajes difundidos
+                }
+                String text = new String(body, StandardCharsets.UTF_8);
+                if (text.startsWith(SearchService.RESULTS_PREFIX) || text.startsWith(ChatService.ERROR_PREFIX)) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            ServerLog.warn("El servidor no respondió a la búsqueda del entrenamiento");
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,12 @@
+package server;
+
+/**
+ * Formato de trama que usa una conexión.
+ * LEGACY es el de writeUTF/readUTF (longitud de 2 bytes y UTF-8 modificado, máximo 65535 bytes).
+ * V2 usa una longitud varint, un byte de tipo y el cuerpo en UTF-8 estándar sin límite de 64 KB.
+ * Toda conexión empieza en LEGACY; pasa a V2 si el saludo lo negocia (ver Handshake).
+ */
+public enum WireProtocol {
+    LEGACY,
+    V2
+}
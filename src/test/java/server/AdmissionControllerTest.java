@@ -0,0 +1,208 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas del control de admisión: límite de conexiones, límite por dirección, ritmo
+ * de aceptación, descarte por sobrecarga y su recuperación, y plazas que se devuelven
+ * al cerrar la conexión (también si no llega a arrancar).
+ */
+class AdmissionControllerTest {
+    private final ClientRegistry registry = new ClientRegistry(1, 0);
+
+    @AfterEach
+    void close() {
+        registry.close();
+    }
+
+    @Test
+    void connectionLimitCountsOpenConnections() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setMaxConnections(2);
+        AdmissionController admission = new AdmissionController(config, registry, new ServerMetrics());
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(address));
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(address));
+        assertEquals(AdmissionController.Decision.SERVER_FULL, admission.admit(address));
+        assertEquals(2, admission.getOpenConnections());
+
+        admission.release(address);
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(address));
+    }
+
+    @Test
+    void addressLimitIsPerAddress() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setMaxConnectionsPerAddress(1);
+        AdmissionController admission = new AdmissionController(config, registry, new ServerMetrics());
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(first));
+        assertEquals(AdmissionController.Decision.ADDRESS_FULL, admission.admit(first));
+        assertEquals(1, admission.getOpenConnections(), "Un rechazo no ocupa plaza");
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(second));
+
+        admission.release(first);
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(first));
+    }
+
+    @Test
+    void acceptRateAllowsTheBurstAndThenRejects() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setAcceptRatePerSecond(1);
+        config.setAcceptBurst(3);
+        AdmissionController admission = new AdmissionController(config, registry, new ServerMetrics());
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(address));
+        }
+        assertEquals(AdmissionController.Decision.RATE_LIMITED, admission.admit(address));
+        assertEquals(3, admission.getOpenConnections());
+    }
+
+    @Test
+    void shedsWhileQueuesAreHighAndRecoversBelowThreeQuarters() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setShedQueueBytes(1000);
+        config.setShedFanOutMicros(0);
+        AdmissionController admission = new AdmissionController(config, registry, new ServerMetrics());
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        TestConnection busy = new TestConnection("ocupado");
+        registry.add(busy);
+
+        busy.getOutboundQueue().offer(Frame.of("x".repeat(1200)));
+        admission.checkLoad();
+        assertTrue(admission.isShedding());
+        assertEquals(AdmissionController.Decision.OVERLOADED, admission.admit(address));
+
+        busy.getOutboundQueue().poll().release();
+        busy.getOutboundQueue().offer(Frame.of("x".repeat(900))); // Bajo el umbral, pero no de sus 3/4
+        admission.checkLoad();
+        assertTrue(admission.isShedding(), "Sigue descartando hasta bajar de las tres cuartas partes");
+
+        busy.getOutboundQueue().poll().release();
+        admission.checkLoad();
+        assertFalse(admission.isShedding());
+        assertEquals(AdmissionController.Decision.ADMITTED, admission.admit(address));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void closingAConnectionReleasesItsSlot(ServerEngine engine) {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int port = freePort();
+            ServerConfig config = quietConfig();
+            config.setMaxConnections(1);
+            ServerInitializer server = new ServerInitializer(port, 50, engine, config);
+            server.startServer();
+            try {
+                Socket first = connect(port, "primero");
+                assertFalse(readFirst(first).startsWith(ChatService.ERROR_PREFIX));
+                try (Socket full = connect(port, "segundo")) {
+                    assertEquals(ChatService.ERROR_PREFIX + "Servidor lleno", readFirst(full));
+                }
+                first.close();
+
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (true) {
+                    try (Socket again = connect(port, "tercero")) {
+                        if (!readFirst(again).startsWith(ChatService.ERROR_PREFIX)) {
+                            break;
+                        }
+                    }
+                    assertTrue(System.nanoTime() < deadline, "La plaza del cliente cerrado no se devolvió");
+                    Thread.sleep(20);
+                }
+            } finally {
+                server.stopServer();
+            }
+        });
+    }
+
+    @Test
+    void failedHandlerStartReleasesTheSlot() {
+        assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+            ServerConfig config = quietConfig();
+            config.setMaxConnections(1);
+            ServerLog.configure(config);
+            AtomicInteger threads = new AtomicInteger();
+            ThreadFactory failingOnce = task -> {
+                if (threads.getAndIncrement() == 0) {
+                    throw new IllegalStateException("Sin hilos"); // El primer manejador no llega a arrancar
+                }
+                return new Thread(task);
+            };
+            ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Server server = new Server(serverSocket, failingOnce, config);
+            Thread acceptor = new Thread(server::bind, "acceptor-test");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            try {
+                try (Socket first = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+                    assertEquals(-1, first.getInputStream().read(), "El servidor cierra la conexión fallida");
+                }
+                AdmissionController admission = server.getChatService().admission();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (admission.getOpenConnections() != 0) {
+                    assertTrue(System.nanoTime() < deadline, "Plazas ocupadas: " + admission.getOpenConnections());
+                    Thread.sleep(10);
+                }
+
+                try (Socket second = connect(serverSocket.getLocalPort(), "segundo")) {
+                    String reply = readFirst(second);
+                    assertFalse(reply.startsWith(ChatService.ERROR_PREFIX), "Admitido tras el fallo: " + reply);
+                }
+            } finally {
+                server.close();
+            }
+        });
+    }
+
+    private static ServerConfig quietConfig() {
+        ServerConfig config = new ServerConfig();
+        config.setAdminPort(-1);
+        config.setLogDirectory("");
+        config.setLoggerLevel(LogLevel.OFF);
+        return config;
+    }
+
+    private static Socket connect(int port, String name) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(name);
+        out.flush();
+        return socket;
+    }
+
+    private static String readFirst(Socket socket) throws IOException {
+        return new DataInputStream(socket.getInputStream()).readUTF();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas del saludo y de los mensajes directos del servicio de chat: nombres
+ * rechazados, nombres en uso y mensajes directos a clientes que existen o no.
+ */
+class ChatServiceTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ChatService chat = new ChatService(scheduler, config());
+
+    @AfterEach
+    void close() {
+        chat.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void nameInUseIsRejectedAtTheHandshake() {
+        TestConnection first = connect("ana");
+
+        TestConnection second = new TestConnection("ana");
+        assertFalse(chat.onNameReceived(second, Handshake.parse("ana")));
+        assertEquals(List.of(ChatService.ERROR_PREFIX + "Nombre en uso: ana"), second.texts());
+        assertEquals(1, chat.registry().size());
+        assertSame(first, chat.registry().find("ana"));
+
+        first.closeConnection();
+        TestConnection third = new TestConnection("ana");
+        assertTrue(chat.onNameReceived(third, Handshake.parse("ana")), "El nombre queda libre al desconectarse");
+        assertSame(third, chat.registry().find("ana"));
+    }
+
+    @Test
+    void blankAndControlCharacterNamesAreRejected() {
+        TestConnection blank = new TestConnection(" ");
+        assertFalse(chat.onNameReceived(blank, Handshake.parse(" ")));
+        assertEquals(List.of(ChatService.ERROR_PREFIX + "Nombre no válido"), blank.texts());
+
+        TestConnection control = new TestConnection("ana\nluis");
+        assertFalse(chat.onNameReceived(control, Handshake.parse("ana\nluis")));
+        assertEquals(0, chat.registry().size());
+    }
+
+    @Test
+    void directMessageReachesOnlyItsTarget() {
+        TestConnection ana = connect("ana");
+        TestConnection luis = connect("luis");
+        TestConnection eva = connect("eva");
+
+        chat.onFrame(ana, FrameType.CHAT, ChatService.MSG_COMMAND + " luis hola, ¿qué tal?");
+        assertEquals(List.of(ChatService.PRIVATE_PREFIX + "ana: hola, ¿qué tal?"),
+                luis.textsStartingWith(ChatService.PRIVATE_PREFIX));
+        assertTrue(eva.textsStartingWith(ChatService.PRIVATE_PREFIX).isEmpty());
+        assertTrue(ana.textsStartingWith(ChatService.PRIVATE_PREFIX).isEmpty());
+        assertTrue(ana.textsStartingWith("ana:").isEmpty(), "Un mensaje directo no se difunde");
+    }
+
+    @Test
+    void directMessageToAMissingNameIsRejected() {
+        TestConnection ana = connect("ana");
+        TestConnection luis = connect("luis");
+
+        chat.onFrame(ana, FrameType.CHAT, ChatService.MSG_COMMAND + " nadie hola");
+        chat.onFrame(ana, FrameType.CHAT, ChatService.MSG_COMMAND + " luis");
+        assertEquals(List.of(ChatService.ERROR_PREFIX + "Cliente no encontrado: nadie",
+                        ChatService.ERROR_PREFIX + "Uso: " + ChatService.MSG_COMMAND + " <nombre> <mensaje>"),
+                ana.textsStartingWith(ChatService.ERROR_PREFIX));
+
+        luis.closeConnection();
+        chat.onFrame(ana, FrameType.CHAT, ChatService.MSG_COMMAND + " luis ¿sigues ahí?");
+        assertEquals(ChatService.ERROR_PREFIX + "Cliente no encontrado: luis",
+                ana.textsStartingWith(ChatService.ERROR_PREFIX).get(2), "El índice se actualiza con las bajas");
+        assertTrue(luis.textsStartingWith(ChatService.PRIVATE_PREFIX).isEmpty());
+    }
+
+    /**
+     * Crea una conexión en memoria y completa su saludo; al cerrarla se da de baja.
+     */
+    private TestConnection connect(String name) {
+        TestConnection client = new TestConnection(name);
+        client.onClose(() -> chat.onDisconnect(client));
+        assertTrue(chat.onNameReceived(client, Handshake.parse(name)));
+        return client;
+    }
+
+    private static ServerConfig config() {
+        ServerConfig config = new ServerConfig();
+        config.setAdminPort(-1);
+        config.setLogDirectory("");
+        config.setLoggerLevel(LogLevel.OFF);
+        return config;
+    }
+}
@@ -0,0 +1,137 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de la compresión de las tramas V2: ida y vuelta con el diccionario compartido,
+ * cuerpos que se envían sin comprimir y cuerpo comprimido una sola vez por trama y
+ * compartido entre destinatarios.
+ */
+class FrameCompressionTest {
+    private static final int THRESHOLD = 64;
+    private static final String CHAT = ("ana: hola buenos días, ¿alguien sabe si el servidor está conectado? "
+            + "Creo que la sala de pruebas tiene mucha gente ahora mismo. ").repeat(4);
+
+    @Test
+    void deflateRoundTripsThroughInflateWithTheSharedDictionary() throws DataFormatException {
+        byte[] body = CHAT.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = FrameCompression.deflate(body, 0, body.length);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < body.length / 2, "Comprimido: " + compressed.length + " de " + body.length);
+        assertArrayEquals(body, FrameCompression.inflate(compressed, 0, compressed.length));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(body.length + 10);
+        direct.put(0, body);
+        direct.position(7); // La posición no cuenta: se comprimen los primeros bytes
+        byte[] fromBuffer = FrameCompression.deflate(direct, body.length);
+        assertArrayEquals(compressed, fromBuffer);
+        assertEquals(7, direct.position());
+
+        String roster = RosterService.SNAPSHOT_PREFIX + "#42\nana\nluis\neva\nmarta\njuan\npedro\nlucía\ncarmen\njavier\n";
+        byte[] small = roster.getBytes(StandardCharsets.UTF_8);
+        byte[] smallCompressed = FrameCompression.deflate(small, 0, small.length);
+        assertNotNull(smallCompressed, "El diccionario permite comprimir cuerpos de pocas decenas de bytes");
+        assertEquals(roster, new String(FrameCompression.inflate(smallCompressed, 0, smallCompressed.length),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shortAndIncompressibleBodiesAreSentRaw() throws IOException {
+        byte[] shortBody = "x".repeat(THRESHOLD - 1).getBytes(StandardCharsets.UTF_8);
+        assertNull(FrameCompression.deflate(shortBody, 0, shortBody.length), "Por debajo del mínimo no se comprime");
+
+        byte[] random = new byte[2000];
+        new Random(1).nextBytes(random);
+        assertNull(FrameCompression.deflate(random, 0, random.length), "Los datos aleatorios no ahorran un octavo");
+
+        FramePool pool = new FramePool(1, 4096, false);
+        Frame incompressible = pool.relay(new byte[0], ByteBuffer.wrap(random), 0, random.length);
+        Written written = write(incompressible, WireProtocol.V2);
+        assertEquals(0, written.code & FrameCodec.COMPRESSED_FLAG);
+        assertArrayEquals(random, written.body);
+        incompressible.release();
+
+        Frame small = Frame.of("hola");
+        written = write(small, WireProtocol.V2);
+        assertEquals(0, written.code & FrameCodec.COMPRESSED_FLAG);
+        assertEquals("hola", new String(written.body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void frameIsCompressedOnceAndSharedAcrossRecipients() throws Exception {
+        Frame frame = Frame.of(CHAT);
+        int recipients = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(recipients);
+        try {
+            List<Future<Written>> results = new ArrayList<>();
+            for (int i = 0; i < recipients; i++) {
+                Callable<Written> recipient = () -> {
+                    start.await();
+                    return write(frame, WireProtocol.V2);
+                };
+                results.add(executor.submit(recipient));
+            }
+            start.countDown(); // Todos los destinatarios piden el cuerpo comprimido a la vez
+            byte[] first = results.get(0).get().body;
+            for (Future<Written> result : results) {
+                Written written = result.get();
+                assertEquals(FrameCodec.COMPRESSED_FLAG, written.code & FrameCodec.COMPRESSED_FLAG);
+                assertArrayEquals(first, written.body);
+            }
+            assertEquals(CHAT, new String(FrameCompression.inflate(first, 0, first.length), StandardCharsets.UTF_8));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // En una trama de pool se cambia el buffer después de comprimir: si el cuerpo
+        // comprimido se calculara otra vez, el siguiente destinatario vería el cambio
+        byte[] body = CHAT.getBytes(StandardCharsets.UTF_8);
+        FramePool pool = new FramePool(1, 4096, true);
+        Frame pooled = pool.relay(new byte[0], ByteBuffer.wrap(body), 0, body.length);
+        byte[] compressed = write(pooled, WireProtocol.V2).body;
+        pooled.slab().put(0, "X".repeat(body.length).getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(compressed, write(pooled, WireProtocol.V2).body, "El cuerpo comprimido se reutiliza");
+        assertEquals("X".repeat(body.length), new String(write(pooled, WireProtocol.LEGACY).body, StandardCharsets.UTF_8),
+                "Los clientes LEGACY reciben el cuerpo sin comprimir");
+        pooled.release();
+    }
+
+    /**
+     * Cabecera y cuerpo de una trama tal como los escribe una conexión.
+     */
+    private record Written(int code, byte[] body) {
+    }
+
+    /**
+     * Escribe la trama como lo hace una conexión que negoció la compresión.
+     */
+    private static Written write(Frame frame, WireProtocol protocol) throws IOException {
+        byte[] header = new byte[FrameCodec.MAX_V2_HEADER_LENGTH];
+        int headerLength = frame.writeHeader(protocol, false, THRESHOLD, header, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.writeBody(protocol, THRESHOLD, out, new byte[256]);
+        int code = protocol == WireProtocol.LEGACY ? 0 : header[headerLength - 1] & 0xFF;
+        return new Written(code, out.toByteArray());
+    }
+}
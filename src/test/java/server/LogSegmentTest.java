@@ -0,0 +1,154 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas del formato de los segmentos del registro: escritura, lectura, búsqueda
+ * con el índice disperso, cola de una sala y recuperación tras una escritura interrumpida.
+ */
+class LogSegmentTest {
+    @TempDir
+    Path directory;
+
+    private final CRC32C crc = new CRC32C();
+
+    @Test
+    void readsBackWhatWasAppended() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 10, 4096);
+        append(segment, 10, "sala", "hola");
+        append(segment, 11, MessageLog.LOBBY, "adiós ñ");
+        append(segment, 12, "sala", "tercero");
+
+        List<LogRecord> records = new ArrayList<>();
+        assertEquals(3, segment.read(10, 10, records));
+        assertEquals(10, records.get(0).getSequence());
+        assertEquals(1000L, records.get(0).getTimestamp());
+        assertEquals("sala", records.get(0).getRoom());
+        assertEquals("hola", records.get(0).getText());
+        assertEquals(MessageLog.LOBBY, records.get(1).getRoom());
+        assertEquals("adiós ñ", records.get(1).getText());
+        assertEquals(12, segment.getLastSequence());
+
+        records.clear();
+        assertEquals(2, segment.read(11, 10, records));
+        assertEquals(11, records.get(0).getSequence());
+        assertEquals(-1, segment.find(13));
+        segment.close();
+    }
+
+    @Test
+    void findUsesTheSparseIndex() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 1, 64 * 1024);
+        for (long sequence = 1; sequence <= 500; sequence++) {
+            append(segment, sequence, "", "m" + sequence);
+        }
+        for (long sequence : new long[] {1, 64, 65, 129, 300, 500}) {
+            List<LogRecord> records = new ArrayList<>();
+            assertEquals(1, segment.read(sequence, 1, records));
+            assertEquals(sequence, records.get(0).getSequence());
+            assertEquals("m" + sequence, records.get(0).getText());
+        }
+        segment.close();
+    }
+
+    @Test
+    void tailReturnsTheLastRecordsOfARoom() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 1, 64 * 1024);
+        for (long sequence = 1; sequence <= 300; sequence++) {
+            String room = sequence % 3 == 0 ? "sala" : sequence % 3 == 1 ? "sala2" : MessageLog.LOBBY;
+            append(segment, sequence, room, "m" + sequence);
+        }
+        byte[] sala = "sala".getBytes(StandardCharsets.UTF_8);
+
+        List<LogRecord> records = new ArrayList<>();
+        assertEquals(3, segment.tail(sala, 3, records));
+        assertEquals(List.of("m294", "m297", "m300"), records.stream().map(LogRecord::getText).toList());
+        assertEquals("sala", records.get(0).getRoom(), "El prefijo de otra sala no coincide");
+
+        records.clear();
+        assertEquals(100, segment.tail(sala, Integer.MAX_VALUE, records));
+        assertEquals(3, records.get(0).getSequence());
+        records.clear();
+        assertEquals(100, segment.tail(MessageLog.LOBBY.getBytes(StandardCharsets.UTF_8), 1000, records));
+        assertEquals(0, segment.tail("otra".getBytes(StandardCharsets.UTF_8), 5, records));
+        segment.close();
+    }
+
+    @Test
+    void appendFailsWhenTheSegmentIsFull() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 1, 64);
+        assertTrue(append(segment, 1, "", "0123456789"));
+        assertFalse(append(segment, 2, "", "0123456789012345678901234567890"));
+        assertEquals(1, segment.getLastSequence());
+        segment.close();
+    }
+
+    @Test
+    void reopenRecoversTheRecords() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 5, 4096);
+        append(segment, 5, "a", "uno");
+        append(segment, 6, "b", "dos");
+        int size = segment.size();
+        segment.close();
+
+        LogSegment reopened = LogSegment.open(directory.resolve(LogSegment.fileName(5)));
+        assertEquals(5, reopened.getBaseSequence());
+        assertEquals(6, reopened.getLastSequence());
+        assertEquals(size, reopened.size());
+        List<LogRecord> records = new ArrayList<>();
+        assertEquals(2, reopened.read(5, 10, records));
+        assertEquals("dos", records.get(1).getText());
+        reopened.close();
+    }
+
+    @Test
+    void recoveryDiscardsATruncatedTail() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 1, 4096);
+        append(segment, 1, "", "completo");
+        append(segment, 2, "", "también");
+        int end = segment.size();
+        segment.close();
+
+        // Escritura interrumpida: la longitud llegó a disco pero el resto del registro no
+        Path path = directory.resolve(LogSegment.fileName(1));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer partial = ByteBuffer.allocate(LogSegment.RECORD_OVERHEAD);
+            partial.putInt(LogSegment.RECORD_OVERHEAD - 8 + 20).putInt(0x12345678).putLong(3).flip();
+            channel.write(partial, end);
+        }
+
+        LogSegment recovered = LogSegment.open(path);
+        assertEquals(2, recovered.getLastSequence());
+        assertEquals(end, recovered.size());
+        List<LogRecord> records = new ArrayList<>();
+        assertEquals(2, recovered.read(1, 10, records));
+
+        // El hueco se reutiliza y el registro nuevo sobrevive a otra recuperación
+        assertTrue(append(recovered, 3, "", "después"));
+        recovered.close();
+        LogSegment again = LogSegment.open(path);
+        records.clear();
+        assertEquals(3, again.read(1, 10, records));
+        assertEquals("después", records.get(2).getText());
+        again.close();
+    }
+
+    private boolean append(LogSegment segment, long sequence, String room, String text) {
+        return segment.append(sequence, 1000L, room.getBytes(StandardCharsets.UTF_8), Frame.of(text), crc);
+    }
+}
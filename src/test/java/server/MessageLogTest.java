@@ -0,0 +1,120 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas del registro segmentado: cambio de segmento por tamaño, retención de los
+ * segmentos antiguos, cambio por antigüedad, lectura de la cola de una sala a través
+ * de varios segmentos y continuación de la secuencia al reabrir el directorio.
+ */
+class MessageLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void rollsBySizeAndKeepsTheNewestSegments() throws IOException {
+        MessageLog log = open(3);
+        for (int i = 1; i <= 100; i++) {
+            log.append(MessageLog.LOBBY, Frame.of("mensaje " + i));
+        }
+        log.close();
+
+        assertEquals(3, segmentFiles());
+        MessageLog reopened = open(3);
+        assertEquals(100, reopened.getLastSequence());
+        long first = reopened.getFirstSequence();
+        assertTrue(first > 1, "Los segmentos antiguos se borran");
+        List<LogRecord> records = reopened.read(1, Integer.MAX_VALUE);
+        assertEquals(first, records.get(0).getSequence());
+        assertEquals(100, records.get(records.size() - 1).getSequence());
+        for (int i = 1; i < records.size(); i++) {
+            assertEquals(records.get(i - 1).getSequence() + 1, records.get(i).getSequence());
+        }
+        reopened.close();
+    }
+
+    @Test
+    void continuesTheSequenceAfterReopening() {
+        MessageLog log = open(0);
+        log.append("sala", Frame.of("uno"));
+        log.append(MessageLog.LOBBY, Frame.of("dos"));
+        log.close();
+
+        MessageLog reopened = open(0);
+        assertEquals(3, reopened.append("sala", Frame.of("tres")));
+        reopened.close();
+
+        MessageLog last = open(0);
+        List<LogRecord> records = last.read(1, 10);
+        assertEquals(3, records.size());
+        assertEquals("tres", records.get(2).getText());
+        last.close();
+    }
+
+    @Test
+    void tailSpansSeveralSegments() {
+        MessageLog log = open(0);
+        for (int i = 1; i <= 60; i++) {
+            log.append(i % 2 == 0 ? "sala" : MessageLog.LOBBY, Frame.of("mensaje " + i));
+        }
+        log.close();
+
+        MessageLog reopened = open(0);
+        List<LogRecord> lobby = reopened.tail(MessageLog.LOBBY, 20);
+        assertEquals(20, lobby.size());
+        for (int i = 0; i < lobby.size(); i++) {
+            assertEquals("mensaje " + (21 + 2 * i), lobby.get(i).getText());
+        }
+        assertEquals(30, reopened.tail("sala", 100).size());
+        assertTrue(reopened.tail("otra", 5).isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    void rollsByAgeOnlyWhenTheNextMessageArrives() throws Exception {
+        MessageLog log = open(0, 1 << 20, 50);
+        log.append(MessageLog.LOBBY, Frame.of("uno"));
+        Thread.sleep(300); // El segmento envejece sin tráfico
+        assertEquals(1, segmentFiles());
+        log.append(MessageLog.LOBBY, Frame.of("dos"));
+        log.close();
+
+        assertEquals(2, segmentFiles());
+        MessageLog reopened = open(0);
+        List<LogRecord> records = reopened.tail(MessageLog.LOBBY, 10);
+        assertEquals(List.of("uno", "dos"), records.stream().map(LogRecord::getText).toList());
+        reopened.close();
+    }
+
+    private MessageLog open(int maxSegments) {
+        return open(maxSegments, 256, 0);
+    }
+
+    private MessageLog open(int maxSegments, int segmentBytes, long rollMillis) {
+        ServerConfig config = new ServerConfig();
+        config.setLogDirectory(directory.toString());
+        config.setLogSegmentBytes(segmentBytes);
+        config.setLogFlushMillis(10);
+        config.setLogRollMillis(rollMillis);
+        config.setLogMaxSegments(maxSegments);
+        MessageLog log = new MessageLog(config);
+        log.start();
+        return log;
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(LogSegment.SUFFIX)).count();
+        }
+    }
+}
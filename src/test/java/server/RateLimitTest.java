@@ -0,0 +1,236 @@
+package server;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de los límites de envío en los dos motores: la acción THROTTLE frena al
+ * cliente sin perder mensajes, DROP los descarta con un aviso por ráfaga, DISCONNECT
+ * cierra la conexión, y los límites por sala y global se reparten entre los clientes.
+ */
+class RateLimitTest {
+    private static final String RATE_LIMITED = ChatService.ERROR_PREFIX + "Límite de envío superado: se descartan tus mensajes";
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void throttleSlowsTheSenderDownWithoutLosingMessages(ServerEngine engine) {
+        run(engine, config -> {
+            config.setClientMessagesPerSecond(10); // La ráfaga es como mínimo el ritmo: diez mensajes
+            config.setRateLimitPolicy(RateLimitPolicy.THROTTLE);
+        }, (server, port) -> {
+            try (Client reader = new Client(port, "lector"); Client sender = new Client(port, "emisor")) {
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 25; i++) {
+                    expected.add("m" + i);
+                }
+                long start = System.nanoTime();
+                sender.send(expected.toArray(new String[0]));
+                List<String> received = reader.readUntil("emisor: m24");
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+                assertEquals(expected.stream().map(m -> "emisor: " + m).toList(), received, "Todos, en orden");
+                assertTrue(elapsedMillis >= 1200, "Quince mensajes por encima de la ráfaga a 10/s: " + elapsedMillis + " ms");
+                assertTrue(server.getMetrics().getRateLimited() > 0);
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void dropDiscardsTheExcessAndWarnsOncePerBurst(ServerEngine engine) {
+        run(engine, config -> {
+            config.setClientMessagesPerSecond(1);
+            config.setClientMessageBurst(3);
+            config.setRateLimitPolicy(RateLimitPolicy.DROP);
+        }, (server, port) -> {
+            try (Client reader = new Client(port, "lector"); Client sender = new Client(port, "emisor")) {
+                sender.send("m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7");
+                Thread.sleep(1100); // Se repone una ficha
+                sender.send("fin");
+
+                assertEquals(List.of("emisor: m0", "emisor: m1", "emisor: m2", "emisor: fin"),
+                        reader.readUntil("emisor: fin"));
+                List<String> own = sender.readUntil("emisor: fin");
+                assertEquals(1, own.stream().filter(RATE_LIMITED::equals).count(), "Un solo aviso por ráfaga: " + own);
+                assertEquals(5, server.getMetrics().getRateLimited());
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void disconnectClosesTheSender(ServerEngine engine) {
+        run(engine, config -> {
+            config.setClientMessagesPerSecond(1);
+            config.setClientMessageBurst(2);
+            config.setRateLimitPolicy(RateLimitPolicy.DISCONNECT);
+        }, (server, port) -> {
+            try (Client reader = new Client(port, "lector"); Client sender = new Client(port, "emisor")) {
+                sender.send("m0", "m1", "m2", "m3", "m4");
+                assertThrows(IOException.class, () -> {
+                    while (true) {
+                        sender.read(); // Hasta que el servidor cierra la conexión
+                    }
+                });
+
+                List<String> received = new ArrayList<>();
+                String frame;
+                while (!(frame = reader.read()).startsWith(RosterService.SNAPSHOT_PREFIX)
+                        || frame.contains(RosterService.SNAPSHOT_PREFIX + "emisor\n")) {
+                    if (!frame.startsWith(RosterService.SNAPSHOT_PREFIX)) {
+                        received.add(frame);
+                    }
+                }
+                assertEquals(List.of("emisor: m0", "emisor: m1"), received, "Lo que llegó antes de la desconexión");
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void globalCapIsSharedByAllClients(ServerEngine engine) {
+        run(engine, config -> {
+            config.setGlobalMessagesPerSecond(3);
+            config.setRateLimitPolicy(RateLimitPolicy.DROP);
+        }, (server, port) -> {
+            try (Client reader = new Client(port, "lector"); Client first = new Client(port, "uno");
+                 Client second = new Client(port, "dos")) {
+                first.send("a0", "a1", "a2");
+                second.send("b0", "b1", "b2");
+                Thread.sleep(1100); // Se reponen las fichas globales
+                first.send("fin");
+
+                List<String> received = reader.readUntil("uno: fin");
+                assertEquals(4, received.size(), "Tres mensajes entre los dos clientes, y el último: " + received);
+                assertEquals(3, server.getMetrics().getRateLimited());
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void roomCapDropsTheExcessWithAWarning(ServerEngine engine) {
+        run(engine, config -> config.setRoomMessagesPerSecond(2), (server, port) -> {
+            try (Client member = new Client(port, "miembro"); Client sender = new Client(port, "emisor")) {
+                member.send(ChatService.JOIN_COMMAND + " sala");
+                member.readUntil(RoomService.JOINED_PREFIX + "sala");
+                sender.send(ChatService.JOIN_COMMAND + " sala");
+                sender.readUntil(RoomService.JOINED_PREFIX + "sala");
+
+                for (int i = 0; i < 5; i++) {
+                    sender.send(ChatService.ROOM_COMMAND + " sala r" + i);
+                }
+                Thread.sleep(1100); // La sala repone sus fichas
+                sender.send(ChatService.ROOM_COMMAND + " sala fin");
+
+                assertEquals(List.of("[sala] emisor: r0", "[sala] emisor: r1", "[sala] emisor: fin"),
+                        member.readUntil("[sala] emisor: fin"));
+                List<String> own = sender.readUntil("[sala] emisor: fin");
+                assertEquals(3, own.stream()
+                        .filter((ChatService.ERROR_PREFIX + "Sala saturada, mensaje descartado: sala")::equals).count());
+            }
+        });
+    }
+
+    /**
+     * Arranca un servidor con los límites indicados, ejecuta la prueba y lo detiene.
+     */
+    private static void run(ServerEngine engine, Consumer<ServerConfig> limits, Scenario scenario) {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            ServerConfig config = new ServerConfig();
+            config.setAdminPort(-1);
+            config.setLogDirectory("");
+            config.setLoggerLevel(LogLevel.OFF);
+            limits.accept(config);
+            int port = freePort();
+            ServerInitializer server = new ServerInitializer(port, 50, engine, config);
+            server.startServer();
+            try {
+                scenario.run(server, port);
+            } finally {
+                server.stopServer();
+            }
+        });
+    }
+
+    private interface Scenario {
+        void run(ServerInitializer server, int port) throws Exception;
+    }
+
+    /**
+     * Cliente LEGACY de prueba. Al conectarse espera a aparecer en la lista de clientes,
+     * de modo que ya recibe las difusiones.
+     */
+    private static final class Client implements Closeable {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        Client(int port, String name) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(10_000);
+            out = new DataOutputStream(socket.getOutputStream());
+            in = new DataInputStream(socket.getInputStream());
+            send(name);
+            String frame;
+            do {
+                frame = read();
+            } while (!frame.contains(RosterService.SNAPSHOT_PREFIX + name + "\n"));
+        }
+
+        void send(String... messages) throws IOException {
+            for (String message : messages) {
+                out.writeUTF(message);
+            }
+            out.flush();
+        }
+
+        String read() throws IOException {
+            return in.readUTF();
+        }
+
+        /**
+         * Lee hasta la trama indicada, incluida.
+         * @return Las tramas leídas, sin las listas de clientes.
+         */
+        List<String> readUntil(String last) throws IOException {
+            List<String> frames = new ArrayList<>();
+            String frame;
+            do {
+                frame = read();
+                if (!frame.startsWith(RosterService.SNAPSHOT_PREFIX)) {
+                    frames.add(frame);
+                }
+            } while (!frame.equals(last));
+            return frames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
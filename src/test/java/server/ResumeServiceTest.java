@@ -0,0 +1,251 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de las sesiones reanudables: reclamar el token, reenvío de lo perdido desde
+ * el buffer de retención o desde el disco, resincronización cuando el hueco no se puede
+ * cubrir, caducidad de las sesiones y sustitución de la conexión anterior.
+ */
+class ResumeServiceTest {
+    @TempDir
+    Path directory;
+
+    private final ClientRegistry targets = new ClientRegistry();
+    private final HistoryRing history = new HistoryRing(16);
+    private MessageLog log;
+
+    @AfterEach
+    void close() {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    @Test
+    void claimReturnsTheSessionOnlyOnceAndOnlyForItsName() {
+        ResumeService resume = new ResumeService(memoryPublisher(16), config());
+        TestConnection client = new TestConnection("ana", WireProtocol.V2);
+        resume.attach(client);
+        String token = token(client);
+        resume.detach(client, Set.of("sala"));
+
+        assertNull(resume.claim(token, "otro"), "El token es de otro nombre");
+        assertNull(resume.claim("desconocido", "ana"));
+        assertNull(resume.claim(null, "ana"));
+        ResumeService.ResumableSession session = resume.claim(token, "ana");
+        assertNotNull(session);
+        assertEquals(Set.of("sala"), resume.rooms(session));
+        assertNull(resume.claim(token, "ana"), "Un token solo se reclama una vez");
+
+        resume.restore(session);
+        assertNotNull(resume.claim(token, "ana"), "La sesión devuelta se puede volver a reclamar");
+    }
+
+    @Test
+    void replaysFromRetentionOnlyTheLobbyAndTheClientRooms() {
+        MessagePublisher publisher = memoryPublisher(16);
+        publisher.publish(MessageLog.LOBBY, Frame.of("uno"), targets, history);
+        publisher.publish("sala", Frame.of("dos"), targets, history);
+        publisher.publish("otra", Frame.of("tres"), targets, history);
+        publisher.publish(MessageLog.LOBBY, Frame.of("cuatro"), targets, history);
+        ResumeService resume = new ResumeService(publisher, config());
+        TestConnection client = new TestConnection("ana", WireProtocol.V2);
+
+        assertTrue(catchUp(publisher, resume, client, 1, Set.of("sala")));
+        assertEquals(List.of(ResumeService.RESUMED_PREFIX + "2-4", "dos", "cuatro"), client.texts());
+
+        TestConnection upToDate = new TestConnection("eva", WireProtocol.V2);
+        assertTrue(catchUp(publisher, resume, upToDate, 4));
+        assertTrue(upToDate.texts().isEmpty(), "No se perdió nada");
+    }
+
+    @Test
+    void resyncsWhenTheGapCannotBeCovered() {
+        MessagePublisher publisher = memoryPublisher(2);
+        for (int i = 1; i <= 5; i++) {
+            publisher.publish(MessageLog.LOBBY, Frame.of("mensaje " + i), targets, history);
+        }
+        ResumeService resume = new ResumeService(publisher, config());
+        TestConnection client = new TestConnection("ana", WireProtocol.V2);
+
+        assertFalse(catchUp(publisher, resume, client, 9), "Secuencia posterior a la última publicada");
+        assertFalse(catchUp(publisher, resume, client, -1));
+        assertFalse(catchUp(publisher, resume, client, 2), "Sin registro en disco, 3 ya no está en memoria");
+        assertTrue(client.texts().isEmpty());
+        assertTrue(catchUp(publisher, resume, client, 3));
+        assertEquals(List.of(ResumeService.RESUMED_PREFIX + "4-5", "mensaje 4", "mensaje 5"), client.texts());
+    }
+
+    @Test
+    void resyncsWhenTheDiskGapIsLargerThanTheLimit() {
+        MessagePublisher publisher = persistentPublisher(16, 1);
+        log.start();
+        for (int i = 1; i <= 5; i++) {
+            publishPersisted(publisher, "mensaje " + i);
+        }
+        ServerConfig config = config();
+        config.setResumeMaxGap(2);
+        ResumeService resume = new ResumeService(publisher, config);
+
+        assertFalse(catchUp(publisher, resume, new TestConnection("ana", WireProtocol.V2), 1),
+                "Faltan tres mensajes en disco y el límite es dos");
+        assertTrue(catchUp(publisher, resume, new TestConnection("ana", WireProtocol.V2), 2));
+    }
+
+    @Test
+    void expiresDetachedSessionsAfterTheirTtl() throws InterruptedException {
+        ServerConfig config = config();
+        config.setResumeTtlMillis(50);
+        ResumeService resume = new ResumeService(memoryPublisher(16), config);
+        TestConnection connected = new TestConnection("ana", WireProtocol.V2);
+        TestConnection detached = new TestConnection("eva", WireProtocol.V2);
+        resume.attach(connected);
+        resume.attach(detached);
+        String token = token(detached);
+        resume.detach(detached, Set.of());
+
+        resume.expire();
+        assertEquals(2, resume.size(), "Aún no ha caducado");
+        Thread.sleep(100);
+        resume.expire();
+        assertEquals(1, resume.size(), "Las sesiones conectadas no caducan");
+        assertNull(resume.claim(token, "eva"));
+    }
+
+    @Test
+    void claimingAConnectedSessionClosesTheStaleConnection() {
+        ResumeService resume = new ResumeService(memoryPublisher(16), config());
+        TestConnection stale = new TestConnection("ana", WireProtocol.V2);
+        stale.onClose(() -> resume.detach(stale, Set.of("sala"))); // Como la baja del servicio de chat
+        resume.attach(stale);
+
+        ResumeService.ResumableSession session = resume.claim(token(stale), "ana");
+        assertNotNull(session);
+        assertTrue(stale.isClosed(), "La conexión anterior se cierra");
+        assertEquals(Set.of("sala"), resume.rooms(session), "Las salas de la conexión anterior pasan a la nueva");
+
+        TestConnection fresh = new TestConnection("ana", WireProtocol.V2);
+        resume.attach(fresh);
+        assertNotEquals(token(stale), token(fresh), "Cada saludo recibe un token nuevo");
+    }
+
+    @Test
+    void replaysFromDiskWhenTheGapIsContiguous() {
+        MessagePublisher publisher = persistentPublisher(16, 2);
+        log.start();
+        for (int i = 1; i <= 5; i++) {
+            publishPersisted(publisher, "mensaje " + i);
+        }
+        ResumeService resume = new ResumeService(publisher, config());
+        TestConnection client = new TestConnection("ana", WireProtocol.V2);
+
+        assertTrue(catchUp(publisher, resume, client, 1));
+        assertEquals(List.of(ResumeService.RESUMED_PREFIX + "2-5", "mensaje 2", "mensaje 3", "mensaje 4", "mensaje 5"),
+                client.texts());
+        assertEquals(List.of(0L, 2L, 3L, 4L, 5L), client.frames().stream().map(Frame::sequence).toList());
+    }
+
+    @Test
+    void resyncsWhenTheDiskHasAHole() {
+        // Con el buffer del escritor lleno, el registro descarta el mensaje 2 pero su secuencia ya está usada
+        MessagePublisher publisher = persistentPublisher(1, 2);
+        publisher.publish(MessageLog.LOBBY, Frame.of("mensaje 1"), targets, history);
+        publisher.publish(MessageLog.LOBBY, Frame.of("mensaje 2"), targets, history);
+        log.start();
+        awaitPersisted(1);
+        for (int i = 3; i <= 5; i++) {
+            publishPersisted(publisher, "mensaje " + i);
+        }
+        assertEquals(List.of(1L, 3L, 4L, 5L), log.read(1, 10).stream().map(LogRecord::getSequence).toList());
+        ResumeService resume = new ResumeService(publisher, config());
+
+        TestConnection beforeHole = new TestConnection("ana", WireProtocol.V2);
+        assertFalse(catchUp(publisher, resume, beforeHole, 0), "El hueco incluye la secuencia perdida");
+        assertTrue(beforeHole.texts().isEmpty(), "No se reenvía nada antes de pedir la resincronización");
+
+        TestConnection afterHole = new TestConnection("ana", WireProtocol.V2);
+        assertTrue(catchUp(publisher, resume, afterHole, 2));
+        assertEquals(List.of(ResumeService.RESUMED_PREFIX + "3-5", "mensaje 3", "mensaje 4", "mensaje 5"),
+                afterHole.texts());
+    }
+
+    private MessagePublisher memoryPublisher(int retentionSize) {
+        return new MessagePublisher(new MessageLog(config()), retentionSize, new LatencyHistogram());
+    }
+
+    /**
+     * Devuelve el token que recibió el cliente en la trama de sesión.
+     */
+    private static String token(TestConnection client) {
+        List<String> sessions = client.textsStartingWith(ResumeService.SESSION_PREFIX);
+        assertEquals(1, sessions.size());
+        return sessions.get(0).substring(ResumeService.SESSION_PREFIX.length());
+    }
+
+    private MessagePublisher persistentPublisher(int logQueueCapacity, int retentionSize) {
+        ServerConfig config = config();
+        config.setLogDirectory(directory.toString());
+        config.setLogFlushMillis(5);
+        config.setLogQueueCapacity(logQueueCapacity);
+        log = new MessageLog(config); // Cada prueba arranca el escritor cuando le conviene
+        return new MessagePublisher(log, retentionSize, new LatencyHistogram());
+    }
+
+    /**
+     * Publica un mensaje y espera a que el escritor lo copie al disco.
+     */
+    private void publishPersisted(MessagePublisher publisher, String text) {
+        Frame frame = Frame.of(text);
+        publisher.publish(MessageLog.LOBBY, frame, targets, history);
+        awaitPersisted(frame.sequence());
+    }
+
+    private void awaitPersisted(long sequence) {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            while (log.read(sequence, 1).isEmpty()) {
+                Thread.sleep(5);
+            }
+        });
+    }
+
+    private static boolean catchUp(MessagePublisher publisher, ResumeService resume, ClientConnection client,
+                                   long lastSequence) {
+        return catchUp(publisher, resume, client, lastSequence, Set.of());
+    }
+
+    /**
+     * Llama a catchUp con el cerrojo del publicador tomado, como el registro de un cliente.
+     */
+    private static boolean catchUp(MessagePublisher publisher, ResumeService resume, ClientConnection client,
+                                   long lastSequence, Set<String> rooms) {
+        publisher.lock();
+        try {
+            return resume.catchUp(client, lastSequence, rooms);
+        } finally {
+            publisher.unlock();
+        }
+    }
+
+    private static ServerConfig config() {
+        ServerConfig config = new ServerConfig();
+        config.setLogDirectory("");
+        config.setLoggerLevel(LogLevel.OFF);
+        return config;
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de las salas: altas y bajas, lista de salas, mensajes que solo llegan a los
+ * miembros, historial al unirse y limpieza de las salas al desconectarse un cliente.
+ */
+class RoomServiceTest {
+    private final ClientRegistry registry = new ClientRegistry();
+    private final MessagePublisher publisher = new MessagePublisher(new MessageLog(config()), 16, new LatencyHistogram());
+    private final RoomService rooms = new RoomService(registry, publisher, 4);
+
+    @Test
+    void joinAndLeaveUpdateTheRoomList() {
+        TestConnection ana = connect("ana");
+        TestConnection luis = connect("luis");
+
+        rooms.join(ana, "sala");
+        rooms.join(luis, "sala");
+        rooms.join(luis, "otra");
+        assertEquals(List.of(RoomService.JOINED_PREFIX + "sala"), ana.texts());
+        assertEquals(Set.of("sala", "otra"), rooms.roomsOf(luis));
+        rooms.sendList(ana);
+        assertEquals(RoomService.LIST_PREFIX + "\notra\t1\nsala\t2\n", last(ana));
+
+        rooms.leave(luis, "otra");
+        assertEquals(RoomService.LEFT_PREFIX + "otra", last(luis));
+        assertEquals(1, rooms.size(), "La sala vacía se elimina");
+        rooms.leave(luis, "otra");
+        assertEquals(ChatService.ERROR_PREFIX + "No perteneces a la sala otra", last(luis));
+        rooms.sendList(ana);
+        assertEquals(RoomService.LIST_PREFIX + "\nsala\t2\n", last(ana));
+    }
+
+    @Test
+    void messagesReachOnlyTheRoomMembers() {
+        TestConnection ana = connect("ana");
+        TestConnection luis = connect("luis");
+        TestConnection eva = connect("eva");
+        rooms.join(ana, "sala");
+        rooms.join(luis, "sala");
+        rooms.join(eva, "otra");
+        ana.clear();
+        luis.clear();
+        eva.clear();
+
+        rooms.send(ana, "sala", "hola");
+        assertEquals(List.of("[sala] ana: hola"), ana.texts());
+        assertEquals(List.of("[sala] ana: hola"), luis.texts());
+        assertTrue(eva.texts().isEmpty());
+
+        rooms.send(eva, "sala", "¿puedo?");
+        assertEquals(List.of(ChatService.ERROR_PREFIX + "No perteneces a la sala sala"), eva.texts());
+        assertEquals(1, luis.texts().size());
+    }
+
+    @Test
+    void joiningReplaysTheRoomHistory() {
+        TestConnection ana = connect("ana");
+        rooms.join(ana, "sala");
+        for (int i = 1; i <= 6; i++) {
+            rooms.send(ana, "sala", "mensaje " + i);
+        }
+
+        TestConnection luis = connect("luis");
+        rooms.join(luis, "sala");
+        assertEquals(List.of(RoomService.JOINED_PREFIX + "sala", "[sala] ana: mensaje 3", "[sala] ana: mensaje 4",
+                "[sala] ana: mensaje 5", "[sala] ana: mensaje 6"), luis.texts(), "Los últimos mensajes, en orden");
+
+        rooms.leave(ana, "sala");
+        rooms.leave(luis, "sala");
+        TestConnection eva = connect("eva");
+        rooms.join(eva, "sala");
+        assertEquals(List.of(RoomService.JOINED_PREFIX + "sala"), eva.texts(), "La sala se creó de nuevo, sin historial");
+    }
+
+    @Test
+    void leaveAllRemovesTheClientFromItsRoomsOnly() {
+        TestConnection ana = connect("ana");
+        TestConnection luis = connect("luis");
+        rooms.join(ana, "a");
+        rooms.join(ana, "b");
+        rooms.join(luis, "b");
+        rooms.join(luis, "c");
+
+        assertEquals(Set.of("a", "b"), rooms.leaveAll(ana));
+        assertTrue(rooms.roomsOf(ana).isEmpty());
+        assertEquals(Set.of(), rooms.leaveAll(ana), "La segunda baja no hace nada");
+        assertEquals(2, rooms.size());
+        rooms.sendList(luis);
+        assertEquals(RoomService.LIST_PREFIX + "\nb\t1\nc\t1\n", last(luis));
+
+        luis.clear();
+        rooms.send(luis, "b", "¿hay alguien?");
+        assertEquals(List.of("[b] luis: ¿hay alguien?"), luis.texts());
+    }
+
+    @Test
+    void rejectsInvalidNamesRepeatedJoinsAndDisconnectedClients() {
+        TestConnection ana = connect("ana");
+        rooms.join(ana, "");
+        rooms.join(ana, "con espacio");
+        rooms.join(ana, "x".repeat(RoomService.MAX_NAME_LENGTH + 1));
+        assertEquals(3, ana.textsStartingWith(ChatService.ERROR_PREFIX + "Nombre de sala no válido").size());
+
+        rooms.join(ana, "sala");
+        rooms.join(ana, "sala");
+        assertEquals(ChatService.ERROR_PREFIX + "Ya perteneces a la sala sala", last(ana));
+
+        TestConnection gone = new TestConnection("ido"); // No está en el registro
+        rooms.join(gone, "sala");
+        assertTrue(gone.texts().isEmpty());
+        rooms.sendList(ana);
+        assertEquals(RoomService.LIST_PREFIX + "\nsala\t1\n", last(ana));
+    }
+
+    private TestConnection connect(String name) {
+        TestConnection client = new TestConnection(name);
+        registry.add(client);
+        return client;
+    }
+
+    private static String last(TestConnection client) {
+        List<String> texts = client.texts();
+        return texts.get(texts.size() - 1);
+    }
+
+    private static ServerConfig config() {
+        ServerConfig config = new ServerConfig();
+        config.setLogDirectory("");
+        return config;
+    }
+}
@@ -0,0 +1,146 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de la publicación de la lista de clientes: difusión paralela y formato
+ * de las tramas según el protocolo del cliente.
+ */
+class RosterServiceTest {
+    private final ClientRegistry registry = new ClientRegistry(2, 1);
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final RosterService roster = new RosterService(registry, scheduler, 10);
+
+    @AfterEach
+    void close() {
+        registry.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void aClientLeavingDuringTheDeltaBroadcastDoesNotBlockIt() throws InterruptedException {
+        // Un hilo de reparto da de baja a un cliente mientras se difunde el delta, como
+        // hacía el cierre síncrono de un cliente lento con la política DISCONNECT
+        TestClient observer = new TestClient("observador", 0, null);
+        TestClient leaving = new TestClient("lento", 1, roster);
+        registry.add(observer);
+        registry.add(leaving);
+        roster.joined(observer);
+        roster.joined(leaving);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertTrue(leaving.left.await(5, TimeUnit.SECONDS), "La baja no pudo tomar el cerrojo de la lista");
+            assertTrue(observer.delta.await(5, TimeUnit.SECONDS), "No llegó el delta");
+        });
+        assertEquals(1, roster.getVersion());
+    }
+
+    @Test
+    void legacyClientsGetTheUnversionedListAndV2ClientsTheDeltas() {
+        TestConnection legacy = new TestConnection("antiguo", WireProtocol.LEGACY);
+        TestConnection v2 = new TestConnection("nuevo", 1, WireProtocol.V2);
+        registry.add(legacy);
+        roster.joined(legacy);
+        awaitFrames(legacy, 1);
+        registry.add(v2);
+        roster.joined(v2);
+        awaitFrames(legacy, 2);
+        awaitFrames(v2, 2);
+
+        assertEquals(List.of(Set.of("Lista_clientes:antiguo"), Set.of("Lista_clientes:antiguo", "Lista_clientes:nuevo")),
+                List.of(lines(legacy.texts().get(0)), lines(legacy.texts().get(1))),
+                "Lista completa sin versión con su alta y con cada cambio");
+        assertEquals(List.of("Lista_clientes:#1\nantiguo\n", "Lista_delta:#2\n+nuevo\n"), v2.texts());
+
+        legacy.clear();
+        v2.clear();
+        roster.sendSnapshot(legacy);
+        roster.sendSnapshot(v2);
+        assertEquals(Set.of("Lista_clientes:antiguo", "Lista_clientes:nuevo"), lines(legacy.texts().get(0)));
+        assertEquals(Set.of("Lista_clientes:#2", "antiguo", "nuevo"), lines(v2.texts().get(0)));
+    }
+
+    private static void awaitFrames(TestConnection client, int count) {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            while (client.texts().size() < count) {
+                Thread.sleep(5);
+            }
+        });
+    }
+
+    /**
+     * Devuelve las líneas de una trama de la lista, sin importar su orden.
+     */
+    private static Set<String> lines(String text) {
+        assertTrue(text.endsWith("\n"), text);
+        return Set.of(text.split("\n"));
+    }
+
+    /**
+     * Cliente de prueba en una partición fija. Si tiene lista, se da de baja al recibir
+     * el primer delta, desde el hilo que se lo entrega.
+     */
+    private static final class TestClient implements ClientConnection {
+        private final String name;
+        private final int shard;
+        private final RosterService roster;
+        private final OutboundQueue queue = new OutboundQueue(16, 1 << 20, OverflowPolicy.DROP_OLDEST, 0);
+        private final CountDownLatch delta = new CountDownLatch(1);
+        private final CountDownLatch left = new CountDownLatch(1);
+
+        TestClient(String name, int shard, RosterService roster) {
+            this.name = name;
+            this.shard = shard;
+            this.roster = roster;
+        }
+
+        @Override
+        public String getClientName() {
+            return name;
+        }
+
+        @Override
+        public void enqueue(Frame frame) {
+            if (!frame.text().startsWith(RosterService.DELTA_PREFIX)) {
+                return;
+            }
+            if (roster != null && left.getCount() > 0) {
+                roster.left(this);
+                left.countDown();
+            }
+            delta.countDown();
+        }
+
+        @Override
+        public OutboundQueue getOutboundQueue() {
+            return queue;
+        }
+
+        @Override
+        public void closeConnection() {
+        }
+
+        @Override
+        public int getShard() {
+            return shard;
+        }
+
+        @Override
+        public WireProtocol getProtocol() {
+            return WireProtocol.V2;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Pruebas de las capas de opciones del lanzador: las propiedades del sistema y el
+ * entorno desconocidos solo se avisan, la línea de órdenes desconocida es un error.
+ */
+class ServerOptionsTest {
+    @Test
+    void unknownSystemPropertiesAreSkipped() {
+        Properties system = new Properties();
+        system.setProperty("chat.port", "2100");
+        system.setProperty("chat.maxQueuedMessages", "64");
+        system.setProperty("chat.opcionQueNoExiste", "1");
+        ServerOptions options = ServerOptions.load(new String[0], Map.of("CHAT_OTRA_OPCION", "2"), system);
+        assertEquals(2100, options.getPort());
+        assertEquals(64, options.getConfig().getMaxQueuedMessages());
+    }
+
+    @Test
+    void unknownCommandLineOptionsAreErrors() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerOptions.load(new String[] {"--opcion-que-no-existe", "1"}, Map.of(), new Properties()));
+    }
+}
@@ -0,0 +1,145 @@
+package server;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Desconexión de clientes lentos (política DISCONNECT) con difusión paralela, en los
+ * dos motores. Los clientes lentos no leen nada; mientras se difunden mensajes de chat
+ * otros clientes entran y salen para que también se difundan deltas de la lista. El
+ * servidor debe desconectar a los lentos, seguir entregando mensajes y poder pararse.
+ */
+class SlowClientDisconnectTest {
+    private static final int SLOW_CLIENTS = 4;
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void slowClientsAreDisconnectedWithoutBlockingTheFanOut(ServerEngine engine) {
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> run(engine));
+    }
+
+    private void run(ServerEngine engine) throws Exception {
+        int port = freePort();
+        ServerConfig config = new ServerConfig();
+        config.setOverflowPolicy(OverflowPolicy.DISCONNECT);
+        config.setOverflowGraceMillis(200); // Los que leen no llegan a estar tanto tiempo con la cola llena
+        config.setMaxQueuedMessages(64);
+        config.setSendBufferSize(4096);
+        config.setParallelFanOutThreshold(1);
+        config.setRegistryShards(4);
+        config.setEventLoops(4);
+        config.setAdminPort(-1);
+        config.setLogDirectory("");
+        config.setShedQueueBytes(0);
+        config.setShedFanOutMicros(0);
+        config.setLoggerLevel(LogLevel.ERROR);
+        ServerInitializer server = new ServerInitializer(port, 128, engine, config);
+        server.startServer();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < SLOW_CLIENTS; i++) {
+                Socket slow = new Socket();
+                slow.setReceiveBufferSize(2048);
+                slow.connect(new InetSocketAddress("127.0.0.1", port));
+                sockets.add(slow);
+                new DataOutputStream(slow.getOutputStream()).writeUTF("lento" + i); // Y nunca lee
+            }
+            Socket reader = connect(port, "lector", sockets);
+            CountDownLatch finished = drain(reader);
+            Socket writer = connect(port, "escritor", sockets);
+            drain(writer);
+            awaitActive(server, SLOW_CLIENTS + 2);
+
+            DataOutputStream out = new DataOutputStream(writer.getOutputStream());
+            String payload = "x".repeat(2000);
+            long disconnected = OutboundQueue.totalDisconnected();
+            for (int i = 0; i < 200 || OutboundQueue.totalDisconnected() - disconnected < SLOW_CLIENTS; i++) {
+                out.writeUTF("mensaje " + i + " " + payload);
+                if (i % 10 == 0) {
+                    Thread.sleep(1); // Sin dar tiempo a los lectores, también ellos serían lentos
+                }
+                if (i % 50 == 0) {
+                    Socket churn = connect(port, "entra" + i, sockets); // Deltas de la lista en pleno reparto
+                    churn.close();
+                }
+            }
+            // Durante la gracia de DISCONNECT lo que no cabe en la cola se descarta: si el
+            // lector se retrasó, "fin" puede perderse y se repite hasta que llegue
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            do {
+                assertTrue(System.nanoTime() < deadline, "El lector no recibió el último mensaje");
+                out.writeUTF("fin");
+                out.flush();
+            } while (!finished.await(100, TimeUnit.MILLISECONDS));
+            awaitActive(server, 2);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.stopServer();
+        }
+    }
+
+    private static Socket connect(int port, String name, List<Socket> sockets) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        sockets.add(socket);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(name);
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * Lee todo lo que llegue al cliente en un hilo aparte.
+     * @return Se abre al recibir el mensaje "fin".
+     */
+    private static CountDownLatch drain(Socket socket) throws IOException {
+        CountDownLatch finished = new CountDownLatch(1);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    if (in.readUTF().endsWith(": fin")) {
+                        finished.countDown();
+                    }
+                }
+            } catch (IOException e) {
+                // Fin de la prueba
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return finished;
+    }
+
+    private static void awaitActive(ServerInitializer server, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (server.getMetrics().getActiveConnections() != expected) {
+            assertTrue(System.nanoTime() < deadline, "Clientes registrados: "
+                    + server.getMetrics().getActiveConnections() + ", se esperaban " + expected);
+            Thread.sleep(10);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
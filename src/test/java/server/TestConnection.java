@@ -0,0 +1,110 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conexión en memoria para las pruebas de los servicios: guarda las tramas que recibe
+ * (y su texto en el momento de recibirlas) y cuenta los cierres.
+ */
+class TestConnection implements ClientConnection {
+    private final String name; // Nombre del cliente, null si no completó el saludo
+    private final int shard; // Partición del registro
+    private final WireProtocol protocol; // Protocolo que negoció el cliente
+    private final OutboundQueue queue = new OutboundQueue(1024, 1 << 24, OverflowPolicy.DROP_OLDEST, 0);
+    private final List<Frame> frames = new CopyOnWriteArrayList<>(); // Tramas recibidas, en orden
+    private final List<String> texts = new CopyOnWriteArrayList<>(); // Texto de cada trama recibida
+    private final AtomicInteger closes = new AtomicInteger(); // Llamadas a closeConnection
+    private volatile Runnable onClose; // Lo que hace el servidor al cerrar la conexión
+
+    TestConnection(String name) {
+        this(name, 0);
+    }
+
+    TestConnection(String name, int shard) {
+        this(name, shard, WireProtocol.LEGACY);
+    }
+
+    TestConnection(String name, WireProtocol protocol) {
+        this(name, 0, protocol);
+    }
+
+    TestConnection(String name, int shard, WireProtocol protocol) {
+        this.name = name;
+        this.shard = shard;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Indica qué hacer al cerrar la conexión (la baja en el servicio, como el motor real).
+     */
+    TestConnection onClose(Runnable onClose) {
+        this.onClose = onClose;
+        return this;
+    }
+
+    @Override
+    public String getClientName() {
+        return name;
+    }
+
+    @Override
+    public void enqueue(Frame frame) {
+        frames.add(frame);
+        texts.add(frame.text());
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+
+    @Override
+    public void closeConnection() {
+        if (closes.getAndIncrement() == 0 && onClose != null) {
+            onClose.run();
+        }
+    }
+
+    @Override
+    public int getShard() {
+        return shard;
+    }
+
+    @Override
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
+    List<Frame> frames() {
+        return frames;
+    }
+
+    List<String> texts() {
+        return texts;
+    }
+
+    /**
+     * Devuelve los textos recibidos que empiezan por el prefijo indicado.
+     */
+    List<String> textsStartingWith(String prefix) {
+        List<String> matching = new ArrayList<>();
+        for (String text : texts) {
+            if (text.startsWith(prefix)) {
+                matching.add(text);
+            }
+        }
+        return matching;
+    }
+
+    boolean isClosed() {
+        return closes.get() > 0;
+    }
+
+    void clear() {
+        frames.clear();
+        texts.clear();
+    }
+}
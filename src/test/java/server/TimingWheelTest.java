@@ -0,0 +1,87 @@
+package server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de la rueda de temporización: vencimiento, plazos de más de una vuelta,
+ * cancelación y reprogramación. Los plazos se miden con el reloj de la propia rueda
+ * (now), que avanza un tick cada vez: con el hilo de la rueda retrasado el reloj de
+ * pared no sirve para saber en qué tick venció un plazo.
+ */
+class TimingWheelTest {
+    private static final long TICK = 5;
+
+    private final TimingWheel wheel = new TimingWheel(TICK, 8, "timing-wheel-test");
+
+    @AfterEach
+    void stop() {
+        wheel.stop();
+    }
+
+    @Test
+    void expiresAfterTheDelay() throws InterruptedException {
+        Latch timeout = new Latch();
+        long scheduledAt = wheel.now();
+        wheel.schedule(timeout, 30);
+        assertTrue(timeout.await(2000));
+        assertTrue(timeout.expiredAt - scheduledAt >= 30, "Venció en " + (timeout.expiredAt - scheduledAt));
+    }
+
+    @Test
+    void waitsTheMissingRounds() throws InterruptedException {
+        Latch timeout = new Latch();
+        long scheduledAt = wheel.now();
+        wheel.schedule(timeout, 200); // Cinco vueltas de una rueda de 8 cubetas de 5 ms
+        assertTrue(timeout.await(2000));
+        assertTrue(timeout.expiredAt - scheduledAt >= 200, "Venció en " + (timeout.expiredAt - scheduledAt));
+        assertEquals(1, timeout.fired.get());
+    }
+
+    @Test
+    void cancelledTimeoutsDoNotExpire() throws InterruptedException {
+        Latch cancelled = new Latch();
+        Latch control = new Latch();
+        wheel.schedule(cancelled, 20);
+        wheel.schedule(control, 60);
+        wheel.cancel(cancelled);
+        assertTrue(control.await(2000));
+        assertEquals(0, cancelled.fired.get());
+    }
+
+    @Test
+    void reschedulingMovesTheTimeout() throws InterruptedException {
+        Latch timeout = new Latch();
+        wheel.schedule(timeout, 20);
+        long scheduledAt = wheel.now();
+        wheel.schedule(timeout, 150);
+        assertTrue(timeout.await(2000));
+        assertTrue(timeout.expiredAt - scheduledAt >= 150, "Venció en " + (timeout.expiredAt - scheduledAt));
+        Thread.sleep(50);
+        assertEquals(1, timeout.fired.get());
+    }
+
+    private final class Latch extends TimingWheel.Timeout {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicInteger fired = new AtomicInteger();
+        private volatile long expiredAt; // Reloj de la rueda al vencer
+
+        @Override
+        protected void expired() {
+            expiredAt = wheel.now();
+            fired.incrementAndGet();
+            latch.countDown();
+        }
+
+        boolean await(long millis) throws InterruptedException {
+            return latch.await(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package server;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de TLS en los dos motores con un almacén PKCS12 generado para la prueba:
+ * los mensajes llegan cifrados, una segunda conexión con el mismo contexto de cliente
+ * reanuda la sesión y un cliente en claro cuenta como saludo fallido.
+ */
+class TlsResumptionTest {
+    private static final String PASSWORD = "cambiame";
+
+    @TempDir
+    static Path directory;
+    private static Path keyStore;
+
+    @BeforeAll
+    static void generateKeyStore() throws Exception {
+        keyStore = directory.resolve("chat.p12");
+        Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "chat",
+                "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS), "keytool no terminó");
+        assertEquals(0, process.exitValue(), output);
+        assertTrue(Files.size(keyStore) > 0);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void secondConnectionResumesTheSession(ServerEngine engine) {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int port = freePort();
+            ServerInitializer server = new ServerInitializer(port, 50, engine, tlsConfig());
+            server.startServer();
+            try {
+                SSLContext client = clientContext(); // Guarda las sesiones entre conexiones
+                try (SSLSocket reader = open(client, port, "lector"); SSLSocket writer = open(client, port, "escritor")) {
+                    DataInputStream in = new DataInputStream(reader.getInputStream());
+                    new DataOutputStream(writer.getOutputStream()).writeUTF("hola por TLS");
+                    String message;
+                    do {
+                        message = in.readUTF();
+                    } while (message.startsWith(RosterService.SNAPSHOT_PREFIX));
+                    assertEquals("escritor: hola por TLS", message);
+                }
+                ServerMetrics metrics = server.getMetrics();
+                assertEquals(2, metrics.getTlsHandshakes());
+                assertEquals(1, metrics.getTlsResumed(), "La segunda conexión reanuda la sesión de la primera");
+
+                open(client, port, "otra vez").close();
+                assertEquals(3, metrics.getTlsHandshakes());
+                assertEquals(2, metrics.getTlsResumed());
+
+                open(clientContext(), port, "nuevo").close();
+                assertEquals(2, metrics.getTlsResumed(), "Un contexto nuevo hace el saludo completo");
+            } finally {
+                server.stopServer();
+            }
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerEngine.class)
+    void plainClientCountsAsAFailedHandshake(ServerEngine engine) {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            int port = freePort();
+            ServerInitializer server = new ServerInitializer(port, 50, engine, tlsConfig());
+            server.startServer();
+            try (Socket plain = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                new DataOutputStream(plain.getOutputStream()).writeUTF("en claro");
+                InputStream in = plain.getInputStream();
+                try {
+                    while (in.read() >= 0) {
+                        // Descarta la alerta TLS hasta que el servidor cierra
+                    }
+                } catch (IOException e) {
+                    // El servidor puede cerrar con un reset
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (server.getMetrics().getTlsFailures() == 0) {
+                    assertTrue(System.nanoTime() < deadline, "No se contó el saludo fallido");
+                    Thread.sleep(10);
+                }
+                assertEquals(0, server.getMetrics().getTlsHandshakes());
+            } finally {
+                server.stopServer();
+            }
+        });
+    }
+
+    private static ServerConfig tlsConfig() {
+        ServerConfig config = new ServerConfig();
+        config.setAdminPort(-1);
+        config.setLogDirectory("");
+        config.setLoggerLevel(LogLevel.OFF);
+        config.setTlsKeyStore(keyStore.toString());
+        config.setTlsKeyStorePassword(PASSWORD);
+        return config;
+    }
+
+    /**
+     * Contexto de cliente que confía en el certificado generado.
+     */
+    private static SSLContext clientContext() throws Exception {
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(trusted);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    /**
+     * Abre una conexión TLS, envía el nombre y espera la primera trama (la lista de
+     * clientes). En TLS 1.3 la sesión reanudable llega después del saludo: leer del
+     * socket la procesa antes de abrir la conexión siguiente.
+     */
+    private static SSLSocket open(SSLContext context, int port, String name) throws IOException {
+        SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), port);
+        socket.startHandshake();
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(name);
+        out.flush();
+        new DataInputStream(socket.getInputStream()).readUTF();
+        return socket;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas del cubo de fichas: ráfaga inicial, espera hasta la recarga, devolución
+ * de fichas y peticiones mayores que la capacidad.
+ */
+class TokenBucketTest {
+    @Test
+    void allowsTheBurstAndThenAsksToWait() {
+        TokenBucket bucket = new TokenBucket(10, 5); // Una ficha cada 100 ms
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(1));
+        }
+        long wait = bucket.tryAcquire(1);
+        assertTrue(wait > 0 && wait <= 100_000_000L, "Espera de " + wait + " ns");
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 2);
+        assertEquals(0, bucket.tryAcquire(2));
+        assertTrue(bucket.tryAcquire(1) > 0);
+        Thread.sleep(30); // Más de lo que tarda en recargarse una ficha (10 ms)
+        assertEquals(0, bucket.tryAcquire(1));
+    }
+
+    @Test
+    void refundedTokensCanBeTakenAgain() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+        assertEquals(0, bucket.tryAcquire(3));
+        assertTrue(bucket.tryAcquire(1) > 0);
+        bucket.refund(1);
+        assertEquals(0, bucket.tryAcquire(1));
+    }
+
+    @Test
+    void largeRequestsAreServedWhenTheBucketIsFull() {
+        TokenBucket bucket = new TokenBucket(1000, 10);
+        assertEquals(0, bucket.tryAcquire(1_000_000));
+        assertTrue(bucket.tryAcquire(1) > 0);
+    }
+
+    @Test
+    void rejectsNonPositiveRates() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+    }
+}
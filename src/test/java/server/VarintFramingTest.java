@@ -0,0 +1,131 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Pruebas de las longitudes varint de las tramas V2: codificación en los límites de
+ * cada longitud y lectura de tramas con Session sobre flujos en memoria.
+ */
+class VarintFramingTest {
+    @Test
+    void varintLengthsAtTheBoundaries() {
+        assertEquals(1, FrameCodec.varintLength(0));
+        assertEquals(1, FrameCodec.varintLength(127));
+        assertEquals(2, FrameCodec.varintLength(128));
+        assertEquals(2, FrameCodec.varintLength(16383));
+        assertEquals(3, FrameCodec.varintLength(16384));
+        assertEquals(5, FrameCodec.varintLength(Integer.MAX_VALUE));
+        assertEquals(9, FrameCodec.varintLength(Long.MAX_VALUE));
+    }
+
+    @Test
+    void writeVarintUsesLeb128() {
+        byte[] target = new byte[5];
+        assertEquals(2, FrameCodec.writeVarint(target, 0, 300));
+        assertEquals((byte) 0xAC, target[0]);
+        assertEquals((byte) 0x02, target[1]);
+    }
+
+    @Test
+    void sessionReadsV2Frames() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        String large = "x".repeat(20_000) + " ñ"; // Longitud de tres bytes y mayor que el buffer de lectura
+        wire.write(FrameCodec.encodeV2(FrameType.CHAT, "hola".getBytes(StandardCharsets.UTF_8)));
+        wire.write(FrameCodec.encodeV2(FrameType.CHAT, large.getBytes(StandardCharsets.UTF_8)));
+        wire.write(FrameCodec.encodeV2(FrameType.CHAT, new byte[0]));
+        wire.write(FrameCodec.encodeV2(FrameType.CONTROL, "fin".getBytes(StandardCharsets.UTF_8)));
+
+        Session session = v2Session(wire.toByteArray());
+        assertEquals("hola", session.read());
+        assertEquals(large, session.read());
+        assertEquals("", session.read());
+        Frame control = session.readFrame();
+        assertEquals(FrameType.CONTROL, control.type());
+        assertEquals("fin", control.text());
+    }
+
+    @Test
+    void writtenFramesReadBack() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Session writer = new Session(null, new ByteArrayInputStream(new byte[0]), wire);
+        writer.setProtocol(WireProtocol.V2);
+        writer.write("primero");
+        writer.write("segundo " + "y".repeat(300));
+
+        Session reader = v2Session(wire.toByteArray());
+        assertEquals("primero", reader.read());
+        assertEquals("segundo " + "y".repeat(300), reader.read());
+    }
+
+    @Test
+    void rejectsFramesOverTheLimit() {
+        byte[] frame = FrameCodec.encodeV2(FrameType.CHAT, new byte[2000]);
+        Session session = v2Session(frame);
+        session.setMaxFrameBytes(1024);
+        assertThrows(IOException.class, session::read);
+    }
+
+    @Test
+    void truncatedLargeFrameEndsTheSession() {
+        // La cabecera anuncia casi el máximo permitido, pero el cliente solo envía unos bytes
+        byte[] header = new byte[FrameCodec.MAX_V2_HEADER_LENGTH];
+        int headerLength = FrameCodec.writeVarint(header, 0, 8 * 1024 * 1024);
+        header[headerLength++] = (byte) FrameType.CHAT.code();
+        byte[] wire = Arrays.copyOf(header, headerLength + 100);
+        Session session = v2Session(wire);
+        session.setMaxFrameBytes(16 * 1024 * 1024);
+        assertThrows(EOFException.class, session::read);
+    }
+
+    @Test
+    void smallFramesAfterALargeOne() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        String large = "z".repeat(100_000);
+        wire.write(FrameCodec.encodeV2(FrameType.CHAT, large.getBytes(StandardCharsets.UTF_8)));
+        for (int i = 0; i < 3; i++) {
+            wire.write(FrameCodec.encodeV2(FrameType.CHAT, ("corto " + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        wire.write(FrameCodec.encodeV2(FrameType.CHAT, large.getBytes(StandardCharsets.UTF_8)));
+
+        Session session = v2Session(wire.toByteArray());
+        assertEquals(large, session.read());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("corto " + i, session.read());
+        }
+        assertEquals(large, session.read());
+    }
+
+    @Test
+    void rejectsVarintsLongerThanFiveBytes() {
+        byte[] frame = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F, 0};
+        assertThrows(IOException.class, v2Session(frame)::read);
+        byte[] endless = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        assertThrows(IOException.class, v2Session(endless)::read);
+    }
+
+    @Test
+    void encodeV2RoundTripsTheHeader() {
+        byte[] payload = new byte[200];
+        byte[] frame = FrameCodec.encodeV2(FrameType.CHAT, payload);
+        assertArrayEquals(new byte[] {(byte) 0xC8, 0x01, (byte) FrameType.CHAT.code()},
+                new byte[] {frame[0], frame[1], frame[2]});
+        assertEquals(3 + payload.length, frame.length);
+    }
+
+    private static Session v2Session(byte[] input) {
+        Session session = new Session(null, new ByteArrayInputStream(input), new ByteArrayOutputStream());
+        session.setProtocol(WireProtocol.V2);
+        return session;
+    }
+}